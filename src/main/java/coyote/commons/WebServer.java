@@ -34,6 +34,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.Deflater;
 
 
 /**
@@ -78,6 +79,54 @@ public class WebServer extends AbstractLoader implements Loader {
   protected static final String ENABLE_ARM = "EnableARM";
   protected static final String ENABLE_GAUGES = "EnableGauges";
   protected static final String ENABLE_TIMING = "EnableTiming";
+  /**
+   * Use the NIO (selector based) connection engine instead of a thread per connection
+   */
+  protected static final String ENABLE_NIO = "EnableNIO";
+  /**
+   * The number of selector threads the NIO engine uses to watch connections
+   */
+  protected static final String SELECTOR_THREADS = "SelectorThreads";
+  /**
+   * The number of worker threads processing requests
+   */
+  protected static final String WORKER_THREADS = "WorkerThreads";
+  /**
+   * The number of requests which may wait for a worker before being rejected
+   */
+  protected static final String WORKER_BACKLOG = "WorkerBacklog";
+  /**
+   * The threading strategy for servicing connections; "Pooled" runs them in a 
+   * bounded pool of WorkerThreads, "Virtual" runs each on a virtual thread 
+   * (pooled if not supported), otherwise a thread is created for each
+   */
+  protected static final String EXECUTOR = "Executor";
+  protected static final String POOLED = "Pooled";
+  protected static final String VIRTUAL = "Virtual";
+  /**
+   * The maximum number of bytes of static content kept in memory, 0 disables the content cache
+   */
+  protected static final String CONTENT_CACHE = "ContentCache";
+  /**
+   * Compress gzip encoded response bodies in memory, skipping small ones and caching repeated ones; also enabled by any of the options below
+   */
+  protected static final String COMPRESSION = "Compression";
+  /**
+   * The gzip compression level of response bodies, 1 (fastest) to 9 (smallest)
+   */
+  protected static final String COMPRESSION_LEVEL = "CompressionLevel";
+  /**
+   * Response bodies smaller than this number of bytes are not compressed
+   */
+  protected static final String COMPRESSION_MINIMUM = "CompressionMinimum";
+  /**
+   * The maximum number of bytes used to cache compressed response bodies
+   */
+  protected static final String COMPRESSION_CACHE = "CompressionCache";
+  /**
+   * Request bodies up to this number of bytes are held in pooled memory buffers, larger ones are spilled to disk
+   */
+  protected static final String REQUEST_BUFFER = "RequestBuffer";
   protected static final String ENDPOINTS = "Endpoints";
   protected static final String CLASS = "Class";
   protected static final String PRIORITY = "Priority";
@@ -173,6 +222,26 @@ public class WebServer extends AbstractLoader implements Loader {
         }
       }
 
+      configEngine(cfg);
+
+      if (cfg.containsIgnoreCase(CONTENT_CACHE)) {
+        try {
+          ContentCache.getInstance().setMaxBytes(cfg.getLong(CONTENT_CACHE));
+        } catch (NumberFormatException e) {
+          Log.error(CONTENT_CACHE + " configuration option was not a valid integer - ignoring");
+        }
+      }
+
+      configCompression(cfg);
+
+      if (cfg.containsIgnoreCase(REQUEST_BUFFER)) {
+        try {
+          server.setCacheManagerFactory(new PooledCacheManagerFactory(cfg.getInt(REQUEST_BUFFER), PooledCacheManagerFactory.DEFAULT_POOL_SIZE, PooledCacheManagerFactory.DEFAULT_REGION_SIZE, PooledCacheManagerFactory.DEFAULT_REGION_COUNT, getStats()));
+        } catch (NumberFormatException e) {
+          Log.error(REQUEST_BUFFER + " configuration option was not a valid integer - ignoring");
+        }
+      }
+
       if (cfg != null) {
         Config sectn = cfg.getSection(GenericAuthProvider.AUTH_SECTION);
         if (sectn != null) {
@@ -187,10 +256,14 @@ public class WebServer extends AbstractLoader implements Loader {
               }
             } else {
               Log.error("No auth class specified, using default");
-              server.setAuthProvider(new GenericAuthProvider(sectn));
+              final GenericAuthProvider provider = new GenericAuthProvider(sectn);
+              provider.setStatBoard(getStats());
+              server.setAuthProvider(provider);
             }
           } else {
-            server.setAuthProvider(new GenericAuthProvider(sectn));
+            final GenericAuthProvider provider = new GenericAuthProvider(sectn);
+            provider.setStatBoard(getStats());
+            server.setAuthProvider(provider);
           }
         }
 
@@ -259,6 +332,97 @@ public class WebServer extends AbstractLoader implements Loader {
   }
 
 
+  /**
+   * Configure the connection engine and its threading.
+   *
+   * @param cfg the server configuration
+   */
+  private void configEngine(Config cfg) {
+    try {
+      server.setNioEnabled(cfg.getBoolean(ENABLE_NIO));
+    } catch (NumberFormatException e) {
+      server.setNioEnabled(false);
+    }
+    if (cfg.containsIgnoreCase(SELECTOR_THREADS)) {
+      try {
+        server.setSelectorThreads(cfg.getInt(SELECTOR_THREADS));
+      } catch (NumberFormatException e) {
+        Log.error(SELECTOR_THREADS + " configuration option was not a valid integer - ignoring");
+      }
+    }
+    if (cfg.containsIgnoreCase(WORKER_THREADS)) {
+      try {
+        server.setWorkerThreads(cfg.getInt(WORKER_THREADS));
+      } catch (NumberFormatException e) {
+        Log.error(WORKER_THREADS + " configuration option was not a valid integer - ignoring");
+      }
+    }
+    if (cfg.containsIgnoreCase(WORKER_BACKLOG)) {
+      try {
+        server.setWorkerBacklog(cfg.getInt(WORKER_BACKLOG));
+      } catch (NumberFormatException e) {
+        Log.error(WORKER_BACKLOG + " configuration option was not a valid integer - ignoring");
+      }
+    }
+    if (cfg.containsIgnoreCase(EXECUTOR)) {
+      String executor = cfg.getString(EXECUTOR);
+      if (POOLED.equalsIgnoreCase(executor)) {
+        server.setAsyncRunner(new PooledExecutor(HTTPD.class.getSimpleName(), server.getWorkerThreads(), server.getWorkerBacklog(), getStats()));
+      } else if (VIRTUAL.equalsIgnoreCase(executor)) {
+        server.setAsyncRunner(new VirtualThreadExecutor(HTTPD.class.getSimpleName(), server.getWorkerThreads(), server.getWorkerBacklog(), getStats()));
+      } else {
+        Log.error("Unknown " + EXECUTOR + " configuration option of '" + executor + "' - using default");
+      }
+    }
+  }
+
+
+  /**
+   * Configure the compression of gzip encoded response bodies if it has been
+   * enabled; otherwise bodies are compressed as they are streamed.
+   *
+   * @param cfg the server configuration
+   */
+  private void configCompression(Config cfg) {
+    boolean enabled;
+    try {
+      enabled = cfg.getAsBoolean(COMPRESSION);
+    } catch (DataFrameException e) {
+      enabled = false;
+    }
+    enabled |= cfg.containsIgnoreCase(COMPRESSION_LEVEL) || cfg.containsIgnoreCase(COMPRESSION_MINIMUM) || cfg.containsIgnoreCase(COMPRESSION_CACHE);
+    if (!enabled) {
+      return;
+    }
+
+    int level = Deflater.DEFAULT_COMPRESSION;
+    int minimum = Compressor.DEFAULT_MINIMUM_SIZE;
+    long cacheSize = Compressor.DEFAULT_CACHE_SIZE;
+    if (cfg.containsIgnoreCase(COMPRESSION_LEVEL)) {
+      try {
+        level = cfg.getInt(COMPRESSION_LEVEL);
+      } catch (NumberFormatException e) {
+        Log.error(COMPRESSION_LEVEL + " configuration option was not a valid integer - ignoring");
+      }
+    }
+    if (cfg.containsIgnoreCase(COMPRESSION_MINIMUM)) {
+      try {
+        minimum = cfg.getInt(COMPRESSION_MINIMUM);
+      } catch (NumberFormatException e) {
+        Log.error(COMPRESSION_MINIMUM + " configuration option was not a valid integer - ignoring");
+      }
+    }
+    if (cfg.containsIgnoreCase(COMPRESSION_CACHE)) {
+      try {
+        cacheSize = cfg.getLong(COMPRESSION_CACHE);
+      } catch (NumberFormatException e) {
+        Log.error(COMPRESSION_CACHE + " configuration option was not a valid integer - ignoring");
+      }
+    }
+    server.setCompressor(new Compressor(level, minimum, cacheSize, getStats()));
+  }
+
+
   /**
    * @param args
    */
@@ -44,8 +44,14 @@ public class IpAcl {
   /** The ACL is stored in this ArrayList. */
   private final ArrayList<ACLRule> acl = new ArrayList<ACLRule>();
 
+  /** The rules indexed by their network for checks. */
+  private final IpNetworkTrie<ACLRule> index = new IpNetworkTrie<ACLRule>();
+
+  /** Rules with netmasks which are not a prefix and can not be indexed. */
+  private volatile ACLRule[] unindexed = new ACLRule[0];
+
   /** The default mode of this ACL. */
-  private boolean defaultAllow = IpAcl.DEFAULT_MODE;
+  private volatile boolean defaultAllow = IpAcl.DEFAULT_MODE;
 
   /** This is the friendly identifier of this component */
   private final String name = null;
@@ -97,8 +103,23 @@ public class IpAcl {
    * @param allowed whether or not connections from the specified network will
    *                be accepted.
    */
-  public void add(final IpNetwork network, final boolean allowed) {
-    acl.add(new ACLRule(network, allowed));
+  public synchronized void add(final IpNetwork network, final boolean allowed) {
+    final ACLRule rule = new ACLRule(network, allowed, acl.size());
+    acl.add(rule);
+
+    final int bits = network.getPrefixLength();
+    if (bits < 0) {
+      final ACLRule[] rules = new ACLRule[unindexed.length + 1];
+      System.arraycopy(unindexed, 0, rules, 0, unindexed.length);
+      rules[unindexed.length] = rule;
+      unindexed = rules;
+    } else {
+      final byte[] bytes = network.getBytes();
+      // an earlier rule for the same network always matches first
+      if (index.get(bytes, bits) == null) {
+        index.put(bytes, bits, rule);
+      }
+    }
   }
 
 
@@ -122,6 +143,47 @@ public class IpAcl {
 
 
 
+  /**
+   * Test to see if this ACL allows the address with the given bytes.
+   *
+   * <p>This does not lock and takes one step for each bit of the address
+   * regardless of the number of rules, so it can be called for every
+   * connection.
+   *
+   * <p>The default mode only applies to IPv4 addresses. Any other address,
+   * such as an IPv6 client, is denied unless a rule allows it, as such
+   * addresses have always been refused.
+   *
+   * @param addr the bytes of the address in network byte order, as returned
+   *        by {@code InetAddress.getAddress()}
+   *
+   * @return whether the address was permitted by the ACL
+   */
+  public boolean allows(final byte[] addr) {
+    ACLRule match = index.first(addr);
+
+    // rules which could not be indexed only matter if they came first
+    for (final ACLRule rule : unindexed) {
+      if ((match != null) && (rule.position > match.position)) {
+        break;
+      }
+      if (rule.network.contains(addr)) {
+        match = rule;
+        break;
+      }
+    }
+
+    if (match != null) {
+      return match.allows;
+    }
+
+    // We have gone through all the rules without a match, return the default
+    return defaultAllow && (addr.length == IpAddress.IP4_OCTETS);
+  }
+
+
+
+
   /**
    * Test to see if this ACL allows the given InetAddress.
    *
@@ -129,10 +191,10 @@ public class IpAcl {
    *
    * @return whether the address was permitted by the ACL
    */
-  public synchronized boolean allows(final InetAddress addr) {
-    try {
-      return allows(new IpAddress(addr.getHostAddress()));
-    } catch (final Exception e) {}
+  public boolean allows(final InetAddress addr) {
+    if (addr != null) {
+      return allows(addr.getAddress());
+    }
 
     return false;
   }
@@ -151,17 +213,8 @@ public class IpAcl {
    *
    * @return whether the address was permitted by the ACL
    */
-  public synchronized boolean allows(final IpAddress addr) {
-    for (int i = 0; i < acl.size(); i++) {
-      final ACLRule rule = acl.get(i);
-
-      if (rule.network.contains(addr)) {
-        return rule.allows;
-      }
-    }
-
-    // We have gone through all the rules without a match, return the default
-    return defaultAllow;
+  public boolean allows(final IpAddress addr) {
+    return allows(addr.getBytes());
   }
 
 
@@ -175,7 +228,7 @@ public class IpAcl {
    *
    * @return whether the address was permitted by the ACL
    */
-  public synchronized boolean allows(final String addr) {
+  public boolean allows(final String addr) {
     try {
       return allows(new IpAddress(addr));
     } catch (final Exception e) {}
@@ -189,14 +242,18 @@ public class IpAcl {
   /**
    * Append the entries of the given ACL to the end of our own list.
    *
-   * <p>The result is the ACLRules are shared between the two lists. A copy of
-   * the ACLRule is <strong>NOT</strong> made.
+   * <p>The networks of the rules are shared between the two lists. A copy of
+   * the IpNetwork is <strong>NOT</strong> made.
    *
    * @param newacl The ACL to append to this list.
    */
-  public synchronized void append(final IpAcl newacl) {
-    for (int i = 0; i < newacl.acl.size(); acl.add(newacl.acl.get(i++))) {
-      ;
+  public void append(final IpAcl newacl) {
+    final ACLRule[] rules;
+    synchronized (newacl) {
+      rules = newacl.acl.toArray(new ACLRule[newacl.acl.size()]);
+    }
+    for (final ACLRule rule : rules) {
+      add(rule.network, rule.allows);
     }
   }
 
@@ -370,8 +427,9 @@ public class IpAcl {
    */
   private class ACLRule {
 
-    boolean allows = true;
-    IpNetwork network = null;
+    final boolean allows;
+    final IpNetwork network;
+    final int position;
 
 
 
@@ -381,10 +439,12 @@ public class IpAcl {
      *
      * @param net the IpNetwork to represent
      * @param allowed true allows the network, false otherwise
+     * @param pos the position of the rule in the list
      */
-    private ACLRule(final IpNetwork net, final boolean allowed) {
+    private ACLRule(final IpNetwork net, final boolean allowed, final int pos) {
       network = net;
       allows = allowed;
+      position = pos;
     }
   }
 
@@ -10,6 +10,7 @@ package coyote.commons.network;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 
 
 /**
@@ -369,6 +370,34 @@ public class IpAddress {
 
 
 
+  /**
+   * Tests to see if the given object is an address (not a network) with the
+   * same octets as this instance, so addresses can be used as keys in hash
+   * maps.
+   *
+   * @param obj the object to test
+   *
+   * @return true if the address is equivalent, false otherwise
+   */
+  @Override
+  public boolean equals(final Object obj) {
+    return (obj instanceof IpAddress) && !(obj instanceof IpNetwork) && equals((IpAddress)obj);
+  }
+
+
+
+
+  /**
+   * @return a hash of the octets of this address
+   */
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(octets);
+  }
+
+
+
+
   /**
    * @return the binary representation of the IP address.
    */
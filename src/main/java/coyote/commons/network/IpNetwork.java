@@ -191,11 +191,7 @@ public class IpNetwork extends IpAddress {
    * @return true if the address is in this subnet, false otherwise
    */
   public boolean contains(final InetAddress addr) {
-    try {
-      return contains(new IpAddress(addr));
-    } catch (final Exception e) {
-      return false;
-    }
+    return (addr != null) && contains(addr.getAddress());
   }
 
 
@@ -209,17 +205,47 @@ public class IpNetwork extends IpAddress {
    * @return true if the address is in this subnet, false otherwise
    */
   public boolean contains(final IpAddress addr) {
-    boolean retval = false;
-
-    if ((addr != null) || (netmask != null)) {
-      final IpAddress ip = new IpAddress(addr);
-      ip.applyNetMask(netmask);
+    if (addr == null) {
+      return false;
+    }
 
-      retval = ip.equals(this.applyNetMask(netmask));
+    // compare the masked octets in place rather than masking copies
+    final short[] mask = netmask.getOctets();
+    final short[] addrOctets = addr.getOctets();
+    if ((addrOctets.length != octets.length) || (addrOctets.length != mask.length)) {
+      return false;
     }
+    for (int i = 0; i < addrOctets.length; i++) {
+      if ((addrOctets[i] & mask[i]) != (octets[i] & mask[i])) {
+        return false;
+      }
+    }
+    return true;
+  }
+
 
-    return retval;
 
+
+  /**
+   * Checks to see of the address with the given bytes is within this network
+   * without creating any objects.
+   *
+   * @param addr the bytes of the address to check in network byte order, as
+   *        returned by {@code InetAddress.getAddress()}
+   *
+   * @return true if the address is in this subnet, false otherwise
+   */
+  public boolean contains(final byte[] addr) {
+    final short[] mask = netmask.getOctets();
+    if ((addr == null) || (addr.length != octets.length) || (addr.length != mask.length)) {
+      return false;
+    }
+    for (int i = 0; i < addr.length; i++) {
+      if (((addr[i] & mask[i]) & 0xFF) != ((octets[i] & mask[i]) & 0xFF)) {
+        return false;
+      }
+    }
+    return true;
   }
 
 
@@ -310,6 +336,45 @@ public class IpNetwork extends IpAddress {
 
 
 
+  /**
+   * Return the number of leading bits set in the netmask of this network.
+   *
+   * @return the prefix length of this network or -1 if the bits set in the
+   *         netmask are not contiguous (e.g. 255.0.255.0)
+   */
+  public int getPrefixLength() {
+    int retval = 0;
+    boolean ended = false;
+    for (final short element : netmask.getOctets()) {
+      int bits = -1;
+      for (int x = 0; x < IpNetwork.BITS.length; x++) {
+        if (IpNetwork.BITS[x] == element) {
+          bits = x;
+          break;
+        }
+      }
+      if ((bits < 0) || (ended && (bits > 0))) {
+        return -1;
+      }
+      ended = bits < 8;
+      retval += bits;
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return a copy of the netmask of this network
+   */
+  public IpAddress getNetmask() {
+    return new IpAddress(netmask);
+  }
+
+
+
+
   public Iterator<IpAddress> iterator() {
     return ipAddressIterator;
   }
@@ -484,11 +549,8 @@ public class IpNetwork extends IpAddress {
       final short addressOctets[] = address.getOctets();
       long value = 0;
       final int addressLength = addressOctets.length;
-      final int lastElementNum = addressLength - 1;
-      for (int i = addressLength - 1; i >= 0; i--) {
-        //System.out.println("Multiplier " + (Math.round( Math.pow( 256,lastElementNum-i))));
-        value = value + (addressOctets[i] * (Math.round(Math.pow(256, lastElementNum - i))));
-        //System.out.println("Byte " + i + " value: " + value);
+      for (int i = 0; i < addressLength; i++) {
+        value = (value << 8) | (addressOctets[i] & 0xFF);
       }
 
       return value;
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network;
+
+/**
+ * A binary trie of network prefixes which finds the networks containing an
+ * address by walking the bits of the address.
+ *
+ * <p>IPv4 (4 byte) and IPv6 (16 byte) networks are kept in separate tries.
+ * Each trie is packed into arrays of node indexes; a node at index {@code n}
+ * has its children at {@code 2n} (bit 0) and {@code 2n+1} (bit 1) of the
+ * child array and the position of the value stored for its prefix, if any,
+ * at {@code n} of the value array. Node 0 is the root which is never a child,
+ * so 0 marks a missing child.
+ *
+ * <p>Lookups take at most one step per bit of the address, do not lock and do
+ * not create any objects. Adding a network copies the trie it goes into and
+ * publishes the copy, which suits tables which are configured once and read
+ * for every connection, such as access control lists.
+ *
+ * <p>Values keep the position in which their network was first added. This
+ * allows {@link #first(byte[])} to return the value of the earliest added
+ * network containing an address, as opposed to {@link #longest(byte[])}
+ * which returns the value of the most specific one.
+ *
+ * @param <V> the type of value stored for each network
+ */
+public class IpNetworkTrie<V> {
+
+  private volatile Trie ip4 = new Trie();
+  private volatile Trie ip6 = new Trie();
+
+
+
+
+  /**
+   * Add a network to the trie.
+   *
+   * <p>Bits of the network address past the prefix length are ignored.
+   *
+   * @param network the network to add
+   * @param value the value to return for addresses in the network
+   *
+   * @return the value previously stored for the network, or null if there was
+   *         none
+   *
+   * @throws IllegalArgumentException if the netmask of the network is not a
+   *         contiguous prefix (e.g. 255.0.255.0)
+   */
+  public V put(final IpNetwork network, final V value) {
+    final int bits = network.getPrefixLength();
+    if (bits < 0) {
+      throw new IllegalArgumentException("Netmask of " + network + " is not a prefix");
+    }
+    return put(network.getBytes(), bits, value);
+  }
+
+
+
+
+  /**
+   * Add a network to the trie.
+   *
+   * @param network the bytes of the network address in network byte order
+   * @param bits the prefix length of the network
+   * @param value the value to return for addresses in the network
+   *
+   * @return the value previously stored for the network, or null if there was
+   *         none
+   *
+   * @throws IllegalArgumentException if the address is neither 4 nor 16 bytes
+   *         or the prefix is longer than the address
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized V put(final byte[] network, final int bits, final V value) {
+    final Trie trie = getTrie(network);
+    if ((trie == null) || (bits < 0) || (bits > (network.length * 8))) {
+      throw new IllegalArgumentException("Invalid network prefix of " + bits + " bits");
+    }
+
+    final Trie copy = trie.copy(bits + 1, 1);
+    int node = 0;
+    for (int bit = 0; bit < bits; bit++) {
+      final int child = (node << 1) | bit(network, bit);
+      if (copy.children[child] == 0) {
+        copy.children[child] = copy.nodes++;
+      }
+      node = copy.children[child];
+    }
+
+    V retval = null;
+    if (copy.values[node] < 0) {
+      copy.values[node] = copy.size++;
+    } else {
+      retval = (V)copy.entries[copy.values[node]];
+    }
+    copy.entries[copy.values[node]] = value;
+
+    if (network.length == IpAddress.IP4_OCTETS) {
+      ip4 = copy;
+    } else {
+      ip6 = copy;
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Get the value stored for exactly the given network.
+   *
+   * @param network the bytes of the network address in network byte order
+   * @param bits the prefix length of the network
+   *
+   * @return the value stored for the network or null if the network has not
+   *         been added
+   */
+  @SuppressWarnings("unchecked")
+  public V get(final byte[] network, final int bits) {
+    final Trie trie = getTrie(network);
+    if ((trie == null) || (bits < 0) || (bits > (network.length * 8))) {
+      return null;
+    }
+    int node = 0;
+    for (int bit = 0; (bit < bits) && (node >= 0); bit++) {
+      node = trie.child(node, bit(network, bit));
+    }
+    return (node < 0) || (trie.values[node] < 0) ? null : (V)trie.entries[trie.values[node]];
+  }
+
+
+
+
+  /**
+   * Find the most specific network containing the given address.
+   *
+   * @param address the bytes of the address in network byte order, as
+   *        returned by {@code InetAddress.getAddress()}
+   *
+   * @return the value of the longest prefix containing the address or null if
+   *         no network contains it
+   */
+  @SuppressWarnings("unchecked")
+  public V longest(final byte[] address) {
+    final Trie trie = getTrie(address);
+    if (trie == null) {
+      return null;
+    }
+    int found = trie.values[0];
+    final int bits = address.length * 8;
+    int node = 0;
+    for (int bit = 0; bit < bits; bit++) {
+      node = trie.child(node, bit(address, bit));
+      if (node < 0) {
+        break;
+      }
+      if (trie.values[node] >= 0) {
+        found = trie.values[node];
+      }
+    }
+    return found < 0 ? null : (V)trie.entries[found];
+  }
+
+
+
+
+  /**
+   * Find the earliest added network containing the given address.
+   *
+   * @param address the bytes of the address in network byte order, as
+   *        returned by {@code InetAddress.getAddress()}
+   *
+   * @return the value of the first network added which contains the address
+   *         or null if no network contains it
+   */
+  @SuppressWarnings("unchecked")
+  public V first(final byte[] address) {
+    final Trie trie = getTrie(address);
+    final int found = position(trie, address);
+    return found < 0 ? null : (V)trie.entries[found];
+  }
+
+
+
+
+  /**
+   * @return the position of the earliest added network in the trie containing
+   *         the address or -1 if no network contains it
+   */
+  private static int position(final Trie trie, final byte[] address) {
+    if (trie == null) {
+      return -1;
+    }
+    int found = trie.values[0];
+    final int bits = address.length * 8;
+    int node = 0;
+    for (int bit = 0; bit < bits; bit++) {
+      node = trie.child(node, bit(address, bit));
+      if (node < 0) {
+        break;
+      }
+      final int value = trie.values[node];
+      if ((value >= 0) && ((found < 0) || (value < found))) {
+        found = value;
+      }
+    }
+    return found;
+  }
+
+
+
+
+  /**
+   * @return the number of networks in the trie
+   */
+  public int size() {
+    return ip4.size + ip6.size;
+  }
+
+
+
+
+  /**
+   * Remove all the networks from the trie.
+   */
+  public synchronized void clear() {
+    ip4 = new Trie();
+    ip6 = new Trie();
+  }
+
+
+
+
+  private Trie getTrie(final byte[] address) {
+    if (address != null) {
+      if (address.length == IpAddress.IP4_OCTETS) {
+        return ip4;
+      } else if (address.length == IpAddress.IP6_OCTETS) {
+        return ip6;
+      }
+    }
+    return null;
+  }
+
+
+
+
+  private static int bit(final byte[] address, final int bit) {
+    return (address[bit >>> 3] >>> (7 - (bit & 7))) & 1;
+  }
+
+  /**
+   * The packed nodes of one address family.
+   *
+   * <p>A trie is never changed once published to readers.
+   */
+  private static final class Trie {
+    int[] children;
+    int[] values;
+    Object[] entries;
+    int nodes;
+    int size;
+
+
+
+
+    Trie() {
+      this(new int[2], new int[]{-1}, new Object[0], 1, 0);
+    }
+
+
+
+
+    private Trie(final int[] children, final int[] values, final Object[] entries, final int nodes, final int size) {
+      this.children = children;
+      this.values = values;
+      this.entries = entries;
+      this.nodes = nodes;
+      this.size = size;
+    }
+
+
+
+
+    /**
+     * @return a copy with room for the given number of additional nodes and
+     *         entries
+     */
+    Trie copy(final int moreNodes, final int moreEntries) {
+      final int capacity = nodes + moreNodes;
+      final int[] childCopy = new int[capacity * 2];
+      System.arraycopy(children, 0, childCopy, 0, nodes * 2);
+      final int[] valueCopy = new int[capacity];
+      System.arraycopy(values, 0, valueCopy, 0, nodes);
+      for (int x = nodes; x < capacity; x++) {
+        valueCopy[x] = -1;
+      }
+      final Object[] entryCopy = new Object[size + moreEntries];
+      System.arraycopy(entries, 0, entryCopy, 0, size);
+      return new Trie(childCopy, valueCopy, entryCopy, nodes, size);
+    }
+
+
+
+
+    /**
+     * @return the child of the node for the given bit or -1 if there is none
+     */
+    int child(final int node, final int bit) {
+      final int retval = children[(node << 1) | bit];
+      return retval == 0 ? -1 : retval;
+    }
+  }
+
+}
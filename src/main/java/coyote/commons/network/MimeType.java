@@ -8,8 +8,11 @@
 package coyote.commons.network;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 
 import coyote.commons.StringUtil;
 
@@ -19,12 +22,18 @@ import coyote.commons.StringUtil;
  *
  * <p>Order is important. Most code will only select the first MIME type
  * returned, so make sure the preferred MIME type appears first.</p>
+ *
+ * <p>Lookups do not lock. The types of each extension are kept in an index
+ * which is replaced, not modified, when types are added or removed.</p>
  */
 public class MimeType {
   
   // The list of MIME types supported
   private static final List<MimeType> MIMES = new ArrayList<MimeType>();
 
+  // The MIME types of each extension, in the order they appear in MIMES
+  private static volatile Map<String, List<MimeType>> index = Collections.emptyMap();
+
   // handy constants for more readable code
   public static final MimeType ANY = new MimeType("*", "*/*", true);
   public static final MimeType APPLICATION_FORM = new MimeType("", "application/x-www-form-urlencoded", false);
@@ -39,6 +48,7 @@ public class MimeType {
   public static final MimeType XHTML_XML = new MimeType("", "application/xhtml+xml", false);
   public static final MimeType XML = new MimeType("xml", "application/xml", false);
   private static final MimeType UNKNOWN = new MimeType("unknown", "application/octet-stream", true);
+  private static final List<MimeType> UNKNOWN_LIST = Collections.singletonList(UNKNOWN);
 
   private final boolean binary;
   private final String extension;
@@ -725,6 +735,47 @@ public class MimeType {
     MIMES.add(new MimeType("zip", "multipart/x-zip", true));
     MIMES.add(new MimeType("zoo", "application/octet-stream", true));
     MIMES.add(new MimeType("zsh", "text/x-script.zsh", false));
+    buildIndex();
+  }
+
+
+
+
+  /**
+   * Build the index from scratch, only needed once.
+   */
+  private static void buildIndex() {
+    final Map<String, List<MimeType>> lists = new HashMap<String, List<MimeType>>();
+    for (final MimeType mime : MIMES) {
+      List<MimeType> list = lists.get(mime.extension);
+      if (list == null) {
+        list = new ArrayList<MimeType>(1);
+        lists.put(mime.extension, list);
+      }
+      list.add(mime);
+    }
+    final Map<String, List<MimeType>> retval = new HashMap<String, List<MimeType>>(lists.size() * 2);
+    for (final Map.Entry<String, List<MimeType>> entry : lists.entrySet()) {
+      retval.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+    }
+    index = retval;
+  }
+
+
+
+
+  /**
+   * Replace the index with a copy in which the given extension maps to the
+   * given list. Must be called while holding the lock on MIMES.
+   */
+  private static void updateIndex(final String extension, final List<MimeType> list) {
+    final Map<String, List<MimeType>> retval = new HashMap<String, List<MimeType>>(index);
+    if (list.isEmpty()) {
+      retval.remove(extension);
+    } else {
+      retval.put(extension, Collections.unmodifiableList(list));
+    }
+    index = retval;
   }
 
 
@@ -743,7 +794,12 @@ public class MimeType {
   public static void add(final String extension, final String type, final boolean binary) {
     synchronized (MIMES) {
       if (StringUtil.isNotBlank(extension) && StringUtil.isNotBlank(type)) {
-        MIMES.add(new MimeType(extension.trim().toLowerCase(), type.trim().toLowerCase(), binary));
+        final MimeType mime = new MimeType(extension.trim().toLowerCase(), type.trim().toLowerCase(), binary);
+        MIMES.add(mime);
+        final List<MimeType> list = index.get(mime.extension);
+        final List<MimeType> updated = list != null ? new ArrayList<MimeType>(list) : new ArrayList<MimeType>(1);
+        updated.add(mime);
+        updateIndex(mime.extension, updated);
       }
     }
   }
@@ -759,36 +815,34 @@ public class MimeType {
    * <p>If the MIME type could not be determined, then the returned list will
    * contain only the "unknown" MIME type.</p>
    *
+   * <p>The returned list is shared by all callers and can not be
+   * modified.</p>
+   *
    * @param fileName The name of the file from which to retrieve the extension.
    *
    * @return A list of MIME types which are applicable for this file extension.
    */
   public static List<MimeType> get(final String fileName) {
-    synchronized (MIMES) {
+    final int sep = fileName.lastIndexOf('.');
+    final String ext = sep > 0 ? fileName.substring(sep + 1) : fileName;
 
-      final List<MimeType> retval = new ArrayList<MimeType>();
-
-      final String key = fileName.toLowerCase();
+    // extensions are nearly always lower case already
+    List<MimeType> retval = index.get(ext);
+    if (retval == null) {
+      retval = index.get(ext.toLowerCase());
+    }
+    return retval != null ? retval : UNKNOWN_LIST;
+  }
 
-      final int sep = key.lastIndexOf('.');
-      String ext = null;
-      if (sep > 0) {
-        ext = key.substring(sep + 1);
-      } else {
-        ext = key;
-      }
 
-      for (final MimeType mime : MIMES) {
-        if (mime.extension.equals(ext)) {
-          retval.add(mime);
-        }
-      }
 
-      if (retval.size() == 0) {
-        retval.add(UNKNOWN);
-      }
 
-      return retval;
+  /**
+   * @return all the MIME types in the order they were added
+   */
+  public static List<MimeType> getAll() {
+    synchronized (MIMES) {
+      return new ArrayList<MimeType>(MIMES);
     }
   }
 
@@ -823,6 +877,7 @@ public class MimeType {
             iter.remove();
           }
         }
+        updateIndex(ext, Collections.<MimeType>emptyList());
       }
     }
   }
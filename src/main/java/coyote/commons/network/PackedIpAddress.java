@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+
+/**
+ * An immutable IP address held in primitives; an IPv4 address in an
+ * {@code int} and an IPv6 address in two {@code long}s.
+ *
+ * <p>Unlike {@link IpAddress}, which holds an array of octets, this is cheap
+ * to create, compare and hash, so it suits per-connection work such as
+ * keying tables by client address. The static methods read the primitives
+ * straight from the bytes of an address without creating any objects.</p>
+ *
+ * <p>{@link #toString()} gives the same dotted octets as
+ * {@link IpAddress#toString()}.</p>
+ *
+ * @see PackedIpNetwork
+ */
+public final class PackedIpAddress {
+
+  public static final PackedIpAddress IPV4_LOOPBACK = new PackedIpAddress(0x7F000001);
+
+  private final boolean ipv6;
+
+  /** The IPv4 address */
+  private final int ip4;
+
+  /** The first 8 bytes of the IPv6 address */
+  private final long high;
+
+  /** The last 8 bytes of the IPv6 address */
+  private final long low;
+
+
+
+
+  private PackedIpAddress(final int addr) {
+    ipv6 = false;
+    ip4 = addr;
+    high = 0;
+    low = 0;
+  }
+
+
+
+
+  private PackedIpAddress(final long high, final long low) {
+    ipv6 = true;
+    ip4 = 0;
+    this.high = high;
+    this.low = low;
+  }
+
+
+
+
+  /**
+   * @param addr the IPv4 address
+   *
+   * @return the address
+   */
+  public static PackedIpAddress valueOf(final int addr) {
+    return new PackedIpAddress(addr);
+  }
+
+
+
+
+  /**
+   * @param high the first 8 bytes of the IPv6 address
+   * @param low the last 8 bytes of the IPv6 address
+   *
+   * @return the address
+   */
+  public static PackedIpAddress valueOf(final long high, final long low) {
+    return new PackedIpAddress(high, low);
+  }
+
+
+
+
+  /**
+   * @param addr the bytes of an IPv4 (4 byte) or IPv6 (16 byte) address in
+   *        network byte order
+   *
+   * @return the address
+   *
+   * @throws IllegalArgumentException if the address is neither 4 nor 16 bytes
+   */
+  public static PackedIpAddress valueOf(final byte[] addr) {
+    if (addr.length == IpAddress.IP4_OCTETS) {
+      return new PackedIpAddress(toInt(addr));
+    } else if (addr.length == IpAddress.IP6_OCTETS) {
+      return new PackedIpAddress(toLong(addr, 0), toLong(addr, 8));
+    }
+    throw new IllegalArgumentException("Not an IPv4 or IPv6 address: " + addr.length + " bytes");
+  }
+
+
+
+
+  /**
+   * @param addr the address to convert
+   *
+   * @return the address
+   */
+  public static PackedIpAddress valueOf(final InetAddress addr) {
+    return valueOf(addr.getAddress());
+  }
+
+
+
+
+  /**
+   * @param addr the address to convert
+   *
+   * @return the address
+   *
+   * @throws IllegalArgumentException if the address is neither 4 nor 16
+   *         octets
+   */
+  public static PackedIpAddress valueOf(final IpAddress addr) {
+    final short[] octets = addr.getOctets();
+    if (octets.length == IpAddress.IP4_OCTETS) {
+      return new PackedIpAddress((int)toLong(octets, 0, 4));
+    } else if (octets.length == IpAddress.IP6_OCTETS) {
+      return new PackedIpAddress(toLong(octets, 0, 8), toLong(octets, 8, 8));
+    }
+    throw new IllegalArgumentException("Not an IPv4 or IPv6 address: " + octets.length + " octets");
+  }
+
+
+
+
+  /**
+   * @param addr the 4 bytes of an IPv4 address in network byte order
+   *
+   * @return the address as an int
+   */
+  public static int toInt(final byte[] addr) {
+    return ((addr[0] & 0xFF) << 24) | ((addr[1] & 0xFF) << 16) | ((addr[2] & 0xFF) << 8) | (addr[3] & 0xFF);
+  }
+
+
+
+
+  /**
+   * @param addr the bytes of an address in network byte order
+   * @param offset where the 8 bytes to read start
+   *
+   * @return the 8 bytes as a long
+   */
+  public static long toLong(final byte[] addr, final int offset) {
+    long retval = 0;
+    for (int i = offset; i < (offset + 8); i++) {
+      retval = (retval << 8) | (addr[i] & 0xFF);
+    }
+    return retval;
+  }
+
+
+
+
+  private static long toLong(final short[] octets, final int offset, final int length) {
+    long retval = 0;
+    for (int i = offset; i < (offset + length); i++) {
+      retval = (retval << 8) | (octets[i] & 0xFF);
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return true if this is an IPv6 address, false if it is an IPv4 address
+   */
+  public boolean isIPv6() {
+    return ipv6;
+  }
+
+
+
+
+  /**
+   * @return the IPv4 address, 0 for an IPv6 address
+   */
+  public int getIPv4() {
+    return ip4;
+  }
+
+
+
+
+  /**
+   * @return the first 8 bytes of the IPv6 address, 0 for an IPv4 address
+   */
+  public long getHigh() {
+    return high;
+  }
+
+
+
+
+  /**
+   * @return the last 8 bytes of the IPv6 address, 0 for an IPv4 address
+   */
+  public long getLow() {
+    return low;
+  }
+
+
+
+
+  /**
+   * @return the bytes of the address in network byte order
+   */
+  public byte[] getBytes() {
+    final byte[] retval;
+    if (ipv6) {
+      retval = new byte[IpAddress.IP6_OCTETS];
+      for (int i = 0; i < 8; i++) {
+        retval[i] = (byte)(high >>> (56 - (i * 8)));
+        retval[i + 8] = (byte)(low >>> (56 - (i * 8)));
+      }
+    } else {
+      retval = new byte[IpAddress.IP4_OCTETS];
+      for (int i = 0; i < 4; i++) {
+        retval[i] = (byte)(ip4 >>> (24 - (i * 8)));
+      }
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return this address as an IpAddress
+   */
+  public IpAddress toIpAddress() {
+    final byte[] bytes = getBytes();
+    final short[] octets = new short[bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      octets[i] = IpAddress.fixByte(bytes[i]);
+    }
+    return new IpAddress(octets);
+  }
+
+
+
+
+  /**
+   * @return this address as an InetAddress
+   */
+  public InetAddress toInetAddress() {
+    try {
+      return InetAddress.getByAddress(getBytes());
+    } catch (final UnknownHostException e) {
+      // only thrown for illegal lengths
+      throw new IllegalStateException(e);
+    }
+  }
+
+
+
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (obj instanceof PackedIpAddress) {
+      final PackedIpAddress other = (PackedIpAddress)obj;
+      return (other.ipv6 == ipv6) && (other.ip4 == ip4) && (other.high == high) && (other.low == low);
+    }
+    return false;
+  }
+
+
+
+
+  @Override
+  public int hashCode() {
+    if (ipv6) {
+      final long hash = (high * 31) ^ low;
+      return (int)(hash ^ (hash >>> 32));
+    }
+    return ip4;
+  }
+
+
+
+
+  /**
+   * @return the dotted octets of the address (e.g. "192.168.1.1")
+   */
+  @Override
+  public String toString() {
+    final StringBuilder retval = new StringBuilder(ipv6 ? 63 : 15);
+    if (ipv6) {
+      appendOctets(retval, high, 8);
+      retval.append('.');
+      appendOctets(retval, low, 8);
+    } else {
+      appendOctets(retval, ip4 & 0xFFFFFFFFL, 4);
+    }
+    return retval.toString();
+  }
+
+
+
+
+  private static void appendOctets(final StringBuilder buffer, final long value, final int count) {
+    for (int i = count - 1; i >= 0; i--) {
+      buffer.append((value >>> (i * 8)) & 0xFF);
+      if (i > 0) {
+        buffer.append('.');
+      }
+    }
+  }
+
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network;
+
+/**
+ * An immutable IP network held in primitives, the network address and its
+ * netmask each in an {@code int} for IPv4 or two {@code long}s for IPv6.
+ *
+ * <p>Checking whether an address is in the network is a masked comparison of
+ * the primitives and creates no objects, whether the address is given as
+ * primitives, as the bytes from {@code InetAddress.getAddress()} or as an
+ * {@link IpAddress}.</p>
+ *
+ * <p>Netmasks need not be a prefix, so any {@link IpNetwork} can be
+ * converted.</p>
+ */
+public final class PackedIpNetwork {
+
+  private final PackedIpAddress address;
+  private final PackedIpAddress netmask;
+
+
+
+
+  /**
+   * Create a network from an address and the number of leading bits of the
+   * address which identify the network.
+   *
+   * @param address any address in the network
+   * @param prefix the prefix length of the network
+   *
+   * @throws IllegalArgumentException if the prefix is longer than the address
+   */
+  public PackedIpNetwork(final PackedIpAddress address, final int prefix) {
+    this(address, mask(address.isIPv6(), prefix));
+  }
+
+
+
+
+  /**
+   * Create a network from an address and a netmask.
+   *
+   * @param address any address in the network
+   * @param netmask the netmask of the network, of the same family as the
+   *        address
+   *
+   * @throws IllegalArgumentException if the address and netmask are of
+   *         different families
+   */
+  public PackedIpNetwork(final PackedIpAddress address, final PackedIpAddress netmask) {
+    if (address.isIPv6() != netmask.isIPv6()) {
+      throw new IllegalArgumentException("Address and netmask of different families");
+    }
+    if (address.isIPv6()) {
+      this.address = PackedIpAddress.valueOf(address.getHigh() & netmask.getHigh(), address.getLow() & netmask.getLow());
+    } else {
+      this.address = PackedIpAddress.valueOf(address.getIPv4() & netmask.getIPv4());
+    }
+    this.netmask = netmask;
+  }
+
+
+
+
+  /**
+   * @param network the network to convert
+   *
+   * @return the network
+   *
+   * @throws IllegalArgumentException if the address or netmask of the network
+   *         is neither 4 nor 16 octets or they differ in length
+   */
+  public static PackedIpNetwork valueOf(final IpNetwork network) {
+    return new PackedIpNetwork(PackedIpAddress.valueOf(network), PackedIpAddress.valueOf(network.getNetmask()));
+  }
+
+
+
+
+  private static PackedIpAddress mask(final boolean ipv6, final int prefix) {
+    if ((prefix < 0) || (prefix > (ipv6 ? 128 : 32))) {
+      throw new IllegalArgumentException("Invalid prefix length " + prefix);
+    }
+    if (ipv6) {
+      return PackedIpAddress.valueOf(mask(Math.min(prefix, 64)), mask(Math.max(prefix - 64, 0)));
+    }
+    return PackedIpAddress.valueOf((int)(mask(prefix) >>> 32));
+  }
+
+
+
+
+  /**
+   * @return a long with the given number of leading bits set
+   */
+  private static long mask(final int bits) {
+    return bits == 0 ? 0 : -1L << (64 - bits);
+  }
+
+
+
+
+  /**
+   * @param addr an IPv4 address
+   *
+   * @return true if this is an IPv4 network containing the address
+   */
+  public boolean contains(final int addr) {
+    return !address.isIPv6() && ((addr & netmask.getIPv4()) == address.getIPv4());
+  }
+
+
+
+
+  /**
+   * @param high the first 8 bytes of an IPv6 address
+   * @param low the last 8 bytes of an IPv6 address
+   *
+   * @return true if this is an IPv6 network containing the address
+   */
+  public boolean contains(final long high, final long low) {
+    return address.isIPv6() && ((high & netmask.getHigh()) == address.getHigh()) && ((low & netmask.getLow()) == address.getLow());
+  }
+
+
+
+
+  /**
+   * @param addr the bytes of an address in network byte order, as returned by
+   *        {@code InetAddress.getAddress()}
+   *
+   * @return true if the address is in this network
+   */
+  public boolean contains(final byte[] addr) {
+    if (addr.length == IpAddress.IP4_OCTETS) {
+      return contains(PackedIpAddress.toInt(addr));
+    } else if (addr.length == IpAddress.IP6_OCTETS) {
+      return contains(PackedIpAddress.toLong(addr, 0), PackedIpAddress.toLong(addr, 8));
+    }
+    return false;
+  }
+
+
+
+
+  /**
+   * @param addr the address to check
+   *
+   * @return true if the address is in this network
+   */
+  public boolean contains(final PackedIpAddress addr) {
+    return addr.isIPv6() ? contains(addr.getHigh(), addr.getLow()) : contains(addr.getIPv4());
+  }
+
+
+
+
+  /**
+   * @param addr the address to check
+   *
+   * @return true if the address is in this network
+   */
+  public boolean contains(final IpAddress addr) {
+    final short[] octets = addr.getOctets();
+    final boolean ipv6 = address.isIPv6();
+    if (octets.length != (ipv6 ? IpAddress.IP6_OCTETS : IpAddress.IP4_OCTETS)) {
+      return false;
+    }
+    long high = 0;
+    long low = 0;
+    for (int i = 0; i < octets.length; i++) {
+      if (i < (octets.length - 8)) {
+        high = (high << 8) | (octets[i] & 0xFF);
+      } else {
+        low = (low << 8) | (octets[i] & 0xFF);
+      }
+    }
+    return ipv6 ? contains(high, low) : contains((int)low);
+  }
+
+
+
+
+  /**
+   * @return the network address, with all the bits outside the netmask clear
+   */
+  public PackedIpAddress getAddress() {
+    return address;
+  }
+
+
+
+
+  /**
+   * @return the netmask of the network
+   */
+  public PackedIpAddress getNetmask() {
+    return netmask;
+  }
+
+
+
+
+  /**
+   * @return the broadcast address, with all the bits outside the netmask set
+   */
+  public PackedIpAddress getBroadcastAddress() {
+    if (address.isIPv6()) {
+      return PackedIpAddress.valueOf(address.getHigh() | ~netmask.getHigh(), address.getLow() | ~netmask.getLow());
+    }
+    return PackedIpAddress.valueOf(address.getIPv4() | ~netmask.getIPv4());
+  }
+
+
+
+
+  /**
+   * @return the number of leading bits set in the netmask or -1 if the bits
+   *         set are not contiguous
+   */
+  public int getPrefixLength() {
+    if (address.isIPv6()) {
+      final int high = prefix(netmask.getHigh());
+      if (high < 64) {
+        return (high < 0) || (netmask.getLow() != 0) ? -1 : high;
+      }
+      final int low = prefix(netmask.getLow());
+      return low < 0 ? -1 : 64 + low;
+    }
+    final int retval = prefix((long)netmask.getIPv4() << 32);
+    return (retval < 0) || (retval > 32) ? -1 : retval;
+  }
+
+
+
+
+  /**
+   * @return the number of leading bits set or -1 if they are not contiguous
+   */
+  private static int prefix(final long mask) {
+    final int retval = Long.numberOfLeadingZeros(~mask);
+    return mask(retval) == mask ? retval : -1;
+  }
+
+
+
+
+  /**
+   * @return this network as an IpNetwork
+   */
+  public IpNetwork toIpNetwork() {
+    return new IpNetwork(address.toIpAddress(), netmask.toIpAddress());
+  }
+
+
+
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (obj instanceof PackedIpNetwork) {
+      return address.equals(((PackedIpNetwork)obj).address) && netmask.equals(((PackedIpNetwork)obj).netmask);
+    }
+    return false;
+  }
+
+
+
+
+  @Override
+  public int hashCode() {
+    return (address.hashCode() * 31) + netmask.hashCode();
+  }
+
+
+
+
+  /**
+   * @return the network address and prefix length (e.g. "192.168.0.0/16"),
+   *         or the network address and netmask if the netmask is not a prefix
+   */
+  @Override
+  public String toString() {
+    final int prefix = getPrefixLength();
+    return address + "/" + (prefix < 0 ? netmask.toString() : Integer.toString(prefix));
+  }
+
+}
@@ -8,7 +8,11 @@
 
 package coyote.commons.network.http;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A temporary cache file.
@@ -23,10 +27,40 @@ public interface CacheFile {
 
 
 
+  /**
+   * @return the path of the file holding the data, or null if the data is not 
+   *         held in a file of its own (e.g. it is kept in memory)
+   */
   public String getName();
 
 
 
 
   public OutputStream open() throws Exception;
+
+
+
+
+  /**
+   * Return the data written to the cache file.
+   * 
+   * <p>By default the file named by {@link #getName()} is mapped into memory 
+   * read-only. Cache files which do not hold their data in a file of their 
+   * own must override this.
+   * 
+   * @return the data written to the cache file as a read-only buffer, valid 
+   *         until the cache file is deleted
+   */
+  public default ByteBuffer getBuffer() throws Exception {
+    final String name = getName();
+    if ( name == null ) {
+      throw new IOException( "Cache file has no file to map" );
+    }
+    final RandomAccessFile raf = new RandomAccessFile( name, "r" );
+    try {
+      return raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+    } finally {
+      raf.close();
+    }
+  }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ * An input stream which first returns the bytes already read from a channel
+ * by an event loop and then continues reading from the socket stream.
+ *
+ * <p>The NIO engine reads the request header off the channel before it hands
+ * the connection to a worker. This stream allows the session to parse the
+ * request as if it were reading straight from the socket.
+ *
+ * <p>The {@link #available()} method only reports the bytes remaining in the
+ * buffer. This lets the worker know when pipelined requests are still waiting
+ * to be processed without blocking on the socket.
+ */
+class ChannelInputStream extends InputStream {
+
+  /** The bytes read from the channel by the event loop (in read mode) */
+  private final ByteBuffer buffer;
+
+  /** The (blocking) socket stream used after the buffer is drained */
+  private final InputStream stream;
+
+
+
+
+  ChannelInputStream(final ByteBuffer buffer, final InputStream stream) {
+    this.buffer = buffer;
+    this.stream = stream;
+  }
+
+
+
+
+  @Override
+  public int read() throws IOException {
+    if (buffer.hasRemaining()) {
+      return buffer.get() & 0xFF;
+    }
+    return stream.read();
+  }
+
+
+
+
+  @Override
+  public int read(final byte[] b, final int off, final int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (buffer.hasRemaining()) {
+      final int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+    return stream.read(b, off, len);
+  }
+
+
+
+
+  @Override
+  public int available() throws IOException {
+    return buffer.remaining();
+  }
+
+
+
+
+  @Override
+  public void close() throws IOException {
+    stream.close();
+  }
+
+}
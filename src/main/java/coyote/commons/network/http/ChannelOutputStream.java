@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * An output stream which writes to a (blocking) channel and exposes that
+ * channel.
+ *
+ * <p>Responses normally write to a stream. When the stream is one of these,
+ * responses able to send their body directly to a channel, such as
+ * {@link FileResponse}, can bypass the stream altogether.
+ */
+class ChannelOutputStream extends OutputStream {
+
+  /** The channel to which we write */
+  private final WritableByteChannel channel;
+
+
+
+
+  ChannelOutputStream(final WritableByteChannel channel) {
+    this.channel = channel;
+  }
+
+
+
+
+  /**
+   * @return the channel to which this stream writes
+   */
+  WritableByteChannel getChannel() {
+    return channel;
+  }
+
+
+
+
+  @Override
+  public void write(final int b) throws IOException {
+    write(new byte[]{(byte)b}, 0, 1);
+  }
+
+
+
+
+  @Override
+  public void write(final byte[] b, final int off, final int len) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+
+
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}
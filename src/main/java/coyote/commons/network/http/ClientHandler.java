@@ -8,12 +8,17 @@
 
 package coyote.commons.network.http;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
+import coyote.commons.network.MimeType;
 import coyote.loader.log.Log;
 
 
@@ -54,6 +59,56 @@ public class ClientHandler implements Runnable {
 
 
 
+  /**
+   * Quickly tell the client the server is too busy to process the request and
+   * close the connection.
+   * 
+   * <p>This is used by executors which are not able to run the handler.
+   * 
+   * @see #reject(Socket)
+   */
+  public void reject() {
+    reject( clientSocket );
+    close();
+  }
+
+
+
+
+  /**
+   * Make one attempt to send a 503 (Service Unavailable) response to the 
+   * client on the given socket.
+   * 
+   * <p>Rejections are made on the thread accepting or selecting connections, 
+   * which must not wait on a client which is slow to read. The response is 
+   * therefore rendered first and written with a single call which does not 
+   * block if the socket has a channel. Other sockets have just been accepted, 
+   * and their empty send buffers take the few hundred bytes at once. Whatever 
+   * the client does not receive is abandoned. The caller closes the socket.
+   * 
+   * @param socket the socket of the client being turned away
+   */
+  static void reject( final Socket socket ) {
+    final Response response = Response.createFixedLengthResponse( Status.UNAVAILABLE, MimeType.TEXT.getType(), "SERVICE UNAVAILABLE: Server busy, try again later" );
+    response.setKeepAlive( false );
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    response.send( out );
+    try {
+      final SocketChannel channel = socket.getChannel();
+      if ( channel != null ) {
+        channel.configureBlocking( false );
+        channel.write( ByteBuffer.wrap( out.toByteArray() ) );
+      } else {
+        socket.getOutputStream().write( out.toByteArray() );
+      }
+    } catch ( final IOException e ) {
+      // we tried
+    }
+  }
+
+
+
+
   @Override
   public void run() {
     OutputStream outputStream = null;
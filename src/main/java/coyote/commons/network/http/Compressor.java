@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+
+package coyote.commons.network.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+
+
+/**
+ * Gzip compression of response bodies for HTTPD.
+ *
+ * <p>Bodies smaller than the minimum size are not worth compressing and are
+ * sent as they are. Bodies of known length up to the maximum cached size are
+ * compressed in memory and the result is kept in a small LRU cache keyed by
+ * the content itself, so identical payloads (e.g. the same JSON document or
+ * page requested repeatedly) are not compressed again. A body is only
+ * admitted to the cache the second time it is seen, so dynamic content which
+ * is never repeated does not push out the bodies which are. Larger bodies,
+ * and those of unknown length, are compressed as they are streamed.</p>
+ *
+ * <p>The following counters are published to the statistics board:<ul>
+ * <li>{@code Gzip.BytesIn} - the number of bytes compressed or served from
+ * the cache</li>
+ * <li>{@code Gzip.BytesSaved} - the number of bytes compression kept off the
+ * wire</li>
+ * <li>{@code Gzip.CpuTime} - the CPU time, in nanoseconds, spent
+ * compressing</li>
+ * <li>{@code Gzip.CacheHits} - the number of bodies served from the
+ * cache</li>
+ * <li>{@code Gzip.Skipped} - the number of bodies below the minimum
+ * size</li></ul>
+ */
+public class Compressor {
+
+  /** Bodies smaller than this are not compressed by default */
+  public static final int DEFAULT_MINIMUM_SIZE = 512;
+
+  /** The default limit on the total size of the cache */
+  public static final long DEFAULT_CACHE_SIZE = 4 * 1024 * 1024;
+
+  /** The largest body compressed in memory and cached */
+  public static final int MAX_CACHED_SIZE = 64 * 1024;
+
+  /** The number of bodies seen once which are remembered for admission */
+  private static final int MAX_SEEN = 1024;
+
+  public static final String BYTES_IN = "Gzip.BytesIn";
+  public static final String BYTES_SAVED = "Gzip.BytesSaved";
+  public static final String CPU_TIME = "Gzip.CpuTime";
+  public static final String CACHE_HITS = "Gzip.CacheHits";
+  public static final String SKIPPED = "Gzip.Skipped";
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final int level;
+
+  private final int minimumSize;
+
+  private final long cacheSize;
+
+  private final StatBoard stats;
+
+  /** Compressed bodies in least recently used order */
+  private final LinkedHashMap<Key, byte[]> cache = new LinkedHashMap<Key, byte[]>( 64, 0.75f, true );
+
+  /** The number of bytes held in the cache, originals and compressed */
+  private long cached = 0;
+
+  /** The hashes of bodies seen once, which are cached if seen again */
+  private final LinkedHashMap<Integer, Boolean> seen = new LinkedHashMap<Integer, Boolean>( 64, 0.75f, true ) {
+    private static final long serialVersionUID = 1L;
+
+
+
+
+    @Override
+    protected boolean removeEldestEntry( final Map.Entry<Integer, Boolean> eldest ) {
+      return size() > MAX_SEEN;
+    }
+  };
+
+
+
+
+  /**
+   * Create a compressor with the default settings.
+   */
+  public Compressor() {
+    this( Deflater.DEFAULT_COMPRESSION, DEFAULT_MINIMUM_SIZE, DEFAULT_CACHE_SIZE, null );
+  }
+
+
+
+
+  /**
+   * Create a compressor.
+   *
+   * @param level the compression level, 1 (fastest) to 9 (smallest) or -1 for
+   *        the default of the deflater
+   * @param minimumSize the size of the smallest body worth compressing
+   * @param cacheSize the limit on the size of the cache, 0 to disable it
+   * @param stats the statistics board to which metrics are published, may be
+   *        null
+   */
+  public Compressor( final int level, final int minimumSize, final long cacheSize, final StatBoard stats ) {
+    this.level = ( level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION ) ? level : Deflater.DEFAULT_COMPRESSION;
+    this.minimumSize = Math.max( 0, minimumSize );
+    this.cacheSize = Math.max( 0, cacheSize );
+    this.stats = stats != null ? stats : new StatBoardImpl();
+  }
+
+
+
+
+  /**
+   * @return the compression level used by the deflater
+   */
+  public int getLevel() {
+    return level;
+  }
+
+
+
+
+  /**
+   * @return the size of the smallest body worth compressing
+   */
+  public int getMinimumSize() {
+    return minimumSize;
+  }
+
+
+
+
+  /**
+   * @return the statistics board to which this compressor publishes its
+   *         metrics
+   */
+  public StatBoard getStatBoard() {
+    return stats;
+  }
+
+
+
+
+  /**
+   * Determine if a body of the given length should be compressed, counting
+   * those which are not.
+   *
+   * @param length the length of the body, -1 if unknown
+   *
+   * @return true if the body is to be compressed
+   */
+  public boolean shouldCompress( final long length ) {
+    if ( length >= 0 && length < minimumSize ) {
+      stats.increment( SKIPPED );
+      return false;
+    }
+    return true;
+  }
+
+
+
+
+  /**
+   * @param length the length of the body
+   *
+   * @return true if a body of the given length is compressed in memory (and
+   *         possibly cached) rather than streamed
+   */
+  public boolean isCacheable( final long length ) {
+    return length >= 0 && length <= MAX_CACHED_SIZE;
+  }
+
+
+
+
+  /**
+   * Compress the given body, using the cached result if the same body has
+   * been compressed before.
+   *
+   * @param data the body to compress
+   *
+   * @return the gzip encoded body
+   *
+   * @throws IOException if the data could not be compressed
+   */
+  public byte[] compress( final byte[] data ) throws IOException {
+    final Key key = new Key( data );
+    byte[] retval;
+    synchronized( cache ) {
+      retval = cache.get( key );
+    }
+
+    if ( retval != null ) {
+      stats.increment( CACHE_HITS );
+    } else {
+      final long started = cpuTime();
+      final ByteArrayOutputStream out = new ByteArrayOutputStream( data.length / 2 + 32 );
+      try (GZIPOutputStream gzip = new LeveledGZIPOutputStream( out, level )) {
+        gzip.write( data );
+      }
+      retval = out.toByteArray();
+      stats.increase( CPU_TIME, cpuTime() - started );
+      store( key, retval );
+    }
+
+    stats.increase( BYTES_IN, data.length );
+    stats.increase( BYTES_SAVED, data.length - retval.length );
+    return retval;
+  }
+
+
+
+
+  /**
+   * Cache the compressed body if it has been seen before.
+   */
+  private void store( final Key key, final byte[] compressed ) {
+    final long size = key.data.length + compressed.length;
+    if ( size > cacheSize ) {
+      return;
+    }
+    synchronized( cache ) {
+      if ( seen.remove( key.hash ) == null ) {
+        seen.put( key.hash, Boolean.TRUE );
+        return;
+      }
+      final byte[] previous = cache.put( key, compressed );
+      if ( previous != null ) {
+        cached -= key.data.length + previous.length;
+      }
+      cached += size;
+      final Iterator<Map.Entry<Key, byte[]>> it = cache.entrySet().iterator();
+      while ( cached > cacheSize && it.hasNext() ) {
+        final Map.Entry<Key, byte[]> eldest = it.next();
+        cached -= eldest.getKey().data.length + eldest.getValue().length;
+        it.remove();
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Wrap the given stream in one which compresses everything written to it.
+   *
+   * <p>Call {@code finish()} on the returned stream to complete the gzip
+   * data; this does not close the given stream.</p>
+   *
+   * @param out the stream to receive the compressed data
+   *
+   * @return the compressing stream
+   *
+   * @throws IOException if the gzip header could not be written
+   */
+  public GZIPOutputStream stream( final OutputStream out ) throws IOException {
+    final CountingOutputStream counter = new CountingOutputStream( out );
+    return new LeveledGZIPOutputStream( counter, level ) {
+      private long in = 0;
+
+
+
+
+      @Override
+      public synchronized void write( final byte[] b, final int off, final int len ) throws IOException {
+        final long started = cpuTime();
+        super.write( b, off, len );
+        stats.increase( CPU_TIME, cpuTime() - started );
+        in += len;
+      }
+
+
+
+
+      @Override
+      public void finish() throws IOException {
+        final long started = cpuTime();
+        super.finish();
+        stats.increase( CPU_TIME, cpuTime() - started );
+        stats.increase( BYTES_IN, in );
+        stats.increase( BYTES_SAVED, in - counter.count );
+      }
+    };
+  }
+
+
+
+
+  /**
+   * @return the CPU time of the current thread if the JVM can measure it,
+   *         otherwise the elapsed time, in nanoseconds
+   */
+  private static long cpuTime() {
+    if ( THREADS.isCurrentThreadCpuTimeSupported() ) {
+      final long retval = THREADS.getCurrentThreadCpuTime();
+      if ( retval >= 0 ) {
+        return retval;
+      }
+    }
+    return System.nanoTime();
+  }
+
+
+
+
+  /**
+   * A gzip stream with a configurable compression level, which releases the
+   * native memory of its deflater as soon as it is finished rather than when
+   * it is garbage collected, as finishing does not close the stream below.
+   */
+  private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+
+    LeveledGZIPOutputStream( final OutputStream out, final int level ) throws IOException {
+      super( out );
+      def.setLevel( level );
+    }
+
+
+
+
+    @Override
+    public void finish() throws IOException {
+      try {
+        super.finish();
+      } finally {
+        def.end();
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Counts the bytes written through it.
+   */
+  private static class CountingOutputStream extends FilterOutputStream {
+    long count = 0;
+
+
+
+
+    CountingOutputStream( final OutputStream out ) {
+      super( out );
+    }
+
+
+
+
+    @Override
+    public void write( final int b ) throws IOException {
+      out.write( b );
+      count++;
+    }
+
+
+
+
+    @Override
+    public void write( final byte[] b, final int off, final int len ) throws IOException {
+      out.write( b, off, len );
+      count += len;
+    }
+  }
+
+
+
+
+  /**
+   * Identifies a body by its content.
+   */
+  private static final class Key {
+    final byte[] data;
+    final int hash;
+
+
+
+
+    Key( final byte[] data ) {
+      this.data = data;
+      final CRC32 crc = new CRC32();
+      crc.update( data, 0, data.length );
+      hash = (int)crc.getValue() ^ data.length;
+    }
+
+
+
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+
+
+
+    @Override
+    public boolean equals( final Object obj ) {
+      return obj instanceof Key && ( (Key)obj ).hash == hash && Arrays.equals( ( (Key)obj ).data, data );
+    }
+  }
+
+}
@@ -12,6 +12,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * Default strategy for creating and cleaning up cache files.
@@ -59,5 +60,17 @@ public class DefaultCacheFile implements CacheFile {
   public OutputStream open() throws Exception {
     return fstream;
   }
+
+
+
+
+  /**
+   * Flush what has been written and map the file into memory.
+   */
+  @Override
+  public ByteBuffer getBuffer() throws Exception {
+    fstream.flush();
+    return CacheFile.super.getBuffer();
+  }
   
 }
\ No newline at end of file
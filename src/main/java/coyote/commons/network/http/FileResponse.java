@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+
+import coyote.commons.network.MimeType;
+
+
+/**
+ * A response which sends (part of) a file with a known Content-Length.
+ *
+ * <p>When the response is neither compressed nor chunked and the connection
+ * writes to a socket channel (the NIO engine without TLS), the body is sent
+ * with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * which lets the operating system copy the file to the socket without passing
+ * the data through the JVM. Otherwise the file is streamed like any other
+ * response.</p>
+ *
+ * <p>Use {@link #create(HTTPSession, File, String)} to honor the Range header
+ * of the request and reply with partial content, or with the precompressed
+ * ({@code .gz}) version of the file when there is one and the client accepts
+ * gzip.</p>
+ */
+public class FileResponse extends Response {
+
+  /** The prefix of the only range unit we support */
+  private static final String BYTES = "bytes=";
+
+  /** The file being sent */
+  private final FileChannel channel;
+
+  /** The position in the file of the first byte to send */
+  private final long offset;
+
+  /** The number of bytes to send */
+  private final long length;
+
+  /** The stream over the file, replaced if the body gets compressed */
+  private final InputStream stream;
+
+
+
+
+  /**
+   * Create a response which sends the whole file.
+   *
+   * @param status the status to send
+   * @param mimeType the type of data being sent
+   * @param file the file to send
+   *
+   * @throws IOException if the file could not be opened
+   */
+  public FileResponse( final Status status, final String mimeType, final File file ) throws IOException {
+    this( status, mimeType, new FileInputStream( file ).getChannel(), 0, -1 );
+  }
+
+
+
+
+  /**
+   * Create a response which sends part of an open file.
+   *
+   * @param status the status to send
+   * @param mimeType the type of data being sent
+   * @param channel the open file, closed with the response
+   * @param offset position of the first byte to send
+   * @param length number of bytes to send, -1 for the rest of the file
+   *
+   * @throws IOException if the file could not be read
+   */
+  private FileResponse( final Status status, final String mimeType, final FileChannel channel, final long offset, final long length ) throws IOException {
+    super( status, mimeType, Channels.newInputStream( channel.position( offset ) ), length < 0 ? channel.size() - offset : length );
+    this.channel = channel;
+    this.offset = offset;
+    this.length = length < 0 ? channel.size() - offset : length;
+    stream = getData();
+    addHeader( HTTP.HDR_ACCEPT_RANGES, "bytes" );
+  }
+
+
+
+
+  /**
+   * Create a response which sends the file, or the part of it requested in
+   * the Range header of the session.
+   *
+   * <p>Only a single byte range is supported. Requests for several ranges,
+   * or with an If-Range header (we send no validators to compare against),
+   * receive the whole file as allowed by RFC 7233. A range starting past the
+   * end of the file results in a 416 (Range Not Satisfiable) response.</p>
+   *
+   * @param session the session with the request headers
+   * @param file the file to send
+   * @param mimeType the type of data being sent
+   *
+   * @return a 200 response with the whole file, a 206 response with the
+   *         requested range or a 416 response
+   *
+   * @throws IOException if the file could not be opened
+   */
+  public static Response create( final HTTPSession session, final File file, final String mimeType ) throws IOException {
+    final String range = session.getRequestHeaders().get( HTTP.HDR_RANGE.toLowerCase() );
+    if ( range == null ) {
+      final String acceptEncoding = session.getRequestHeaders().get( HTTP.HDR_ACCEPT_ENCODING.toLowerCase() );
+      final File precompressed = getPrecompressed( file );
+      if ( precompressed != null && acceptEncoding != null && acceptEncoding.contains( HTTP.GZIP ) ) {
+        final Response retval = new FileResponse( Status.OK, mimeType, precompressed );
+        retval.addHeader( HTTP.HDR_CONTENT_ENCODING, HTTP.GZIP );
+        retval.addHeader( HTTP.HDR_VARY, HTTP.HDR_ACCEPT_ENCODING );
+        return retval;
+      }
+    }
+    if ( range == null || session.getRequestHeaders().get( HTTP.HDR_IF_RANGE.toLowerCase() ) != null ) {
+      return new FileResponse( Status.OK, mimeType, file );
+    }
+
+    final FileInputStream stream = new FileInputStream( file );
+    try {
+      final FileChannel channel = stream.getChannel();
+      final long size = channel.size();
+      final long[] bounds = parseRange( range, size );
+      final Response retval;
+      if ( bounds == null ) {
+        retval = new FileResponse( Status.OK, mimeType, channel, 0, size );
+      } else if ( bounds.length == 0 ) {
+        stream.close();
+        retval = Response.createFixedLengthResponse( Status.RANGE_NOT_SATISFIABLE, MimeType.TEXT.getType(), null );
+        retval.addHeader( HTTP.HDR_CONTENT_RANGE, "bytes */" + size );
+      } else {
+        retval = new FileResponse( Status.PARTIAL_CONTENT, mimeType, channel, bounds[0], bounds[1] - bounds[0] + 1 );
+        retval.addHeader( HTTP.HDR_CONTENT_RANGE, "bytes " + bounds[0] + "-" + bounds[1] + "/" + size );
+      }
+      return retval;
+    } catch ( final IOException e ) {
+      stream.close();
+      throw e;
+    }
+  }
+
+
+
+
+  /**
+   * Find the precompressed version of a file, its sibling with a ".gz"
+   * extension.
+   *
+   * @param file the file to send
+   *
+   * @return the gzip encoded sibling of the file, or null if there is none or
+   *         it is older than the file
+   */
+  public static File getPrecompressed( final File file ) {
+    final File retval = new File( file.getPath() + ".gz" );
+    if ( retval.isFile() && retval.lastModified() >= file.lastModified() ) {
+      return retval;
+    }
+    return null;
+  }
+
+
+
+
+  /**
+   * Parse the value of a Range header.
+   *
+   * @param range the value of the header, e.g. "bytes=0-499"
+   * @param size the size of the file
+   *
+   * @return the first and last (inclusive) positions of the range, an empty
+   *         array if the range cannot be satisfied or null if the header is to
+   *         be ignored because it is invalid or asks for several ranges
+   */
+  static long[] parseRange( final String range, final long size ) {
+    if ( !range.regionMatches( true, 0, BYTES, 0, BYTES.length() ) || range.indexOf( ',' ) >= 0 ) {
+      return null;
+    }
+    final String spec = range.substring( BYTES.length() ).trim();
+    final int dash = spec.indexOf( '-' );
+    if ( dash < 0 ) {
+      return null;
+    }
+    try {
+      final String first = spec.substring( 0, dash ).trim();
+      final String last = spec.substring( dash + 1 ).trim();
+      long start;
+      long end;
+      if ( first.length() == 0 ) {
+        // suffix range, the last n bytes
+        final long suffix = Long.parseLong( last );
+        if ( suffix < 0 ) {
+          return null;
+        }
+        if ( suffix == 0 || size == 0 ) {
+          return new long[0];
+        }
+        start = Math.max( 0, size - suffix );
+        end = size - 1;
+      } else {
+        start = Long.parseLong( first );
+        end = last.length() == 0 ? Long.MAX_VALUE : Long.parseLong( last );
+        if ( start < 0 || end < start ) {
+          return null;
+        }
+        if ( start >= size ) {
+          return new long[0];
+        }
+        end = Math.min( end, size - 1 );
+      }
+      return new long[]{ start, end };
+    } catch ( final NumberFormatException e ) {
+      return null;
+    }
+  }
+
+
+
+
+  /**
+   * Partial content is never compressed as the range refers to the bytes of
+   * the file.
+   *
+   * @see coyote.commons.network.http.Response#setGzipEncoding(boolean)
+   */
+  @Override
+  public void setGzipEncoding( final boolean encodeAsGzip ) {
+    super.setGzipEncoding( encodeAsGzip && getStatus() != Status.PARTIAL_CONTENT );
+  }
+
+
+
+
+  /**
+   * Transfer the file directly to the socket channel if we have one.
+   *
+   * @see coyote.commons.network.http.Response#sendFixedLengthBody(java.io.OutputStream, long)
+   */
+  @Override
+  protected void sendFixedLengthBody( final OutputStream outputStream, final long pending ) throws IOException {
+    if ( !( outputStream instanceof ChannelOutputStream ) || getData() != stream || pending != length ) {
+      super.sendFixedLengthBody( outputStream, pending );
+      return;
+    }
+
+    final ChannelOutputStream target = (ChannelOutputStream)outputStream;
+    long position = offset;
+    long remaining = pending;
+    while ( remaining > 0 ) {
+      final long sent = channel.transferTo( position, remaining, target.getChannel() );
+      if ( sent <= 0 ) {
+        // the file was truncated while we were sending it
+        break;
+      }
+      position += sent;
+      remaining -= sent;
+    }
+  }
+
+}
@@ -11,11 +11,10 @@ package coyote.commons.network.http;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URL;
-import java.net.URLDecoder;
+import java.nio.channels.ServerSocketChannel;
 import java.security.KeyStore;
 import java.util.ArrayList;
 import java.util.Enumeration;
@@ -99,6 +98,17 @@ public abstract class HTTPD {
   private Thread myThread;
   protected Executor asyncRunner;
   protected CacheManagerFactory cacheManagerFactory;
+  /** Flag indicating the NIO (selector based) connection engine should be used */
+  private boolean nioEnabled = false;
+  private int selectorThreads = NioServerRunnable.DEFAULT_SELECTOR_THREADS;
+  private int workerThreads = NioServerRunnable.DEFAULT_WORKER_THREADS;
+  private int workerBacklog = NioServerRunnable.DEFAULT_WORKER_BACKLOG;
+  /** Compresses gzip encoded response bodies, null to stream them as before */
+  private Compressor compressor = null;
+  /** The most parts accepted in a multipart/form-data body */
+  private int maxPartCount = MultipartParser.DEFAULT_MAX_PARTS;
+  /** The largest part accepted in a multipart/form-data body */
+  private long maxPartSize = MultipartParser.DEFAULT_MAX_PART_SIZE;
 
 
 
@@ -163,13 +173,7 @@ public abstract class HTTPD {
    *         "foo bar"
    */
   protected static String decodePercent(final String str) {
-    String decoded = null;
-    try {
-      decoded = URLDecoder.decode(str, "UTF8");
-    } catch (final UnsupportedEncodingException ignored) {
-      Log.append(EVENT, "Encoding not supported, ignored", ignored);
-    }
-    return decoded;
+    return RequestParser.decodePercent(str);
   }
 
 
@@ -455,6 +459,9 @@ public abstract class HTTPD {
    * @return the server runnable.
    */
   protected ServerRunnable createServerRunnable(final int timeout) {
+    if (myServerSocket.getChannel() != null) {
+      return new NioServerRunnable(this, timeout, selectorThreads, workerThreads, workerBacklog);
+    }
     return new ServerRunnable(this, timeout);
   }
 
@@ -555,6 +562,176 @@ public abstract class HTTPD {
   }
 
 
+  /**
+   * Select the connection engine used by this server.
+   * 
+   * <p>By default, the server uses a blocking engine which dedicates a thread 
+   * to each connection for as long as the connection is open. The NIO engine 
+   * waits on idle connections with a few selector threads and only uses a 
+   * thread from a fixed set of workers while a request is being processed. 
+   * This allows the server to hold many more keep-alive connections.</p>
+   * 
+   * <p>The NIO engine is not used for secured (SSL) servers. This must be 
+   * called before {@code start()}.</p>
+   * 
+   * @param flag true to use the NIO engine, false to use the blocking engine
+   */
+  public void setNioEnabled(final boolean flag) {
+    nioEnabled = flag;
+  }
+
+
+
+
+  /**
+   * @return true if this server is configured to use the NIO engine
+   */
+  public boolean isNioEnabled() {
+    return nioEnabled;
+  }
+
+
+
+
+  /**
+   * Set the number of threads the NIO engine uses to watch connections.
+   * 
+   * @param count the number of selector threads
+   */
+  public void setSelectorThreads(final int count) {
+    selectorThreads = count;
+  }
+
+
+
+
+  /**
+   * Set the number of threads the NIO engine uses to process requests.
+   * 
+   * @param count the number of worker threads
+   */
+  public void setWorkerThreads(final int count) {
+    workerThreads = count;
+  }
+
+
+
+
+  /**
+   * @return the compressor used for gzip encoded response bodies, null if
+   *         none has been set
+   */
+  public Compressor getCompressor() {
+    return compressor;
+  }
+
+
+
+
+  /**
+   * Set how gzip encoded response bodies are compressed.
+   * 
+   * <p>There is no compressor by default, so every gzip encoded body is
+   * compressed as it is sent with chunked transfer encoding. With a
+   * compressor, small bodies are sent uncompressed and bodies of known length
+   * are compressed in memory and sent with a Content-Length.
+   * 
+   * @param compressor the compressor to use, null to compress every body as
+   *        it is sent
+   */
+  public void setCompressor(final Compressor compressor) {
+    this.compressor = compressor;
+  }
+
+
+
+
+  /**
+   * @return the maximum number of parts accepted in a multipart/form-data 
+   *         request body
+   */
+  public int getMaxPartCount() {
+    return maxPartCount;
+  }
+
+
+
+
+  /**
+   * Limit the number of parts in a multipart/form-data request body. 
+   * 
+   * <p>Requests with more parts are rejected with a 413 (Payload Too Large) 
+   * response.</p>
+   * 
+   * @param count the maximum number of parts
+   */
+  public void setMaxPartCount(final int count) {
+    maxPartCount = count;
+  }
+
+
+
+
+  /**
+   * @return the maximum size in bytes of a single part of a 
+   *         multipart/form-data request body
+   */
+  public long getMaxPartSize() {
+    return maxPartSize;
+  }
+
+
+
+
+  /**
+   * Limit the size of each part in a multipart/form-data request body. 
+   * 
+   * <p>Requests with a larger part are rejected with a 413 (Payload Too 
+   * Large) response. Form fields (parts without a content type) are held in 
+   * memory and are further limited to 1MB.</p>
+   * 
+   * @param size the maximum size of a part in bytes
+   */
+  public void setMaxPartSize(final long size) {
+    maxPartSize = size;
+  }
+
+
+
+
+  /**
+   * @return the number of threads used to process requests
+   */
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+
+
+
+  /**
+   * Set the number of requests which can wait for a NIO worker thread before 
+   * the server starts rejecting requests with a 503 response.
+   * 
+   * @param count the maximum number of queued requests
+   */
+  public void setWorkerBacklog(final int count) {
+    workerBacklog = count;
+  }
+
+
+
+
+  /**
+   * @return the number of requests which can wait for a worker thread
+   */
+  public int getWorkerBacklog() {
+    return workerBacklog;
+  }
+
+
+
+
   /**
    * Set the server socket factory in this server
    *
@@ -614,7 +791,14 @@ public abstract class HTTPD {
    * @throws IOException if the socket is in use.
    */
   public void start(final int timeout, final boolean daemon) throws IOException {
-    myServerSocket = getServerSocketFactory().create();
+    if (nioEnabled && !(getServerSocketFactory() instanceof SecureServerSocketFactory)) {
+      myServerSocket = ServerSocketChannel.open().socket();
+    } else {
+      if (nioEnabled) {
+        Log.append(EVENT, "NIO engine does not support secured connections, using blocking engine");
+      }
+      myServerSocket = getServerSocketFactory().create();
+    }
     myServerSocket.setReuseAddress(true);
 
     final ServerRunnable serverRunnable = createServerRunnable(timeout);
@@ -8,8 +8,13 @@
 
 package coyote.commons.network.http;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -158,6 +163,67 @@ public interface HTTPSession {
 
 
 
+  /**
+   * Parse the request body, passing the files of a multipart/form-data body 
+   * to the given sink as they are read.
+   * 
+   * <p>Files the sink accepts are not placed in the returned body; all other 
+   * entities are handled as in {@link #parseBody()}.
+   * 
+   * <p>This default implementation parses the body with {@link #parseBody()} 
+   * and then copies each uploaded file to the sink, so the files are still 
+   * stored before the sink sees them. Sessions able to read the parts as 
+   * they arrive should override it.
+   * 
+   * @param sink the destination of uploaded files, may be null
+   * 
+   * @return A collection of body entities
+   * 
+   * @throws IOException if there are problems reading the request stream
+   * @throws ResponseException if there a logical HTTP issues with the format or encoding of the body 
+   */
+  default Body parseBody( PartSink sink ) throws IOException, ResponseException {
+    final Body retval = parseBody();
+    if ( sink == null || retval == null || !Method.POST.equals( getMethod() ) ) {
+      return retval;
+    }
+    final Map<String, String> headers = getRequestHeaders();
+    final String header = headers != null ? headers.get( HTTP.HDR_CONTENT_TYPE.toLowerCase() ) : null;
+    if ( header == null || !new ContentType( header ).isMultipart() ) {
+      return retval;
+    }
+
+    // uploaded files are the entities with a content type
+    final Map<String, String> parms = getParms();
+    for ( final Iterator<Map.Entry<String, Object>> it = retval.entrySet().iterator(); it.hasNext(); ) {
+      final Map.Entry<String, Object> entity = it.next();
+      final ContentType type = retval.getEntityType( entity.getKey() );
+      if ( type == null || !( entity.getValue() instanceof File || entity.getValue() instanceof ByteBuffer ) ) {
+        continue;
+      }
+      final OutputStream out = sink.open( entity.getKey(), parms != null ? parms.get( entity.getKey() ) : null, type );
+      if ( out != null ) {
+        try {
+          if ( entity.getValue() instanceof File ) {
+            Files.copy( ( (File)entity.getValue() ).toPath(), out );
+          } else {
+            final ByteBuffer data = ( (ByteBuffer)entity.getValue() ).duplicate();
+            final byte[] bytes = new byte[data.remaining()];
+            data.get( bytes );
+            out.write( bytes );
+          }
+        } finally {
+          HTTPD.safeClose( out );
+        }
+        it.remove();
+      }
+    }
+    return retval;
+  }
+
+
+
+
   /**
    * @return true if the connection originated on a secured (encrypted) socket server, false if connection is over an unencrypted socket.
    */
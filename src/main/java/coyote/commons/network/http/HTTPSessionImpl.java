@@ -7,37 +7,23 @@
  */
 package coyote.commons.network.http;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutput;
-import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.StringTokenizer;
-import java.util.regex.Matcher;
 
 import javax.net.ssl.SSLException;
 
 import coyote.commons.network.IpAddress;
-import coyote.commons.network.IpAddressException;
+import coyote.commons.network.PackedIpAddress;
 import coyote.commons.network.MimeType;
 import coyote.commons.network.http.auth.AuthProvider;
 import coyote.loader.log.Log;
@@ -50,22 +36,31 @@ class HTTPSessionImpl implements HTTPSession {
   private static final int MEMORY_STORE_LIMIT = 4096;
   public static final int BUFSIZE = 8192;
   public static final int MAX_HEADER_SIZE = 1024;
+  /** Unread request bodies larger than this end the connection instead of being skipped */
+  private static final int MAX_UNREAD_BODY = 64 * 1024;
   private static final List<String> EMPTY_LIST = new ArrayList<String>(0);
   private final CacheManager cacheManager;
-  private final OutputStream outputStream;
-  private final BufferedInputStream inputStream;
+  /** Reused for every response on the connection */
+  private final ResponseWriter outputStream;
+  private final RequestInputStream inputStream;
+  /** Reused for every request on the connection to read the header */
+  private final byte[] buf = new byte[BUFSIZE];
+  /** Reused for every request on the connection to parse the header */
+  private final RequestParser parser = new RequestParser();
   private int splitbyte;
   private int rlen;
   private String uri;
   private Method method;
-  private Map<String, String> parms;
+  private final Map<String, String> parms = new HashMap<String, String>();
   /** Request Headers */
-  private Map<String, String> requestHeaders;
+  private final Map<String, String> requestHeaders = new HeaderMap();
   /** Response Headers */
-  private Map<String, String> responseHeaders;
+  private final Map<String, String> responseHeaders = new HashMap<String, String>();
   private CookieHandler cookies;
   private String queryParameterString;
+  private PackedIpAddress remote;
   private IpAddress remoteIp;
+  private String remoteAddr;
   private int remotePort;
   private String protocolVersion;
   private String username = null;
@@ -86,10 +81,8 @@ class HTTPSessionImpl implements HTTPSession {
   public HTTPSessionImpl(HTTPD httpd, final CacheManager cacheManager, final InputStream inputStream, final OutputStream outputStream, boolean secured) {
     this.httpd = httpd;
     this.cacheManager = cacheManager;
-    this.inputStream = new BufferedInputStream(inputStream, HTTPSessionImpl.BUFSIZE);
-    this.outputStream = outputStream;
-    requestHeaders = new HashMap<>();
-    responseHeaders = new HashMap<>();
+    this.inputStream = new RequestInputStream(inputStream, HTTPSessionImpl.BUFSIZE);
+    this.outputStream = new ResponseWriter(outputStream);
     secure = secured;
   }
 
@@ -109,175 +102,9 @@ class HTTPSessionImpl implements HTTPSession {
   public HTTPSessionImpl(HTTPD httpd, final CacheManager cacheManager, final InputStream inputStream, final OutputStream outputStream, final InetAddress inetAddress, final int port, boolean secured) {
     this(httpd, cacheManager, inputStream, outputStream, secured);
     remotePort = port;
-    try {
-      remoteIp = inetAddress.isLoopbackAddress() || inetAddress.isAnyLocalAddress() ? IpAddress.IPV4_LOOPBACK_ADDRESS : new IpAddress(inetAddress.getAddress());
-    } catch (IpAddressException e) {
-      // should never happen from java.net.InetAddress but spew a stack trace if it does
-      e.printStackTrace();
-    }
-  }
-
-
-
-
-  /**
-   * Decodes the sent headers and loads the data into Key/value pairs
-   */
-  private void decodeHeader(final BufferedReader in, final Map<String, String> pre, final Map<String, String> parms, final Map<String, String> headers) throws ResponseException {
-    try {
-      // Read the request line
-      final String inLine = in.readLine();
-      if (inLine != null) {
-
-        final StringTokenizer st = new StringTokenizer(inLine);
-        if (!st.hasMoreTokens()) {
-          throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
-        }
-
-        pre.put("method", st.nextToken());
-
-        if (!st.hasMoreTokens()) {
-          throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
-        }
-
-        String uri = st.nextToken();
-
-        // Decode parameters from the URI
-        final int qmi = uri.indexOf('?');
-        if (qmi >= 0) {
-          decodeParms(uri.substring(qmi + 1), parms);
-          uri = HTTPD.decodePercent(uri.substring(0, qmi));
-        } else {
-          uri = HTTPD.decodePercent(uri);
-        }
-
-        // If there's another token, its protocol version, followed by HTTP headers.
-        // NOTE: this now forces header names lower case since they are case-
-        // insensitive and vary by client.
-        if (st.hasMoreTokens()) {
-          protocolVersion = st.nextToken();
-        } else {
-          protocolVersion = HTTP.VERSION_1_1;
-          Log.append(HTTPD.EVENT, "No protocol version specified. Assuming HTTP/1.1");
-        }
-        String line = in.readLine();
-        while ((line != null) && !line.trim().isEmpty()) {
-          final int p = line.indexOf(':');
-          if (p >= 0) {
-            headers.put(line.substring(0, p).trim().toLowerCase(Locale.US), line.substring(p + 1).trim());
-          }
-          line = in.readLine();
-        }
-
-        pre.put("uri", uri);
-      }
-    } catch (final IOException ioe) {
-      throw new ResponseException(Status.INTERNAL_ERROR, "SERVER INTERNAL ERROR: IOException: " + ioe.getMessage(), ioe);
-    }
-  }
-
-
-
-
-  /**
-   * Decodes the Multipart Body data and put it into Key/Value pairs.
-   */
-  private void decodeMultipartFormData(final ContentType contentType, final ByteBuffer fbuf, final Map<String, String> parms, final Body body) throws ResponseException {
-    int pcount = 0;
-    try {
-      final int[] boundaryIdxs = getBoundaryPositions(fbuf, contentType.getBoundary().getBytes());
-      if (boundaryIdxs.length < 2) {
-        throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but contains less than two boundary strings.");
-      }
-
-      final byte[] partHeaderBuff = new byte[MAX_HEADER_SIZE];
-      for (int boundaryIdx = 0; boundaryIdx < (boundaryIdxs.length - 1); boundaryIdx++) {
-        fbuf.position(boundaryIdxs[boundaryIdx]);
-        final int len = (fbuf.remaining() < MAX_HEADER_SIZE) ? fbuf.remaining() : MAX_HEADER_SIZE;
-        fbuf.get(partHeaderBuff, 0, len);
-        final BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(partHeaderBuff, 0, len), Charset.forName(contentType.getEncoding())), len);
-
-        int headerLines = 0;
-        // First line is boundary string
-        String mpline = in.readLine();
-        headerLines++;
-        if ((mpline == null) || !mpline.contains(contentType.getBoundary())) {
-          throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but chunk does not start with boundary.");
-        }
-
-        String partName = null;
-        String fileName = null;
-        String partContentType = null;
-        // Parse the reset of the header lines
-        mpline = in.readLine();
-        headerLines++;
-        while ((mpline != null) && (mpline.trim().length() > 0)) {
-          Matcher matcher = HTTPD.CONTENT_DISPOSITION_PATTERN.matcher(mpline);
-          if (matcher.matches()) {
-            final String attributeString = matcher.group(2);
-            matcher = HTTPD.CONTENT_DISPOSITION_ATTRIBUTE_PATTERN.matcher(attributeString);
-            while (matcher.find()) {
-              final String key = matcher.group(1);
-              if ("name".equalsIgnoreCase(key)) {
-                partName = matcher.group(2);
-              } else if ("filename".equalsIgnoreCase(key)) {
-                fileName = matcher.group(2);
-                // add these two line to support multiple files uploaded using 
-                // the same field Id
-                if (!fileName.isEmpty()) {
-                  if (pcount > 0) {
-                    partName = partName + String.valueOf(pcount++);
-                  } else {
-                    pcount++;
-                  }
-                }
-              }
-            }
-          }
-          matcher = HTTPD.CONTENT_TYPE_PATTERN.matcher(mpline);
-          if (matcher.matches()) {
-            partContentType = matcher.group(2).trim();
-          }
-          mpline = in.readLine();
-          headerLines++;
-        }
-        int partHeaderLength = 0;
-        while (headerLines-- > 0) {
-          partHeaderLength = skipPastNewLine(partHeaderBuff, partHeaderLength);
-        }
-        // Read the part data
-        if (partHeaderLength >= (len - 4)) {
-          throw new ResponseException(Status.INTERNAL_ERROR, "Multipart header size exceeds MAX_HEADER_SIZE.");
-        }
-        final int partDataStart = boundaryIdxs[boundaryIdx] + partHeaderLength;
-        final int partDataEnd = boundaryIdxs[boundaryIdx + 1] - 4;
-
-        fbuf.position(partDataStart);
-        if (partContentType == null) {
-          // Read the part into a string
-          final byte[] data_bytes = new byte[partDataEnd - partDataStart];
-          fbuf.get(data_bytes);
-          parms.put(partName, new String(data_bytes, contentType.getEncoding()));
-        } else {
-          // Read it into a file
-          final String path = saveTmpFile(fbuf, partDataStart, partDataEnd - partDataStart, fileName);
-          if (!body.containsKey(partName)) {
-            body.put(partName, new File(path), new ContentType(partContentType));
-          } else {
-            int count = 2;
-            while (body.containsKey(partName + count)) {
-              count++;
-            }
-            body.put(partName + count, new File(path), new ContentType(partContentType));
-          }
-          parms.put(partName, fileName);
-        }
-      }
-    } catch (final ResponseException re) {
-      throw re;
-    } catch (final Exception e) {
-      throw new ResponseException(Status.INTERNAL_ERROR, e.toString());
-    }
+    // the IpAddress is only created if someone asks for it
+    remote = inetAddress.isLoopbackAddress() || inetAddress.isAnyLocalAddress() ? PackedIpAddress.IPV4_LOOPBACK : PackedIpAddress.valueOf(inetAddress);
+    remoteAddr = remote.toString();
   }
 
 
@@ -292,15 +119,21 @@ class HTTPSessionImpl implements HTTPSession {
       queryParameterString = "";
     } else {
       queryParameterString = parms;
-      final StringTokenizer st = new StringTokenizer(parms, "&");
-      while (st.hasMoreTokens()) {
-        final String e = st.nextToken();
-        final int sep = e.indexOf('=');
-        if (sep >= 0) {
-          p.put(HTTPD.decodePercent(e.substring(0, sep)).trim(), HTTPD.decodePercent(e.substring(sep + 1)));
-        } else {
-          p.put(HTTPD.decodePercent(e).trim(), "");
+      int pos = 0;
+      while (pos < parms.length()) {
+        int amp = parms.indexOf('&', pos);
+        if (amp < 0) {
+          amp = parms.length();
         }
+        if (amp > pos) {
+          final int sep = parms.indexOf('=', pos);
+          if ((sep >= 0) && (sep < amp)) {
+            p.put(HTTPD.decodePercent(parms.substring(pos, sep)).trim(), HTTPD.decodePercent(parms.substring(sep + 1, amp)));
+          } else {
+            p.put(HTTPD.decodePercent(parms.substring(pos, amp)).trim(), "");
+          }
+        }
+        pos = amp + 1;
       }
     }
   }
@@ -316,7 +149,6 @@ class HTTPSessionImpl implements HTTPSession {
     Response response = null;
     try {
       // Read the first 8192 bytes; this _should_ fit the entire header.
-      final byte[] buf = new byte[HTTPSessionImpl.BUFSIZE];
       splitbyte = 0;
       rlen = 0;
 
@@ -338,8 +170,8 @@ class HTTPSessionImpl implements HTTPSession {
         throw new SocketException("HTTPD Shutdown");
       }
       while (read > 0) {
+        splitbyte = RequestParser.findHeaderEnd(buf, rlen, rlen + read);
         rlen += read;
-        splitbyte = findHeaderEnd(buf, rlen);
         if (splitbyte > 0) {
           break;
         }
@@ -351,36 +183,33 @@ class HTTPSessionImpl implements HTTPSession {
         inputStream.skip(splitbyte);
       }
 
-      parms = new HashMap<String, String>();
-      if (null == requestHeaders) {
-        requestHeaders = new HashMap<String, String>();
-      } else {
-        requestHeaders.clear();
-      }
-
-      // Create a BufferedReader for parsing the header.
-      final BufferedReader hin = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buf, 0, rlen)));
+      parms.clear();
+      requestHeaders.clear();
 
-      // Decode the header into parms and header java properties
-      final Map<String, String> pre = new HashMap<String, String>();
-      decodeHeader(hin, pre, parms, requestHeaders);
+      // Decode the header into parms and headers directly from the buffer
+      parser.parse(buf, splitbyte > 0 ? splitbyte : rlen, requestHeaders, parms);
+      protocolVersion = parser.protocolVersion;
+      queryParameterString = parser.queryParameterString;
 
-      if (null != remoteIp) {
-        requestHeaders.put("remote-addr", remoteIp.toString());
-        requestHeaders.put("http-client-ip", remoteIp.toString());
+      if (null != remoteAddr) {
+        requestHeaders.put("remote-addr", remoteAddr);
+        requestHeaders.put("http-client-ip", remoteAddr);
       }
 
-      method = Method.lookup(pre.get("method"));
+      method = parser.method;
       if (method == null) {
-        throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Syntax error. HTTP verb " + pre.get("method") + " unhandled.");
+        throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Syntax error. HTTP verb " + parser.methodName + " unhandled.");
       }
 
-      uri = pre.get("uri");
+      uri = parser.uri;
 
       cookies = new CookieHandler(requestHeaders);
 
       final String connection = requestHeaders.get("connection");
-      final boolean keepAlive = HTTP.VERSION_1_1.equals(protocolVersion) && ((connection == null) || !connection.matches("(?i).*close.*"));
+      boolean keepAlive = HTTP.VERSION_1_1.equals(protocolVersion) && ((connection == null) || !containsIgnoreCase(connection, HTTP.CLOSE));
+
+      // where the next pipelined request starts
+      final long requestEnd = inputStream.getPosition() + getContentLength();
 
       response = this.httpd.serve(this);
 
@@ -390,7 +219,10 @@ class HTTPSessionImpl implements HTTPSession {
         final String acceptEncoding = requestHeaders.get("accept-encoding");
         cookies.unloadQueue(response);
         response.setRequestMethod(method);
+        response.setCompressor(this.httpd.getCompressor());
         response.setGzipEncoding(this.httpd.useGzipWhenAccepted(response) && (acceptEncoding != null) && acceptEncoding.contains("gzip"));
+        // skipping a large body the responder did not read costs more than reconnecting
+        keepAlive &= (requestEnd - inputStream.getPosition()) <= MAX_UNREAD_BODY;
         response.setKeepAlive(keepAlive);
         response.addHeaders(responseHeaders);
         response.send(outputStream);
@@ -398,6 +230,7 @@ class HTTPSessionImpl implements HTTPSession {
       if (!keepAlive || response.isCloseConnection()) {
         throw new SocketException("HTTPD Shutdown");
       }
+      inputStream.skipTo(requestEnd);
     } catch (final SocketException e) {
       // re-throw it to close socket in (finalAccept)
       throw e;
@@ -429,24 +262,33 @@ class HTTPSessionImpl implements HTTPSession {
 
 
   /**
-   * Find byte index separating header from body. 
-   * 
-   * <p>It must be the last byte of the first two sequential new lines.
+   * @return true if the given text contains the given lower case word in any
+   *         case
    */
-  private int findHeaderEnd(final byte[] buf, final int rlen) {
-    int splitbyte = 0;
-    while ((splitbyte + 1) < rlen) {
-
-      // RFC2616
-      if ((buf[splitbyte] == '\r') && (buf[splitbyte + 1] == '\n') && ((splitbyte + 3) < rlen) && (buf[splitbyte + 2] == '\r') && (buf[splitbyte + 3] == '\n')) {
-        return splitbyte + 4;
+  private static boolean containsIgnoreCase(final String text, final String word) {
+    for (int x = 0; x <= (text.length() - word.length()); x++) {
+      if (text.regionMatches(true, x, word, 0, word.length())) {
+        return true;
       }
+    }
+    return false;
+  }
+
+
 
-      // tolerance
-      if ((buf[splitbyte] == '\n') && (buf[splitbyte + 1] == '\n')) {
-        return splitbyte + 2;
+
+  /**
+   * @return the length of the request body given in the "content-length"
+   *         header, or 0 if there is none
+   */
+  private long getContentLength() {
+    final String value = requestHeaders.get(HTTP.HDR_CONTENT_LENGTH.toLowerCase());
+    if (value != null) {
+      try {
+        return Math.max(0, Long.parseLong(value.trim()));
+      } catch (final NumberFormatException e) {
+        // treated as having no body
       }
-      splitbyte++;
     }
     return 0;
   }
@@ -470,58 +312,6 @@ class HTTPSessionImpl implements HTTPSession {
 
 
 
-  /**
-   * Find the byte positions where multi-part boundaries start. 
-   * 
-   * <p>This reads a large block at a time and uses a temporary buffer to 
-   * optimize file access.
-   */
-  private int[] getBoundaryPositions(final ByteBuffer b, final byte[] boundary) {
-    int[] res = new int[0];
-    if (b.remaining() < boundary.length) {
-      return res;
-    }
-
-    int search_window_pos = 0;
-    final byte[] search_window = new byte[(4 * 1024) + boundary.length];
-
-    final int first_fill = (b.remaining() < search_window.length) ? b.remaining() : search_window.length;
-    b.get(search_window, 0, first_fill);
-    int new_bytes = first_fill - boundary.length;
-
-    do {
-      // Search the search_window
-      for (int j = 0; j < new_bytes; j++) {
-        for (int i = 0; i < boundary.length; i++) {
-          if (search_window[j + i] != boundary[i]) {
-            break;
-          }
-          if (i == (boundary.length - 1)) {
-            // Match found, add it to results
-            final int[] new_res = new int[res.length + 1];
-            System.arraycopy(res, 0, new_res, 0, res.length);
-            new_res[res.length] = search_window_pos + j;
-            res = new_res;
-          }
-        }
-      }
-      search_window_pos += new_bytes;
-
-      // Copy the end of the buffer to the start
-      System.arraycopy(search_window, search_window.length - boundary.length, search_window, 0, boundary.length);
-
-      // Refill search_window
-      new_bytes = search_window.length - boundary.length;
-      new_bytes = (b.remaining() < new_bytes) ? b.remaining() : new_bytes;
-      b.get(search_window, boundary.length, new_bytes);
-    }
-    while (new_bytes > 0);
-    return res;
-  }
-
-
-
-
   @Override
   public CookieHandler getCookies() {
     return cookies;
@@ -589,6 +379,9 @@ class HTTPSessionImpl implements HTTPSession {
    */
   @Override
   public IpAddress getRemoteIpAddress() {
+    if ((remoteIp == null) && (remote != null)) {
+      remoteIp = remote == PackedIpAddress.IPV4_LOOPBACK ? IpAddress.IPV4_LOOPBACK_ADDRESS : remote.toIpAddress();
+    }
     return remoteIp;
   }
 
@@ -606,134 +399,104 @@ class HTTPSessionImpl implements HTTPSession {
 
 
 
-  private RandomAccessFile getTmpBucket() {
-    try {
-      final CacheFile tempFile = cacheManager.createCacheFile(null);
-      return new RandomAccessFile(tempFile.getName(), "rw");
-    } catch (final Exception e) {
-      throw new Error(e); // we won't recover, so throw an error
-    }
+  @Override
+  public final String getUri() {
+    return uri;
   }
 
 
 
 
   @Override
-  public final String getUri() {
-    return uri;
+  public Body parseBody() throws IOException, ResponseException {
+    return parseBody(null);
   }
 
 
 
 
+  /**
+   * @see coyote.commons.network.http.HTTPSession#parseBody(coyote.commons.network.http.PartSink)
+   */
   @Override
-  public Body parseBody() throws IOException, ResponseException {
+  public Body parseBody(final PartSink sink) throws IOException, ResponseException {
     Body retval = new Body();
 
-    RandomAccessFile randomAccessFile = null;
-    try {
-      long size = getBodySize();
-      ByteArrayOutputStream baos = null;
-      DataOutput requestDataOutput = null;
-
-      // Store the request in memory or a file, depending on size
-      if (size < MEMORY_STORE_LIMIT) {
-        baos = new ByteArrayOutputStream();
-        requestDataOutput = new DataOutputStream(baos);
-      } else {
-        randomAccessFile = getTmpBucket();
-        requestDataOutput = randomAccessFile;
-      }
-
-      // Read all the body and write it to request_data_output
-      final byte[] buf = new byte[REQUEST_BUFFER_LEN];
-      while ((rlen >= 0) && (size > 0)) {
-        rlen = inputStream.read(buf, 0, (int)Math.min(size, REQUEST_BUFFER_LEN));
-        size -= rlen;
-        if (rlen > 0) {
-          requestDataOutput.write(buf, 0, rlen);
+    // Multipart bodies are parsed as they are read, without storing them
+    if (Method.POST.equals(method)) {
+      final ContentType contentType = new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase()));
+      if (contentType.isMultipart()) {
+        if (contentType.getBoundary() == null) {
+          throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
         }
-      }
-
-      ByteBuffer fbuf = null;
-      if (baos != null) {
-        fbuf = ByteBuffer.wrap(baos.toByteArray(), 0, baos.size());
-      } else {
-        fbuf = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
-        randomAccessFile.seek(0);
-      }
-
-      // If the method is POST, there may be parameters in data section, too, 
-      // read them:
-      if (Method.POST.equals(method)) {
-        final ContentType contentType = new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase()));
-        if (contentType.isMultipart()) {
-          final String boundary = contentType.getBoundary();
-          if (boundary == null) {
-            throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
-          }
-          decodeMultipartFormData(contentType, fbuf, parms, retval);
-        } else {
-          final byte[] postBytes = new byte[fbuf.remaining()];
-          fbuf.get(postBytes);
-          final String postLine = new String(postBytes, contentType.getEncoding()).trim();
-          // Handle application/x-www-form-urlencoded
-          if (MimeType.APPLICATION_FORM.getType().equalsIgnoreCase(contentType.getContentType())) {
-            decodeParms(postLine, parms);
-          } else if (postLine.length() != 0) {
-            // Special case for raw POST data => create a special files entry 
-            // "postData" with raw content data
-            retval.put("postData", postLine);
-          }
+        final MultipartParser parser = new MultipartParser(inputStream, getBodySize(), contentType, cacheManager);
+        if (httpd != null) {
+          parser.setMaxParts(httpd.getMaxPartCount());
+          parser.setMaxPartSize(httpd.getMaxPartSize());
         }
-      } else {
-        retval.put(Body.CONTENT, fbuf, new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase())));
+        parser.parse(sink, parms, retval);
+        return retval;
       }
-    } finally {
-      HTTPD.safeClose(randomAccessFile);
     }
 
-    return retval;
-  }
-
-
+    long size = getBodySize();
+    OutputStream requestDataOutput = null;
+    CacheFile cacheFile = null;
 
-
-  /**
-   * Retrieves the content of a sent file and saves it to a temporary file. 
-   * 
-   * The full path to the saved file is returned.
-   */
-  private String saveTmpFile(final ByteBuffer b, final int offset, final int len, final String filename_hint) {
-    String path = "";
-    if (len > 0) {
-      FileOutputStream fileOutputStream = null;
+    // Store the request in memory or a cache file, depending on size
+    if (size < MEMORY_STORE_LIMIT) {
+      requestDataOutput = new ByteArrayOutputStream();
+    } else {
       try {
-        final CacheFile tempFile = cacheManager.createCacheFile(filename_hint);
-        final ByteBuffer src = b.duplicate();
-        fileOutputStream = new FileOutputStream(tempFile.getName());
-        final FileChannel dest = fileOutputStream.getChannel();
-        src.position(offset).limit(offset + len);
-        dest.write(src.slice());
-        path = tempFile.getName();
+        cacheFile = cacheManager.createCacheFile(null);
+        requestDataOutput = cacheFile.open();
       } catch (final Exception e) {
-        throw new Error(e);
-      } finally {
-        HTTPD.safeClose(fileOutputStream);
+        throw new Error(e); // we won't recover, so throw an error
       }
     }
-    return path;
-  }
-
 
+    // Read all the body and write it to request_data_output
+    final byte[] buf = new byte[REQUEST_BUFFER_LEN];
+    while ((rlen >= 0) && (size > 0)) {
+      rlen = inputStream.read(buf, 0, (int)Math.min(size, REQUEST_BUFFER_LEN));
+      size -= rlen;
+      if (rlen > 0) {
+        requestDataOutput.write(buf, 0, rlen);
+      }
+    }
 
+    ByteBuffer fbuf = null;
+    if (cacheFile == null) {
+      final ByteArrayOutputStream baos = (ByteArrayOutputStream)requestDataOutput;
+      fbuf = ByteBuffer.wrap(baos.toByteArray(), 0, baos.size());
+    } else {
+      try {
+        fbuf = cacheFile.getBuffer();
+      } catch (final Exception e) {
+        throw new ResponseException(Status.INTERNAL_ERROR, e.toString());
+      }
+    }
 
-  private int skipPastNewLine(final byte[] partHeaderBuff, int index) {
-    int retval = index;
-    while (partHeaderBuff[retval] != '\n') {
-      retval++;
+    // If the method is POST, there may be parameters in data section, too, 
+    // read them:
+    if (Method.POST.equals(method)) {
+      final ContentType contentType = new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase()));
+      final byte[] postBytes = new byte[fbuf.remaining()];
+      fbuf.get(postBytes);
+      final String postLine = new String(postBytes, contentType.getEncoding()).trim();
+      // Handle application/x-www-form-urlencoded
+      if (MimeType.APPLICATION_FORM.getType().equalsIgnoreCase(contentType.getContentType())) {
+        decodeParms(postLine, parms);
+      } else if (postLine.length() != 0) {
+        // Special case for raw POST data => create a special files entry 
+        // "postData" with raw content data
+        retval.put("postData", postLine);
+      }
+    } else {
+      retval.put(Body.CONTENT, fbuf, new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase())));
     }
-    return ++retval;
+
+    return retval;
   }
 
 
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * A map of header names to values where the names are case-insensitive.
+ *
+ * <p>Names are stored in lower case so iterating over the map yields the same
+ * names as always, but lookups such as {@code get("Content-Type")} and
+ * {@code get("content-type")} both work. Names which are already lower case
+ * (as with all the names produced by the request parser) are used as-is
+ * without allocating a new string.
+ */
+class HeaderMap extends HashMap<String, String> {
+
+  private static final long serialVersionUID = 5425838367209212870L;
+
+
+
+
+  HeaderMap() {
+    super(32);
+  }
+
+
+
+
+  /**
+   * Return the lower case form of the given name.
+   *
+   * @param name the name to normalize
+   *
+   * @return the name itself if it is already lower case, a lower case copy
+   *         otherwise
+   */
+  static String normalize(final String name) {
+    if (name != null) {
+      for (int x = 0; x < name.length(); x++) {
+        final char c = name.charAt(x);
+        if (c >= 'A' && c <= 'Z' || c > 0x7F) {
+          return name.toLowerCase(Locale.US);
+        }
+      }
+    }
+    return name;
+  }
+
+
+
+
+  @Override
+  public boolean containsKey(final Object key) {
+    return super.containsKey(key instanceof String ? normalize((String)key) : key);
+  }
+
+
+
+
+  @Override
+  public String get(final Object key) {
+    return super.get(key instanceof String ? normalize((String)key) : key);
+  }
+
+
+
+
+  @Override
+  public String getOrDefault(final Object key, final String defaultValue) {
+    return super.getOrDefault(key instanceof String ? normalize((String)key) : key, defaultValue);
+  }
+
+
+
+
+  @Override
+  public String put(final String key, final String value) {
+    return super.put(normalize(key), value);
+  }
+
+
+
+
+  @Override
+  public void putAll(final Map<? extends String, ? extends String> map) {
+    for (final Map.Entry<? extends String, ? extends String> entry : map.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+
+
+
+  @Override
+  public String remove(final Object key) {
+    return super.remove(key instanceof String ? normalize((String)key) : key);
+  }
+
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+
+/**
+ * Parses a multipart/form-data request body as it is read from the
+ * connection.
+ *
+ * <p>The body is read once, through a small buffer, and is never stored as a
+ * whole. The part delimiters are located with a Boyer-Moore-Horspool search
+ * and the data of each part is written directly to its destination: form
+ * fields are collected in memory and placed in the parameters, files are
+ * written to a cache file (or the stream supplied by a {@link PartSink}) and
+ * placed in the body.</p>
+ *
+ * <p>The number of parts and the size of each part are limited. Requests
+ * exceeding the limits are rejected with a 413 (Payload Too Large) response
+ * before the rest of the body is read.</p>
+ */
+class MultipartParser {
+
+  /** The default limit on the number of parts in a body */
+  public static final int DEFAULT_MAX_PARTS = 256;
+
+  /** The default limit on the size of a single part */
+  public static final long DEFAULT_MAX_PART_SIZE = 256L * 1024 * 1024;
+
+  /** Form fields are held in memory and limited to this size */
+  public static final int MAX_FIELD_SIZE = 1024 * 1024;
+
+  private static final byte CR = '\r';
+
+  private static final byte LF = '\n';
+
+  private static final byte DASH = '-';
+
+  private final InputStream in;
+
+  private final CacheManager cacheManager;
+
+  private final String encoding;
+
+  /** The delimiter preceding each part: CRLF, two dashes and the boundary */
+  private final byte[] delimiter;
+
+  /** Boyer-Moore-Horspool bad character shifts for the delimiter */
+  private final int[] shift = new int[256];
+
+  private final byte[] buf;
+
+  /** Position of the next unread byte in the buffer */
+  private int pos = 0;
+
+  /** Position after the last valid byte in the buffer */
+  private int lim = 0;
+
+  /** Number of bytes of the body not yet read from the stream */
+  private long remaining;
+
+  private int maxParts = DEFAULT_MAX_PARTS;
+
+  private long maxPartSize = DEFAULT_MAX_PART_SIZE;
+
+  /** Counts files uploaded with the same field name */
+  private int pcount = 0;
+
+
+
+
+  /**
+   * @param in the stream positioned at the start of the body
+   * @param length the length of the body, no more than this is read
+   * @param contentType the content type of the request with the boundary
+   * @param cacheManager the source of cache files for uploaded files
+   */
+  MultipartParser( final InputStream in, final long length, final ContentType contentType, final CacheManager cacheManager ) {
+    this.in = in;
+    this.cacheManager = cacheManager;
+    remaining = length;
+    encoding = contentType.getEncoding();
+
+    final byte[] boundary = contentType.getBoundary().getBytes();
+    delimiter = new byte[boundary.length + 4];
+    delimiter[0] = CR;
+    delimiter[1] = LF;
+    delimiter[2] = DASH;
+    delimiter[3] = DASH;
+    System.arraycopy( boundary, 0, delimiter, 4, boundary.length );
+
+    final int last = delimiter.length - 1;
+    for ( int i = 0; i < shift.length; i++ ) {
+      shift[i] = delimiter.length;
+    }
+    for ( int i = 0; i < last; i++ ) {
+      shift[delimiter[i] & 0xFF] = last - i;
+    }
+
+    buf = new byte[Math.max( HTTPSessionImpl.BUFSIZE, 2 * delimiter.length )];
+
+    // the first delimiter need not be preceded by a line break, pretend it is
+    buf[lim++] = CR;
+    buf[lim++] = LF;
+  }
+
+
+
+
+  /**
+   * @param max the maximum number of parts allowed in the body
+   */
+  void setMaxParts( final int max ) {
+    maxParts = max;
+  }
+
+
+
+
+  /**
+   * @param max the maximum size in bytes of the data of a single part
+   */
+  void setMaxPartSize( final long max ) {
+    maxPartSize = max;
+  }
+
+
+
+
+  /**
+   * Read the body, placing form fields in the parameters and files in the
+   * body.
+   *
+   * @param sink the destination of file parts, may be null to store them all
+   *        in cache files
+   * @param parms the parameters of the request
+   * @param body the body of the request
+   *
+   * @throws IOException if the body could not be read
+   * @throws ResponseException if the body is malformed or exceeds the limits
+   */
+  void parse( final PartSink sink, final Map<String, String> parms, final Body body ) throws IOException, ResponseException {
+    // skip the preamble
+    if ( copyToDelimiter( null, Long.MAX_VALUE ) < 0 ) {
+      throw new ResponseException( Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but contains no boundary." );
+    }
+
+    int parts = 0;
+    while ( !isCloseDelimiter() ) {
+      if ( ++parts > maxParts ) {
+        throw new ResponseException( Status.PAYLOAD_TOO_LARGE, "Multipart body exceeds " + maxParts + " parts." );
+      }
+      readPart( sink, parms, body );
+    }
+
+    // discard the epilogue so the next request on the connection is intact
+    pos = lim;
+    while ( fill() ) {
+      pos = lim;
+    }
+  }
+
+
+
+
+  private void readPart( final PartSink sink, final Map<String, String> parms, final Body body ) throws IOException, ResponseException {
+    String partName = null;
+    String fileName = null;
+    String partContentType = null;
+
+    int headerSize = 0;
+    String line = readLine();
+    while ( line != null && line.trim().length() > 0 ) {
+      headerSize += line.length();
+      if ( headerSize > HTTPSessionImpl.MAX_HEADER_SIZE ) {
+        throw new ResponseException( Status.BAD_REQUEST, "BAD REQUEST: Multipart header size exceeds MAX_HEADER_SIZE." );
+      }
+      Matcher matcher = HTTPD.CONTENT_DISPOSITION_PATTERN.matcher( line );
+      if ( matcher.matches() ) {
+        matcher = HTTPD.CONTENT_DISPOSITION_ATTRIBUTE_PATTERN.matcher( matcher.group( 2 ) );
+        while ( matcher.find() ) {
+          final String key = matcher.group( 1 );
+          if ( "name".equalsIgnoreCase( key ) ) {
+            partName = matcher.group( 2 );
+          } else if ( "filename".equalsIgnoreCase( key ) ) {
+            fileName = matcher.group( 2 );
+            // support multiple files uploaded using the same field name
+            if ( !fileName.isEmpty() ) {
+              if ( pcount > 0 ) {
+                partName = partName + String.valueOf( pcount++ );
+              } else {
+                pcount++;
+              }
+            }
+          }
+        }
+      }
+      matcher = HTTPD.CONTENT_TYPE_PATTERN.matcher( line );
+      if ( matcher.matches() ) {
+        partContentType = matcher.group( 2 ).trim();
+      }
+      line = readLine();
+    }
+    if ( line == null ) {
+      throw new ResponseException( Status.BAD_REQUEST, "BAD REQUEST: Multipart body ends within the part headers." );
+    }
+
+    if ( partContentType == null ) {
+      final ByteArrayOutputStream data = new ByteArrayOutputStream();
+      copyPart( data, Math.min( maxPartSize, MAX_FIELD_SIZE ) );
+      parms.put( partName, new String( data.toByteArray(), encoding ) );
+      return;
+    }
+
+    final ContentType type = new ContentType( partContentType );
+    final OutputStream out = sink != null ? sink.open( partName, fileName, type ) : null;
+    if ( out != null ) {
+      try {
+        copyPart( out, maxPartSize );
+      } finally {
+        HTTPD.safeClose( out );
+      }
+    } else {
+      final CacheFile cacheFile;
+      final OutputStream file;
+      try {
+        cacheFile = cacheManager.createCacheFile( fileName );
+        file = cacheFile.open();
+      } catch ( final Exception e ) {
+        throw new ResponseException( Status.INTERNAL_ERROR, e.toString() );
+      }
+      try {
+        copyPart( file, maxPartSize );
+      } finally {
+        HTTPD.safeClose( file );
+      }
+      String key = partName;
+      if ( body.containsKey( key ) ) {
+        int count = 2;
+        while ( body.containsKey( partName + count ) ) {
+          count++;
+        }
+        key = partName + count;
+      }
+      // cache files kept in memory are placed in the body as buffers
+      final String path = cacheFile.getName();
+      if ( path != null ) {
+        body.put( key, new File( path ), type );
+      } else {
+        try {
+          body.put( key, cacheFile.getBuffer(), type );
+        } catch ( final Exception e ) {
+          throw new ResponseException( Status.INTERNAL_ERROR, e.toString() );
+        }
+      }
+    }
+    parms.put( partName, fileName );
+  }
+
+
+
+
+  /**
+   * Copy the data of a part to the given stream.
+   */
+  private void copyPart( final OutputStream out, final long limit ) throws IOException, ResponseException {
+    final long size = copyToDelimiter( out, limit );
+    if ( size < 0 ) {
+      throw new ResponseException( Status.BAD_REQUEST, "BAD REQUEST: Multipart body ends without a closing boundary." );
+    }
+  }
+
+
+
+
+  /**
+   * Copy everything up to the next delimiter to the given stream and position
+   * the buffer after the delimiter.
+   *
+   * <p>Only the tail of the buffer which may hold the start of a delimiter is
+   * kept between reads, the rest is written out as soon as it is
+   * searched.</p>
+   *
+   * @param out the stream to receive the data, null to discard it
+   * @param limit the maximum number of bytes expected before the delimiter
+   *
+   * @return the number of bytes before the delimiter or -1 if the body ended
+   *         without one
+   */
+  private long copyToDelimiter( final OutputStream out, final long limit ) throws IOException, ResponseException {
+    long count = 0;
+    while ( true ) {
+      final int found = indexOf( pos, lim );
+      final int end = found >= 0 ? found : Math.max( pos, lim - delimiter.length + 1 );
+      final int length = end - pos;
+      if ( length > 0 ) {
+        count += length;
+        if ( count > limit ) {
+          throw new ResponseException( Status.PAYLOAD_TOO_LARGE, "Multipart body part exceeds " + limit + " bytes." );
+        }
+        if ( out != null ) {
+          out.write( buf, pos, length );
+        }
+        pos = end;
+      }
+      if ( found >= 0 ) {
+        pos += delimiter.length;
+        return count;
+      }
+      if ( !fill() ) {
+        return -1;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Boyer-Moore-Horspool search for the delimiter in the buffer.
+   *
+   * @return the position of the delimiter or -1 if it does not occur
+   *         entirely within the given range
+   */
+  private int indexOf( final int from, final int to ) {
+    final int last = delimiter.length - 1;
+    int i = from;
+    while ( i + last < to ) {
+      int j = last;
+      while ( buf[i + j] == delimiter[j] ) {
+        if ( j == 0 ) {
+          return i;
+        }
+        j--;
+      }
+      i += shift[buf[i + last] & 0xFF];
+    }
+    return -1;
+  }
+
+
+
+
+  /**
+   * Consume the rest of the line following a delimiter.
+   *
+   * @return true if the delimiter closes the body (it is followed by two
+   *         dashes), false if another part follows
+   */
+  private boolean isCloseDelimiter() throws IOException, ResponseException {
+    while ( lim - pos < 2 ) {
+      if ( !fill() ) {
+        throw new ResponseException( Status.BAD_REQUEST, "BAD REQUEST: Multipart body ends after a boundary." );
+      }
+    }
+    if ( buf[pos] == DASH && buf[pos + 1] == DASH ) {
+      return true;
+    }
+    // skip any transport padding up to the end of the line
+    final String line = readLine();
+    if ( line == null || line.trim().length() > 0 ) {
+      throw new ResponseException( Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but chunk does not start with boundary." );
+    }
+    return false;
+  }
+
+
+
+
+  /**
+   * @return the next line in the buffer without its terminator or null if the
+   *         body ends first
+   */
+  private String readLine() throws IOException, ResponseException {
+    int from = pos;
+    while ( true ) {
+      for ( int i = from; i < lim; i++ ) {
+        if ( buf[i] == LF ) {
+          final int end = ( i > pos && buf[i - 1] == CR ) ? i - 1 : i;
+          final String retval = decode( pos, end - pos );
+          pos = i + 1;
+          return retval;
+        }
+      }
+      if ( lim - pos > HTTPSessionImpl.MAX_HEADER_SIZE ) {
+        throw new ResponseException( Status.BAD_REQUEST, "BAD REQUEST: Multipart header size exceeds MAX_HEADER_SIZE." );
+      }
+      from = lim - pos;
+      if ( !fill() ) {
+        return null;
+      }
+    }
+  }
+
+
+
+
+  private String decode( final int offset, final int length ) throws UnsupportedEncodingException {
+    return new String( buf, offset, length, encoding );
+  }
+
+
+
+
+  /**
+   * Move the unread bytes to the start of the buffer and read more of the
+   * body after them.
+   *
+   * @return false if the body has been completely read
+   */
+  private boolean fill() throws IOException {
+    if ( remaining <= 0 ) {
+      return false;
+    }
+    if ( pos > 0 ) {
+      System.arraycopy( buf, pos, buf, 0, lim - pos );
+      lim -= pos;
+      pos = 0;
+    }
+    final int count = in.read( buf, lim, (int)Math.min( buf.length - lim, remaining ) );
+    if ( count < 0 ) {
+      remaining = 0;
+      return false;
+    }
+    lim += count;
+    remaining -= count;
+    return true;
+  }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import coyote.loader.log.Log;
+
+
+/**
+ * A client connection managed by the NIO engine.
+ *
+ * <p>While the connection is idle, it is registered with a selector loop and
+ * consumes no thread. The loop reads bytes into the connection buffer until a
+ * complete request header has arrived, then the connection is switched to
+ * blocking mode and run by a worker which processes the request through the
+ * normal {@link HTTPSessionImpl}. When the worker is done, the connection is
+ * switched back to non-blocking mode and returned to its loop.
+ *
+ * <p>Responses are written straight to the channel so file responses can be
+ * transferred to the socket without copying them through the JVM.
+ */
+class NioConnection implements Runnable {
+
+  /** The server which accepted the connection */
+  private final HTTPD httpd;
+
+  /** The engine which manages this connection */
+  private final NioServerRunnable engine;
+
+  /** The selector loop this connection is registered with when idle */
+  final NioServerRunnable.SelectorLoop loop;
+
+  /** The channel to the client */
+  final SocketChannel channel;
+
+  /** Bytes read from the channel while waiting for the request header */
+  final ByteBuffer buffer = ByteBuffer.allocate(HTTPSessionImpl.BUFSIZE);
+
+  /** The number of buffered bytes already searched for the end of the header */
+  private int scanned = 0;
+
+  /** The session is kept for the life of the connection */
+  private HTTPSessionImpl session = null;
+
+  /** The last time (epoch millis) there was activity on this connection */
+  volatile long lastActivity = System.currentTimeMillis();
+
+
+
+
+  NioConnection(final HTTPD httpd, final NioServerRunnable engine, final NioServerRunnable.SelectorLoop loop, final SocketChannel channel) {
+    this.httpd = httpd;
+    this.engine = engine;
+    this.loop = loop;
+    this.channel = channel;
+  }
+
+
+
+
+  /**
+   * Read whatever is available on the (non-blocking) channel into our buffer.
+   *
+   * @return true if a request is ready to be processed, false if more data is
+   *         needed or if the client closed the connection.
+   *
+   * @throws IOException if the channel could not be read
+   */
+  boolean fill() throws IOException {
+    final int read = channel.read(buffer);
+    if (read < 0) {
+      close();
+      return false;
+    }
+    lastActivity = System.currentTimeMillis();
+    return buffer.position() > 0 && (!buffer.hasRemaining() || isHeaderComplete());
+  }
+
+
+
+
+  /**
+   * @return true if the buffer contains the blank line which ends the header
+   */
+  private boolean isHeaderComplete() {
+    // only the bytes which arrived since the last call are searched
+    final boolean retval = RequestParser.findHeaderEnd(buffer.array(), scanned, buffer.position()) > 0;
+    scanned = buffer.position();
+    return retval;
+  }
+
+
+
+
+  /**
+   * Process all the requests currently buffered for this connection.
+   *
+   * <p>This is called by an engine worker after the channel has been placed
+   * in blocking mode. Pipelined requests already read from the socket are all
+   * processed before the connection is returned to its selector loop.
+   */
+  @Override
+  public void run() {
+    try {
+      buffer.flip();
+      final Socket socket = channel.socket();
+      if (session == null) {
+        final CacheManager cacheManager = httpd.cacheManagerFactory.create();
+        session = new HTTPSessionImpl(httpd, cacheManager, new ChannelInputStream(buffer, socket.getInputStream()), new ChannelOutputStream(channel), socket.getInetAddress(), socket.getPort(), false);
+      }
+
+      do {
+        session.execute();
+      }
+      while (channel.isOpen() && (session.getInputStream().available() > 0));
+
+      if (channel.isOpen()) {
+        buffer.clear();
+        scanned = 0;
+        channel.configureBlocking(false);
+        lastActivity = System.currentTimeMillis();
+        loop.register(this);
+      } else {
+        close();
+      }
+    } catch (final Exception e) {
+      // the session throws a SocketException to end the connection
+      if (!((e instanceof SocketException) && "HTTPD Shutdown".equals(e.getMessage())) && !(e instanceof SocketTimeoutException)) {
+        Log.append(HTTPD.EVENT, "ERROR: Communication with the client broken, or an bug in the handler code", e);
+      }
+      close();
+    }
+  }
+
+
+
+
+  /**
+   * Quickly tell the client we are too busy to process the request and close
+   * the connection.
+   *
+   * <p>This is called on a selector thread, so the response is written
+   * without blocking and abandoned if the client is not ready for it.
+   */
+  void reject() {
+    ClientHandler.reject(channel.socket());
+    close();
+  }
+
+
+
+
+  /**
+   * Close the connection and remove it from the engine.
+   */
+  void close() {
+    HTTPD.safeClose(channel);
+    engine.closed(this);
+  }
+
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import coyote.loader.log.Log;
+import coyote.loader.thread.BlockingQueue;
+
+
+/**
+ * The runnable used for the main listening thread when the server uses the
+ * NIO connection engine.
+ *
+ * <p>Accepted connections are spread across a small set of selector loops.
+ * Each loop waits on all of its idle (keep-alive) connections with a single
+ * thread and reads the request header as it arrives. Once a complete header
+ * is available, the connection is placed in a bounded queue serviced by a
+ * fixed set of worker threads which process the request through the normal
+ * {@link HTTPSession} and {@link Response} classes. If the queue is full, the
+ * client is sent a 503 (Service Unavailable) response and the connection is
+ * closed.
+ *
+ * <p>This means idle connections cost a buffer and a selection key instead of
+ * a blocked thread, and the number of threads the server uses is fixed no
+ * matter how many clients are connected.
+ *
+ * <p>The NIO engine does not support SSL; secured servers always use the
+ * blocking {@link ServerRunnable}.
+ */
+public class NioServerRunnable extends ServerRunnable {
+
+  /** The default number of selector loops */
+  public static final int DEFAULT_SELECTOR_THREADS = 2;
+
+  /** The default number of worker threads processing requests */
+  public static final int DEFAULT_WORKER_THREADS = 16;
+
+  /** The default number of requests which can wait for a worker */
+  public static final int DEFAULT_WORKER_BACKLOG = 256;
+
+  /** How often (in milliseconds) the loops check for idle connections */
+  private static final long SWEEP_INTERVAL = 1000;
+
+  /** The loops watching our idle connections */
+  private final SelectorLoop[] loops;
+
+  /** The threads processing complete requests */
+  private final Thread[] workers;
+
+  /** The requests waiting to be processed by a worker */
+  private final BlockingQueue workQueue;
+
+  /** All the currently open connections, so they can be closed on shutdown */
+  private final Set<NioConnection> connections = new HashSet<NioConnection>();
+
+  /** Flag indicating our loops and workers should keep running */
+  private volatile boolean active = false;
+
+  /** The index of the loop which receives the next accepted connection */
+  private int nextLoop = 0;
+
+
+
+
+  /**
+   * Create the NIO engine.
+   *
+   * @param httpd the server for which we are accepting connections
+   * @param timeout the socket timeout to use, also used as the idle timeout
+   *        of keep-alive connections
+   * @param selectors the number of selector loops to run
+   * @param workers the number of worker threads to process requests
+   * @param backlog the number of complete requests which can wait for a
+   *        worker before clients are turned away
+   */
+  protected NioServerRunnable(final HTTPD httpd, final int timeout, final int selectors, final int workers, final int backlog) {
+    super(httpd, timeout);
+    loops = new SelectorLoop[selectors > 0 ? selectors : DEFAULT_SELECTOR_THREADS];
+    this.workers = new Thread[workers > 0 ? workers : DEFAULT_WORKER_THREADS];
+    workQueue = new BlockingQueue(backlog > 0 ? backlog : DEFAULT_WORKER_BACKLOG);
+  }
+
+
+
+
+  @Override
+  public void run() {
+    bind();
+
+    if (isBoundToPort) {
+      try {
+        startEngine();
+      } catch (final IOException e) {
+        Log.append(HTTPD.EVENT, "ERROR: Could not open selectors for the NIO engine", e);
+        HTTPD.safeClose(httpd.myServerSocket);
+      }
+
+      final ServerSocketChannel serverChannel = httpd.myServerSocket.getChannel();
+      while (!httpd.myServerSocket.isClosed()) {
+        try {
+          final SocketChannel channel = serverChannel.accept();
+          final Socket clientSocket = channel.socket();
+          if (timeout > 0) {
+            clientSocket.setSoTimeout(timeout);
+          }
+
+          if (admit(clientSocket)) {
+            channel.configureBlocking(false);
+            final NioConnection connection = new NioConnection(httpd, this, nextLoop(), channel);
+            synchronized (connections) {
+              connections.add(connection);
+            }
+            connection.loop.register(connection);
+          }
+        } catch (final IOException e) {
+          if (!httpd.myServerSocket.isClosed()) {
+            Log.append(HTTPD.EVENT, "WARNING: Communication with the client broken", e);
+          }
+        }
+      }
+
+      stopEngine();
+    }
+  }
+
+
+
+
+  /**
+   * Open the selectors and start the loop and worker threads.
+   *
+   * @throws IOException if a selector could not be opened
+   */
+  private void startEngine() throws IOException {
+    active = true;
+    for (int x = 0; x < loops.length; x++) {
+      loops[x] = new SelectorLoop(Selector.open());
+      final Thread thread = new Thread(loops[x]);
+      thread.setDaemon(true);
+      thread.setName("HTTPD Selector(" + x + ")");
+      thread.start();
+    }
+    for (int x = 0; x < workers.length; x++) {
+      workers[x] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (active) {
+            try {
+              final NioConnection connection = (NioConnection)workQueue.get(SWEEP_INTERVAL);
+              if (connection != null) {
+                connection.run();
+              }
+            } catch (final InterruptedException e) {
+              break;
+            }
+          }
+        }
+      });
+      workers[x].setDaemon(true);
+      workers[x].setName("HTTPD Worker(" + x + ")");
+      workers[x].start();
+    }
+    Log.append(HTTPD.EVENT, "NIO engine started with " + loops.length + " selectors and " + workers.length + " workers");
+  }
+
+
+
+
+  /**
+   * Stop all loops and workers and close all the open connections.
+   */
+  private void stopEngine() {
+    active = false;
+    for (final SelectorLoop loop : loops) {
+      if (loop != null) {
+        loop.selector.wakeup();
+      }
+    }
+    for (final Thread worker : workers) {
+      if (worker != null) {
+        worker.interrupt();
+      }
+    }
+    final List<NioConnection> open;
+    synchronized (connections) {
+      open = new ArrayList<NioConnection>(connections);
+    }
+    for (final NioConnection connection : open) {
+      connection.close();
+    }
+  }
+
+
+
+
+  /**
+   * @return the loop which should handle the next connection
+   */
+  private SelectorLoop nextLoop() {
+    final SelectorLoop retval = loops[nextLoop];
+    nextLoop = (nextLoop + 1) % loops.length;
+    return retval;
+  }
+
+
+
+
+  /**
+   * Hand a connection with a complete request to the workers.
+   *
+   * <p>This is called by the selector loops after the connection has been
+   * removed from its selector.
+   *
+   * @param connection the connection to process
+   */
+  void dispatch(final NioConnection connection) {
+    try {
+      connection.channel.configureBlocking(true);
+    } catch (final IOException e) {
+      connection.close();
+      return;
+    }
+    if (!workQueue.offer(connection)) {
+      Log.append(HTTPD.EVENT, "WARNING: All workers busy, request from " + connection.channel.socket().getInetAddress() + " rejected");
+      connection.reject();
+    }
+  }
+
+
+
+
+  /**
+   * Remove the connection from the set of open connections.
+   *
+   * @param connection the connection which has been closed
+   */
+  void closed(final NioConnection connection) {
+    synchronized (connections) {
+      connections.remove(connection);
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of connections currently open in this engine
+   */
+  public int getConnectionCount() {
+    synchronized (connections) {
+      return connections.size();
+    }
+  }
+
+
+
+
+  /**
+   * A single thread watching a set of connections for readable data.
+   */
+  class SelectorLoop implements Runnable {
+
+    /** The selector with which our idle connections are registered */
+    final Selector selector;
+
+    /** Connections waiting to be (re)registered with our selector */
+    private final List<NioConnection> pending = new ArrayList<NioConnection>();
+
+
+
+
+    SelectorLoop(final Selector selector) {
+      this.selector = selector;
+    }
+
+
+
+
+    /**
+     * Have this loop watch the given connection for its next request.
+     *
+     * <p>This is safe to call from any thread; the registration is performed
+     * by the loop thread itself.
+     *
+     * @param connection the connection in non-blocking mode to watch
+     */
+    void register(final NioConnection connection) {
+      synchronized (pending) {
+        pending.add(connection);
+      }
+      selector.wakeup();
+    }
+
+
+
+
+    @Override
+    public void run() {
+      final List<NioConnection> ready = new ArrayList<NioConnection>();
+      long lastSweep = System.currentTimeMillis();
+
+      try {
+        while (active) {
+          selector.select(SWEEP_INTERVAL);
+          registerPending();
+
+          final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+            final NioConnection connection = (NioConnection)key.attachment();
+            try {
+              if (key.isValid() && key.isReadable() && connection.fill()) {
+                key.cancel();
+                ready.add(connection);
+              }
+            } catch (final IOException e) {
+              connection.close();
+            }
+          }
+
+          if (!ready.isEmpty()) {
+            // flush the cancelled keys so the channels can be made blocking
+            selector.selectNow();
+            for (final NioConnection connection : ready) {
+              dispatch(connection);
+            }
+            ready.clear();
+          }
+
+          final long now = System.currentTimeMillis();
+          if ((timeout > 0) && (now - lastSweep >= SWEEP_INTERVAL)) {
+            closeIdle(now);
+            lastSweep = now;
+          }
+        }
+      } catch (final IOException | ClosedSelectorException e) {
+        if (active) {
+          Log.append(HTTPD.EVENT, "ERROR: Selector loop terminated", e);
+        }
+      } finally {
+        if (selector.isOpen()) {
+          for (final SelectionKey key : selector.keys()) {
+            ((NioConnection)key.attachment()).close();
+          }
+        }
+        HTTPD.safeClose(selector);
+      }
+    }
+
+
+
+
+    /**
+     * Register all the pending connections with our selector.
+     */
+    private void registerPending() {
+      synchronized (pending) {
+        for (final NioConnection connection : pending) {
+          try {
+            connection.channel.register(selector, SelectionKey.OP_READ, connection);
+          } catch (final IOException e) {
+            connection.close();
+          }
+        }
+        pending.clear();
+      }
+    }
+
+
+
+
+    /**
+     * Close all the connections which have been idle longer than the timeout.
+     *
+     * @param now the current epoch time in milliseconds
+     */
+    private void closeIdle(final long now) {
+      for (final SelectionKey key : selector.keys()) {
+        final NioConnection connection = (NioConnection)key.attachment();
+        if (key.isValid() && (now - connection.lastActivity > timeout)) {
+          connection.close();
+        }
+      }
+    }
+
+  }
+
+}
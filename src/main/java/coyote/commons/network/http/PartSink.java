@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Receives the uploaded files of a multipart/form-data request as they are
+ * read from the connection.
+ *
+ * <p>Responders which know where an upload belongs (a file in a repository, a
+ * database blob, a digest) can pass a sink to
+ * {@link HTTPSession#parseBody(PartSink)} and avoid copying the data through
+ * a temporary file.</p>
+ */
+public interface PartSink {
+
+  /**
+   * Called when the headers of a file part have been read.
+   *
+   * <p>The returned stream is closed by the parser once all the data of the
+   * part has been written to it.</p>
+   *
+   * @param name the name of the form field
+   * @param fileName the name of the file as given by the client, may be null
+   * @param type the content type of the part
+   *
+   * @return the stream to receive the data of the part or null to have the
+   *         part stored in a temporary file and placed in the body as usual
+   *
+   * @throws IOException if the destination could not be opened
+   */
+  OutputStream open( String name, String fileName, ContentType type ) throws IOException;
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+
+package coyote.commons.network.http;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A cache file held in a pooled memory buffer until it outgrows it.
+ *
+ * <p>The data then moves to a region of the shared spill file and, if it
+ * outgrows that too, to a temporary file of its own. Only the latter has a
+ * name.</p>
+ */
+class PooledCacheFile implements CacheFile {
+
+  private final PooledCacheManagerFactory factory;
+
+  /** The data while it is held in memory */
+  private ByteBuffer buffer = null;
+
+  /** The region of the spill file holding the data, -1 if none */
+  private int region = -1;
+
+  /** The file holding the data once it outgrows a region */
+  private File file = null;
+
+  private FileOutputStream fstream = null;
+
+  /** The number of bytes written */
+  private long size = 0;
+
+  private final OutputStream stream = new OutputStream() {
+
+    @Override
+    public void write( final int b ) throws IOException {
+      append( new byte[]{ (byte)b }, 0, 1 );
+    }
+
+
+
+
+    @Override
+    public void write( final byte[] b, final int off, final int len ) throws IOException {
+      append( b, off, len );
+    }
+
+
+
+
+    @Override
+    public void flush() throws IOException {
+      if ( fstream != null ) {
+        fstream.flush();
+      }
+    }
+  };
+
+
+
+
+  PooledCacheFile( final PooledCacheManagerFactory factory ) {
+    this.factory = factory;
+  }
+
+
+
+
+  private void append( final byte[] b, final int off, final int len ) throws IOException {
+    if ( len <= 0 ) {
+      return;
+    }
+    if ( file == null && region < 0 ) {
+      if ( buffer == null ) {
+        buffer = factory.acquireBuffer();
+      }
+      if ( buffer.remaining() >= len ) {
+        buffer.put( b, off, len );
+        size += len;
+        return;
+      }
+      spill( len );
+    }
+    if ( region >= 0 ) {
+      if ( size + len <= factory.getRegionSize() ) {
+        write( factory.getSpillChannel(), ByteBuffer.wrap( b, off, len ), getRegionOffset() + size );
+        size += len;
+        factory.getStatBoard().increase( PooledCacheManagerFactory.SPILL_BYTES, len );
+        return;
+      }
+      overflow();
+    }
+    fstream.write( b, off, len );
+    size += len;
+    factory.getStatBoard().increase( PooledCacheManagerFactory.SPILL_BYTES, len );
+  }
+
+
+
+
+  /**
+   * Move the data out of the memory buffer, into a region of the spill file
+   * if there is one free and the data will fit.
+   *
+   * @param len the number of bytes about to be written
+   */
+  private void spill( final int len ) throws IOException {
+    factory.getStatBoard().increment( PooledCacheManagerFactory.SPILLS );
+    if ( size + len <= factory.getRegionSize() ) {
+      region = factory.acquireRegion();
+    }
+    if ( region < 0 ) {
+      overflow();
+      return;
+    }
+    buffer.flip();
+    write( factory.getSpillChannel(), buffer, getRegionOffset() );
+    factory.getStatBoard().increase( PooledCacheManagerFactory.SPILL_BYTES, size );
+    factory.releaseBuffer( buffer );
+    buffer = null;
+  }
+
+
+
+
+  /**
+   * Move the data to a temporary file of its own.
+   */
+  private void overflow() throws IOException {
+    factory.getStatBoard().increment( PooledCacheManagerFactory.OVERFLOWS );
+    file = File.createTempFile( "HTTPD-", "", factory.getTmpDir() );
+    fstream = new FileOutputStream( file );
+    final FileChannel target = fstream.getChannel();
+    if ( region >= 0 ) {
+      final FileChannel source = factory.getSpillChannel();
+      long position = 0;
+      while ( position < size ) {
+        position += source.transferTo( getRegionOffset() + position, size - position, target );
+      }
+      factory.releaseRegion( region );
+      region = -1;
+    } else if ( buffer != null ) {
+      buffer.flip();
+      while ( buffer.hasRemaining() ) {
+        target.write( buffer );
+      }
+      factory.getStatBoard().increase( PooledCacheManagerFactory.SPILL_BYTES, size );
+      factory.releaseBuffer( buffer );
+      buffer = null;
+    }
+  }
+
+
+
+
+  private long getRegionOffset() {
+    return region * factory.getRegionSize();
+  }
+
+
+
+
+  private static void write( final FileChannel channel, final ByteBuffer src, long position ) throws IOException {
+    while ( src.hasRemaining() ) {
+      position += channel.write( src, position );
+    }
+  }
+
+
+
+
+  @Override
+  public void delete() throws Exception {
+    if ( buffer != null ) {
+      factory.releaseBuffer( buffer );
+      buffer = null;
+    }
+    if ( region >= 0 ) {
+      factory.releaseRegion( region );
+      region = -1;
+    }
+    size = 0;
+    if ( file != null ) {
+      HTTPD.safeClose( fstream );
+      final File target = file;
+      file = null;
+      fstream = null;
+      if ( !target.delete() ) {
+        throw new Exception( "Could not delete temporary file" );
+      }
+    }
+  }
+
+
+
+
+  @Override
+  public String getName() {
+    return file != null ? file.getAbsolutePath() : null;
+  }
+
+
+
+
+  @Override
+  public OutputStream open() throws Exception {
+    return stream;
+  }
+
+
+
+
+  @Override
+  public ByteBuffer getBuffer() throws Exception {
+    if ( file != null ) {
+      fstream.flush();
+      final RandomAccessFile raf = new RandomAccessFile( file, "r" );
+      try {
+        return raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+      } finally {
+        raf.close();
+      }
+    }
+    if ( region >= 0 ) {
+      return factory.getSpillChannel().map( FileChannel.MapMode.READ_ONLY, getRegionOffset(), size );
+    }
+    if ( buffer == null ) {
+      return ByteBuffer.allocate( 0 ).asReadOnlyBuffer();
+    }
+    final ByteBuffer retval = buffer.duplicate();
+    retval.flip();
+    return retval.asReadOnlyBuffer();
+  }
+
+}
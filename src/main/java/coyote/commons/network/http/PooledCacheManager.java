@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+
+package coyote.commons.network.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import coyote.loader.log.Log;
+
+
+/**
+ * Cache manager whose files are held in pooled memory buffers and spilled to
+ * disk only when they grow large.
+ *
+ * <p>The buffers and spill file regions of the files are returned to the
+ * {@link PooledCacheManagerFactory} for reuse when {@code clear()} is invoked
+ * at the end of processing a request.</p>
+ */
+class PooledCacheManager implements CacheManager {
+
+  private final PooledCacheManagerFactory factory;
+
+  private final List<CacheFile> cacheFiles = new ArrayList<CacheFile>();
+
+
+
+
+  PooledCacheManager( final PooledCacheManagerFactory factory ) {
+    this.factory = factory;
+  }
+
+
+
+
+  @Override
+  public void clear() {
+    for ( final CacheFile file : cacheFiles ) {
+      try {
+        file.delete();
+      } catch ( final Exception ignored ) {
+        Log.append( HTTPD.EVENT, "WARNING: Could not delete file ", ignored );
+      }
+    }
+    cacheFiles.clear();
+  }
+
+
+
+
+  @Override
+  public CacheFile createCacheFile( final String filename_hint ) throws Exception {
+    final PooledCacheFile cacheFile = new PooledCacheFile( factory );
+    cacheFiles.add( cacheFile );
+    return cacheFile;
+  }
+
+}
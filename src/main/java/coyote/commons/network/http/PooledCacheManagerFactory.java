@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+
+package coyote.commons.network.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+
+
+/**
+ * Creates cache managers which keep request data in memory, only going to
+ * disk for large bodies.
+ *
+ * <p>Each cache file starts in a direct buffer taken from a pool shared by
+ * all the managers of this factory. Data beyond the size of the buffer is
+ * spilled to a region of a single spill file which is allocated once, when
+ * first needed, and whose regions are reused by later requests. Only data
+ * larger than a region, or arriving when all the regions are in use, goes to
+ * a temporary file of its own as with the {@link DefaultCacheManagerFactory}.
+ * </p>
+ *
+ * <p>The following counters are published to the statistics board:<ul>
+ * <li>{@code RequestCache.Spills} - the number of cache files which
+ * outgrew their memory buffer</li>
+ * <li>{@code RequestCache.SpillBytes} - the number of bytes written to
+ * disk</li>
+ * <li>{@code RequestCache.Overflows} - the number of cache files which
+ * needed a temporary file of their own</li></ul>
+ */
+public class PooledCacheManagerFactory implements CacheManagerFactory {
+
+  /** The default number of bytes of each cache file held in memory */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /** The default number of idle buffers kept for reuse */
+  public static final int DEFAULT_POOL_SIZE = 64;
+
+  /** The default size of each region of the spill file */
+  public static final long DEFAULT_REGION_SIZE = 4 * 1024 * 1024;
+
+  /** The default number of regions in the spill file */
+  public static final int DEFAULT_REGION_COUNT = 16;
+
+  public static final String SPILLS = "RequestCache.Spills";
+  public static final String SPILL_BYTES = "RequestCache.SpillBytes";
+  public static final String OVERFLOWS = "RequestCache.Overflows";
+
+  private final int bufferSize;
+
+  private final long regionSize;
+
+  private final int regionCount;
+
+  private final StatBoard stats;
+
+  private final File tmpdir;
+
+  /** Idle buffers */
+  private final BlockingQueue<ByteBuffer> pool;
+
+  /** The regions of the spill file in use */
+  private final BitSet regions = new BitSet();
+
+  private File spillPath = null;
+
+  private RandomAccessFile spillFile = null;
+
+  private FileChannel spillChannel = null;
+
+
+
+
+  /**
+   * Create a factory with the default settings.
+   */
+  public PooledCacheManagerFactory() {
+    this( DEFAULT_BUFFER_SIZE, DEFAULT_POOL_SIZE, DEFAULT_REGION_SIZE, DEFAULT_REGION_COUNT, null );
+  }
+
+
+
+
+  /**
+   * Create a factory.
+   *
+   * @param bufferSize the number of bytes of each cache file held in memory
+   * @param poolSize the number of idle buffers kept for reuse
+   * @param regionSize the size of each region of the spill file
+   * @param regionCount the number of regions in the spill file, 0 to write
+   *        every spill to a temporary file of its own
+   * @param stats the statistics board to which metrics are published, may be
+   *        null
+   */
+  public PooledCacheManagerFactory( final int bufferSize, final int poolSize, final long regionSize, final int regionCount, final StatBoard stats ) {
+    this.bufferSize = Math.max( 0, bufferSize );
+    this.regionSize = Math.max( 0, regionSize );
+    this.regionCount = Math.max( 0, regionCount );
+    this.stats = stats != null ? stats : new StatBoardImpl();
+    pool = new ArrayBlockingQueue<ByteBuffer>( Math.max( 1, poolSize ) );
+    tmpdir = new File( System.getProperty( "java.io.tmpdir" ) );
+    if ( !tmpdir.exists() ) {
+      tmpdir.mkdirs();
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.commons.network.http.CacheManagerFactory#create()
+   */
+  @Override
+  public CacheManager create() {
+    return new PooledCacheManager( this );
+  }
+
+
+
+
+  /**
+   * @return the statistics board to which this factory publishes its metrics
+   */
+  public StatBoard getStatBoard() {
+    return stats;
+  }
+
+
+
+
+  /**
+   * @return the number of bytes of each cache file held in memory
+   */
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+
+
+
+  /**
+   * @return the size of each region of the spill file
+   */
+  public long getRegionSize() {
+    return regionSize;
+  }
+
+
+
+
+  /**
+   * @return the number of idle buffers waiting to be reused
+   */
+  public int getPooledCount() {
+    return pool.size();
+  }
+
+
+
+
+  /**
+   * @return the number of regions of the spill file currently in use
+   */
+  public synchronized int getRegionsInUse() {
+    return regions.cardinality();
+  }
+
+
+
+
+  /**
+   * Release the spill file.
+   *
+   * <p>This must only be called when no cache files created by this factory
+   * are in use, normally after the server has stopped. The spill file is
+   * allocated again if it is needed later.</p>
+   */
+  public synchronized void close() {
+    HTTPD.safeClose( spillFile );
+    if ( spillPath != null ) {
+      spillPath.delete();
+    }
+    spillPath = null;
+    spillFile = null;
+    spillChannel = null;
+    regions.clear();
+    pool.clear();
+  }
+
+
+
+
+  /**
+   * @return a cleared buffer from the pool, or a new one if the pool is empty
+   */
+  ByteBuffer acquireBuffer() {
+    final ByteBuffer retval = pool.poll();
+    if ( retval != null ) {
+      retval.clear();
+      return retval;
+    }
+    return ByteBuffer.allocateDirect( bufferSize );
+  }
+
+
+
+
+  /**
+   * Return a buffer to the pool, if it has room.
+   */
+  void releaseBuffer( final ByteBuffer buffer ) {
+    pool.offer( buffer );
+  }
+
+
+
+
+  /**
+   * Reserve a region of the spill file, creating the file if necessary.
+   *
+   * @return the index of the region or -1 if they are all in use
+   */
+  synchronized int acquireRegion() throws IOException {
+    final int retval = regions.nextClearBit( 0 );
+    if ( retval >= regionCount ) {
+      return -1;
+    }
+    if ( spillChannel == null ) {
+      spillPath = File.createTempFile( "HTTPD-spill-", "", tmpdir );
+      spillPath.deleteOnExit();
+      spillFile = new RandomAccessFile( spillPath, "rw" );
+      spillFile.setLength( regionSize * regionCount );
+      spillChannel = spillFile.getChannel();
+    }
+    regions.set( retval );
+    return retval;
+  }
+
+
+
+
+  synchronized void releaseRegion( final int region ) {
+    regions.clear( region );
+  }
+
+
+
+
+  /**
+   * @return the spill file, positional reads and writes of which are safe to
+   *         make concurrently
+   */
+  synchronized FileChannel getSpillChannel() {
+    return spillChannel;
+  }
+
+
+
+
+  File getTmpDir() {
+    return tmpdir;
+  }
+
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+
+package coyote.commons.network.http;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import coyote.i13n.Counter;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+import coyote.i13n.State;
+import coyote.i13n.Timer;
+import coyote.loader.log.Log;
+import coyote.loader.thread.ThreadJob;
+import coyote.loader.thread.ThreadPool;
+
+
+/**
+ * Threading strategy for HTTPD which runs client handlers in a bounded pool
+ * of worker threads.
+ *
+ * <p>Unlike the {@link DefaultExecutor}, a burst of clients does not result
+ * in a burst of threads. At most {@code workers} connections are serviced at
+ * once and at most {@code backlog} accepted connections wait for a worker.
+ * Any connection beyond that is sent a 503 (Service Unavailable) response and
+ * closed immediately so the client can retry later.</p>
+ *
+ * <p>The following metrics are published to the statistics board, each name
+ * prefixed with the name of the pool:<ul>
+ * <li>{@code .Active} state - the number of handlers currently running</li>
+ * <li>{@code .Queued} state - the number of handlers waiting for a worker</li>
+ * <li>{@code .Handled} counter - the number of handlers accepted</li>
+ * <li>{@code .Rejected} counter - the number of handlers turned away</li>
+ * <li>{@code .ServiceTime} timer - how long each handler (i.e. connection)
+ * occupied a worker, when timing is enabled</li></ul>
+ */
+public class PooledExecutor implements Executor {
+
+  /** The default number of worker threads */
+  public static final int DEFAULT_WORKERS = 32;
+
+  /** The default number of handlers which can wait for a worker */
+  public static final int DEFAULT_BACKLOG = 64;
+
+  public static final String ACTIVE = ".Active";
+  public static final String QUEUED = ".Queued";
+  public static final String HANDLED = ".Handled";
+  public static final String REJECTED = ".Rejected";
+  public static final String SERVICE_TIME = ".ServiceTime";
+
+  /** The pool of threads running our handlers */
+  private final ThreadPool pool;
+
+  /** The maximum number of handlers waiting for a worker */
+  private final int backlog;
+
+  /** Where we publish our metrics */
+  private final StatBoard stats;
+
+  /** The prefix of all our metric names */
+  private final String name;
+
+  /** Our metrics, looked up once so handling a request does no lookups */
+  private final Counter handled;
+  private final Counter rejected;
+  private final State activeState;
+  private final State queuedState;
+  private final String serviceTime;
+
+  /** The currently active (running or queued) handlers */
+  private final Set<ClientHandler> running = new HashSet<ClientHandler>();
+
+  /** The number of handlers waiting for a worker */
+  private int queued = 0;
+
+  /** The number of handlers currently running */
+  private int active = 0;
+
+
+
+
+  /**
+   * Create a pooled executor with the default number of workers and backlog.
+   *
+   * @param name the name of the pool, also the prefix of its metrics
+   * @param stats the statistics board to which metrics are published, may be
+   *        null
+   */
+  public PooledExecutor( final String name, final StatBoard stats ) {
+    this( name, DEFAULT_WORKERS, DEFAULT_BACKLOG, stats );
+  }
+
+
+
+
+  /**
+   * Create a pooled executor.
+   *
+   * @param name the name of the pool, also the prefix of its metrics
+   * @param workers the maximum number of handlers to run at once
+   * @param backlog the maximum number of handlers to wait for a worker
+   * @param stats the statistics board to which metrics are published, may be
+   *        null
+   */
+  public PooledExecutor( final String name, final int workers, final int backlog, final StatBoard stats ) {
+    this.name = name;
+    this.backlog = backlog > 0 ? backlog : DEFAULT_BACKLOG;
+    this.stats = stats != null ? stats : new StatBoardImpl();
+    handled = this.stats.getCounter( name + HANDLED );
+    rejected = this.stats.getCounter( name + REJECTED );
+    activeState = this.stats.getState( name + ACTIVE );
+    queuedState = this.stats.getState( name + QUEUED );
+    serviceTime = name + SERVICE_TIME;
+    pool = new ThreadPool( name );
+    pool.setMaxThreadCount( workers > 0 ? workers : DEFAULT_WORKERS );
+    pool.setMinWorkerCount( Math.min( 2, pool.getMaxThreadCount() ) );
+  }
+
+
+
+
+  /**
+   * @see coyote.commons.network.http.Executor#closeAll()
+   */
+  @Override
+  public void closeAll() {
+    final ArrayList<ClientHandler> handlers;
+    synchronized( running ) {
+      handlers = new ArrayList<ClientHandler>( running );
+    }
+    for ( final ClientHandler clientHandler : handlers ) {
+      clientHandler.close();
+    }
+    pool.stop();
+  }
+
+
+
+
+  /**
+   * @see coyote.commons.network.http.Executor#closed(coyote.commons.network.http.ClientHandler)
+   */
+  @Override
+  public void closed( final ClientHandler clientHandler ) {
+    synchronized( running ) {
+      running.remove( clientHandler );
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.commons.network.http.Executor#exec(coyote.commons.network.http.ClientHandler)
+   */
+  @Override
+  public void exec( final ClientHandler clientHandler ) {
+    boolean accepted = false;
+    synchronized( running ) {
+      if ( queued < backlog ) {
+        queued++;
+        running.add( clientHandler );
+        accepted = true;
+      }
+    }
+
+    if ( accepted ) {
+      accepted = pool.offer( new ThreadJob( new Runnable() {
+        @Override
+        public void run() {
+          service( clientHandler );
+        }
+      } ) );
+
+      if ( !accepted ) {
+        synchronized( running ) {
+          queued--;
+          running.remove( clientHandler );
+        }
+      }
+    }
+
+    if ( accepted ) {
+      handled.increment();
+    } else {
+      rejected.increment();
+      Log.append( HTTPD.EVENT, "WARNING: " + name + " saturated (" + active + " active, " + queued + " queued), connection rejected" );
+      clientHandler.reject();
+    }
+    publish();
+  }
+
+
+
+
+  /**
+   * Run the handler in the current (worker) thread, tracking its metrics.
+   *
+   * @param clientHandler the handler to run
+   */
+  private void service( final ClientHandler clientHandler ) {
+    synchronized( running ) {
+      queued--;
+      active++;
+    }
+    publish();
+
+    final Timer timer = stats.startTimer( serviceTime );
+    try {
+      clientHandler.run();
+    }
+    finally {
+      timer.stop();
+      synchronized( running ) {
+        active--;
+      }
+      publish();
+    }
+  }
+
+
+
+
+  /**
+   * Update the states of our pool on the statistics board.
+   */
+  private void publish() {
+    activeState.set( active );
+    queuedState.set( queued );
+  }
+
+
+
+
+  /**
+   * @return the number of handlers currently being run by a worker
+   */
+  public int getActiveCount() {
+    return active;
+  }
+
+
+
+
+  /**
+   * @return the number of handlers waiting for a worker
+   */
+  public int getQueuedCount() {
+    return queued;
+  }
+
+
+
+
+  /**
+   * @return the statistics board to which this executor publishes its metrics
+   */
+  public StatBoard getStatBoard() {
+    return stats;
+  }
+
+}
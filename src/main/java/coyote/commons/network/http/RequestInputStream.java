@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * The buffered input of a connection which keeps track of how many bytes
+ * have been consumed from it.
+ *
+ * <p>This lets a session find where the next pipelined request starts
+ * without looking at the data again, whether or not the responder read the
+ * whole body of the previous request.</p>
+ */
+class RequestInputStream extends BufferedInputStream {
+
+  /** The number of bytes consumed since the connection was opened */
+  private long position = 0;
+
+  /** The position at the last mark */
+  private long markPosition = 0;
+
+
+
+
+  RequestInputStream(final InputStream in, final int size) {
+    super(in, size);
+  }
+
+
+
+
+  /**
+   * @return the number of bytes consumed since the connection was opened
+   */
+  long getPosition() {
+    return position;
+  }
+
+
+
+
+  /**
+   * Consume bytes until the given position or the end of the stream is
+   * reached.
+   *
+   * @param target the position to reach
+   *
+   * @throws IOException if the stream could not be read
+   */
+  void skipTo(final long target) throws IOException {
+    while (position < target) {
+      if (skip(target - position) <= 0 && read() < 0) {
+        return;
+      }
+    }
+  }
+
+
+
+
+  @Override
+  public synchronized int read() throws IOException {
+    final int retval = super.read();
+    if (retval >= 0) {
+      position++;
+    }
+    return retval;
+  }
+
+
+
+
+  @Override
+  public synchronized int read(final byte[] b, final int off, final int len) throws IOException {
+    final int retval = super.read(b, off, len);
+    if (retval > 0) {
+      position += retval;
+    }
+    return retval;
+  }
+
+
+
+
+  @Override
+  public synchronized long skip(final long n) throws IOException {
+    final long retval = super.skip(n);
+    if (retval > 0) {
+      position += retval;
+    }
+    return retval;
+  }
+
+
+
+
+  @Override
+  public synchronized void mark(final int readlimit) {
+    super.mark(readlimit);
+    markPosition = position;
+  }
+
+
+
+
+  @Override
+  public synchronized void reset() throws IOException {
+    super.reset();
+    position = markPosition;
+  }
+
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+
+import coyote.loader.log.Log;
+
+
+/**
+ * Parses the request line and headers of a HTTP request directly from the
+ * bytes read off the connection.
+ *
+ * <p>One parser is used for the life of a connection. It works on the bytes
+ * already in the session buffer without wrapping them in streams and readers
+ * or tokenizing lines into intermediate strings. Well-known header names are
+ * matched against a table of interned lower case names, so the only strings
+ * created for a typical request are the URI, the header values and the names
+ * of unusual headers. Percent-encoded values are decoded in a reusable scratch
+ * buffer rather than through {@code URLDecoder}.
+ */
+final class RequestParser {
+
+  private static final String VERSION_1_0 = "HTTP/1.0";
+
+  /** All the methods we support */
+  private static final Method[] METHODS = Method.values();
+
+  /** Lower case names of the headers commonly found in requests */
+  private static final String[] COMMON_HEADERS = {
+      HTTP.HDR_ACCEPT, HTTP.HDR_ACCEPT_CHARSET, HTTP.HDR_ACCEPT_DATETIME, HTTP.HDR_ACCEPT_ENCODING, HTTP.HDR_ACCEPT_LANGUAGE,
+      HTTP.HDR_AUTHORIZATION, HTTP.HDR_CACHE_CONTROL, HTTP.HDR_CONNECTION, HTTP.HDR_CONTENT_DISPOSITION, HTTP.HDR_CONTENT_ENCODING,
+      HTTP.HDR_CONTENT_LENGTH, HTTP.HDR_CONTENT_MD5, HTTP.HDR_CONTENT_TYPE, HTTP.HDR_COOKIE, HTTP.HDR_DATE, HTTP.HDR_EXPECT,
+      HTTP.HDR_FORWARDED, HTTP.HDR_FROM, HTTP.HDR_HOST, HTTP.HDR_IF_MATCH, HTTP.HDR_IF_MODIFIED_SINCE, HTTP.HDR_IF_NONE_MATCH,
+      HTTP.HDR_IF_RANGE, HTTP.HDR_IF_UNMODIFIED_SINCE, HTTP.HDR_MAX_FORWARDS, HTTP.HDR_ORIGIN, HTTP.HDR_PRAGMA,
+      HTTP.HDR_PROXY_AUTHORIZATION, HTTP.HDR_RANGE, HTTP.HDR_REFERER, HTTP.HDR_TE, HTTP.HDR_TRANSFER_ENCODING, HTTP.HDR_UPGRADE,
+      HTTP.HDR_USER_AGENT, HTTP.HDR_VIA, HTTP.HDR_WARNING, "DNT", "Keep-Alive", "Upgrade-Insecure-Requests", "X-Forwarded-For",
+      "X-Forwarded-Proto", "X-Requested-With", "Sec-WebSocket-Key", "Sec-WebSocket-Version", "Sec-WebSocket-Protocol",
+      "Sec-WebSocket-Extensions" };
+
+  /** Open-addressed hash table of the interned header names */
+  private static final String[] NAME_TABLE = new String[128];
+  private static final int NAME_MASK = NAME_TABLE.length - 1;
+
+  static {
+    for (final String header : COMMON_HEADERS) {
+      final String name = header.toLowerCase(Locale.US).intern();
+      int slot = hash(name) & NAME_MASK;
+      while (NAME_TABLE[slot] != null) {
+        slot = (slot + 1) & NAME_MASK;
+      }
+      NAME_TABLE[slot] = name;
+    }
+  }
+
+  /** Decoded bytes of percent-encoded values */
+  private byte[] scratch = new byte[256];
+
+  /** The name of the method as sent by the client */
+  String methodName;
+
+  /** The method of the last parsed request, null if not supported */
+  Method method;
+
+  /** The decoded URI of the last parsed request without its query */
+  String uri;
+
+  /** The protocol version of the last parsed request */
+  String protocolVersion;
+
+  /** The raw query string of the last parsed request, empty if none */
+  String queryParameterString;
+
+
+
+
+  /**
+   * Find byte index separating header from body.
+   *
+   * <p>This is the index just past the first two sequential new lines. The
+   * search starts a few bytes before {@code from} so the buffer can be scanned
+   * incrementally as data arrives without missing a terminator split across
+   * two reads.
+   *
+   * @param buf the bytes read so far
+   * @param from the number of bytes previously searched
+   * @param rlen the number of bytes read so far
+   *
+   * @return the index of the first body byte or 0 if the header is not yet
+   *         complete
+   */
+  static int findHeaderEnd(final byte[] buf, final int from, final int rlen) {
+    int splitbyte = from > 3 ? from - 3 : 0;
+    while ((splitbyte + 1) < rlen) {
+      if (buf[splitbyte] == '\n') {
+        // tolerance
+        if (buf[splitbyte + 1] == '\n') {
+          return splitbyte + 2;
+        }
+        // RFC2616
+        if ((splitbyte > 0) && (buf[splitbyte - 1] == '\r') && ((splitbyte + 2) < rlen) && (buf[splitbyte + 1] == '\r') && (buf[splitbyte + 2] == '\n')) {
+          return splitbyte + 3;
+        }
+      }
+      splitbyte++;
+    }
+    return 0;
+  }
+
+
+
+
+  /**
+   * Parse the request line and headers.
+   *
+   * @param buf the buffer containing the request
+   * @param end the index just past the end of the header
+   * @param headers the map to receive the headers
+   * @param parms the map to receive the query parameters
+   *
+   * @throws ResponseException if the request line is malformed
+   */
+  void parse(final byte[] buf, final int end, final Map<String, String> headers, final Map<String, String> parms) throws ResponseException {
+    method = null;
+    methodName = null;
+    uri = null;
+    queryParameterString = "";
+
+    // Request line: method
+    int pos = skipWhitespace(buf, 0, end);
+    int eol = lineEnd(buf, pos, end);
+    int tokenEnd = tokenEnd(buf, pos, eol);
+    if (pos == tokenEnd) {
+      throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Syntax error. Usage: GET /example/file.html");
+    }
+    method = lookupMethod(buf, pos, tokenEnd);
+    if (method == null) {
+      methodName = new String(buf, pos, tokenEnd - pos, StandardCharsets.ISO_8859_1);
+    } else {
+      methodName = method.name();
+    }
+
+    // URI and query string
+    pos = skipWhitespace(buf, tokenEnd, eol);
+    tokenEnd = tokenEnd(buf, pos, eol);
+    if (pos == tokenEnd) {
+      throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Missing URI. Usage: GET /example/file.html");
+    }
+    int qmi = pos;
+    while ((qmi < tokenEnd) && (buf[qmi] != '?')) {
+      qmi++;
+    }
+    if (qmi < tokenEnd) {
+      queryParameterString = new String(buf, qmi + 1, tokenEnd - qmi - 1, StandardCharsets.UTF_8);
+      decodeParms(buf, qmi + 1, tokenEnd, parms);
+    }
+    final String decodedUri = decodePercent(buf, pos, qmi);
+
+    // Protocol version
+    pos = skipWhitespace(buf, tokenEnd, eol);
+    tokenEnd = tokenEnd(buf, pos, eol);
+    if (pos < tokenEnd) {
+      if (matches(buf, pos, tokenEnd, HTTP.VERSION_1_1)) {
+        protocolVersion = HTTP.VERSION_1_1;
+      } else if (matches(buf, pos, tokenEnd, VERSION_1_0)) {
+        protocolVersion = VERSION_1_0;
+      } else {
+        protocolVersion = new String(buf, pos, tokenEnd - pos, StandardCharsets.ISO_8859_1);
+      }
+    } else {
+      protocolVersion = HTTP.VERSION_1_1;
+      Log.append(HTTPD.EVENT, "No protocol version specified. Assuming HTTP/1.1");
+    }
+
+    // Headers, one per line until a blank line; names are lower case since
+    // they are case-insensitive and vary by client.
+    pos = next(eol, end);
+    while (pos < end) {
+      eol = lineEnd(buf, pos, end);
+      final int lineStart = skipWhitespace(buf, pos, eol);
+      if (lineStart == trimEnd(buf, lineStart, eol)) {
+        break;
+      }
+      int colon = lineStart;
+      while ((colon < eol) && (buf[colon] != ':')) {
+        colon++;
+      }
+      if (colon < eol) {
+        final String name = headerName(buf, lineStart, trimEnd(buf, lineStart, colon));
+        final int valueStart = skipWhitespace(buf, colon + 1, eol);
+        headers.put(name, text(buf, valueStart, trimEnd(buf, valueStart, eol)));
+      }
+      pos = next(eol, end);
+    }
+
+    uri = decodedUri;
+  }
+
+
+
+
+  /**
+   * @return the index after the line ending at {@code eol}
+   */
+  private static int next(final int eol, final int end) {
+    return eol < end ? eol + 1 : end;
+  }
+
+
+
+
+  /**
+   * @return the index of the next LF or the end of the range
+   */
+  private static int lineEnd(final byte[] buf, int pos, final int end) {
+    while ((pos < end) && (buf[pos] != '\n')) {
+      pos++;
+    }
+    return pos;
+  }
+
+
+
+
+  private static boolean isWhitespace(final byte b) {
+    return (b == ' ') || (b == '\t') || (b == '\r') || (b == '\n') || (b == '\f');
+  }
+
+
+
+
+  private static int skipWhitespace(final byte[] buf, int pos, final int end) {
+    while ((pos < end) && isWhitespace(buf[pos])) {
+      pos++;
+    }
+    return pos;
+  }
+
+
+
+
+  private static int tokenEnd(final byte[] buf, int pos, final int end) {
+    while ((pos < end) && !isWhitespace(buf[pos])) {
+      pos++;
+    }
+    return pos;
+  }
+
+
+
+
+  private static int trimEnd(final byte[] buf, final int start, int end) {
+    while ((end > start) && (isWhitespace(buf[end - 1]) || (buf[end - 1] == 0))) {
+      end--;
+    }
+    return end;
+  }
+
+
+
+
+  /**
+   * @return true if the bytes in the range are exactly the given ASCII text
+   */
+  private static boolean matches(final byte[] buf, final int start, final int end, final String text) {
+    if ((end - start) != text.length()) {
+      return false;
+    }
+    for (int x = 0; x < text.length(); x++) {
+      if (buf[start + x] != text.charAt(x)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+
+
+  /**
+   * @return the method named by the bytes in the range, or null if the
+   *         method is not supported
+   */
+  private static Method lookupMethod(final byte[] buf, final int start, final int end) {
+    for (final Method method : METHODS) {
+      if (matches(buf, start, end, method.name())) {
+        return method;
+      }
+    }
+    return null;
+  }
+
+
+
+
+  /**
+   * Create a string from the bytes in the range, which are normally ASCII.
+   */
+  private static String text(final byte[] buf, final int start, final int end) {
+    for (int x = start; x < end; x++) {
+      if (buf[x] < 0) {
+        return new String(buf, start, end - start, StandardCharsets.UTF_8);
+      }
+    }
+    return new String(buf, start, end - start, StandardCharsets.ISO_8859_1);
+  }
+
+
+
+
+  private static int lower(final int b) {
+    return ((b >= 'A') && (b <= 'Z')) ? b + ('a' - 'A') : b;
+  }
+
+
+
+
+  private static int hash(final String name) {
+    int h = 0;
+    for (int x = 0; x < name.length(); x++) {
+      h = (31 * h) + name.charAt(x);
+    }
+    return h ^ (h >>> 16);
+  }
+
+
+
+
+  /**
+   * Return the lower case header name in the given range, using the interned
+   * name of well-known headers.
+   */
+  static String headerName(final byte[] buf, final int start, final int end) {
+    int h = 0;
+    for (int x = start; x < end; x++) {
+      h = (31 * h) + lower(buf[x] & 0xFF);
+    }
+    int slot = (h ^ (h >>> 16)) & NAME_MASK;
+    String name;
+    while ((name = NAME_TABLE[slot]) != null) {
+      if (name.length() == (end - start)) {
+        int x = 0;
+        while ((x < name.length()) && (lower(buf[start + x] & 0xFF) == name.charAt(x))) {
+          x++;
+        }
+        if (x == name.length()) {
+          return name;
+        }
+      }
+      slot = (slot + 1) & NAME_MASK;
+    }
+    return text(buf, start, end).toLowerCase(Locale.US);
+  }
+
+
+
+
+  /**
+   * Decode the query parameters in the given range into the map.
+   *
+   * @param buf the buffer containing the query string
+   * @param start the index of the first byte of the query string
+   * @param end the index after the last byte of the query string
+   * @param parms the map to receive the decoded names and values
+   */
+  void decodeParms(final byte[] buf, final int start, final int end, final Map<String, String> parms) {
+    int pos = start;
+    while (pos < end) {
+      int amp = pos;
+      int sep = -1;
+      while ((amp < end) && (buf[amp] != '&')) {
+        if ((sep < 0) && (buf[amp] == '=')) {
+          sep = amp;
+        }
+        amp++;
+      }
+      if (amp > pos) {
+        if (sep >= 0) {
+          parms.put(decodePercent(buf, pos, sep).trim(), decodePercent(buf, sep + 1, amp));
+        } else {
+          parms.put(decodePercent(buf, pos, amp).trim(), "");
+        }
+      }
+      pos = amp + 1;
+    }
+  }
+
+
+
+
+  private static int hexValue(final int c) {
+    if ((c >= '0') && (c <= '9')) {
+      return c - '0';
+    }
+    if ((c >= 'a') && (c <= 'f')) {
+      return c - 'a' + 10;
+    }
+    if ((c >= 'A') && (c <= 'F')) {
+      return c - 'A' + 10;
+    }
+    return -1;
+  }
+
+
+
+
+  /**
+   * Decode the percent-encoded (UTF-8) bytes in the given range.
+   *
+   * <p>A plus is decoded as a space. Malformed escapes are kept as-is.
+   *
+   * @param buf the buffer containing the encoded value
+   * @param start the index of the first byte of the value
+   * @param end the index after the last byte of the value
+   *
+   * @return the decoded value
+   */
+  String decodePercent(final byte[] buf, final int start, final int end) {
+    if (scratch.length < (end - start)) {
+      scratch = new byte[end - start];
+    }
+    int len = 0;
+    boolean ascii = true;
+    for (int x = start; x < end; x++) {
+      int b = buf[x];
+      if (b == '+') {
+        b = ' ';
+      } else if ((b == '%') && ((x + 2) < end)) {
+        final int hi = hexValue(buf[x + 1]);
+        final int lo = hexValue(buf[x + 2]);
+        if ((hi >= 0) && (lo >= 0)) {
+          b = (byte)((hi << 4) | lo);
+          x += 2;
+        }
+      }
+      ascii &= (b >= 0);
+      scratch[len++] = (byte)b;
+    }
+    return new String(scratch, 0, len, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+  }
+
+
+
+
+  /**
+   * Decode a percent-encoded (UTF-8) string.
+   *
+   * <p>A plus is decoded as a space. Malformed escapes are kept as-is.
+   *
+   * @param str the percent encoded {@code String}
+   *
+   * @return expanded form of the input, the input itself if there was nothing
+   *         to decode
+   */
+  static String decodePercent(final String str) {
+    if ((str == null) || ((str.indexOf('%') < 0) && (str.indexOf('+') < 0))) {
+      return str;
+    }
+    final StringBuilder retval = new StringBuilder(str.length());
+    byte[] bytes = null;
+    int x = 0;
+    while (x < str.length()) {
+      final char c = str.charAt(x);
+      if (c == '+') {
+        retval.append(' ');
+        x++;
+      } else if (c == '%') {
+        // collect a run of escapes so multi-byte characters decode together
+        if (bytes == null) {
+          bytes = new byte[(str.length() - x) / 3 + 1];
+        }
+        int len = 0;
+        while (((x + 2) < str.length()) && (str.charAt(x) == '%')) {
+          final int hi = hexValue(str.charAt(x + 1));
+          final int lo = hexValue(str.charAt(x + 2));
+          if ((hi < 0) || (lo < 0)) {
+            break;
+          }
+          bytes[len++] = (byte)((hi << 4) | lo);
+          x += 3;
+        }
+        if (len > 0) {
+          retval.append(new String(bytes, 0, len, StandardCharsets.UTF_8));
+        } else {
+          retval.append(c);
+          x++;
+        }
+      } else {
+        retval.append(c);
+        x++;
+      }
+    }
+    return retval.toString();
+  }
+
+}
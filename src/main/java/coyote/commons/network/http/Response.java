@@ -8,24 +8,19 @@
 
 package coyote.commons.network.http;
 
-import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TimeZone;
 import java.util.zip.GZIPOutputStream;
 
 import coyote.commons.network.MimeType;
@@ -88,6 +83,11 @@ public class Response implements Closeable {
 
   private boolean keepAlive;
 
+  /**
+   * Compresses the body when gzip encoding is used, may be null.
+   */
+  private Compressor compressor;
+
 
 
 
@@ -202,6 +202,14 @@ public class Response implements Closeable {
 
 
 
+  /**
+   * Print a header line to the given writer.
+   *
+   * @deprecated headers are now encoded straight to bytes by the
+   *             {@link ResponseWriter} passed to {@link #send(OutputStream)},
+   *             which no longer calls this method.
+   */
+  @Deprecated
   @SuppressWarnings("static-method")
   protected void printHeader( final PrintWriter pw, final String key, final String value ) {
     pw.append( key ).append( ": " ).append( value ).append( "\r\n" );
@@ -213,47 +221,53 @@ public class Response implements Closeable {
   /**
    * Sends given response to the socket.
    *
+   * <p>The status line, the headers and, if it is small enough, a fixed
+   * length body are collected in the buffer of a {@link ResponseWriter} and
+   * sent in a single write. Sessions pass the writer they keep for their
+   * connection so its buffer is reused by every response.</p>
+   *
    * @param outputStream  the stream to which we write
    */
   protected void send( final OutputStream outputStream ) {
-    final SimpleDateFormat gmtFrmt = new SimpleDateFormat( "E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US );
-    gmtFrmt.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
-
+    final ResponseWriter writer = outputStream instanceof ResponseWriter ? (ResponseWriter)outputStream : new ResponseWriter( outputStream );
     try {
       if ( status == null ) {
         throw new Error( "send(): Status can't be null." );
       }
-      final PrintWriter pw = new PrintWriter( new BufferedWriter( new OutputStreamWriter( outputStream, new ContentType( mimeType ).getEncoding() ) ), false );
-      pw.append( "HTTP/1.1 " ).append( status.toString() ).append( " \r\n" );
+      if ( getHeader( HTTP.HDR_CONTENT_LENGTH.toLowerCase() ) != null || getHeader( HTTP.HDR_CONTENT_ENCODING.toLowerCase() ) != null || contentLength == 0 ) {
+        // explicit length, already encoded or nothing to compress
+        encodeAsGzip = false;
+      }
+      if ( encodeAsGzip && ( compressor != null ) ) {
+        compressBody();
+      }
+      writer.writeStatusLine( status, mimeType );
       if ( mimeType != null ) {
-        printHeader( pw, HTTP.HDR_CONTENT_TYPE, mimeType );
+        writer.writeHeader( HTTP.HDR_CONTENT_TYPE, mimeType );
       }
       if ( getHeader( HTTP.HDR_DATE.toLowerCase() ) == null ) {
-        printHeader( pw, HTTP.HDR_DATE, gmtFrmt.format( new Date() ) );
+        writer.writeHeader( HTTP.HDR_DATE, ResponseWriter.getDate() );
       }
       for ( final Entry<String, String> entry : header.entrySet() ) {
-        printHeader( pw, entry.getKey(), entry.getValue() );
+        writer.writeHeader( entry.getKey(), entry.getValue() );
       }
       if ( getHeader( HTTP.HDR_CONNECTION.toLowerCase() ) == null ) {
-        printHeader( pw, HTTP.HDR_CONNECTION, ( keepAlive ? HTTP.KEEP_ALIVE : HTTP.CLOSE ) );
-      }
-      if ( getHeader( HTTP.HDR_CONTENT_LENGTH.toLowerCase() ) != null ) {
-        encodeAsGzip = false;
+        writer.writeHeader( HTTP.HDR_CONNECTION, ( keepAlive ? HTTP.KEEP_ALIVE : HTTP.CLOSE ) );
       }
       if ( encodeAsGzip ) {
-        printHeader( pw, HTTP.HDR_CONTENT_ENCODING, HTTP.GZIP );
+        writer.writeHeader( HTTP.HDR_CONTENT_ENCODING, HTTP.GZIP );
         setChunkedTransfer( true );
       }
       long pending = data != null ? contentLength : 0;
       if ( ( requestMethod != Method.HEAD ) && chunkedTransfer ) {
-        printHeader( pw, HTTP.HDR_TRANSFER_ENCODING, HTTP.CHUNKED );
+        writer.writeHeader( HTTP.HDR_TRANSFER_ENCODING, HTTP.CHUNKED );
       } else if ( !encodeAsGzip ) {
-        pending = sendContentLengthHeaderIfNotAlreadyPresent( pw, pending );
+        pending = getContentLength( pending );
+        writer.writeHeader( HTTP.HDR_CONTENT_LENGTH, pending );
       }
-      pw.append( "\r\n" );
-      pw.flush();
-      sendBodyWithCorrectTransferAndEncoding( outputStream, pending );
-      outputStream.flush();
+      writer.endHeader();
+      sendBodyWithCorrectTransferAndEncoding( writer, pending );
+      writer.flush();
       HTTPD.safeClose( data );
     } catch ( final IOException ioe ) {
       Log.append( HTTPD.EVENT, "ERROR: Could not send response to the client", ioe );
@@ -263,6 +277,37 @@ public class Response implements Closeable {
 
 
 
+  /**
+   * Let the compressor decide whether the body is worth compressing and, if
+   * it is small enough, replace it with its compressed (and possibly cached)
+   * form so it can be sent with a fixed length.
+   */
+  private void compressBody() throws IOException {
+    final long length = chunkedTransfer ? -1 : contentLength;
+    if ( !compressor.shouldCompress( length ) ) {
+      encodeAsGzip = false;
+    } else if ( compressor.isCacheable( length ) ) {
+      final byte[] body = new byte[(int)length];
+      int read = 0;
+      while ( read < body.length ) {
+        final int count = data.read( body, read, body.length - read );
+        if ( count < 0 ) {
+          break;
+        }
+        read += count;
+      }
+      HTTPD.safeClose( data );
+      final byte[] compressed = compressor.compress( read == body.length ? body : Arrays.copyOf( body, read ) );
+      data = new ByteArrayInputStream( compressed );
+      contentLength = compressed.length;
+      addHeader( HTTP.HDR_CONTENT_ENCODING, HTTP.GZIP );
+      encodeAsGzip = false;
+    }
+  }
+
+
+
+
   /**
    * Sends the body to the specified OutputStream. The pending parameter
    * limits the maximum amounts of bytes sent unless it is -1, in which
@@ -296,7 +341,7 @@ public class Response implements Closeable {
 
   private void sendBodyWithCorrectEncoding( final OutputStream outputStream, final long pending ) throws IOException {
     if ( encodeAsGzip ) {
-      final GZIPOutputStream gzipOutputStream = new GZIPOutputStream( outputStream );
+      final GZIPOutputStream gzipOutputStream = compressor != null ? compressor.stream( outputStream ) : new GZIPOutputStream( outputStream );
       sendBody( gzipOutputStream, -1 );
       gzipOutputStream.finish();
     } else {
@@ -307,20 +352,49 @@ public class Response implements Closeable {
 
 
 
-  private void sendBodyWithCorrectTransferAndEncoding( final OutputStream outputStream, final long pending ) throws IOException {
+  private void sendBodyWithCorrectTransferAndEncoding( final ResponseWriter writer, final long pending ) throws IOException {
     if ( ( requestMethod != Method.HEAD ) && chunkedTransfer ) {
-      final ChunkedOutputStream chunkedOutputStream = new ChunkedOutputStream( outputStream );
+      final ChunkedOutputStream chunkedOutputStream = new ChunkedOutputStream( writer );
       sendBodyWithCorrectEncoding( chunkedOutputStream, -1 );
       chunkedOutputStream.finish();
+    } else if ( encodeAsGzip ) {
+      sendBodyWithCorrectEncoding( writer, pending );
+    } else if ( pending <= ResponseWriter.INLINE_BODY_LIMIT ) {
+      // small enough to go out in the same write as the header
+      sendFixedLengthBody( writer, pending );
     } else {
-      sendBodyWithCorrectEncoding( outputStream, pending );
+      writer.flushBuffer();
+      sendFixedLengthBody( writer.getTarget(), pending );
     }
   }
 
 
 
 
-  protected long sendContentLengthHeaderIfNotAlreadyPresent( final PrintWriter pw, final long defaultSize ) {
+  /**
+   * Sends a body which is neither chunked nor compressed, exactly as it is
+   * read from the data stream.
+   * 
+   * <p>Responses which can deliver their data more efficiently than by
+   * copying the data stream may override this.</p>
+   * 
+   * @param outputStream the OutputStream to send data to
+   * @param pending the number of bytes announced in the Content-Length header
+   *
+   * @throws IOException if something goes wrong while sending the data.
+   */
+  protected void sendFixedLengthBody( final OutputStream outputStream, final long pending ) throws IOException {
+    sendBody( outputStream, pending );
+  }
+
+
+
+
+  /**
+   * @return the length given in the Content-Length header if there is one,
+   *         otherwise the given default
+   */
+  private long getContentLength( final long defaultSize ) {
     final String contentLengthString = getHeader( HTTP.HDR_CONTENT_LENGTH.toLowerCase() );
     long size = defaultSize;
     if ( contentLengthString != null ) {
@@ -330,7 +404,26 @@ public class Response implements Closeable {
         Log.append( HTTPD.EVENT, "ERROR: content-length was not a number " + contentLengthString );
       }
     }
-    pw.print( HTTP.HDR_CONTENT_LENGTH + ": " + size + "\r\n" );
+    return size;
+  }
+
+
+
+
+  /**
+   * Print the Content-Length header to the given writer, using the length
+   * already set in the headers if there is one.
+   *
+   * @return the length printed
+   *
+   * @deprecated the length is now written by the {@link ResponseWriter}
+   *             passed to {@link #send(OutputStream)}, which no longer calls
+   *             this method.
+   */
+  @Deprecated
+  protected long sendContentLengthHeaderIfNotAlreadyPresent( final PrintWriter pw, final long defaultSize ) {
+    final long size = getContentLength( defaultSize );
+    printHeader( pw, HTTP.HDR_CONTENT_LENGTH, Long.toString( size ) );
     return size;
   }
 
@@ -351,6 +444,17 @@ public class Response implements Closeable {
 
 
 
+  /**
+   * @param compressor the compressor to use when the body is gzip encoded,
+   *        null to compress every body as it is sent
+   */
+  public void setCompressor( final Compressor compressor ) {
+    this.compressor = compressor;
+  }
+
+
+
+
   public void setGzipEncoding( final boolean encodeAsGzip ) {
     this.encodeAsGzip = encodeAsGzip;
   }
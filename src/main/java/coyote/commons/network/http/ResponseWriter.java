@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+
+/**
+ * Buffers responses on their way to the client so the status line, the
+ * headers and small bodies reach the socket in a single write.
+ *
+ * <p>A session keeps one writer for the life of its connection and every
+ * response sent over the connection reuses its buffer. Header text is encoded
+ * straight into the buffer; it is nearly always ASCII so the character set of
+ * the response is only looked up for the rare value which is not.</p>
+ *
+ * <p>Writes which do not fit in what is left of the buffer are sent after the
+ * buffered bytes, straight to the underlying stream if they are larger than
+ * the buffer itself. Nothing is sent until then or until {@link #flush()} is
+ * called.</p>
+ */
+class ResponseWriter extends OutputStream {
+
+  /** Fixed length bodies up to this size are sent in the same write as the header */
+  static final int INLINE_BODY_LIMIT = 8 * 1024;
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  private static final byte[] SEPARATOR = {':', ' '};
+
+  /** Formats the date header, only used once a second */
+  private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat( "E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US );
+  static {
+    DATE_FORMAT.setTimeZone( TimeZone.getTimeZone( "GMT" ) );
+  }
+
+  /** The date header for the current second */
+  private static volatile CachedDate date = new CachedDate( 0 );
+
+  /** The stream to which the buffer is written */
+  private final OutputStream out;
+
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private int count = 0;
+
+  /** The MIME type of the response being written, for its character set */
+  private String mimeType = null;
+
+
+
+
+  ResponseWriter( final OutputStream out ) {
+    this.out = out;
+  }
+
+
+
+
+  /**
+   * @return the stream to which this writer sends its data
+   */
+  OutputStream getTarget() {
+    return out;
+  }
+
+
+
+
+  /**
+   * @return the number of bytes waiting to be sent
+   */
+  int size() {
+    return count;
+  }
+
+
+
+
+  /**
+   * Start the header of a response.
+   *
+   * @param status the status of the response
+   * @param type the MIME type of the response, whose character set is used
+   *        for any header text which is not ASCII, may be null
+   */
+  void writeStatusLine( final Status status, final String type ) throws IOException {
+    mimeType = type;
+    writeText( "HTTP/1.1 " );
+    writeText( status.toString() );
+    writeText( " \r\n" );
+  }
+
+
+
+
+  /**
+   * Write a header line.
+   */
+  void writeHeader( final String name, final String value ) throws IOException {
+    writeText( name );
+    write( SEPARATOR, 0, SEPARATOR.length );
+    writeText( value );
+    write( CRLF, 0, CRLF.length );
+  }
+
+
+
+
+  /**
+   * Write a header line with a numeric value.
+   */
+  void writeHeader( final String name, final long value ) throws IOException {
+    writeHeader( name, Long.toString( value ) );
+  }
+
+
+
+
+  /**
+   * Write the blank line which ends the header.
+   */
+  void endHeader() throws IOException {
+    write( CRLF, 0, CRLF.length );
+  }
+
+
+
+
+  /**
+   * Encode the given text into the buffer.
+   */
+  private void writeText( final String text ) throws IOException {
+    final int length = text.length();
+    if ( length > buffer.length - count ) {
+      flushBuffer();
+      if ( length > buffer.length ) {
+        write( encode( text ) );
+        return;
+      }
+    }
+    for ( int x = 0; x < length; x++ ) {
+      final char c = text.charAt( x );
+      if ( c > 0x7F ) {
+        // roll back what was copied so far and encode the whole string
+        count -= x;
+        write( encode( text ) );
+        return;
+      }
+      buffer[count++] = (byte)c;
+    }
+  }
+
+
+
+
+  /**
+   * @return the text encoded with the character set of the response
+   */
+  private byte[] encode( final String text ) throws IOException {
+    return text.getBytes( new ContentType( mimeType ).getEncoding() );
+  }
+
+
+
+
+  @Override
+  public void write( final int b ) throws IOException {
+    if ( count >= buffer.length ) {
+      flushBuffer();
+    }
+    buffer[count++] = (byte)b;
+  }
+
+
+
+
+  @Override
+  public void write( final byte[] b, final int off, final int len ) throws IOException {
+    if ( len > buffer.length - count ) {
+      flushBuffer();
+      if ( len >= buffer.length ) {
+        out.write( b, off, len );
+        return;
+      }
+    }
+    System.arraycopy( b, off, buffer, count, len );
+    count += len;
+  }
+
+
+
+
+  /**
+   * Send the buffered bytes in one write without flushing the underlying
+   * stream.
+   */
+  void flushBuffer() throws IOException {
+    if ( count > 0 ) {
+      final int length = count;
+      count = 0;
+      out.write( buffer, 0, length );
+    }
+  }
+
+
+
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+
+
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flushBuffer();
+    } finally {
+      out.close();
+    }
+  }
+
+
+
+
+  /**
+   * @return the value of the date header for the current second
+   */
+  static String getDate() {
+    final long second = System.currentTimeMillis() / 1000;
+    CachedDate retval = date;
+    if ( retval.second != second ) {
+      retval = new CachedDate( second );
+      date = retval;
+    }
+    return retval.text;
+  }
+
+
+
+
+  /**
+   * A date header value and the second for which it is valid.
+   */
+  private static final class CachedDate {
+    final long second;
+    final String text;
+
+
+
+
+    CachedDate( final long second ) {
+      this.second = second;
+      synchronized( DATE_FORMAT ) {
+        text = DATE_FORMAT.format( new Date( second * 1000 ) );
+      }
+    }
+  }
+
+}
@@ -25,8 +25,8 @@ import coyote.loader.log.Log;
  */
 public class ServerRunnable implements Runnable {
 
-  private final HTTPD httpd;
-  private final int timeout;
+  protected final HTTPD httpd;
+  protected final int timeout;
   protected IOException bindException;
   protected boolean isBoundToPort = false;
 
@@ -43,13 +43,7 @@ public class ServerRunnable implements Runnable {
 
   @Override
   public void run() {
-    boolean secured;
-    try {
-      httpd.myServerSocket.bind(httpd.hostname != null ? new InetSocketAddress(httpd.hostname, httpd.myPort) : new InetSocketAddress(httpd.myPort));
-      isBoundToPort = true;
-    } catch (final IOException e) {
-      bindException = e;
-    }
+    bind();
 
     if (isBoundToPort) {
       do {
@@ -59,30 +53,9 @@ public class ServerRunnable implements Runnable {
             clientSocket.setSoTimeout(timeout);
           }
 
-          // if the
-          if (httpd.myServerSocket instanceof SSLServerSocket) {
-            secured = true;
-          } else {
-            secured = false;
-          }
-
-          // First check if the address has been calling us too frequently
-          // indicating a possible denial of service attack
-          if (httpd.dosTable.check(clientSocket.getInetAddress())) {
-            // Allow only connections from the local host or from remote hosts on
-            // our ACL
-            if (clientSocket.getLocalAddress().equals(clientSocket.getInetAddress()) || httpd.acl.allows(clientSocket.getInetAddress())) {
-              final InputStream inputStream = clientSocket.getInputStream();
-              httpd.asyncRunner.exec(httpd.createClientHandler(clientSocket, inputStream, secured));
-            } else {
-              Log.append(HTTPD.EVENT, "Remote connection from " + clientSocket.getInetAddress() + " on port " + clientSocket.getPort() + " refused due to ACL restrictions");
-              HTTPD.safeClose(clientSocket);
-            }
-          } else {
-            Log.append(HTTPD.EVENT, "Remote connection from " + clientSocket.getInetAddress() + " on port " + clientSocket.getPort() + " refused due to possible Denial of Service activity");
-            HTTPD.safeClose(clientSocket);
-            // TODO: track the number of breaches from this client and either throttle, or blacklist the IP
-            // TODO: track the number of events globally to detect a DDoS and terminate/retract/hide the server - it can be restarted later last gasp message to CO giving the new port
+          if (admit(clientSocket)) {
+            final InputStream inputStream = clientSocket.getInputStream();
+            httpd.asyncRunner.exec(httpd.createClientHandler(clientSocket, inputStream, isSecured()));
           }
         } catch (final IOException e) {
           Log.append(HTTPD.EVENT, "WARNING: Communication with the client broken", e);
@@ -92,4 +65,66 @@ public class ServerRunnable implements Runnable {
     }
 
   }
+
+
+
+
+  /**
+   * Bind the server socket to the configured host and port, recording either
+   * success or the exception which prevented the bind.
+   */
+  protected void bind() {
+    try {
+      httpd.myServerSocket.bind(httpd.hostname != null ? new InetSocketAddress(httpd.hostname, httpd.myPort) : new InetSocketAddress(httpd.myPort));
+      isBoundToPort = true;
+    } catch (final IOException e) {
+      bindException = e;
+    }
+  }
+
+
+
+
+  /**
+   * @return true if the server socket is an encrypted (SSL) server socket
+   */
+  protected boolean isSecured() {
+    return httpd.myServerSocket instanceof SSLServerSocket;
+  }
+
+
+
+
+  /**
+   * Perform the Denial of Service and Access Control checks on a newly
+   * accepted connection.
+   *
+   * <p>If the connection is refused, it is logged and the socket is closed.
+   *
+   * @param clientSocket the socket just accepted from the client
+   *
+   * @return true if the connection may be processed, false if it was refused
+   */
+  protected boolean admit(final Socket clientSocket) {
+    // First check if the address has been calling us too frequently
+    // indicating a possible denial of service attack
+    if (httpd.dosTable.check(clientSocket.getInetAddress())) {
+      // Allow only connections from the local host or from remote hosts on
+      // our ACL
+      if (clientSocket.getLocalAddress().equals(clientSocket.getInetAddress()) || httpd.acl.allows(clientSocket.getInetAddress())) {
+        return true;
+      } else {
+        Log.append(HTTPD.EVENT, "Remote connection from " + clientSocket.getInetAddress() + " on port " + clientSocket.getPort() + " refused due to ACL restrictions");
+        HTTPD.safeClose(clientSocket);
+      }
+    } else {
+      // repeated breaches block list the client for a while
+      final String reason = httpd.dosTable.isBlocked(clientSocket.getInetAddress()) ? "block listing" : "possible Denial of Service activity";
+      Log.append(HTTPD.EVENT, "Remote connection from " + clientSocket.getInetAddress() + " on port " + clientSocket.getPort() + " refused due to " + reason);
+      HTTPD.safeClose(clientSocket);
+      // TODO: track the number of events globally to detect a DDoS and terminate/retract/hide the server - it can be restarted later last gasp message to CO giving the new port
+    }
+    return false;
+  }
+
 }
\ No newline at end of file
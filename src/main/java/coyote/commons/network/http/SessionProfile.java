@@ -23,7 +23,9 @@ public class SessionProfile implements Serializable {
   private static final long serialVersionUID = -2260496918545261708L;
   private final HashMap<String, Serializable> data = new HashMap<>();
   private final String identifier;
-  private long expiry = 0;
+  private volatile long expiry = 0;
+  /** The expiry for which the manager has queued this profile, 0 if none */
+  transient volatile long scheduled = 0;
 
 
 
@@ -48,7 +50,9 @@ public class SessionProfile implements Serializable {
    * @return the data value of the named object or null if it does not exist.
    */
   public Serializable get(final String key) {
-    return data.get(key);
+    synchronized (data) {
+      return data.get(key);
+    }
   }
 
 
@@ -94,7 +98,22 @@ public class SessionProfile implements Serializable {
    * @param value the data value to set
    */
   public void set(final String key, final Serializable value) {
-    data.put(key, value);
+    synchronized (data) {
+      data.put(key, value);
+    }
+    SessionProfileManager.profileChanged(this);
+  }
+
+
+
+
+  /**
+   * @return a copy of the values in this profile
+   */
+  HashMap<String, Serializable> getData() {
+    synchronized (data) {
+      return new HashMap<>(data);
+    }
   }
 
 
@@ -106,6 +125,7 @@ public class SessionProfile implements Serializable {
    */
   public void setExpiry(final long expiry) {
     this.expiry = expiry;
+    SessionProfileManager.profileChanged(this);
   }
 
 
@@ -9,15 +9,30 @@ package coyote.commons.network.http;
 
 import coyote.loader.log.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -29,23 +44,69 @@ import java.util.Random;
  * with a HTTP session through the use of cookies. Values specific to the
  * session can be stored in the profile to maintain state between requests.
  *
- * <p>All profile values must be serializable as the entire map of profiles
- * may be serialized to storage for persistence between restarts.
+ * <p>Profiles are held in a concurrent map so request threads do not contend
+ * with each other. Profiles with an expiry are kept in a queue ordered by
+ * expiry time, so purging touches only the profiles which have expired. The
+ * number of profiles is bounded; when the limit is reached the profiles
+ * closest to expiring are evicted to make room.
+ *
+ * <p>All profile values must be serializable as profiles may be written to
+ * storage for persistence between restarts. The session file is a journal:
+ * each save appends only the profiles which changed (or were removed) since
+ * the previous save, and the file is rewritten with just the live profiles
+ * once it holds mostly superseded records.
  */
 public class SessionProfileManager {
   private static File sessionFile = new File("./.sessions");
   private static final Random RANDOM = new Random();
   private static final int TOKEN_SIZE = 24;
   private static final char[] HEX = new char[]{'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
-  private static HashMap<String, SessionProfile> profileMap = new HashMap<>();
   private static final String SESSION_COOKIE = "CL-Session-Id";
 
+  /** The default limit on the number of profiles held */
+  public static final int DEFAULT_MAX_PROFILES = 100000;
+
+  /** Identifies the journal format of the session file */
+  private static final int JOURNAL_MAGIC = 0x53504A31;
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+
+  /** The journal is rewritten when it holds this many more records than profiles */
+  private static final int COMPACT_THRESHOLD = 1024;
+
+  /** Expired profiles are purged at most this often (in milliseconds) as requests are made */
+  private static final long PURGE_INTERVAL = 1000;
+
+  /** Sorts before every entry of the expiry queue */
+  private static final Expiry EARLIEST = new Expiry(Long.MIN_VALUE, "");
+
+  private static final ConcurrentHashMap<String, SessionProfile> profileMap = new ConcurrentHashMap<>();
+
+  /** Profiles with an expiry, soonest first */
+  private static final ConcurrentSkipListSet<Expiry> expiryQueue = new ConcurrentSkipListSet<>();
+
+  /** Identifiers of the profiles changed or removed since the last save */
+  private static final Set<String> dirty = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private static final AtomicLong nextPurge = new AtomicLong();
+
+  private static volatile int maxProfiles = DEFAULT_MAX_PROFILES;
+
+  /** Serializes saving and loading, never held by request threads */
+  private static final Object storageLock = new Object();
+
+  /** The file the journal was last written to or read from */
+  private static File journalFile = null;
+
+  /** The number of records in the journal */
+  private static long journalRecords = 0;
+
 
 
 
   /**
    * Create a session identifier which is not contained in the session map.
-   * 
+   *
    * @return a session identifier which is unique to this manager.
    */
   private static String createProfileIdentifier() {
@@ -72,7 +133,7 @@ public class SessionProfileManager {
       if (cookies != null) {
         String token = cookies.read(SESSION_COOKIE);
         if (token != null) {
-          profileMap.remove(token);
+          remove(token);
         }
       }
     }
@@ -81,6 +142,15 @@ public class SessionProfileManager {
 
 
 
+  private static void remove(final String token) {
+    if (profileMap.remove(token) != null) {
+      dirty.add(token);
+    }
+  }
+
+
+
+
   /**
    * Generate a random hexadecimal string to be used as a session identifier.
    *
@@ -112,12 +182,49 @@ public class SessionProfileManager {
 
 
 
+  /**
+   * @return the maximum number of profiles held by the manager
+   */
+  public static int getMaxProfiles() {
+    return maxProfiles;
+  }
+
+
+
+
+  /**
+   * Set the maximum number of profiles held by the manager.
+   *
+   * <p>When a profile is to be created and the limit has been reached,
+   * expired profiles are purged and then the profiles closest to expiring (or
+   * arbitrary profiles if none have an expiry) are removed to make room.
+   *
+   * @param max the maximum number of profiles
+   */
+  public static void setMaxProfiles(final int max) {
+    maxProfiles = max;
+  }
+
+
+
+
+  /**
+   * @return the number of profiles currently held by the manager
+   */
+  public static int getProfileCount() {
+    return profileMap.size();
+  }
+
+
+
+
   /**
    * This loads session data from the currently set session file reference.
    *
    * <p>If the session file exists, then try to load it. Otherwise, just
-   * return.
-   * 
+   * return. Files written by earlier versions, which serialized the entire
+   * profile map, are also read.
+   *
    * <p>One the profile map is loaded, it is purged of any expired profiles.
    *
    * @throws Exception if there were problems reading the file from the file
@@ -125,27 +232,109 @@ public class SessionProfileManager {
    */
   @SuppressWarnings("unchecked")
   public static void load() throws Exception {
-    if (!sessionFile.exists()) {
-      return;
+    synchronized (storageLock) {
+      final File file = sessionFile;
+      if (!file.exists()) {
+        return;
+      }
+      final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        input.mark(4);
+        final int magic = input.readInt();
+        profileMap.clear();
+        expiryQueue.clear();
+        if (magic == JOURNAL_MAGIC) {
+          journalRecords = readJournal(input);
+          journalFile = file;
+        } else {
+          input.reset();
+          for (final SessionProfile profile : ((Map<String, SessionProfile>)new ObjectInputStream(input).readObject()).values()) {
+            profile.scheduled = 0;
+            profileMap.put(profile.getIdentifier(), profile);
+            schedule(profile);
+          }
+          // rewrite in the journal format on the next save
+          journalFile = null;
+        }
+        dirty.clear();
+      } finally {
+        input.close();
+      }
     }
-    final FileInputStream input = new FileInputStream(sessionFile);
-    profileMap = (HashMap<String, SessionProfile>)new ObjectInputStream(input).readObject();
-    input.close();
     purgeExpiredProfiles();
   }
 
 
 
 
+  /**
+   * Replay the records of the journal into the profile map.
+   *
+   * @return the number of records read
+   */
+  @SuppressWarnings("unchecked")
+  private static long readJournal(final DataInputStream input) throws IOException, ClassNotFoundException {
+    long retval = 0;
+    while (true) {
+      final byte type;
+      try {
+        type = input.readByte();
+      } catch (final EOFException e) {
+        break;
+      }
+      try {
+        final String token = input.readUTF();
+        if (type == PUT) {
+          final long expiry = input.readLong();
+          final byte[] data = new byte[input.readInt()];
+          input.readFully(data);
+          final SessionProfile profile = new SessionProfile(token);
+          final InputStream values = new ByteArrayInputStream(data);
+          for (final Map.Entry<String, Serializable> entry : ((HashMap<String, Serializable>)new ObjectInputStream(values).readObject()).entrySet()) {
+            profile.set(entry.getKey(), entry.getValue());
+          }
+          profile.setExpiry(expiry);
+          profileMap.put(token, profile);
+        } else {
+          profileMap.remove(token);
+        }
+        retval++;
+      } catch (final EOFException e) {
+        // the last save was interrupted, the records before it are intact
+        Log.append(HTTPD.EVENT, "WARNING: Session file ends with an incomplete record");
+        break;
+      }
+    }
+    return retval;
+  }
+
+
+
+
   /**
    * Iterate through the profiles and remove any which are expired.
+   *
+   * <p>Only the profiles whose expiry has passed are visited.
    */
-  public static synchronized void purgeExpiredProfiles() {
-    final Iterator<Map.Entry<String, SessionProfile>> iter = profileMap.entrySet().iterator();
-    while (iter.hasNext()) {
-      final Map.Entry<String, SessionProfile> entry = iter.next();
-      if (entry.getValue().isExpired()) {
-        iter.remove();
+  public static void purgeExpiredProfiles() {
+    final long now = System.currentTimeMillis();
+    Expiry next;
+    while ((next = expiryQueue.ceiling(EARLIEST)) != null && next.time < now) {
+      if (!expiryQueue.remove(next)) {
+        // another thread is purging it
+        continue;
+      }
+      final SessionProfile profile = profileMap.get(next.token);
+      if (profile != null && profile.scheduled == next.time) {
+        profile.scheduled = 0;
+        if (profile.isExpired()) {
+          if (profileMap.remove(next.token, profile)) {
+            dirty.add(next.token);
+          }
+        } else {
+          // the expiry was extended
+          schedule(profile);
+        }
       }
     }
   }
@@ -153,6 +342,74 @@ public class SessionProfileManager {
 
 
 
+  /**
+   * Purge expired profiles if it has not been done recently.
+   */
+  private static void purgeIfDue() {
+    final long now = System.currentTimeMillis();
+    final long due = nextPurge.get();
+    if (now >= due && nextPurge.compareAndSet(due, now + PURGE_INTERVAL)) {
+      purgeExpiredProfiles();
+    }
+  }
+
+
+
+
+  /**
+   * Make room for a new profile if the manager is at its limit.
+   */
+  private static void ensureCapacity() {
+    if (profileMap.size() < maxProfiles) {
+      return;
+    }
+    purgeExpiredProfiles();
+    while (profileMap.size() >= maxProfiles) {
+      final Expiry next = expiryQueue.pollFirst();
+      if (next != null) {
+        final SessionProfile profile = profileMap.get(next.token);
+        if (profile != null && profile.scheduled == next.time) {
+          remove(next.token);
+        }
+      } else {
+        final Iterator<String> tokens = profileMap.keySet().iterator();
+        if (!tokens.hasNext()) {
+          break;
+        }
+        remove(tokens.next());
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Queue the profile to be checked when it expires, unless it is already
+   * queued for an earlier time.
+   */
+  private static void schedule(final SessionProfile profile) {
+    final long expiry = profile.getExpiry();
+    if (expiry > 0 && (profile.scheduled == 0 || expiry < profile.scheduled)) {
+      profile.scheduled = expiry;
+      expiryQueue.add(new Expiry(expiry, profile.getIdentifier()));
+    }
+  }
+
+
+
+
+  /**
+   * Called by profiles when their values or expiry change.
+   */
+  static void profileChanged(final SessionProfile profile) {
+    schedule(profile);
+    dirty.add(profile.getIdentifier());
+  }
+
+
+
+
   /**
    * Retrieve the session specified in the given set of cookies, or create a
    * new session and place its identifier in those cookies.
@@ -163,20 +420,28 @@ public class SessionProfileManager {
    * @return the session associated with the identifier found in the cookies,
    *         or the new session. Will return null if the session is null.
    */
-  public static synchronized SessionProfile retrieveOrCreateProfile(final HTTPSession session) {
+  public static SessionProfile retrieveOrCreateProfile(final HTTPSession session) {
     SessionProfile retval = null;
     if (session != null) {
       final CookieHandler cookies = session.getCookies();
       if (cookies != null) {
+        purgeIfDue();
         String token = cookies.read(SESSION_COOKIE);
         if (token == null) {
           token = createProfileIdentifier();
           cookies.set(SESSION_COOKIE, token, 30);
         }
-        if (!profileMap.containsKey(token)) {
-          profileMap.put(token, new SessionProfile(token));
-        }
         retval = profileMap.get(token);
+        while (retval == null || retval.isExpired()) {
+          ensureCapacity();
+          final SessionProfile profile = new SessionProfile(token);
+          if (retval == null ? profileMap.putIfAbsent(token, profile) == null : profileMap.replace(token, retval, profile)) {
+            dirty.add(token);
+            retval = profile;
+          } else {
+            retval = profileMap.get(token);
+          }
+        }
       }
     }
     return retval;
@@ -188,17 +453,88 @@ public class SessionProfileManager {
   /**
    * Save the sessions to the file system using the currently set session file
    * reference.
-   * 
-   * <p>Expired profiles are removed before being saved.
+   *
+   * <p>Expired profiles are removed before being saved. Only the profiles
+   * changed since the last save are appended to the file, so saving does not
+   * grow with the number of sessions and does not block the threads using
+   * the profiles.
    *
    * @throws Exception if there were problems writing the file to the file
    *         system.
    */
-  public static synchronized void save() throws Exception {
+  public static void save() throws Exception {
     purgeExpiredProfiles();
-    final FileOutputStream output = new FileOutputStream(sessionFile);
-    new ObjectOutputStream(output).writeObject(profileMap);
-    output.close();
+    synchronized (storageLock) {
+      final File file = sessionFile;
+      if (!file.equals(journalFile) || !file.exists() || journalRecords > 2L * profileMap.size() + COMPACT_THRESHOLD) {
+        compact(file);
+        return;
+      }
+
+      final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+      try {
+        final Iterator<String> tokens = dirty.iterator();
+        while (tokens.hasNext()) {
+          final String token = tokens.next();
+          tokens.remove();
+          final SessionProfile profile = profileMap.get(token);
+          if (profile != null) {
+            writeProfile(output, profile);
+          } else {
+            output.writeByte(REMOVE);
+            output.writeUTF(token);
+          }
+          journalRecords++;
+        }
+      } finally {
+        output.close();
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Write all the profiles to a new journal which then replaces the file.
+   */
+  private static void compact(final File file) throws IOException {
+    dirty.clear();
+    final File temp = new File(file.getPath() + ".tmp");
+    final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+    long records = 0;
+    try {
+      output.writeInt(JOURNAL_MAGIC);
+      for (final SessionProfile profile : profileMap.values()) {
+        writeProfile(output, profile);
+        records++;
+      }
+    } finally {
+      output.close();
+    }
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Could not replace session file " + file);
+    }
+    if (!temp.renameTo(file)) {
+      throw new IOException("Could not rename " + temp + " to " + file);
+    }
+    journalFile = file;
+    journalRecords = records;
+  }
+
+
+
+
+  private static void writeProfile(final DataOutputStream output, final SessionProfile profile) throws IOException {
+    final ByteArrayOutputStream data = new ByteArrayOutputStream();
+    final ObjectOutputStream values = new ObjectOutputStream(data);
+    values.writeObject(profile.getData());
+    values.close();
+    output.writeByte(PUT);
+    output.writeUTF(profile.getIdentifier());
+    output.writeLong(profile.getExpiry());
+    output.writeInt(data.size());
+    data.writeTo(output);
   }
 
 
@@ -216,4 +552,50 @@ public class SessionProfileManager {
     SessionProfileManager.sessionFile = file;
   }
 
+
+
+
+  /**
+   * An entry in the expiry queue.
+   */
+  private static final class Expiry implements Comparable<Expiry> {
+    final long time;
+    final String token;
+
+
+
+
+    Expiry(final long time, final String token) {
+      this.time = time;
+      this.token = token;
+    }
+
+
+
+
+    @Override
+    public int compareTo(final Expiry other) {
+      if (time != other.time) {
+        return time < other.time ? -1 : 1;
+      }
+      return token.compareTo(other.token);
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object obj) {
+      return obj instanceof Expiry && compareTo((Expiry)obj) == 0;
+    }
+
+
+
+
+    @Override
+    public int hashCode() {
+      return token.hashCode() ^ (int)time;
+    }
+  }
+
 }
\ No newline at end of file
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+
+package coyote.commons.network.http;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+
+import coyote.i13n.Counter;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+import coyote.i13n.State;
+import coyote.i13n.Timer;
+import coyote.loader.log.Log;
+
+
+/**
+ * Threading strategy for HTTPD which runs each client handler on its own
+ * virtual thread.
+ *
+ * <p>Virtual threads are cheap to create and park, so the simple blocking
+ * model of {@link ClientHandler} (and of web sockets which run on the handler
+ * thread) can hold far more concurrent connections than platform threads
+ * allow.</p>
+ *
+ * <p>Virtual threads are located reflectively so this class can be compiled
+ * and loaded on any runtime. If the runtime does not support them, all calls
+ * are delegated to a {@link PooledExecutor} with the given number of workers
+ * and backlog. Use {@link #isVirtual()} to determine which mode is in use.</p>
+ *
+ * <p>In virtual mode, the same {@code .Active} state, {@code .Handled}
+ * counter and {@code .ServiceTime} timer as the pooled executor are published
+ * to the statistics board.</p>
+ */
+public class VirtualThreadExecutor implements Executor {
+
+  /** Creates virtual threads, null if the runtime does not support them */
+  private final ThreadFactory factory;
+
+  /** Used instead of virtual threads when the runtime does not support them */
+  private final PooledExecutor fallback;
+
+  /** Where we publish our metrics */
+  private final StatBoard stats;
+
+  /** The prefix of all our metric names */
+  private final String name;
+
+  /** Our metrics, looked up once so handling a request does no lookups */
+  private final Counter handled;
+  private final State activeState;
+  private final String serviceTime;
+
+  /** The currently running handlers */
+  private final Set<ClientHandler> running = new HashSet<ClientHandler>();
+
+
+
+
+  /**
+   * Create a virtual thread executor which falls back to a pooled executor
+   * with the default number of workers and backlog.
+   *
+   * @param name the name of the executor, also the prefix of its metrics
+   * @param stats the statistics board to which metrics are published, may be
+   *        null
+   */
+  public VirtualThreadExecutor( final String name, final StatBoard stats ) {
+    this( name, PooledExecutor.DEFAULT_WORKERS, PooledExecutor.DEFAULT_BACKLOG, stats );
+  }
+
+
+
+
+  /**
+   * Create a virtual thread executor.
+   *
+   * @param name the name of the executor, also the prefix of its metrics
+   * @param workers the number of workers in the pool if virtual threads are
+   *        not supported
+   * @param backlog the backlog of the pool if virtual threads are not
+   *        supported
+   * @param stats the statistics board to which metrics are published, may be
+   *        null
+   */
+  public VirtualThreadExecutor( final String name, final int workers, final int backlog, final StatBoard stats ) {
+    this.name = name;
+    this.stats = stats != null ? stats : new StatBoardImpl();
+    handled = this.stats.getCounter( name + PooledExecutor.HANDLED );
+    activeState = this.stats.getState( name + PooledExecutor.ACTIVE );
+    serviceTime = name + PooledExecutor.SERVICE_TIME;
+    factory = createFactory( name + " Request-" );
+    if ( factory == null ) {
+      Log.append( HTTPD.EVENT, "Virtual threads are not supported by this runtime (" + System.getProperty( "java.version" ) + "), using a pool of " + workers + " workers" );
+      fallback = new PooledExecutor( name, workers, backlog, this.stats );
+    } else {
+      fallback = null;
+    }
+  }
+
+
+
+
+  /**
+   * Create a factory of named virtual threads.
+   *
+   * @param prefix the prefix of the thread names
+   *
+   * @return a factory of virtual threads or null if the runtime does not
+   *         support them.
+   */
+  private static ThreadFactory createFactory( final String prefix ) {
+    try {
+      final Method ofVirtual = Thread.class.getMethod( "ofVirtual" );
+      final Class<?> builderType = Class.forName( "java.lang.Thread$Builder" );
+      Object builder = ofVirtual.invoke( null );
+      builder = builderType.getMethod( "name", String.class, long.class ).invoke( builder, prefix, 0L );
+      return (ThreadFactory)builderType.getMethod( "factory" ).invoke( builder );
+    } catch ( final Exception e ) {
+      // missing before Java 19, and a disabled preview feature before 21
+      return null;
+    }
+  }
+
+
+
+
+  /**
+   * @return true if the runtime supports virtual threads
+   */
+  public static boolean isSupported() {
+    return createFactory( "" ) != null;
+  }
+
+
+
+
+  /**
+   * @return true if handlers are run on virtual threads, false if they are
+   *         run in a pool of platform threads
+   */
+  public boolean isVirtual() {
+    return fallback == null;
+  }
+
+
+
+
+  /**
+   * @see coyote.commons.network.http.Executor#closeAll()
+   */
+  @Override
+  public void closeAll() {
+    if ( fallback != null ) {
+      fallback.closeAll();
+      return;
+    }
+    final ArrayList<ClientHandler> handlers;
+    synchronized( running ) {
+      handlers = new ArrayList<ClientHandler>( running );
+    }
+    for ( final ClientHandler clientHandler : handlers ) {
+      clientHandler.close();
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.commons.network.http.Executor#closed(coyote.commons.network.http.ClientHandler)
+   */
+  @Override
+  public void closed( final ClientHandler clientHandler ) {
+    if ( fallback != null ) {
+      fallback.closed( clientHandler );
+      return;
+    }
+    synchronized( running ) {
+      running.remove( clientHandler );
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.commons.network.http.Executor#exec(coyote.commons.network.http.ClientHandler)
+   */
+  @Override
+  public void exec( final ClientHandler clientHandler ) {
+    if ( fallback != null ) {
+      fallback.exec( clientHandler );
+      return;
+    }
+    synchronized( running ) {
+      running.add( clientHandler );
+    }
+    handled.increment();
+    factory.newThread( new Runnable() {
+      @Override
+      public void run() {
+        publish();
+        final Timer timer = stats.startTimer( serviceTime );
+        try {
+          clientHandler.run();
+        }
+        finally {
+          timer.stop();
+          closed( clientHandler );
+          publish();
+        }
+      }
+    } ).start();
+  }
+
+
+
+
+  /**
+   * Update the number of active handlers on the statistics board.
+   */
+  private void publish() {
+    activeState.set( getActiveCount() );
+  }
+
+
+
+
+  /**
+   * @return the number of handlers currently running
+   */
+  public int getActiveCount() {
+    if ( fallback != null ) {
+      return fallback.getActiveCount();
+    }
+    synchronized( running ) {
+      return running.size();
+    }
+  }
+
+
+
+
+  /**
+   * @return the statistics board to which this executor publishes its metrics
+   */
+  public StatBoard getStatBoard() {
+    return stats;
+  }
+
+}
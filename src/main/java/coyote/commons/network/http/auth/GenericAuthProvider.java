@@ -15,9 +15,13 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import coyote.commons.ByteUtil;
 import coyote.commons.CipherUtil;
@@ -30,6 +34,8 @@ import coyote.commons.network.http.SessionProfileManager;
 import coyote.dataframe.DataField;
 import coyote.dataframe.DataFrame;
 import coyote.dataframe.DataFrameException;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
 import coyote.loader.Loader;
 import coyote.loader.cfg.Config;
 import coyote.loader.log.Log;
@@ -39,10 +45,26 @@ import coyote.loader.log.Log;
  * This is the default authentication and authorization component for the HTTP
  * service.
  *
- * <p>Passwords are read and stored in memory as a multi-round MD5 digest. The
- * number of rounds is chosen pseudo-randomly. This is done to protect
- * passwords from malicious components, core dumps and follows recommended
- * safe coding practices for password handling.
+ * <p>Passwords are read and stored in memory as a multi-round MD5 digest.
+ * This is done to protect passwords from malicious components, core dumps and
+ * follows recommended safe coding practices for password handling. Every
+ * password is digested the same number of times and compared in full, so
+ * checking a password costs the same whichever user it is for and however
+ * much of it is right.
+ *
+ * <p>Users are indexed by name and their groups are kept in sets, and the
+ * group lists of the {@code Auth} annotations are split once and remembered,
+ * so authorization is a few hash lookups.
+ *
+ * <p>Basic authentication headers which verified successfully are remembered
+ * for {@code CacheTTL} milliseconds (default 5 minutes, 0 to disable) by a
+ * SHA-256 digest of the header, so API clients sending the same credentials
+ * with every request are authenticated with a hash lookup. The plain
+ * credentials are not kept. At most {@code CacheSize} (default 1024) headers
+ * are remembered. Cache hits and misses are counted in the
+ * {@code AuthCache.Hits} and {@code AuthCache.Misses} metrics. The cache is
+ * cleared whenever a user is added, removed, replaced or changed, and is not
+ * used at all if the SHA-256 digest is unavailable.
  *
  * <p><b>NOTE:</b> User and Group name matching is case-sensitive. It is
  * recommended to normalize all user and group names by hand. (e.g. always
@@ -51,17 +73,58 @@ import coyote.loader.log.Log;
 public class GenericAuthProvider implements AuthProvider {
   public static final String ALLOW_NO_SSL = "AllowUnsecuredConnections";
   public static final String AUTH_SECTION = "Auth";
+  public static final String CACHE_SIZE = "CacheSize";
+  public static final String CACHE_TTL = "CacheTTL";
+  public static final String CACHE_HITS = "AuthCache.Hits";
+  public static final String CACHE_MISSES = "AuthCache.Misses";
   public static final String GROUPS = "Groups";
   public static final String NAME = "Name";
   public static final String PASSWORD = "Password";
   public static final String SEND_AUTH_ON_FAILURE = "SendAuthRequestOnFailure";
   public static final String USER_SECTION = "Users";
   private static final String MD5 = "MD5";
+  private static final String SHA256 = "SHA-256";
   private static final String UTF8 = "UTF8";
-  public final List<User> userList = new ArrayList<User>();
+
+  /** The number of times each password is digested */
+  private static final int DIGEST_ROUNDS = 5;
+
+  /** Whether authorization headers can be digested for the verified cache */
+  private static final boolean HEADER_DIGESTS;
+
+  private final UserList users = new UserList();
+  public final List<User> userList = users;
   private boolean allowNoSSL = false;
 
-  private int digestRounds = 1;
+  /** The default number of milliseconds a verified header is remembered */
+  public static final long DEFAULT_CACHE_TTL = 5 * 60 * 1000;
+
+  /** The default maximum number of verified headers remembered */
+  public static final int DEFAULT_CACHE_SIZE = 1024;
+
+  /** The most group lists split and remembered for authorization checks */
+  private static final int MAX_GROUP_LISTS = 256;
+
+  /** The users by name, rebuilt if the users change */
+  private volatile Map<String, User> userIndex = new HashMap<String, User>();
+
+  /** The number of changes made to users after they were added to the list */
+  private final AtomicInteger userEdits = new AtomicInteger();
+
+  /** The number of changes made to the users when the index was built */
+  private volatile int indexedChanges = 0;
+
+  /** Comma delimited group lists (e.g. from Auth annotations) split into names */
+  private final ConcurrentHashMap<String, String[]> groupLists = new ConcurrentHashMap<String, String[]>();
+
+  /** Users of recently verified authorization headers by header digest */
+  private final ConcurrentHashMap<HeaderDigest, Verified> verified = new ConcurrentHashMap<HeaderDigest, Verified>();
+
+  private long cacheTTL = DEFAULT_CACHE_TTL;
+  private int cacheSize = DEFAULT_CACHE_SIZE;
+  private volatile StatBoard stats = new StatBoardImpl();
+
+  private int digestRounds = DIGEST_ROUNDS;
   private boolean sendAuthRequest = false;
 
   static {
@@ -70,6 +133,14 @@ public class GenericAuthProvider implements AuthProvider {
     } catch (final NoSuchAlgorithmException e) {
       e.printStackTrace();
     }
+    boolean digests = false;
+    try {
+      MessageDigest.getInstance(SHA256);
+      digests = true;
+    } catch (final NoSuchAlgorithmException e) {
+      Log.error("No " + SHA256 + " digest available - verified credentials will not be cached");
+    }
+    HEADER_DIGESTS = digests;
     try {
       UTF8.getBytes(UTF8);
     } catch (final UnsupportedEncodingException e) {
@@ -80,10 +151,7 @@ public class GenericAuthProvider implements AuthProvider {
 
 
 
-  public GenericAuthProvider() {
-    final Random rand = new Random();
-    digestRounds = rand.nextInt((5 - 1) + 1) + 1;
-  }
+  public GenericAuthProvider() {}
 
 
 
@@ -112,6 +180,22 @@ public class GenericAuthProvider implements AuthProvider {
           sendAuthRequest = true;
         }
       } catch (final DataFrameException e) {}
+
+      if (cfg.containsIgnoreCase(CACHE_TTL)) {
+        try {
+          cacheTTL = cfg.getLong(CACHE_TTL);
+        } catch (final NumberFormatException e) {
+          Log.error(CACHE_TTL + " configuration option was not a valid integer - ignoring");
+        }
+      }
+
+      if (cfg.containsIgnoreCase(CACHE_SIZE)) {
+        try {
+          cacheSize = cfg.getInt(CACHE_SIZE);
+        } catch (final NumberFormatException e) {
+          Log.error(CACHE_SIZE + " configuration option was not a valid integer - ignoring");
+        }
+      }
     }
 
   }
@@ -127,50 +211,47 @@ public class GenericAuthProvider implements AuthProvider {
     boolean retval = false;
 
     // Make sure there is a session assigned to this request
-    SessionProfile profile = SessionProfileManager.retrieveOrCreateProfile(session);
+    final SessionProfile profile = SessionProfileManager.retrieveOrCreateProfile(session);
     retval = setUserData(profile, session);
 
     // all headers are stored in lower case since browsers use different case
     final String authHeader = session.getRequestHeaders().get(HTTP.HDR_AUTHORIZATION.toLowerCase());
     if (StringUtil.isNotBlank(authHeader)) {
-      String[] tokens = authHeader.split(" ");
-      if ((tokens != null) && (tokens.length > 0)) {
-        final String authType = tokens[0];
-        Log.append(HTTPD.EVENT, "Received Auth Type of '" + authType + "'");
-
-        // Assume Basic Auth
-        if (tokens.length > 1) {
-          final byte[] data = ByteUtil.fromBase64(tokens[1].trim());
-          final String authPair = new String(data);
-          tokens = authPair.split(":");
-
-          String username;
-          String password;
-
-          if (tokens != null) {
-            if (tokens.length > 0) {
-              username = tokens[0];
-            } else {
-              username = null;
-            }
-            if (tokens.length > 1) {
-              password = tokens[1];
-            } else {
-              password = null;
-            }
-
-            Map<String, String> creds = new HashMap<String, String>();
-            creds.put(AuthProvider.USERNAME, username);
-            creds.put(AuthProvider.PASSWORD, password);
-
-            retval = authenticate(session, creds);
-
-          } // null tokens???
+      final String header = authHeader.trim();
+      final int mark = header.indexOf(' ');
+      final String authType = mark < 0 ? header : header.substring(0, mark);
+      Log.append(HTTPD.EVENT, "Received Auth Type of '" + authType + "'");
+
+      // Assume Basic Auth
+      if (mark > 0) {
+        // forget headers verified against users which have since changed
+        final int changes = checkUsers();
+        final HeaderDigest key = cacheTTL > 0 ? HeaderDigest.of(header) : null;
+        final Verified entry = key != null ? verified.get(key) : null;
+        if ((entry != null) && (entry.expires > System.currentTimeMillis())) {
+          stats.increment(CACHE_HITS);
+          setUser(session, profile, entry.user);
+          retval = true;
         } else {
-          Log.append(HTTPD.EVENT, "No authentication data received for '" + authType + "' from " + session.getRemoteIpAddress() + ":" + session.getRemoteIpPort());
+          if (key != null) {
+            stats.increment(CACHE_MISSES);
+          }
+          final String authPair = new String(ByteUtil.fromBase64(header.substring(mark + 1).trim()));
+          final int colon = authPair.indexOf(':');
+          final String username = colon < 0 ? authPair : authPair.substring(0, colon);
+          final String password = colon < 0 ? null : authPair.substring(colon + 1);
+
+          final User user = verify(username, password);
+          if (user != null) {
+            setUser(session, profile, user);
+            if ((key != null) && (changes == indexedChanges)) {
+              remember(key, user);
+            }
+            retval = true;
+          }
         }
       } else {
-        // No auth header
+        Log.append(HTTPD.EVENT, "No authentication data received for '" + authType + "' from " + session.getRemoteIpAddress() + ":" + session.getRemoteIpPort());
       }
     }
 
@@ -189,12 +270,26 @@ public class GenericAuthProvider implements AuthProvider {
    */
   @Override
   public boolean authenticate(HTTPSession session, Map<String, String> credentials) {
-    boolean retval = false;
-    String username = credentials.get(AuthProvider.USERNAME);
-    String password = credentials.get(AuthProvider.PASSWORD);
+    final User user = verify(credentials.get(AuthProvider.USERNAME), credentials.get(AuthProvider.PASSWORD));
+    if (user != null) {
+      setUser(session, SessionProfileManager.retrieveOrCreateProfile(session), user);
+      return true;
+    }
+    return false;
+  }
+
 
-    SessionProfile profile = SessionProfileManager.retrieveOrCreateProfile(session);
 
+
+  /**
+   * Find the user with the given name and check their password.
+   *
+   * @param username the name of the user
+   * @param password the password of the user
+   *
+   * @return the user if the password matches, null otherwise
+   */
+  private User verify(final String username, final String password) {
     // find the user with the given name
     final User user = getUser(username);
     if (user != null && StringUtil.isNotBlank(password)) {
@@ -204,15 +299,7 @@ public class GenericAuthProvider implements AuthProvider {
 
         if (user.passwordMatches(barray)) {
           Log.append(HTTPD.EVENT, "Successful authentication for '" + username + "'");
-          // add the user and groups to the session
-          session.setUserName(user.getName());
-          session.setUserGroups(user.getGroups());
-          // ... and the profile so we can cache the authenticated username and groups
-          if (profile != null) {
-            profile.set(AuthProvider.USERNAME, user.getName());
-            profile.set(AuthProvider.USERGROUPS, user.getGroups().toArray(new String[0]));
-          }
-          retval = true;
+          return user;
         }
       } catch (final UnsupportedEncodingException e) {
         e.printStackTrace(); // should never happen, tested in static init
@@ -220,7 +307,78 @@ public class GenericAuthProvider implements AuthProvider {
 
     } // we found a user with that name
 
-    return retval;
+    return null;
+  }
+
+
+
+
+  /**
+   * Add the user and groups to the session and the profile so we can cache
+   * the authenticated username and groups.
+   */
+  private void setUser(final HTTPSession session, final SessionProfile profile, final User user) {
+    session.setUserName(user.getName());
+    session.setUserGroups(user.getGroups());
+    if (profile != null) {
+      profile.set(AuthProvider.USERNAME, user.getName());
+      profile.set(AuthProvider.USERGROUPS, user.getGroupArray());
+    }
+  }
+
+
+
+
+  /**
+   * Remember the user of a verified authorization header, making room by
+   * dropping expired headers if the cache is full.
+   */
+  private void remember(final HeaderDigest key, final User user) {
+    final long now = System.currentTimeMillis();
+    if (verified.size() >= cacheSize) {
+      for (final Iterator<Verified> it = verified.values().iterator(); it.hasNext();) {
+        if (it.next().expires <= now) {
+          it.remove();
+        }
+      }
+    }
+    if (verified.size() < cacheSize) {
+      verified.put(key, new Verified(user, now + cacheTTL));
+    }
+  }
+
+
+
+
+  /**
+   * Forget all the verified authorization headers, for example after
+   * changing users.
+   */
+  public void clearCache() {
+    verified.clear();
+  }
+
+
+
+
+  /**
+   * @return the number of verified authorization headers remembered
+   */
+  public int getCacheSize() {
+    return verified.size();
+  }
+
+
+
+
+  /**
+   * @param stats the statistics board to which the cache metrics are
+   *        published
+   */
+  public void setStatBoard(final StatBoard stats) {
+    if (stats != null) {
+      this.stats = stats;
+    }
   }
 
 
@@ -266,9 +424,8 @@ public class GenericAuthProvider implements AuthProvider {
     final String username = session.getUserName();
     final User user = getUser(username);
     if (user != null) {
-      final String[] tokens = groups.split(",");
-      for (final String token : tokens) {
-        if (user.memberOf(token.trim())) {
+      for (final String group : getGroupList(groups)) {
+        if (user.memberOf(group)) {
           return true;
         }
       }
@@ -280,6 +437,30 @@ public class GenericAuthProvider implements AuthProvider {
 
 
 
+  /**
+   * @param groups a comma delimited list of groups
+   *
+   * @return the trimmed group names in the list
+   */
+  private String[] getGroupList(final String groups) {
+    String[] retval = groupLists.get(groups);
+    if (retval == null) {
+      final String[] tokens = groups.split(",");
+      for (int x = 0; x < tokens.length; x++) {
+        tokens[x] = tokens[x].trim();
+      }
+      retval = tokens;
+      // the lists come from annotations, so there should only be a few
+      if (groupLists.size() < MAX_GROUP_LISTS) {
+        groupLists.putIfAbsent(groups, retval);
+      }
+    }
+    return retval;
+  }
+
+
+
+
   /**
    * @see coyote.commons.network.http.auth.AuthProvider#isSecureConnection(coyote.commons.network.http.HTTPSession)
    */
@@ -394,11 +575,8 @@ public class GenericAuthProvider implements AuthProvider {
    */
   User getUser(final String name) {
     if (StringUtil.isNotEmpty(name)) {
-      for (final User user : userList) {
-        if (name.equals(user.getName())) {
-          return user;
-        }
-      }
+      checkUsers();
+      return userIndex.get(name);
     }
     return null;
   }
@@ -406,6 +584,53 @@ public class GenericAuthProvider implements AuthProvider {
 
 
 
+  /**
+   * @return the number of changes made to the users and the user list
+   */
+  private int getUserChanges() {
+    return users.getModifications() + userEdits.get();
+  }
+
+
+
+
+  /**
+   * Rebuild the user index if any user has changed since it was built.
+   *
+   * @return the number of changes made to the users when the index was built
+   */
+  private int checkUsers() {
+    final int changes = getUserChanges();
+    if (changes != indexedChanges) {
+      indexUsers();
+    }
+    return indexedChanges;
+  }
+
+
+
+
+  /**
+   * Index the users in the list by name, keeping the first of any users with
+   * the same name, and forget any verified authorization headers as their
+   * users may have changed.
+   */
+  private synchronized void indexUsers() {
+    final int changes = getUserChanges();
+    final Map<String, User> index = new HashMap<String, User>();
+    for (final User user : userList) {
+      if ((user.getName() != null) && !index.containsKey(user.getName())) {
+        index.put(user.getName(), user);
+      }
+    }
+    userIndex = index;
+    verified.clear();
+    indexedChanges = changes;
+  }
+
+
+
+
   /**
    * @param rounds
    */
@@ -418,6 +643,8 @@ public class GenericAuthProvider implements AuthProvider {
   */
   class User {
     private final List<String> groups = new ArrayList<String>();
+    private final Set<String> groupSet = new HashSet<String>();
+    private String[] groupArray = new String[0];
     private String name = null;
     private byte[] pass = null;
 
@@ -425,12 +652,7 @@ public class GenericAuthProvider implements AuthProvider {
 
 
     public boolean memberOf(final String group) {
-      for (final String groupname : groups) {
-        if (groupname.equals(group)) {
-          return true;
-        }
-      }
-      return false;
+      return groupSet.contains(group);
     }
 
 
@@ -438,6 +660,16 @@ public class GenericAuthProvider implements AuthProvider {
 
     void addGroup(final String groupname) {
       groups.add(groupname);
+      groupSet.add(groupname);
+      groupArray = groups.toArray(new String[groups.size()]);
+      userEdits.incrementAndGet();
+    }
+
+
+
+
+    String[] getGroupArray() {
+      return groupArray;
     }
 
 
@@ -465,7 +697,8 @@ public class GenericAuthProvider implements AuthProvider {
 
 
     boolean passwordMatches(final byte[] data) {
-      return Arrays.equals(data, pass);
+      // compares every byte, so the time taken does not reveal how much matched
+      return (data != null) && (pass != null) && MessageDigest.isEqual(data, pass);
     }
 
 
@@ -473,6 +706,7 @@ public class GenericAuthProvider implements AuthProvider {
 
     void setName(final String name) {
       this.name = name;
+      userEdits.incrementAndGet();
     }
 
 
@@ -480,8 +714,106 @@ public class GenericAuthProvider implements AuthProvider {
 
     void setPassword(final byte[] pass) {
       this.pass = pass;
+      userEdits.incrementAndGet();
+    }
+
+  }
+
+
+
+
+  /**
+   * The list of users, counting every change made to it so the index can be
+   * rebuilt when a user is replaced as well as when one is added or removed.
+   */
+  private static final class UserList extends ArrayList<User> {
+    private static final long serialVersionUID = 1L;
+
+
+
+
+    int getModifications() {
+      return modCount;
     }
 
+
+
+
+    @Override
+    public User set(final int index, final User user) {
+      modCount++;
+      return super.set(index, user);
+    }
+  }
+
+
+
+
+  /**
+   * The SHA-256 digest of an authorization header, so the header itself is
+   * not kept in memory.
+   */
+  private static final class HeaderDigest {
+    private final byte[] digest;
+    private final int hash;
+
+
+
+
+    private HeaderDigest(final byte[] digest) {
+      this.digest = digest;
+      hash = Arrays.hashCode(digest);
+    }
+
+
+
+
+    /**
+     * @return the digest of the given header, or null if it cannot be
+     *         computed and the header must not be cached
+     */
+    static HeaderDigest of(final String header) {
+      if (HEADER_DIGESTS) {
+        try {
+          return new HeaderDigest(MessageDigest.getInstance(SHA256).digest(header.getBytes(UTF8)));
+        } catch (final Exception e) {
+          // fall through so the header is verified in full
+        }
+      }
+      return null;
+    }
+
+
+
+
+    @Override
+    public boolean equals(final Object obj) {
+      return (obj instanceof HeaderDigest) && Arrays.equals(digest, ((HeaderDigest)obj).digest);
+    }
+
+
+
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * A user whose credentials verified, until the given time.
+   */
+  private static final class Verified {
+    final User user;
+    final long expires;
+
+
+
+
+    Verified(final User user, final long expires) {
+      this.user = user;
+      this.expires = expires;
+    }
   }
 
 }
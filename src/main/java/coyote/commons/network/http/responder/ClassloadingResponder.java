@@ -8,6 +8,7 @@
 
 package coyote.commons.network.http.responder;
 
+import java.io.IOException;
 import java.net.URL;
 import java.util.Map;
 
@@ -92,6 +93,16 @@ public class ClassloadingResponder extends DefaultResponder {
       }
     }
 
+    // Small resources are kept in the shared content cache
+    try {
+      final Response cached = ContentCache.getInstance().getResource(session, cLoader, localPath);
+      if (cached != null) {
+        return cached;
+      }
+    } catch (final IOException e) {
+      Log.append(HTTPD.EVENT, "Could not cache '" + localPath + "': " + e.getMessage());
+    }
+
     // See if this resource exists
     final URL rsc = cLoader.getResource(localPath);
 
@@ -0,0 +1,505 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.responder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import coyote.commons.network.http.FileResponse;
+import coyote.commons.network.http.HTTP;
+import coyote.commons.network.http.HTTPD;
+import coyote.commons.network.http.HTTPSession;
+import coyote.commons.network.http.Response;
+import coyote.commons.network.http.Status;
+
+
+/**
+ * A size-bounded, in-memory cache of static content.
+ *
+ * <p>Files and class path resources are read once and kept, with their MIME
+ * type, a strong ETag and, for compressible types or files with a
+ * precompressed {@code .gz} sibling, a gzip variant. The gzip variant has its
+ * own ETag (the identity tag with a {@code -gz} suffix) and both variants are
+ * sent with {@code Vary: Accept-Encoding}. Requests carrying either tag in
+ * {@code If-None-Match}, or a matching {@code If-Modified-Since} header, are
+ * answered with a 304 (Not Modified) without sending the body.
+ * File entries are reloaded when the modification time or size of the file
+ * changes.</p>
+ *
+ * <p>When the total size of the cached content exceeds the limit, the least
+ * recently used entries are evicted. Content larger than the maximum entry
+ * size is never cached; the responders stream it from its source as
+ * before.</p>
+ *
+ * <p>The responders share a single cache, sized by the {@code ContentCache}
+ * option of the {@code WebServer} configuration.</p>
+ */
+public class ContentCache {
+
+  /** The default limit on the total size of the cached content */
+  public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+  /** The default size of the largest content we cache */
+  public static final int DEFAULT_MAX_ENTRY_SIZE = 1024 * 1024;
+
+  private static final String GMT_FORMAT = "E, d MMM yyyy HH:mm:ss 'GMT'";
+
+  private static final ContentCache INSTANCE = new ContentCache(DEFAULT_MAX_BYTES);
+
+  /** The entries in least recently used order */
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+  /** A unique number for each class loader whose resources are cached */
+  private final WeakHashMap<ClassLoader, Long> loaderIds = new WeakHashMap<ClassLoader, Long>();
+
+  private long nextLoaderId = 0;
+
+  /** The total number of bytes held by the entries */
+  private long size = 0;
+
+  private long maxBytes;
+
+  private int maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+
+
+
+
+  /**
+   * Create a cache.
+   *
+   * @param maxBytes the limit on the total size of the cached content, 0 to
+   *        disable caching
+   */
+  public ContentCache(final long maxBytes) {
+    this.maxBytes = Math.max(0, maxBytes);
+  }
+
+
+
+
+  /**
+   * @return the cache shared by the static content responders
+   */
+  public static ContentCache getInstance() {
+    return INSTANCE;
+  }
+
+
+
+
+  /**
+   * @return the limit on the total size of the cached content
+   */
+  public synchronized long getMaxBytes() {
+    return maxBytes;
+  }
+
+
+
+
+  /**
+   * Set the limit on the total size of the cached content, evicting entries
+   * as necessary.
+   *
+   * @param maxBytes the number of bytes, 0 to disable caching
+   */
+  public synchronized void setMaxBytes(final long maxBytes) {
+    this.maxBytes = Math.max(0, maxBytes);
+    trim();
+  }
+
+
+
+
+  /**
+   * @return the size of the largest content which will be cached
+   */
+  public synchronized int getMaxEntrySize() {
+    return maxEntrySize;
+  }
+
+
+
+
+  /**
+   * @param size the size of the largest content which will be cached
+   */
+  public synchronized void setMaxEntrySize(final int size) {
+    maxEntrySize = Math.max(0, size);
+  }
+
+
+
+
+  /**
+   * @return the number of bytes currently cached
+   */
+  public synchronized long getSize() {
+    return size;
+  }
+
+
+
+
+  /**
+   * @return the number of entries currently cached
+   */
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+
+
+
+  /**
+   * Remove all the entries from the cache.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+
+
+
+
+  /**
+   * Respond with the contents of the given file from the cache, loading it if
+   * necessary.
+   *
+   * @param session the session with the request headers
+   * @param file the file to send
+   *
+   * @return the response, or null if the file is not to be cached or the
+   *         request is for a range of the file
+   *
+   * @throws IOException if the file could not be read
+   */
+  public Response getFile(final HTTPSession session, final File file) throws IOException {
+    if (session.getRequestHeaders().get(HTTP.HDR_RANGE.toLowerCase()) != null) {
+      return null;
+    }
+    final String key = file.getAbsolutePath();
+    final long modified = file.lastModified();
+    final long length = file.length();
+
+    Entry entry = get(key);
+    if (entry == null || entry.lastModified != modified || entry.length != length) {
+      if (length > getMaxEntrySize() || length > getMaxBytes()) {
+        remove(key);
+        return null;
+      }
+      final File precompressed = FileResponse.getPrecompressed(file);
+      final byte[] gzip = precompressed != null ? Files.readAllBytes(precompressed.toPath()) : null;
+      entry = new Entry(Files.readAllBytes(file.toPath()), HTTPD.getMimeTypeForFile(file.getName()), modified, gzip);
+      put(key, entry);
+    }
+    return entry.respond(session);
+  }
+
+
+
+
+  /**
+   * Respond with the contents of the given class path resource from the
+   * cache, loading it if necessary.
+   *
+   * <p>Class path resources are not expected to change and are never
+   * reloaded.</p>
+   *
+   * @param session the session with the request headers
+   * @param loader the class loader used to find the resource
+   * @param path the path of the resource
+   *
+   * @return the response, or null if the resource was not found or is not to
+   *         be cached
+   *
+   * @throws IOException if the resource could not be read
+   */
+  public Response getResource(final HTTPSession session, final ClassLoader loader, final String path) throws IOException {
+    final String key = "classpath:" + getLoaderId(loader) + ":" + path;
+    Entry entry = get(key);
+    if (entry == null) {
+      final URL url = loader.getResource(path);
+      if (url == null || getMaxBytes() == 0) {
+        return null;
+      }
+      final URLConnection connection = url.openConnection();
+      final long length = connection.getContentLengthLong();
+      final InputStream stream = connection.getInputStream();
+      try {
+        if (length < 0 || length > getMaxEntrySize() || length > getMaxBytes()) {
+          return null;
+        }
+        entry = new Entry(readFully(stream, (int)length), HTTPD.getMimeTypeForFile(path), connection.getLastModified(), null);
+      } finally {
+        stream.close();
+      }
+      put(key, entry);
+    }
+    return entry.respond(session);
+  }
+
+
+
+
+  /**
+   * @return the number identifying the given class loader in cache keys,
+   *         which is never given to another loader
+   */
+  private synchronized long getLoaderId(final ClassLoader loader) {
+    Long retval = loaderIds.get(loader);
+    if (retval == null) {
+      retval = nextLoaderId++;
+      loaderIds.put(loader, retval);
+    }
+    return retval;
+  }
+
+
+
+
+  private static byte[] readFully(final InputStream stream, final int length) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+    final byte[] buffer = new byte[8192];
+    int read;
+    while ((read = stream.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+
+
+
+  private synchronized Entry get(final String key) {
+    return entries.get(key);
+  }
+
+
+
+
+  private synchronized void put(final String key, final Entry entry) {
+    final Entry previous = entries.put(key, entry);
+    if (previous != null) {
+      size -= previous.size();
+    }
+    size += entry.size();
+    trim();
+  }
+
+
+
+
+  private synchronized void remove(final String key) {
+    final Entry previous = entries.remove(key);
+    if (previous != null) {
+      size -= previous.size();
+    }
+  }
+
+
+
+
+  /**
+   * Evict the least recently used entries until we are within our limit.
+   */
+  private void trim() {
+    final Iterator<Entry> it = entries.values().iterator();
+    while (size > maxBytes && it.hasNext()) {
+      size -= it.next().size();
+      it.remove();
+    }
+  }
+
+
+
+
+  /**
+   * @return true if content of the given type is worth compressing
+   */
+  static boolean isCompressible(final String mimeType) {
+    if (mimeType == null) {
+      return false;
+    }
+    final String type = mimeType.toLowerCase();
+    return type.startsWith("text/") || type.contains("json") || type.contains("javascript") || type.contains("xml");
+  }
+
+
+
+
+  /**
+   * Check the conditional headers of the request against our validators.
+   *
+   * @param session the session with the request headers
+   * @param selected the tag of the variant which would be sent
+   * @param etags the tags of all the variants of the content
+   * @param lastModified the modification time of the content, 0 if unknown
+   *
+   * @return the tag to send with a 304 response if the client already has
+   *         the current content, null if it does not
+   */
+  static String getNotModifiedTag(final HTTPSession session, final String selected, final String[] etags, final long lastModified) {
+    final Map<String, String> headers = session.getRequestHeaders();
+    final String ifNoneMatch = headers.get(HTTP.HDR_IF_NONE_MATCH.toLowerCase());
+    if (ifNoneMatch != null) {
+      // weak comparison, as required for If-None-Match
+      for (String tag : ifNoneMatch.split(",")) {
+        tag = tag.trim();
+        if (tag.startsWith("W/")) {
+          tag = tag.substring(2);
+        }
+        if ("*".equals(tag)) {
+          return selected;
+        }
+        for (final String etag : etags) {
+          // name the variant the client holds so caches update that one
+          if (etag != null && etag.equals(tag)) {
+            return etag;
+          }
+        }
+      }
+      // If-Modified-Since is ignored when If-None-Match is present
+      return null;
+    }
+
+    final String ifModifiedSince = headers.get(HTTP.HDR_IF_MODIFIED_SINCE.toLowerCase());
+    if (ifModifiedSince != null && lastModified > 0) {
+      try {
+        final long since = newDateFormat().parse(ifModifiedSince).getTime();
+        return lastModified / 1000 <= since / 1000 ? selected : null;
+      } catch (final ParseException e) {
+        // invalid dates are ignored
+      }
+    }
+    return null;
+  }
+
+
+
+
+  private static SimpleDateFormat newDateFormat() {
+    final SimpleDateFormat retval = new SimpleDateFormat(GMT_FORMAT, Locale.US);
+    retval.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return retval;
+  }
+
+
+
+
+  /**
+   * Cached content and its validators.
+   */
+  static final class Entry {
+    final byte[] data;
+    /** The compressed content, null if not compressible or not smaller */
+    final byte[] gzip;
+    final String mimeType;
+    final String etag;
+    /** The tag of the gzip variant, null if there is none */
+    final String gzipEtag;
+    /** Modification time of the source (epoch millis), 0 if unknown */
+    final long lastModified;
+    /** Length of the source, used to detect changes */
+    final long length;
+    final String lastModifiedHeader;
+
+
+
+
+    /**
+     * @param gzip the precompressed content, null to compress it here if the
+     *        type is compressible
+     */
+    Entry(final byte[] data, final String mimeType, final long lastModified, final byte[] gzip) throws IOException {
+      this.data = data;
+      this.mimeType = mimeType;
+      this.lastModified = lastModified;
+      length = data.length;
+      final CRC32 crc = new CRC32();
+      crc.update(data, 0, data.length);
+      etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(data.length) + "\"";
+      lastModifiedHeader = lastModified > 0 ? newDateFormat().format(new Date(lastModified)) : null;
+      if (gzip != null) {
+        this.gzip = gzip;
+      } else {
+        this.gzip = isCompressible(mimeType) ? compress(data) : null;
+      }
+      gzipEtag = this.gzip != null ? etag.substring(0, etag.length() - 1) + "-gz\"" : null;
+    }
+
+
+
+
+    private static byte[] compress(final byte[] data) throws IOException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 32);
+      final GZIPOutputStream gzip = new GZIPOutputStream(out);
+      gzip.write(data);
+      gzip.finish();
+      gzip.close();
+      return out.size() < data.length ? out.toByteArray() : null;
+    }
+
+
+
+
+    long size() {
+      return data.length + (gzip != null ? gzip.length : 0);
+    }
+
+
+
+
+    /**
+     * Create the response for this entry, the gzip variant if the client
+     * accepts it or a 304 if the client already has the content.
+     */
+    Response respond(final HTTPSession session) {
+      final String acceptEncoding = session.getRequestHeaders().get(HTTP.HDR_ACCEPT_ENCODING.toLowerCase());
+      final boolean compressed = gzip != null && acceptEncoding != null && acceptEncoding.contains(HTTP.GZIP);
+      final String selected = compressed ? gzipEtag : etag;
+      final String notModified = getNotModifiedTag(session, selected, new String[]{etag, gzipEtag}, lastModified);
+
+      final Response retval;
+      if (notModified != null) {
+        retval = Response.createFixedLengthResponse(Status.NOT_MODIFIED, mimeType, null, 0);
+      } else if (compressed) {
+        retval = Response.createFixedLengthResponse(Status.OK, mimeType, new ByteArrayInputStream(gzip), gzip.length);
+        retval.addHeader(HTTP.HDR_CONTENT_ENCODING, HTTP.GZIP);
+      } else {
+        retval = Response.createFixedLengthResponse(Status.OK, mimeType, new ByteArrayInputStream(data), data.length);
+      }
+      if (gzip != null) {
+        retval.addHeader(HTTP.HDR_VARY, HTTP.HDR_ACCEPT_ENCODING);
+      }
+      retval.addHeader(HTTP.HDR_ETAG, notModified != null ? notModified : selected);
+      if (lastModifiedHeader != null) {
+        retval.addHeader(HTTP.HDR_LAST_MODIFIED, lastModifiedHeader);
+      }
+      return retval;
+    }
+  }
+
+}
@@ -45,4 +45,23 @@ public abstract class DefaultResponder extends DefaultStreamResponder {
 
 
   public abstract String getText();
+
+
+
+
+  /**
+   * @return true if the given class, or one of its superclasses below the
+   *         one declaring the named method, overrides that method
+   */
+  static boolean overrides(final Class<?> type, final Class<?> declarer, final String name, final Class<?>... params) {
+    for (Class<?> cls = type; cls != null && cls != declarer; cls = cls.getSuperclass()) {
+      try {
+        cls.getDeclaredMethod(name, params);
+        return true;
+      } catch (final NoSuchMethodException e) {
+        // not declared at this level
+      }
+    }
+    return false;
+  }
 }
\ No newline at end of file
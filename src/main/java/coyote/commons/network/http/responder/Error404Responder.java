@@ -15,6 +15,7 @@ import coyote.commons.network.http.Status;
 /**
  * Handling error 404 - unrecognized URIs
  */
+@Singleton
 public class Error404Responder extends DefaultResponder {
 
   @Override
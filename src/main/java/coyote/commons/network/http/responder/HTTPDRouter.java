@@ -209,6 +209,7 @@ public class HTTPDRouter extends HTTPD {
   public void setStatBoard(final StatBoard instance) {
     if (instance != null) {
       stats = instance;
+      dosTable.setStatBoard(instance);
     }
   }
 
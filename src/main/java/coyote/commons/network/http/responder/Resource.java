@@ -8,6 +8,7 @@
 
 package coyote.commons.network.http.responder;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -40,6 +41,13 @@ public class Resource {
     private static final String PARAM_MATCHER = "([A-Za-z0-9\\-\\._~:/?#\\[\\]@!\\$&'\\(\\)\\*\\+,;=\\s]+)";
 
     private static final Pattern PARAM_PATTERN = Pattern.compile("(?<=(^|/)):[a-zA-Z0-9_-]+(?=(/|$))");
+
+    // indexes into the table of Auth annotations for each responder method
+    private static final int GET = 0;
+    private static final int POST = 1;
+    private static final int PUT = 2;
+    private static final int DELETE = 3;
+    private static final int OTHER = 4;
     final int priority;
     private final AuthProvider authProvider;
     private final String description;
@@ -50,6 +58,12 @@ public class Resource {
     private final String uri;
     private final List<String> uriParams = new ArrayList<String>();
     private final Pattern uriPattern;
+    // the constructor of the responder, resolved once
+    private final Constructor<?> responderConstructor;
+    // the shared responder instance if the responder is a Singleton
+    private final Object singleton;
+    // the Auth annotation applicable to each responder method, resolved once
+    private final Auth[] authAnnotations = new Auth[OTHER + 1];
 
 
     /**
@@ -77,6 +91,18 @@ public class Resource {
         // the parameters, the higher the priority (is found first)
         this.priority = priority + (uriParams.size() * 1000);
 
+        // resolve everything needed to dispatch requests once, not per request
+        responderConstructor = findConstructor(responder);
+        if (responder != null && Responder.class.isAssignableFrom(responder)) {
+            final Class<?>[] params = {Resource.class, Map.class, HTTPSession.class};
+            authAnnotations[GET] = findAuth(responder, "get", params);
+            authAnnotations[POST] = findAuth(responder, "post", params);
+            authAnnotations[PUT] = findAuth(responder, "put", params);
+            authAnnotations[DELETE] = findAuth(responder, "delete", params);
+            authAnnotations[OTHER] = findAuth(responder, "other", String.class, Resource.class, Map.class, HTTPSession.class);
+        }
+        singleton = (responder != null && responder.isAnnotationPresent(Singleton.class)) ? createResponder() : null;
+
         // build our description once and reuse it (for toString())
         final StringBuilder b = new StringBuilder("Resource{uri='");
         b.append((uri == null ? "/" : uri));
@@ -101,6 +127,14 @@ public class Resource {
     }
 
 
+    /**
+     * @return the names of the parameters in the URI, in the order they appear
+     */
+    List<String> getUriParams() {
+        return uriParams;
+    }
+
+
     /**
      * Cast the first initialization parameter to the given class.
      *
@@ -159,48 +193,40 @@ public class Resource {
 
     public Response process(final Map<String, String> urlParams, final HTTPSession session) throws SecurityResponseException {
         String error = "Error: Problems while processing URI resource";
-        Auth authAnnotation = null;
 
         if (responderClass != null) {
             try {
-                final Object object = responderClass.newInstance();
-
-                // Check for a class level Auth annotation which is applied to all methods
-                if (responderClass.isAnnotationPresent(Auth.class)) {
-                    authAnnotation = responderClass.getAnnotation(Auth.class);
+                if (singleton == null && responderConstructor == null) {
+                    throw new InstantiationException(responderClass.getName());
                 }
+                final Object object = singleton != null ? singleton : responderConstructor.newInstance();
 
                 // If this is a URI Responder, have it process the request
                 if (object instanceof Responder) {
                     final Responder responder = (Responder) object;
 
-                    // determine which method to call
-                    final Class[] params = {Resource.class, Map.class, HTTPSession.class};
-                    Method method = null;
+                    // determine which method will be called
+                    final int index;
                     switch (session.getMethod()) {
                         case GET:
-                            method = responderClass.getMethod("get", params);
+                            index = GET;
                             break;
                         case POST:
-                            method = responderClass.getMethod("post", params);
+                            index = POST;
                             break;
                         case PUT:
-                            method = responderClass.getMethod("put", params);
+                            index = PUT;
                             break;
                         case DELETE:
-                            method = responderClass.getMethod("delete", params);
+                            index = DELETE;
                             break;
                         default:
-                            method = responderClass.getMethod("other", String.class, Resource.class, Map.class, HTTPSession.class);
+                            index = OTHER;
                             break;
                     }
 
-                    // Check for method level annotation which will override any class level annotation
-                    if (method.isAnnotationPresent(Auth.class)) {
-                        authAnnotation = method.getAnnotation(Auth.class);
-                    }
-
                     // If there is an Auth annotation present, perform authentication and authorization
+                    final Auth authAnnotation = authAnnotations[index];
                     if (authAnnotation != null) {
                         if (authProvider != null) {
                             if (authAnnotation.requireSSL() && !authProvider.isSecureConnection(session)) {
@@ -224,14 +250,17 @@ public class Resource {
                     }
 
                     // All auth checks have passed, invoke processing
-                    switch (session.getMethod()) {
+                    switch (index) {
                         case GET:
+                            return responder.get(this, urlParams, session);
                         case POST:
+                            return responder.post(this, urlParams, session);
                         case PUT:
+                            return responder.put(this, urlParams, session);
                         case DELETE:
-                            return (Response) method.invoke(responder, this, urlParams, session);
+                            return responder.delete(this, urlParams, session);
                         default:
-                            return (Response) method.invoke(responder, session.getMethod().toString(), this, urlParams, session);
+                            return responder.other(session.getMethod().toString(), this, urlParams, session);
                     }
                 } else {
                     // This is some other object...display it generically
@@ -249,6 +278,62 @@ public class Resource {
     }
 
 
+    /**
+     * @return the public no-argument constructor of the responder class or
+     * null if there is none, in which case requests will fail with an error.
+     */
+    private static Constructor<?> findConstructor(final Class<?> responder) {
+        if (responder != null) {
+            try {
+                return responder.getConstructor();
+            } catch (final NoSuchMethodException | SecurityException e) {
+                Log.append(HTTPD.EVENT, "ERROR: Responder " + responder.getName() + " has no public no-argument constructor", e);
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Find the Auth annotation applying to the named responder method; a method
+     * level annotation overrides the class level annotation.
+     */
+    private static Auth findAuth(final Class<?> responder, final String name, final Class<?>... params) {
+        Auth retval = responder.getAnnotation(Auth.class);
+        try {
+            final Method method = responder.getMethod(name, params);
+            if (method.isAnnotationPresent(Auth.class)) {
+                retval = method.getAnnotation(Auth.class);
+            }
+        } catch (final NoSuchMethodException e) {
+            // cannot happen with a Responder
+        }
+        return retval;
+    }
+
+
+    /**
+     * @return a new instance of the responder or null if it could not be created
+     */
+    private Object createResponder() {
+        try {
+            return responderConstructor.newInstance();
+        } catch (final Exception e) {
+            Log.append(HTTPD.EVENT, "ERROR: Could not create singleton responder " + responderClass.getName(), e);
+            return null;
+        }
+    }
+
+
+    /**
+     * @return true if a single instance of the responder is shared by all
+     * requests to this resource.
+     */
+    public boolean isSingleton() {
+        return singleton != null;
+    }
+
+
     /**
      * @see java.lang.Object#toString()
      */
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.responder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * An index of resources compiled into a trie of URI segments.
+ *
+ * <p>Each resource URI is split on '/' into segments which are either
+ * literals, named parameters ({@code :id}) or, as the last segment, a
+ * wildcard ({@code .*} or {@code (.)+}) matching the rest of the URI. A
+ * request is then matched by walking down the trie one segment at a time
+ * instead of running the regular expression of every resource.</p>
+ *
+ * <p>Resources whose URI contains any other regular expression constructs
+ * cannot be placed in the trie and are matched with their regular expression
+ * as before, but only those which rank ahead of the best resource found in
+ * the trie are tried.</p>
+ *
+ * <p>The index preserves the routing order of the router: of all the
+ * resources matching a request, the one which appears first in the (priority
+ * sorted) mappings is selected. Parameters match as they do in the regular
+ * expressions, which allow them to span several segments.</p>
+ *
+ * <p>The index is immutable; the router builds a new one when its routes
+ * change.</p>
+ */
+final class RouteIndex {
+
+  private static final Map<String, String> EMPTY = Collections.unmodifiableMap(new HashMap<String, String>());
+
+  /** Regular expression characters which prevent a segment from being indexed */
+  private static final String REGEX_CHARS = "\\^$|?*+()[]{}";
+
+  /** Last segments matching anything, including nothing */
+  private static final String[] ANY_WILDCARDS = {".*", "(.*)", "(.)*"};
+
+  /** Last segments matching one or more characters */
+  private static final String[] SOME_WILDCARDS = {".+", "(.+)", "(.)+"};
+
+  private final Node root = new Node();
+
+  /** Resources which could not be indexed, in routing order */
+  private final List<Entry> unindexed = new ArrayList<Entry>();
+
+  /** The number of mappings indexed */
+  private final int size;
+
+  /** The largest number of parameters in any indexed resource */
+  private int maxParams = 0;
+
+
+
+
+  /**
+   * Compile the given mappings into an index.
+   *
+   * @param mappings the resources in routing (priority) order
+   */
+  RouteIndex(final List<Resource> mappings) {
+    size = mappings.size();
+    for (int rank = 0; rank < mappings.size(); rank++) {
+      final Resource resource = mappings.get(rank);
+      final Entry entry = new Entry(resource, rank);
+      if (resource.getUri() == null || !insert(entry)) {
+        unindexed.add(entry);
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of mappings from which this index was built
+   */
+  int size() {
+    return size;
+  }
+
+
+
+
+  /**
+   * Place the entry in the trie.
+   *
+   * @return false if the URI of the resource could not be indexed
+   */
+  private boolean insert(final Entry entry) {
+    final String[] segments = entry.resource.getUri().split("/", -1);
+    final String last = segments[segments.length - 1];
+    final boolean any = isOneOf(last, ANY_WILDCARDS);
+    final boolean some = isOneOf(last, SOME_WILDCARDS);
+    final int length = (any || some) ? segments.length - 1 : segments.length;
+    Node node = root;
+    int params = 0;
+    for (int x = 0; x < length; x++) {
+      final String segment = segments[x];
+      if (isParameter(segment)) {
+        if (node.param == null) {
+          node.param = new Node();
+        }
+        node = node.param;
+        params++;
+      } else if (isLiteral(segment)) {
+        Node child = node.literals.get(segment);
+        if (child == null) {
+          child = new Node();
+          node.literals.put(segment, child);
+        }
+        node = child;
+      } else {
+        return false;
+      }
+    }
+    if (params != entry.resource.getUriParams().size()) {
+      // parameter embedded in some other way, let the regex handle it
+      return false;
+    }
+    maxParams = Math.max(maxParams, params);
+    if (any) {
+      node.restAny.add(entry);
+    } else if (some) {
+      node.restSome.add(entry);
+    } else {
+      node.terminal.add(entry);
+    }
+    return true;
+  }
+
+
+
+
+  private static boolean isOneOf(final String segment, final String[] values) {
+    for (final String value : values) {
+      if (value.equals(segment)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+
+
+  private static boolean isParameter(final String segment) {
+    if (segment.length() < 2 || segment.charAt(0) != ':') {
+      return false;
+    }
+    for (int x = 1; x < segment.length(); x++) {
+      final char c = segment.charAt(x);
+      if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+
+
+  private static boolean isLiteral(final String segment) {
+    for (int x = 0; x < segment.length(); x++) {
+      if (REGEX_CHARS.indexOf(segment.charAt(x)) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+
+
+  /**
+   * @return true if the character may appear in a parameter value; this is
+   *         the same set of characters the resource regular expressions
+   *         accept
+   */
+  private static boolean isParameterChar(final char c) {
+    if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')) {
+      return true;
+    }
+    switch (c) {
+      case '-': case '.': case '_': case '~': case ':': case '/': case '?': case '#': case '[': case ']': case '@': case '!':
+      case '$': case '&': case '\'': case '(': case ')': case '*': case '+': case ',': case ';': case '=':
+      case ' ': case '\t': case '\n': case 0x0B: case '\f': case '\r':
+        return true;
+      default:
+        return false;
+    }
+  }
+
+
+
+
+  /**
+   * Find the resource which should handle the given (normalized) URI.
+   *
+   * @param uri the normalized request URI
+   *
+   * @return the matching resource and its parameters, or null if no resource
+   *         matches the URI
+   */
+  Match lookup(final String uri) {
+    final Search search = new Search(uri, maxParams);
+    search.walk(root, 0, false, 0);
+
+    // only the unindexed resources ranked ahead of the trie result can win
+    Map<String, String> params = null;
+    for (final Entry entry : unindexed) {
+      if (search.best != null && entry.rank >= search.best.rank) {
+        break;
+      }
+      if (entry.resource.getUri() != null) {
+        params = entry.resource.match(uri);
+        if (params != null) {
+          return new Match(entry.resource, params);
+        }
+      }
+    }
+
+    if (search.best == null) {
+      return null;
+    }
+
+    final List<String> names = search.best.resource.getUriParams();
+    if (names.isEmpty()) {
+      params = EMPTY;
+    } else {
+      params = new HashMap<String, String>();
+      for (int x = 0; x < names.size(); x++) {
+        params.put(names.get(x), search.bestValues[x]);
+      }
+    }
+    return new Match(search.best.resource, params);
+  }
+
+
+
+
+  /**
+   * The result of a lookup.
+   */
+  static final class Match {
+    final Resource resource;
+    final Map<String, String> params;
+
+
+
+
+    Match(final Resource resource, final Map<String, String> params) {
+      this.resource = resource;
+      this.params = params;
+    }
+  }
+
+
+
+
+  /**
+   * A resource and its position in the routing order.
+   */
+  private static final class Entry {
+    final Resource resource;
+    final int rank;
+
+
+
+
+    Entry(final Resource resource, final int rank) {
+      this.resource = resource;
+      this.rank = rank;
+    }
+  }
+
+
+
+
+  /**
+   * A node in the trie, reached by a literal or parameter segment.
+   */
+  private static final class Node {
+    final Map<String, Node> literals = new HashMap<String, Node>();
+    Node param = null;
+    /** Resources whose URI ends at this node, in routing order */
+    final List<Entry> terminal = new ArrayList<Entry>(1);
+    /** Resources matching any remainder after this node, in routing order */
+    final List<Entry> restAny = new ArrayList<Entry>(0);
+    /** Resources matching a non-empty remainder after this node, in routing order */
+    final List<Entry> restSome = new ArrayList<Entry>(0);
+  }
+
+
+
+
+  /**
+   * The state of a single lookup through the trie.
+   */
+  private static final class Search {
+    final String uri;
+    final String[] values;
+    Entry best = null;
+    String[] bestValues;
+
+
+
+
+    Search(final String uri, final int params) {
+      this.uri = uri;
+      values = new String[params];
+    }
+
+
+
+
+    private void offer(final List<Entry> entries) {
+      if (!entries.isEmpty()) {
+        final Entry entry = entries.get(0);
+        if (best == null || entry.rank < best.rank) {
+          best = entry;
+          bestValues = values.clone();
+        }
+      }
+    }
+
+
+
+
+    /**
+     * Match the remainder of the URI against the given node.
+     *
+     * @param node the node reached so far
+     * @param pos the start of the next segment in the URI
+     * @param done true if the whole URI has been consumed
+     * @param depth the number of parameters matched so far
+     */
+    void walk(final Node node, final int pos, final boolean done, final int depth) {
+      if (done) {
+        offer(node.terminal);
+        return;
+      }
+
+      // wildcards match the rest of the URI, including any separators
+      offer(node.restAny);
+      if (pos < uri.length()) {
+        offer(node.restSome);
+      }
+
+      int end = uri.indexOf('/', pos);
+      if (end < 0) {
+        end = uri.length();
+      }
+
+      final Node literal = node.literals.get(uri.substring(pos, end));
+      if (literal != null) {
+        next(literal, end, depth);
+      }
+
+      if (node.param != null && end > pos) {
+        // like the regex, a parameter is greedy and may span segments
+        int limit = pos;
+        while (limit < uri.length() && isParameterChar(uri.charAt(limit))) {
+          limit++;
+        }
+        for (int stop = limit; stop > pos; stop--) {
+          if (stop == uri.length() || uri.charAt(stop) == '/') {
+            values[depth] = uri.substring(pos, stop);
+            next(node.param, stop, depth + 1);
+          }
+        }
+        values[depth] = null;
+      }
+    }
+
+
+
+
+    /**
+     * Continue the walk after a segment ending at the given position.
+     */
+    private void next(final Node node, final int end, final int depth) {
+      if (end >= uri.length()) {
+        walk(node, end, true, depth);
+      } else {
+        walk(node, end + 1, false, depth);
+      }
+    }
+  }
+
+}
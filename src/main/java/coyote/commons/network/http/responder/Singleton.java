@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+
+package coyote.commons.network.http.responder;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+
+/**
+ * Marks a responder as safe to share between requests.
+ *
+ * <p>Normally a new instance of the responder is created for every request.
+ * A {@link Resource} with a responder carrying this annotation creates one
+ * instance when the route is added and uses it for all requests, which may be
+ * processed concurrently. Only annotate responders which keep no request
+ * state in their fields.</p>
+ *
+ * <p>This annotation is not inherited; each responder class must opt-in.</p>
+ */
+@Retention(RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Singleton {
+
+}
@@ -16,6 +16,7 @@ import java.util.ArrayList;
 import java.util.Map;
 
 import coyote.commons.network.MimeType;
+import coyote.commons.network.http.FileResponse;
 import coyote.commons.network.http.HTTPD;
 import coyote.commons.network.http.HTTPSession;
 import coyote.commons.network.http.Status;
@@ -84,7 +85,7 @@ public class StaticPageResponder extends DefaultResponder {
 
       // return the found file
       try {
-        return Response.createChunkedResponse(getStatus(), HTTPD.getMimeTypeForFile(requestedFile.getName()), fileToInputStream(requestedFile));
+        return fileToResponse(session, requestedFile);
       } catch (final IOException ioe) {
         return Response.createFixedLengthResponse(Status.REQUEST_TIMEOUT, MimeType.TEXT.getType(), null);
       }
@@ -118,7 +119,47 @@ public class StaticPageResponder extends DefaultResponder {
 
 
 
+  /** Whether a subclass still overrides the deprecated fileToInputStream() */
+  private static final ClassValue<Boolean> STREAMS_FILES = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(final Class<?> type) {
+      return overrides(type, StaticPageResponder.class, "fileToInputStream", File.class);
+    }
+  };
+
+
+
+
+  /**
+   * Open a stream over the given file.
+   *
+   * @deprecated files are now sent by {@link #fileToResponse(HTTPSession, File)}.
+   *             A subclass which still overrides this method has its stream
+   *             sent chunked as before, without the cache or byte ranges.
+   */
+  @Deprecated
   protected BufferedInputStream fileToInputStream(final File fileOrdirectory) throws IOException {
     return new BufferedInputStream(new FileInputStream(fileOrdirectory));
   }
+
+
+
+
+  /**
+   * Create the response sending the given file, or the part of it requested
+   * in the Range header of the session.
+   *
+   * <p>Small files are served from the shared content cache.</p>
+   */
+  @SuppressWarnings("deprecation")
+  protected Response fileToResponse(final HTTPSession session, final File file) throws IOException {
+    if (STREAMS_FILES.get(getClass())) {
+      return Response.createChunkedResponse(getStatus(), HTTPD.getMimeTypeForFile(file.getName()), fileToInputStream(file));
+    }
+    final Response cached = ContentCache.getInstance().getFile(session, file);
+    if (cached != null) {
+      return cached;
+    }
+    return FileResponse.create(session, file, HTTPD.getMimeTypeForFile(file.getName()));
+  }
 }
\ No newline at end of file
@@ -35,6 +35,9 @@ public class UriRouter {
 
   private final List<Resource> mappings;
 
+  /** The mappings compiled for fast lookup, rebuilt when the routes change */
+  private volatile RouteIndex index;
+
   private Class<?> notImplemented;
 
 
@@ -45,6 +48,7 @@ public class UriRouter {
    */
   public UriRouter() {
     mappings = new ArrayList<Resource>();
+    index = new RouteIndex(mappings);
   }
 
 
@@ -64,6 +68,11 @@ public class UriRouter {
   /**
    * Search in the mappings if the given request URI matches some of the rules.
    *
+   * <p>The mappings are searched through a {@link RouteIndex} so the cost of
+   * the search depends on the depth of the URI and not the number of
+   * mappings. The result is the same as trying each mapping in priority
+   * order.</p>
+   *
    * <p>If there are more than one match, this returns the rule with least
    * parameters. For example: mapping 1 = /user/:id  - mapping 2 = /user/help.
    * If the incoming URI is www.example.com/user/help - mapping 2 is returned.
@@ -83,13 +92,11 @@ public class UriRouter {
     Map<String, String> params = null;
     Resource retval = error404Url;
 
-    // For all the resources, see which one matches first
-    for (final Resource resource : mappings) {
-      params = resource.match(request);
-      if (params != null) {
-        retval = resource;
-        break;
-      }
+    // Find the first resource (in priority order) which matches
+    final RouteIndex.Match match = getIndex().lookup(request);
+    if (match != null) {
+      retval = match.resource;
+      params = match.params;
     }
 
     if (Log.isLogging(HTTPD.EVENT)) {
@@ -149,6 +156,23 @@ public class UriRouter {
         return o1.priority - o2.priority;
       }
     });
+    index = new RouteIndex(mappings);
+  }
+
+
+
+
+  /**
+   * @return the index of the current mappings, rebuilt if the mappings were
+   *         changed directly through {@link #getMappings()}
+   */
+  private RouteIndex getIndex() {
+    RouteIndex retval = index;
+    if (retval.size() != mappings.size()) {
+      retval = new RouteIndex(mappings);
+      index = retval;
+    }
+    return retval;
   }
 
 
@@ -191,6 +215,7 @@ public class UriRouter {
         break;
       }
     }
+    index = new RouteIndex(mappings);
   }
 
   public Resource getNotFoundResource() {
@@ -3,8 +3,8 @@ package coyote.commons.network.http.wsd;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.logging.Level;
 
@@ -19,7 +19,6 @@ import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
 
 public abstract class WebSocket {
 
-  private final List<WebSocketFrame> continuousFrames = new LinkedList<WebSocketFrame>();
   private WebSocketFrame.OpCode continuousOpCode = null;
   private final HTTPSession handshakeRequest;
   private final InputStream in;
@@ -85,6 +84,16 @@ public abstract class WebSocket {
 
 
 
+  /**
+   * @return true if the socket is closed or closing
+   */
+  boolean isClosed() {
+    return (state == State.CLOSED) || (state == State.CLOSING);
+  }
+
+
+
+
   public void ping(final byte[] payload) throws IOException {
     sendFrame(new WebSocketFrame(OpCode.Ping, true, payload));
   }
@@ -114,6 +123,28 @@ public abstract class WebSocket {
 
 
 
+  /**
+   * Write frames which have already been encoded and flush them to the
+   * client together.
+   *
+   * <p>This is how a {@link WebSocketHub} drains the frames queued for this
+   * socket. It shares the lock of {@link #sendFrame(WebSocketFrame)} so
+   * frames are never interleaved.</p>
+   *
+   * @param frames the encoded frames to write
+   *
+   * @throws IOException if the frames could not be written
+   */
+  synchronized void write(final List<byte[]> frames) throws IOException {
+    for (final byte[] frame : frames) {
+      out.write(frame);
+    }
+    out.flush();
+  }
+
+
+
+
   private void doClose(final CloseCode code, final String reason, final boolean initiatedByRemote) {
     if (state != State.CLOSED) {
       if (in != null) {
@@ -155,47 +186,42 @@ public abstract class WebSocket {
 
 
 
-  private void handleFrameFragment(final WebSocketFrame frame) throws IOException {
-    if (frame.getOpCode() != OpCode.Continuation) {
-      if (continuousOpCode != null) {
-        throw new WebSocketException(CloseCode.ProtocolError, "Previous continuous frame sequence not completed.");
+  /**
+   * Read the next frame and act on it.
+   *
+   * <p>Data frames are collected by the reader until their message is
+   * complete, then the message is passed to
+   * {@link #onMessage(OpCode, ByteBuffer)} as a view of the reader's
+   * buffer.</p>
+   */
+  private void handleWebsocketFrame(final WebSocketFrameReader reader) throws IOException {
+    reader.read();
+    final OpCode opCode = reader.getOpCode();
+    if (opCode.isControlFrame()) {
+      final WebSocketFrame frame = reader.getFrame();
+      debugFrameReceived(frame);
+      if (opCode == OpCode.Close) {
+        handleCloseFrame(frame);
+      } else if (opCode == OpCode.Ping) {
+        sendFrame(new WebSocketFrame(OpCode.Pong, true, frame.getBinaryPayload()));
+      } else {
+        onPong(frame);
       }
-      continuousOpCode = frame.getOpCode();
-      continuousFrames.clear();
-      continuousFrames.add(frame);
-    } else if (frame.isFin()) {
+    } else if (opCode == OpCode.Continuation) {
       if (continuousOpCode == null) {
         throw new WebSocketException(CloseCode.ProtocolError, "Continuous frame sequence was not started.");
       }
-      onMessage(new WebSocketFrame(continuousOpCode, continuousFrames));
-      continuousOpCode = null;
-      continuousFrames.clear();
-    } else if (continuousOpCode == null) {
-      throw new WebSocketException(CloseCode.ProtocolError, "Continuous frame sequence was not started.");
-    } else {
-      continuousFrames.add(frame);
-    }
-  }
-
-
-
-
-  private void handleWebsocketFrame(final WebSocketFrame frame) throws IOException {
-    debugFrameReceived(frame);
-    if (frame.getOpCode() == OpCode.Close) {
-      handleCloseFrame(frame);
-    } else if (frame.getOpCode() == OpCode.Ping) {
-      sendFrame(new WebSocketFrame(OpCode.Pong, true, frame.getBinaryPayload()));
-    } else if (frame.getOpCode() == OpCode.Pong) {
-      onPong(frame);
-    } else if (!frame.isFin() || (frame.getOpCode() == OpCode.Continuation)) {
-      handleFrameFragment(frame);
+      if (reader.isFin()) {
+        final OpCode messageOpCode = continuousOpCode;
+        continuousOpCode = null;
+        onMessage(messageOpCode, reader.getMessage());
+      }
     } else if (continuousOpCode != null) {
-      throw new WebSocketException(CloseCode.ProtocolError, "Continuous frame sequence not completed.");
-    } else if ((frame.getOpCode() == OpCode.Text) || (frame.getOpCode() == OpCode.Binary)) {
-      onMessage(frame);
+      throw new WebSocketException(CloseCode.ProtocolError, "Previous continuous frame sequence not completed.");
+    } else if (!reader.isFin()) {
+      continuousOpCode = opCode;
     } else {
-      throw new WebSocketException(CloseCode.ProtocolError, "Non control or continuous frame expected.");
+      onMessage(opCode, reader.getMessage());
     }
   }
 
@@ -204,8 +230,9 @@ public abstract class WebSocket {
 
   private void readWebsocket() {
     try {
+      final WebSocketFrameReader reader = new WebSocketFrameReader(in);
       while (state == State.OPEN) {
-        handleWebsocketFrame(WebSocketFrame.read(in));
+        handleWebsocketFrame(reader);
       }
     } catch (final CharacterCodingException e) {
       onException(e);
@@ -263,6 +290,28 @@ public abstract class WebSocket {
 
 
 
+  /**
+   * Called with each complete message.
+   *
+   * <p>The payload is a view of the buffer the connection reads into, which
+   * is only valid until this method returns. The default implementation
+   * copies it into a frame for {@link #onMessage(WebSocketFrame)}; sockets
+   * receiving many messages can override this to use the payload in place
+   * and avoid the copy.</p>
+   *
+   * @param opCode {@link OpCode#Text} or {@link OpCode#Binary}
+   * @param payload the unmasked payload of the message, neither decoded nor
+   *        copied
+   */
+  protected void onMessage(final OpCode opCode, final ByteBuffer payload) {
+    final byte[] data = new byte[payload.remaining()];
+    payload.get(data);
+    onMessage(new WebSocketFrame(opCode, true, data));
+  }
+
+
+
+
   protected abstract void onOpen();
 
 
@@ -4,6 +4,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.util.Arrays;
@@ -62,6 +63,35 @@ public class WebSocketFrame {
 
 
 
+  /**
+   * Mask or unmask data in place.
+   *
+   * <p>The data is processed eight bytes at a time with the masking key
+   * repeated to fill a long.</p>
+   *
+   * @param data the array holding the data
+   * @param offset where the data starts in the array, the first byte is
+   *        masked with the first byte of the key
+   * @param length the number of bytes to mask
+   * @param maskingKey the four byte masking key
+   */
+  static void mask(final byte[] data, final int offset, final int length, final byte[] maskingKey) {
+    final long key = ((maskingKey[0] & 0xFFL) << 24) | ((maskingKey[1] & 0xFFL) << 16) | ((maskingKey[2] & 0xFFL) << 8) | (maskingKey[3] & 0xFFL);
+    final long word = (key << 32) | key;
+    final ByteBuffer buffer = ByteBuffer.wrap(data);
+    final int end = offset + length;
+    int i = offset;
+    for (; (i + 8) <= end; i += 8) {
+      buffer.putLong(i, buffer.getLong(i) ^ word);
+    }
+    for (; i < end; i++) {
+      data[i] ^= maskingKey[(i - offset) & 3];
+    }
+  }
+
+
+
+
   public static byte[] text2Binary(final String payload) throws CharacterCodingException {
     return payload.getBytes(WebSocketFrame.TEXT_CHARSET);
   }
@@ -265,41 +295,62 @@ public class WebSocketFrame {
 
 
 
-  public void write(final OutputStream out) throws IOException {
+  /**
+   * Encode the frame as it is sent on the wire, masking the payload if the
+   * frame has a masking key.
+   *
+   * <p>The result can be written to any number of connections, which is how
+   * a frame broadcast to many clients is only encoded once.</p>
+   *
+   * @return the header and payload of the frame
+   */
+  public byte[] encode() {
+    final byte[] data = getBinaryPayload();
+    _payloadLength = data.length;
+    final int lengthSize = _payloadLength <= 125 ? 0 : _payloadLength <= 0xFFFF ? 2 : 8;
+    final byte[] frame = new byte[2 + lengthSize + (isMasked() ? 4 : 0) + _payloadLength];
+    int pos = 0;
+
     byte header = 0;
     if (fin) {
       header |= 0x80;
     }
     header |= opCode.getValue() & 0x0F;
-    out.write(header);
-
-    _payloadLength = getBinaryPayload().length;
-    if (_payloadLength <= 125) {
-      out.write(isMasked() ? 0x80 | (byte)_payloadLength : (byte)_payloadLength);
-    } else if (_payloadLength <= 0xFFFF) {
-      out.write(isMasked() ? 0xFE : 126);
-      out.write(_payloadLength >>> 8);
-      out.write(_payloadLength);
+    frame[pos++] = header;
+
+    final int mask = isMasked() ? 0x80 : 0;
+    if (lengthSize == 0) {
+      frame[pos++] = (byte)(mask | _payloadLength);
+    } else if (lengthSize == 2) {
+      frame[pos++] = (byte)(mask | 126);
+      frame[pos++] = (byte)(_payloadLength >>> 8);
+      frame[pos++] = (byte)_payloadLength;
     } else {
-      out.write(isMasked() ? 0xFF : 127);
-      out.write((_payloadLength >>> 56) & 0);
-      out.write((_payloadLength >>> 48) & 0);
-      out.write((_payloadLength >>> 40) & 0);
-      out.write((_payloadLength >>> 32) & 0);
-      out.write(_payloadLength >>> 24);
-      out.write(_payloadLength >>> 16);
-      out.write(_payloadLength >>> 8);
-      out.write(_payloadLength);
+      frame[pos++] = (byte)(mask | 127);
+      // the upper 4 bytes of the 8 byte length are always 0
+      pos += 4;
+      frame[pos++] = (byte)(_payloadLength >>> 24);
+      frame[pos++] = (byte)(_payloadLength >>> 16);
+      frame[pos++] = (byte)(_payloadLength >>> 8);
+      frame[pos++] = (byte)_payloadLength;
     }
 
     if (isMasked()) {
-      out.write(maskingKey);
-      for (int i = 0; i < _payloadLength; i++) {
-        out.write(getBinaryPayload()[i] ^ maskingKey[i % 4]);
-      }
-    } else {
-      out.write(getBinaryPayload());
+      System.arraycopy(maskingKey, 0, frame, pos, 4);
+      pos += 4;
     }
+    System.arraycopy(data, 0, frame, pos, _payloadLength);
+    if (isMasked()) {
+      mask(frame, pos, _payloadLength, maskingKey);
+    }
+    return frame;
+  }
+
+
+
+
+  public void write(final OutputStream out) throws IOException {
+    out.write(encode());
     out.flush();
   }
 
@@ -343,14 +394,7 @@ public class WebSocketFrame {
     }
 
     if (isMasked()) {
-      for (int i = 0; i < payload.length; i++) {
-        payload[i] ^= maskingKey[i % 4];
-      }
-    }
-
-    // Test for Unicode errors
-    if (getOpCode() == OpCode.Text) {
-      _payloadString = binary2Text(getBinaryPayload());
+      mask(payload, 0, payload.length, maskingKey);
     }
   }
 
@@ -467,7 +511,7 @@ public class WebSocketFrame {
 
 
 
-    private CloseFrame(final WebSocketFrame wrap) throws CharacterCodingException {
+    CloseFrame(final WebSocketFrame wrap) throws CharacterCodingException {
       super(wrap);
       assert wrap.getOpCode() == OpCode.Close;
       if (wrap.getBinaryPayload().length >= 2) {
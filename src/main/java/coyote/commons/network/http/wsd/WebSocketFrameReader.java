@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.wsd;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import coyote.commons.network.http.wsd.WebSocketFrame.CloseCode;
+import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
+
+
+/**
+ * Reads the frames of a web socket connection into a buffer which is reused
+ * for the life of the connection.
+ *
+ * <p>The payloads of the fragments of a message are read one after the other
+ * into the buffer and unmasked in place, so a complete message is available
+ * as a single view of the buffer without collecting and copying the
+ * fragments. The payload of a control frame arriving between two fragments is
+ * read after the fragments collected so far and does not disturb them.</p>
+ *
+ * <p>Nothing is decoded; text is only turned into a string if the
+ * application asks for it.</p>
+ */
+class WebSocketFrameReader {
+
+  private static final int INITIAL_SIZE = 4 * 1024;
+
+  /** Buffers grown beyond this by a large message are not kept for the next */
+  private static final int RETAINED_SIZE = 1024 * 1024;
+
+  private final InputStream in;
+
+  private byte[] buffer = new byte[INITIAL_SIZE];
+
+  private final byte[] maskingKey = new byte[4];
+
+  private boolean fin;
+
+  private OpCode opCode;
+
+  /** Where the payload of the last frame starts in the buffer */
+  private int offset;
+
+  /** The length of the payload of the last frame */
+  private int length;
+
+  /** The number of bytes of the current message collected so far */
+  private int messageLength = 0;
+
+
+
+
+  WebSocketFrameReader(final InputStream in) {
+    this.in = in;
+  }
+
+
+
+
+  /**
+   * Read the next frame.
+   *
+   * @throws WebSocketException if the frame breaks the protocol
+   * @throws IOException if the stream could not be read
+   */
+  void read() throws IOException {
+    final int head = checkedRead();
+    fin = (head & 0x80) != 0;
+    opCode = OpCode.find((byte)(head & 0x0F));
+    if ((head & 0x70) != 0) {
+      throw new WebSocketException(CloseCode.ProtocolError, "The reserved bits (" + Integer.toBinaryString(head & 0x70) + ") must be 0.");
+    }
+    if (opCode == null) {
+      throw new WebSocketException(CloseCode.ProtocolError, "Received frame with reserved/unknown opcode " + (head & 0x0F) + ".");
+    } else if (opCode.isControlFrame() && !fin) {
+      throw new WebSocketException(CloseCode.ProtocolError, "Fragmented control frame.");
+    }
+
+    final int b = checkedRead();
+    final boolean masked = (b & 0x80) != 0;
+    long payloadLength = b & 0x7F;
+    if (payloadLength == 126) {
+      payloadLength = (checkedRead() << 8) | checkedRead();
+      if (payloadLength < 126) {
+        throw new WebSocketException(CloseCode.ProtocolError, "Invalid data frame 2byte length. (not using minimal length encoding)");
+      }
+    } else if (payloadLength == 127) {
+      payloadLength = 0;
+      for (int x = 0; x < 8; x++) {
+        payloadLength = (payloadLength << 8) | checkedRead();
+      }
+      if ((payloadLength >= 0) && (payloadLength < 65536)) {
+        throw new WebSocketException(CloseCode.ProtocolError, "Invalid data frame 4byte length. (not using minimal length encoding)");
+      }
+    }
+
+    if (opCode.isControlFrame()) {
+      if (payloadLength > 125) {
+        throw new WebSocketException(CloseCode.ProtocolError, "Control frame with payload length > 125 bytes.");
+      }
+      if ((opCode == OpCode.Close) && (payloadLength == 1)) {
+        throw new WebSocketException(CloseCode.ProtocolError, "Received close frame with payload len 1.");
+      }
+    } else if (opCode != OpCode.Continuation) {
+      startMessage();
+    }
+
+    // control frames go after the fragments collected so far, without adding to them
+    offset = messageLength;
+    if ((payloadLength < 0) || (payloadLength > (Integer.MAX_VALUE - offset))) {
+      throw new WebSocketException(CloseCode.MessageTooBig, "Max frame length has been exceeded.");
+    }
+    length = (int)payloadLength;
+
+    if (masked) {
+      readFully(maskingKey, 0, 4);
+    }
+    ensureCapacity(offset + length);
+    readFully(buffer, offset, length);
+    if (masked) {
+      WebSocketFrame.mask(buffer, offset, length, maskingKey);
+    }
+    if (!opCode.isControlFrame()) {
+      messageLength += length;
+    }
+  }
+
+
+
+
+  /**
+   * @return true if the last frame read was the final fragment of its message
+   */
+  boolean isFin() {
+    return fin;
+  }
+
+
+
+
+  /**
+   * @return the op code of the last frame read
+   */
+  OpCode getOpCode() {
+    return opCode;
+  }
+
+
+
+
+  /**
+   * @return the last frame read as a frame object with a copy of its payload,
+   *         for control frames
+   */
+  WebSocketFrame getFrame() throws IOException {
+    final byte[] payload = new byte[length];
+    System.arraycopy(buffer, offset, payload, 0, length);
+    final WebSocketFrame retval = new WebSocketFrame(opCode, fin, payload);
+    return opCode == OpCode.Close ? new WebSocketFrame.CloseFrame(retval) : retval;
+  }
+
+
+
+
+  /**
+   * @return a view of the payload of all the fragments of the current message
+   *         read so far, only valid until the next frame is read
+   */
+  ByteBuffer getMessage() {
+    return ByteBuffer.wrap(buffer, 0, messageLength);
+  }
+
+
+
+
+  /**
+   * Discard the collected fragments before the first frame of a new message.
+   */
+  private void startMessage() {
+    messageLength = 0;
+    if (buffer.length > RETAINED_SIZE) {
+      buffer = new byte[INITIAL_SIZE];
+    }
+  }
+
+
+
+
+  private void ensureCapacity(final int capacity) {
+    if (capacity > buffer.length) {
+      final byte[] grown = new byte[(int)Math.min(Integer.MAX_VALUE, Math.max(capacity, 2L * buffer.length))];
+      System.arraycopy(buffer, 0, grown, 0, messageLength);
+      buffer = grown;
+    }
+  }
+
+
+
+
+  private int checkedRead() throws IOException {
+    final int retval = in.read();
+    if (retval < 0) {
+      throw new EOFException();
+    }
+    return retval;
+  }
+
+
+
+
+  private void readFully(final byte[] data, final int off, final int len) throws IOException {
+    int read = 0;
+    while (read < len) {
+      final int count = in.read(data, off + read, len - read);
+      if (count < 0) {
+        throw new EOFException();
+      }
+      read += count;
+    }
+  }
+
+}
@@ -0,0 +1,537 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.wsd;
+
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import coyote.commons.network.http.wsd.WebSocketFrame.CloseCode;
+import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+
+
+/**
+ * Fans messages out to many web sockets without letting slow clients hold up
+ * the senders.
+ *
+ * <p>Sockets subscribe to named topics. A message broadcast to a topic is
+ * encoded into a frame once and the same bytes are placed on the outbound
+ * queue of every subscriber. Each queue is bounded and drained by a writer
+ * task which writes everything queued and flushes it to the client at once.
+ * A sender never blocks on the network; when a client does not keep up and
+ * its queue is full, the {@link Overflow} policy of the hub decides what
+ * happens.</p>
+ *
+ * <p>Frames can also be queued for a single socket with
+ * {@link #send(WebSocket, WebSocketFrame)}. {@link WebSocket#sendFrame(
+ * WebSocketFrame)} still writes directly and may be mixed with queued
+ * frames; they are never interleaved.</p>
+ *
+ * <p>The following metrics are published to the statistics board, each name
+ * prefixed with the name of the hub:<ul>
+ * <li>{@code .Broadcasts} counter - the number of messages broadcast</li>
+ * <li>{@code .Dropped} counter - the number of frames discarded because a
+ * queue was full</li>
+ * <li>{@code .Disconnected} counter - the number of slow clients closed</li>
+ * <li>{@code .QueueDepth} state - the number of frames waiting in all the
+ * queues</li>
+ * <li>{@code .Connections} state - the number of sockets known to the
+ * hub</li></ul>
+ */
+public class WebSocketHub {
+
+  /** The default number of frames each socket can have waiting */
+  public static final int DEFAULT_QUEUE_SIZE = 256;
+
+  public static final String BROADCASTS = ".Broadcasts";
+  public static final String DROPPED = ".Dropped";
+  public static final String DISCONNECTED = ".Disconnected";
+  public static final String QUEUE_DEPTH = ".QueueDepth";
+  public static final String CONNECTIONS = ".Connections";
+
+  /** The most frames written to a socket before flushing */
+  private static final int MAX_BATCH = 64;
+
+  /**
+   * What to do with a frame for a socket whose queue is full.
+   */
+  public static enum Overflow {
+    /** Discard the new frame, the client misses the latest messages */
+    DROP_NEWEST,
+    /** Discard the oldest waiting frame, a stream of updates is coalesced to the latest ones */
+    DROP_OLDEST,
+    /** Close the socket, the client has to reconnect and catch up */
+    CLOSE
+  }
+
+  /** The prefix of all our metric names */
+  private final String name;
+
+  private final int queueSize;
+
+  private final Overflow overflow;
+
+  /** Where we publish our metrics */
+  private final StatBoard stats;
+
+  /** Runs the writer tasks */
+  private final Executor writers;
+
+  /** The executor we created and must shut down, if any */
+  private final ExecutorService ownExecutor;
+
+  /** The outbound queue of each socket */
+  private final ConcurrentHashMap<WebSocket, Outbound> connections = new ConcurrentHashMap<WebSocket, Outbound>();
+
+  /** The subscribers of each topic */
+  private final ConcurrentHashMap<String, Set<Outbound>> topics = new ConcurrentHashMap<String, Set<Outbound>>();
+
+  /** The number of frames waiting in all the queues */
+  private final AtomicInteger depth = new AtomicInteger();
+
+
+
+
+  /**
+   * Create a hub with the default queue size which drops the oldest frames
+   * of slow clients and runs its writers on its own daemon threads.
+   *
+   * @param name the name of the hub, also the prefix of its metrics
+   * @param stats the statistics board to which metrics are published, may be
+   *        null
+   */
+  public WebSocketHub(final String name, final StatBoard stats) {
+    this(name, DEFAULT_QUEUE_SIZE, Overflow.DROP_OLDEST, null, stats);
+  }
+
+
+
+
+  /**
+   * Create a hub.
+   *
+   * @param name the name of the hub, also the prefix of its metrics
+   * @param queueSize the number of frames each socket can have waiting
+   * @param overflow what to do when a queue is full
+   * @param writers the executor to run the writer tasks, null for the hub to
+   *        use its own daemon threads. A writer blocks while its client is
+   *        slow to read, so a bounded executor should have a thread for
+   *        each client which may be slow at the same time.
+   * @param stats the statistics board to which metrics are published, may be
+   *        null
+   */
+  public WebSocketHub(final String name, final int queueSize, final Overflow overflow, final Executor writers, final StatBoard stats) {
+    this.name = name;
+    this.queueSize = queueSize > 0 ? queueSize : DEFAULT_QUEUE_SIZE;
+    this.overflow = overflow != null ? overflow : Overflow.DROP_OLDEST;
+    this.stats = stats != null ? stats : new StatBoardImpl();
+    if (writers != null) {
+      this.writers = writers;
+      ownExecutor = null;
+    } else {
+      ownExecutor = createExecutor(name);
+      this.writers = ownExecutor;
+    }
+  }
+
+
+
+
+  private static ExecutorService createExecutor(final String name) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+      @Override
+      public Thread newThread(final Runnable task) {
+        final Thread retval = new Thread(task, name + "-writer-" + count.incrementAndGet());
+        retval.setDaemon(true);
+        return retval;
+      }
+    });
+  }
+
+
+
+
+  /**
+   * Subscribe a socket to a topic.
+   *
+   * <p>This is normally done in {@link WebSocket#onOpen()}; frames for a
+   * socket which is not open yet are discarded.</p>
+   *
+   * @param topic the name of the topic
+   * @param socket the socket to receive the messages broadcast to the topic
+   */
+  public void subscribe(final String topic, final WebSocket socket) {
+    Set<Outbound> subscribers = topics.get(topic);
+    if (subscribers == null) {
+      final Set<Outbound> created = Collections.newSetFromMap(new ConcurrentHashMap<Outbound, Boolean>());
+      subscribers = topics.putIfAbsent(topic, created);
+      if (subscribers == null) {
+        subscribers = created;
+      }
+    }
+    subscribers.add(getOutbound(socket));
+  }
+
+
+
+
+  /**
+   * Remove a socket from a topic.
+   *
+   * @param topic the name of the topic
+   * @param socket the socket to remove
+   */
+  public void unsubscribe(final String topic, final WebSocket socket) {
+    final Outbound outbound = connections.get(socket);
+    final Set<Outbound> subscribers = topics.get(topic);
+    if ((outbound != null) && (subscribers != null)) {
+      subscribers.remove(outbound);
+    }
+  }
+
+
+
+
+  /**
+   * Forget a socket, normally when it is closed.
+   *
+   * <p>Sockets found to be closed are also removed when the hub next tries to
+   * send them something.</p>
+   *
+   * @param socket the socket to remove from all topics
+   */
+  public void remove(final WebSocket socket) {
+    final Outbound outbound = connections.remove(socket);
+    if (outbound != null) {
+      for (final Set<Outbound> subscribers : topics.values()) {
+        subscribers.remove(outbound);
+      }
+      outbound.discard();
+      stats.setState(name + CONNECTIONS, connections.size());
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of subscribers to the given topic
+   */
+  public int getSubscriberCount(final String topic) {
+    final Set<Outbound> subscribers = topics.get(topic);
+    return subscribers != null ? subscribers.size() : 0;
+  }
+
+
+
+
+  /**
+   * @return the number of frames waiting in all the queues
+   */
+  public int getQueueDepth() {
+    return depth.get();
+  }
+
+
+
+
+  /**
+   * @return the number of frames waiting to be written to the given socket
+   */
+  public int getQueueDepth(final WebSocket socket) {
+    final Outbound outbound = connections.get(socket);
+    return outbound != null ? outbound.queue.size() : 0;
+  }
+
+
+
+
+  /**
+   * Send a text message to all the subscribers of a topic.
+   *
+   * @param topic the name of the topic
+   * @param text the message
+   *
+   * @return the number of sockets to which the message was queued
+   *
+   * @throws CharacterCodingException if the text could not be encoded
+   */
+  public int broadcast(final String topic, final String text) throws CharacterCodingException {
+    return broadcast(topic, new WebSocketFrame(OpCode.Text, true, text));
+  }
+
+
+
+
+  /**
+   * Send a binary message to all the subscribers of a topic.
+   *
+   * @param topic the name of the topic
+   * @param data the message
+   *
+   * @return the number of sockets to which the message was queued
+   */
+  public int broadcast(final String topic, final byte[] data) {
+    return broadcast(topic, new WebSocketFrame(OpCode.Binary, true, data));
+  }
+
+
+
+
+  /**
+   * Send a frame to all the subscribers of a topic.
+   *
+   * <p>The frame is encoded once and the same bytes are queued for every
+   * subscriber.</p>
+   *
+   * @param topic the name of the topic
+   * @param frame the frame to send
+   *
+   * @return the number of sockets to which the frame was queued
+   */
+  public int broadcast(final String topic, final WebSocketFrame frame) {
+    stats.increment(name + BROADCASTS);
+    final Set<Outbound> subscribers = topics.get(topic);
+    int retval = 0;
+    if ((subscribers != null) && !subscribers.isEmpty()) {
+      final byte[] encoded = frame.encode();
+      for (final Outbound outbound : subscribers) {
+        if (outbound.offer(encoded)) {
+          retval++;
+        }
+      }
+    }
+    stats.setState(name + QUEUE_DEPTH, depth.get());
+    return retval;
+  }
+
+
+
+
+  /**
+   * Queue a frame for a single socket.
+   *
+   * @param socket the socket to receive the frame
+   * @param frame the frame to send
+   *
+   * @return true if the frame was queued, false if it was dropped
+   */
+  public boolean send(final WebSocket socket, final WebSocketFrame frame) {
+    final boolean retval = getOutbound(socket).offer(frame.encode());
+    stats.setState(name + QUEUE_DEPTH, depth.get());
+    return retval;
+  }
+
+
+
+
+  /**
+   * Stop the writer threads the hub created for itself.
+   *
+   * <p>Frames still queued are discarded.</p>
+   */
+  public void shutdown() {
+    for (final WebSocket socket : new ArrayList<WebSocket>(connections.keySet())) {
+      remove(socket);
+    }
+    if (ownExecutor != null) {
+      ownExecutor.shutdown();
+    }
+  }
+
+
+
+
+  private Outbound getOutbound(final WebSocket socket) {
+    Outbound retval = connections.get(socket);
+    if (retval == null) {
+      final Outbound created = new Outbound(socket);
+      retval = connections.putIfAbsent(socket, created);
+      if (retval == null) {
+        retval = created;
+        stats.setState(name + CONNECTIONS, connections.size());
+      }
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * The queue of frames waiting to be written to a socket.
+   *
+   * <p>At most one writer task runs for a queue at any time. It is scheduled
+   * when a frame is queued and no task is already scheduled, and it runs until
+   * the queue is empty.</p>
+   */
+  private class Outbound implements Runnable {
+    final WebSocket socket;
+    final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(queueSize);
+    final AtomicBoolean scheduled = new AtomicBoolean();
+    final AtomicBoolean closing = new AtomicBoolean();
+
+
+
+
+    Outbound(final WebSocket socket) {
+      this.socket = socket;
+    }
+
+
+
+
+    /**
+     * Queue a frame, applying the overflow policy if the queue is full.
+     *
+     * @return true if the frame was queued
+     */
+    boolean offer(final byte[] frame) {
+      if (closing.get()) {
+        return false;
+      }
+      if (socket.isClosed()) {
+        remove(socket);
+        return false;
+      }
+
+      // counted before it is queued so a writer can never take it first
+      depth.incrementAndGet();
+      boolean queued = queue.offer(frame);
+      if (!queued) {
+        switch (overflow) {
+          case DROP_NEWEST:
+            stats.increment(name + DROPPED);
+            break;
+          case DROP_OLDEST:
+            while (!queued) {
+              if (queue.poll() != null) {
+                depth.decrementAndGet();
+                stats.increment(name + DROPPED);
+              }
+              queued = queue.offer(frame);
+            }
+            break;
+          case CLOSE:
+            disconnect();
+            break;
+        }
+      }
+      if (queued) {
+        schedule();
+      } else {
+        depth.decrementAndGet();
+      }
+      return queued;
+    }
+
+
+
+
+    /**
+     * Throw away everything queued, counting only the frames actually taken
+     * so a writer draining at the same time does not skew the depth.
+     */
+    void discard() {
+      int discarded = 0;
+      while (queue.poll() != null) {
+        discarded++;
+      }
+      depth.addAndGet(-discarded);
+    }
+
+
+
+
+    private void schedule() {
+      if (scheduled.compareAndSet(false, true)) {
+        try {
+          writers.execute(this);
+        } catch (final RuntimeException e) {
+          scheduled.set(false);
+          WebSocketDaemon.LOG.log(Level.WARNING, "could not schedule the writer for " + name, e);
+        }
+      }
+    }
+
+
+
+
+    /**
+     * Close a client which can not keep up, off the calling thread since
+     * sending the close frame may block.
+     */
+    private void disconnect() {
+      if (closing.compareAndSet(false, true)) {
+        stats.increment(name + DISCONNECTED);
+        remove(socket);
+        writers.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              socket.close(CloseCode.PolicyViolation, "Client too slow", false);
+            } catch (final IOException e) {
+              WebSocketDaemon.LOG.log(Level.FINE, "close failed", e);
+            }
+          }
+        });
+      }
+    }
+
+
+
+
+    /**
+     * Write everything queued, a batch at a time.
+     */
+    @Override
+    public void run() {
+      final List<byte[]> batch = new ArrayList<byte[]>(MAX_BATCH);
+      try {
+        do {
+          while (queue.drainTo(batch, MAX_BATCH) > 0) {
+            depth.addAndGet(-batch.size());
+            if (socket.isOpen()) {
+              socket.write(batch);
+            }
+            batch.clear();
+          }
+          scheduled.set(false);
+          // a frame queued after the last drain but before we cleared the flag
+        }
+        while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+      } catch (final IOException | RuntimeException e) {
+        // a writer which fails must not leave the queue marked as scheduled
+        // or it will never be drained again
+        WebSocketDaemon.LOG.log(e instanceof IOException ? Level.FINE : Level.WARNING, "broadcast failed", e);
+        scheduled.set(false);
+        remove(socket);
+      }
+      stats.setState(name + QUEUE_DEPTH, depth.get());
+    }
+  }
+
+}
@@ -9,51 +9,175 @@
 package coyote.commons.security;
 
 import java.net.InetAddress;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import coyote.commons.network.IpAddress;
-import coyote.commons.network.IpAddressException;
 import coyote.commons.network.IpNetwork;
+import coyote.commons.network.IpNetworkTrie;
+import coyote.commons.network.PackedIpAddress;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
 
 
 /**
  * This provides a basic check for too frequent requests by IP address.
  *
- * <p>This class sets up a map of check times mapped by IpAddress. For each
- * entry in the table, a circular array contains times, if a check matches an
- * entry, it is then checked to see if the next element in the array is less
- * than the allowable interval, if so false is returned indicating the check
- * happened too soon and that too may checks are being performed too often.
+ * <p>Each address (or configured network) has a token bucket holding up to
+ * {@code limit} tokens which refills at {@code limit} tokens per
+ * {@code duration} milliseconds. Each check takes a token; if there is none,
+ * false is returned indicating the check happened too soon and that too many
+ * checks are being performed too often. Each bucket is locked on its own, so
+ * checks from different addresses do not wait for each other.
+ *
+ * <p>Every failed check is a breach. An address which breaches its limit
+ * {@code breachThreshold} times within {@code breachWindow} milliseconds is
+ * block listed and all its checks fail for {@code blockDuration}
+ * milliseconds, whether or not it has tokens.
+ *
+ * <p>Addresses are tracked from their first check. Those which have not been
+ * checked for {@code idleTimeout} milliseconds and are not block listed are
+ * evicted as later checks come in, so no explicit call to
+ * {@link #expire(long)} is needed. At most {@code maxAddresses} addresses are
+ * tracked; when a flood of new addresses fills the table and nothing can be
+ * evicted, new addresses pass the check without being tracked, leaving the
+ * decision to the access control list.
  *
  * <p>This class is designed to provide a simple way to check for a Denial of
  * Service attack by allowing the setting a limit of the number of requests by
  * IP Address in some time frame.
+ *
+ * <p>The following metrics are published to the statistics board, each name
+ * prefixed with the name of the table:<ul>
+ * <li>{@code .Refused} counter - checks failed for being over the limit</li>
+ * <li>{@code .Blocked} counter - checks failed for being block listed</li>
+ * <li>{@code .BlockListed} counter - the number of times an address was
+ * block listed</li>
+ * <li>{@code .Evicted} counter - idle addresses no longer tracked</li>
+ * <li>{@code .Untracked} counter - checks passed without tracking because
+ * the table was full</li>
+ * <li>{@code .Addresses} state - the number of addresses tracked</li></ul>
  */
 public class OperationFrequency {
   private static final long DEFAULT_DURATION = 500;
   private static final short DEFAULT_LIMIT = 24;
 
-  private final Map<IpAddress, RequestTable> addresses = new HashMap<IpAddress, RequestTable>();
-  private long duration = DEFAULT_DURATION;
-  private short limit = DEFAULT_LIMIT;
-  private final Map<IpNetwork, RequestTable> networks = new HashMap<IpNetwork, RequestTable>();
+  /** The default name of the table, also the prefix of its metrics */
+  public static final String DEFAULT_NAME = "DoS";
+
+  /** The default number of milliseconds an address is tracked after its last check */
+  public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+  /** The default maximum number of addresses tracked */
+  public static final int DEFAULT_MAX_ADDRESSES = 100000;
+
+  /** The default number of breaches in the window which block lists an address */
+  public static final int DEFAULT_BREACH_THRESHOLD = 3;
+
+  /** The default number of milliseconds in which breaches are counted */
+  public static final long DEFAULT_BREACH_WINDOW = 3000;
+
+  /** The default number of milliseconds an address remains block listed */
+  public static final long DEFAULT_BLOCK_DURATION = 60000;
+
+  public static final String REFUSED = ".Refused";
+  public static final String BLOCKED = ".Blocked";
+  public static final String BLOCK_LISTED = ".BlockListed";
+  public static final String EVICTED = ".Evicted";
+  public static final String UNTRACKED = ".Untracked";
+  public static final String ADDRESSES = ".Addresses";
+
+  /** Sweeps for a full table are not run more often than this */
+  private static final long MIN_SWEEP_INTERVAL = 1000;
+
+  private static final int ALLOW = 0;
+  private static final int REFUSE = 1;
+  private static final int BLOCK = 2;
+  private static final int BLOCK_LIST = 3;
 
+  private final ConcurrentHashMap<PackedIpAddress, RequestTable> addresses = new ConcurrentHashMap<PackedIpAddress, RequestTable>();
+  private volatile long duration = DEFAULT_DURATION;
+  private volatile short limit = DEFAULT_LIMIT;
+  private final IpNetworkTrie<RequestTable> networks = new IpNetworkTrie<RequestTable>();
 
+  private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+  private volatile int maxAddresses = DEFAULT_MAX_ADDRESSES;
+  private volatile int breachThreshold = DEFAULT_BREACH_THRESHOLD;
+  private volatile long breachWindow = DEFAULT_BREACH_WINDOW;
+  private volatile long blockDuration = DEFAULT_BLOCK_DURATION;
 
+  /** When idle addresses were last evicted */
+  private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
 
-  public synchronized RequestTable addAddress(final IpAddress addr, final short limit, final long duration) {
-    final RequestTable retval = new RequestTable(limit, duration);
-    addresses.put(addr, retval);
+  /** The prefix of all our metric names */
+  private final String name;
+
+  /** Where we publish our metrics */
+  private volatile StatBoard stats;
+
+
+
+
+  public OperationFrequency() {
+    this(DEFAULT_NAME, null);
+  }
+
+
+
+
+  /**
+   * @param name the name of the table, also the prefix of its metrics
+   * @param stats the statistics board to which metrics are published, may be
+   *        null
+   */
+  public OperationFrequency(final String name, final StatBoard stats) {
+    this.name = name;
+    this.stats = stats != null ? stats : new StatBoardImpl();
+  }
+
+
+
+
+  /**
+   * Track an address with its own limits.
+   *
+   * <p>Addresses added this way are not evicted when idle.
+   *
+   * @param addr the address to track
+   * @param limit the number of checks allowed in the duration
+   * @param duration the number of milliseconds in which the limit applies
+   *
+   * @return the table for the address
+   */
+  public RequestTable addAddress(final IpAddress addr, final short limit, final long duration) {
+    final RequestTable retval = new RequestTable(limit, duration, true);
+    addresses.put(PackedIpAddress.valueOf(addr), retval);
+    stats.setState(name + ADDRESSES, addresses.size());
     return retval;
   }
 
 
 
 
-  public synchronized RequestTable addNetwork(final IpNetwork addr, final short limit, final long duration) {
-    final RequestTable retval = new RequestTable(limit, duration);
+  /**
+   * Add a network whose addresses share one table of check times.
+   *
+   * <p>An address in more than one network is checked against the most
+   * specific of them. Breaches by any address in the network count against
+   * the whole network.
+   *
+   * @param addr the network to add
+   * @param limit the number of checks allowed in the duration
+   * @param duration the number of milliseconds in which the limit applies
+   *
+   * @return the table for the network
+   *
+   * @throws IllegalArgumentException if the netmask of the network is not a
+   *         contiguous prefix (e.g. 255.0.255.0)
+   */
+  public RequestTable addNetwork(final IpNetwork addr, final short limit, final long duration) {
+    final RequestTable retval = new RequestTable(limit, duration, true);
     networks.put(addr, retval);
     return retval;
   }
@@ -62,43 +186,106 @@ public class OperationFrequency {
 
 
   public boolean check(final InetAddress addr) {
-    try {
-      return check(new IpAddress(addr));
-    } catch (final IpAddressException ignore) {
-      return false; // should never happen
-    }
+    return check(addr.getAddress());
   }
 
 
 
 
-  public synchronized boolean check(final IpAddress addr) {
-    RequestTable table = null;
+  public boolean check(final IpAddress addr) {
+    return check(addr.getBytes());
+  }
 
-    // look for a network match
-    for (final IpNetwork net : networks.keySet()) {
-      if (net.contains(addr)) {
-        table = networks.get(net);
-        break;
-      }
-    }
 
-    // else look for an address match
+
+
+  private boolean check(final byte[] addr) {
+    final long now = System.currentTimeMillis();
+    sweep(now, false);
+
+    RequestTable table = networks.longest(addr);
+
     if (table == null) {
-      for (final IpAddress adr : addresses.keySet()) {
-        if (adr.equals(addr)) {
-          table = addresses.get(adr);
-          break;
+      final PackedIpAddress key = PackedIpAddress.valueOf(addr);
+      table = addresses.get(key);
+
+      // else add a new address if there is room
+      if (table == null) {
+        if (addresses.size() >= maxAddresses) {
+          sweep(now, true);
+          if (addresses.size() >= maxAddresses) {
+            stats.increment(name + UNTRACKED);
+            return true;
+          }
+        }
+        final RequestTable created = new RequestTable(limit, duration, false);
+        table = addresses.putIfAbsent(key, created);
+        if (table == null) {
+          table = created;
+          stats.setState(name + ADDRESSES, addresses.size());
         }
       }
     }
 
-    // else add a new address
+    switch (table.check(now)) {
+      case ALLOW:
+        return true;
+      case REFUSE:
+        stats.increment(name + REFUSED);
+        return false;
+      case BLOCK_LIST:
+        stats.increment(name + REFUSED);
+        stats.increment(name + BLOCK_LISTED);
+        return false;
+      default:
+        stats.increment(name + BLOCKED);
+        return false;
+    }
+  }
+
+
+
+
+  /**
+   * @param addr the address to check
+   *
+   * @return true if the address (or the network containing it) is currently
+   *         block listed
+   */
+  public boolean isBlocked(final InetAddress addr) {
+    final byte[] bytes = addr.getAddress();
+    RequestTable table = networks.longest(bytes);
     if (table == null) {
-      table = addAddress(addr, limit, duration);
+      table = addresses.get(PackedIpAddress.valueOf(bytes));
     }
+    return (table != null) && table.isBlocked(System.currentTimeMillis());
+  }
+
 
-    return table.check(System.currentTimeMillis());
+
+
+  /**
+   * Evict the addresses which have been idle too long.
+   *
+   * @param now the current time
+   * @param full true if the table is full and needs room now
+   */
+  private void sweep(final long now, final boolean full) {
+    final long last = lastSweep.get();
+    final long interval = full ? MIN_SWEEP_INTERVAL : Math.max(MIN_SWEEP_INTERVAL, idleTimeout / 2);
+    if (((now - last) >= interval) && lastSweep.compareAndSet(last, now)) {
+      int evicted = 0;
+      for (final Iterator<RequestTable> it = addresses.values().iterator(); it.hasNext();) {
+        if (it.next().isIdle(now, idleTimeout)) {
+          it.remove();
+          evicted++;
+        }
+      }
+      if (evicted > 0) {
+        stats.increase(name + EVICTED, evicted);
+        stats.setState(name + ADDRESSES, addresses.size());
+      }
+    }
   }
 
 
@@ -112,18 +299,16 @@ public class OperationFrequency {
    * @param age any tables with last check times older than this number of
    *        milliseconds will be removed from the mappings
    */
-  public synchronized void expire(final long age) {
+  public void expire(final long age) {
     final long time = System.currentTimeMillis();
 
-    final Iterator<Map.Entry<IpAddress, RequestTable>> it = addresses.entrySet().iterator();
+    final Iterator<RequestTable> it = addresses.values().iterator();
     while (it.hasNext()) {
-      final Map.Entry<IpAddress, RequestTable> entry = it.next();
-
-      if ((time - entry.getValue().getLastCheck()) > age) {
+      if ((time - it.next().getLastCheck()) > age) {
         it.remove();
       }
     }
-
+    stats.setState(name + ADDRESSES, addresses.size());
   }
 
 
@@ -136,6 +321,38 @@ public class OperationFrequency {
 
 
 
+  /**
+   * @return the number of milliseconds after which an address which breached
+   *         its limit is no longer block listed
+   */
+  public long getBlockDuration() {
+    return blockDuration;
+  }
+
+
+
+
+  /**
+   * @return the number of breaches within the breach window which block list
+   *         an address, 0 if addresses are never block listed
+   */
+  public int getBreachThreshold() {
+    return breachThreshold;
+  }
+
+
+
+
+  /**
+   * @return the number of milliseconds in which breaches are counted
+   */
+  public long getBreachWindow() {
+    return breachWindow;
+  }
+
+
+
+
   /**
    * @return the duration
    */
@@ -146,6 +363,17 @@ public class OperationFrequency {
 
 
 
+  /**
+   * @return the number of milliseconds after its last check an address is
+   *         no longer tracked
+   */
+  public long getIdleTimeout() {
+    return idleTimeout;
+  }
+
+
+
+
   /**
    * @return the limit
    */
@@ -156,6 +384,16 @@ public class OperationFrequency {
 
 
 
+  /**
+   * @return the maximum number of addresses tracked
+   */
+  public int getMaxAddresses() {
+    return maxAddresses;
+  }
+
+
+
+
   public int getNetworkCount() {
     return networks.size();
   }
@@ -163,6 +401,38 @@ public class OperationFrequency {
 
 
 
+  /**
+   * @param millis the number of milliseconds after which an address which
+   *        breached its limit is no longer block listed
+   */
+  public void setBlockDuration(final long millis) {
+    blockDuration = millis;
+  }
+
+
+
+
+  /**
+   * @param count the number of breaches within the breach window which block
+   *        list an address, 0 to never block list addresses
+   */
+  public void setBreachThreshold(final int count) {
+    breachThreshold = count;
+  }
+
+
+
+
+  /**
+   * @param millis the number of milliseconds in which breaches are counted
+   */
+  public void setBreachWindow(final long millis) {
+    breachWindow = millis;
+  }
+
+
+
+
   /**
    * @param duration the duration to set
    */
@@ -173,6 +443,17 @@ public class OperationFrequency {
 
 
 
+  /**
+   * @param millis the number of milliseconds after its last check an address
+   *        is no longer tracked
+   */
+  public void setIdleTimeout(final long millis) {
+    idleTimeout = millis;
+  }
+
+
+
+
   /**
    * @param limit the limit to set
    */
@@ -180,6 +461,28 @@ public class OperationFrequency {
     this.limit = limit;
   }
 
+
+
+
+  /**
+   * @param max the maximum number of addresses to track
+   */
+  public void setMaxAddresses(final int max) {
+    maxAddresses = max;
+  }
+
+
+
+
+  /**
+   * @param stats the statistics board to which metrics are published
+   */
+  public void setStatBoard(final StatBoard stats) {
+    if (stats != null) {
+      this.stats = stats;
+    }
+  }
+
   /**
    * This is a class which allows us to track the times and occurrences of
    * checks.
@@ -189,9 +492,15 @@ public class OperationFrequency {
    * requests are being received in a particular interval.
    */
   private class RequestTable {
-    private long count = -1;
+    private final double capacity;
     private final long interval;
-    private final long[] times;
+    private final boolean pinned;
+    private double tokens;
+    private long refilled = 0;
+    private volatile long lastCheck = 0;
+    private int breaches = 0;
+    private long breachStart = 0;
+    private volatile long blockedUntil = 0;
 
 
 
@@ -201,10 +510,13 @@ public class OperationFrequency {
      *
      * @param size the number of entries to allow in a particular interval
      * @param interval the number of milliseconds for the window
+     * @param pinned true if the table is kept when idle
      */
-    RequestTable(final short size, final long interval) {
-      times = new long[size];
+    RequestTable(final short size, final long interval, final boolean pinned) {
+      capacity = size;
+      tokens = size;
       this.interval = interval;
+      this.pinned = pinned;
     }
 
 
@@ -214,9 +526,19 @@ public class OperationFrequency {
      * @return the time of the last check
      */
     public long getLastCheck() {
-      // find the current position in the list of times
-      final int index = (int)((count < 0) ? 0 : count % times.length);
-      return times[index];
+      return lastCheck;
+    }
+
+
+
+
+    /**
+     * @param time the time in millis (Java epoch)
+     *
+     * @return true if this table is block listed at the given time
+     */
+    boolean isBlocked(final long time) {
+      return time < blockedUntil;
     }
 
 
@@ -224,31 +546,54 @@ public class OperationFrequency {
 
     /**
      * @param time the time in millis (Java epoch)
+     * @param timeout milliseconds without a check after which a table is idle
      *
-     * @return true if the maximum number of requests have not been reached,
-     *         false if too many requests have been reached
+     * @return true if this table can be evicted
      */
-    boolean check(final long time) {
-      // in Java, overflows go negative not back to zero
-      if (count < 0) {
-        count = 0;
+    boolean isIdle(final long time, final long timeout) {
+      return !pinned && ((time - lastCheck) > timeout) && !isBlocked(time);
+    }
+
+
+
+
+    /**
+     * @param time the time in millis (Java epoch)
+     *
+     * @return ALLOW if the maximum number of requests have not been reached,
+     *         REFUSE if too many requests have been reached, BLOCK_LIST if
+     *         this also block listed the table and BLOCK if it was already
+     *         block listed
+     */
+    synchronized int check(final long time) {
+      lastCheck = time;
+      if (isBlocked(time)) {
+        return BLOCK;
+      }
+
+      if (interval > 0) {
+        tokens = Math.min(capacity, tokens + (((time - refilled) * capacity) / interval));
       } else {
-        count++;
+        tokens = capacity;
       }
+      refilled = time;
 
-      // find the next position in the list of times
-      final int index = (int)(count % times.length);
+      if (tokens >= 1) {
+        tokens -= 1;
+        return ALLOW;
+      }
 
-      try {
-        if ((times[index] > 0) && ((time - times[index]) < interval)) {
-          return false;
-        } else {
-          return true;
-        }
+      if ((time - breachStart) > breachWindow) {
+        breachStart = time;
+        breaches = 0;
       }
-      finally {
-        times[index] = time;
+      breaches++;
+      if ((breachThreshold > 0) && (breaches >= breachThreshold)) {
+        breaches = 0;
+        blockedUntil = time + blockDuration;
+        return BLOCK_LIST;
       }
+      return REFUSE;
     }
 
   } // class
@@ -15,6 +15,8 @@ import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import coyote.dataframe.DataFrame;
 
@@ -22,6 +24,10 @@ import coyote.dataframe.DataFrame;
 /**
  * The ArmMaster class models the master of all ARM transactions with a given
  * name.
+ *
+ * <p>As with {@link TimingMaster}, transaction times are recorded in
+ * nanoseconds in a {@link Histogram} without locking and reported in
+ * milliseconds with fractions, along with their percentiles.
  */
 public class ArmMaster {
   static private final String NAME = "Name";
@@ -38,6 +44,11 @@ public class ArmMaster {
   static private final String MAXACTIVE = "Max Active";
   static private final String FIRSTACCESS = "First Access";
   static private final String LASTACCESS = "Last Access";
+  static private final String P50 = "P50";
+  static private final String P90 = "P90";
+  static private final String P99 = "P99";
+  static private final String P999 = "P99.9";
+  static private final double NANOS_PER_MILLI = 1000000D;
 
 
 
@@ -60,22 +71,17 @@ public class ArmMaster {
   /** Flag indicating if this set is enabled. */
   private volatile boolean _enabled = true;
   /** Times this class of ARM has been invoked. */
-  private int hits;
+  private final LongAdder hits = new LongAdder();
   /** The number of transactions of this type currently active. */
-  private volatile long activeCounter;
-  /** Flag indicating whether or not to store the first accessed time */
-  private boolean isFirstAccess = true;
-  /** Epoch time in milliseconds when this ARM was first accessed */
-  private long firstAccessTime;
+  private final AtomicLong activeCounter = new AtomicLong();
+  /** Epoch time in milliseconds when this ARM was first accessed, 0 until then */
+  private final AtomicLong firstAccessTime = new AtomicLong();
   /** Epoch time in milliseconds when this ARM was last accessed */
-  private long lastAccessTime;
-  private long maxActive = 0;
-  private long totalActive = 0;
-  long accrued;
-  private long min = Long.MAX_VALUE;
-  private long max = Long.MIN_VALUE;
-  private long total;
-  private long sumOfSquares;
+  private volatile long lastAccessTime;
+  private final AtomicLong maxActive = new AtomicLong();
+  private final LongAdder totalActive = new LongAdder();
+  /** The times of all the stopped transactions in nanoseconds */
+  private final Histogram histogram = new Histogram();
 
 
 
@@ -111,7 +117,7 @@ public class ArmMaster {
     ArmTransaction retval;
     if ( _enabled ) {
       retval = new TimingArm( this, name, crid );
-      hits++;
+      hits.increment();
     } else {
       retval = new NullArm( this, name, crid );
     }
@@ -121,31 +127,15 @@ public class ArmMaster {
 
 
 
-  /**
-   * @return the average time for all stopped transactions for this master list.
-   */
-  private long getAverage() {
-    // we can only average the total number of closures not just the hits
-    final long closures = ( hits - activeCounter );
-
-    if ( closures == 0 ) {
-      return 0;
-    } else {
-      return total / closures;
-    }
-  }
-
-
-
-
   /**
    * @return the average number of active for the life of this master list.
    */
   final float getAvgActive() {
-    if ( hits == 0 ) {
+    final long count = hits.sum();
+    if ( count == 0 ) {
       return 0;
     } else {
-      return (float)totalActive / hits;
+      return (float)totalActive.sum() / count;
     }
   }
 
@@ -187,23 +177,11 @@ public class ArmMaster {
 
 
   /**
-   * Access the current standard deviation for all stopped transactions using
-   * the Sum of Squares alogrithm.
-   *
-   * @return The amount of one standard deviation of all the interval times.
+   * @return the histogram of the times of all stopped transactions in
+   *         nanoseconds
    */
-  private long getStandardDeviation() {
-    long stdDeviation = 0;
-    if ( hits != 0 ) {
-      final long sumOfX = total;
-      final int n = hits;
-      final int nMinus1 = ( n <= 1 ) ? 1 : n - 1; // avoid 0 divides;
-
-      final long numerator = sumOfSquares - ( ( sumOfX * sumOfX ) / n );
-      stdDeviation = (long)java.lang.Math.sqrt( numerator / nMinus1 );
-    }
-
-    return stdDeviation;
+  public Histogram getHistogram() {
+    return histogram;
   }
 
 
@@ -217,24 +195,20 @@ public class ArmMaster {
    *
    * @param value the amount to increase the accrued value.
    */
-  public synchronized void increase( final long value ) {
-    // calculate min
-    if ( value < min ) {
-      min = value;
-    }
+  public void increase( final long value ) {
+    histogram.record( value * 1000000 );
+  }
 
-    // calculate max
-    if ( value > max ) {
-      max = value;
-    }
 
-    // total _accrued value
-    accrued += value;
 
-    // calculate total i.e. sumofX's
-    total += value;
 
-    sumOfSquares += value * value;
+  /**
+   * Record the time one transaction ran.
+   *
+   * @param nanos the time the transaction ran in nanoseconds
+   */
+  public void record( final long nanos ) {
+    histogram.record( nanos );
   }
 
 
@@ -243,7 +217,7 @@ public class ArmMaster {
   /**
    * @return True if the ARM set is enabled, false otherwise.
    */
-  public synchronized boolean isEnabled() {
+  public boolean isEnabled() {
     return _enabled;
   }
 
@@ -255,36 +229,30 @@ public class ArmMaster {
    *
    * @param flag True to enable the ARMs, false to keep it from processing.
    */
-  public synchronized void setEnabled( final boolean flag ) {
+  public void setEnabled( final boolean flag ) {
     _enabled = flag;
   }
 
 
 
 
-  public synchronized void start( final ArmTransaction arm ) {
-    activeCounter++;
-    if ( activeCounter > maxActive ) {
-      maxActive = activeCounter;
-    }
+  public void start( final ArmTransaction arm ) {
+    final long active = activeCounter.incrementAndGet();
+    Histogram.raise( maxActive, active );
 
-    totalActive += activeCounter;
+    totalActive.add( active );
 
     final long now = System.currentTimeMillis();
     lastAccessTime = now;
 
-    if ( isFirstAccess ) {
-      isFirstAccess = false;
-      firstAccessTime = now;
-    }
+    firstAccessTime.compareAndSet( 0, now );
   }
 
 
 
 
-  public synchronized void stop( final ArmTransaction arm ) {
-    activeCounter--;
-    accrued += arm.getTotalTime();
+  public void stop( final ArmTransaction arm ) {
+    activeCounter.decrementAndGet();
   }
 
 
@@ -294,19 +262,24 @@ public class ArmMaster {
   public String toString() {
     final StringBuffer message = new StringBuffer( _name );
     message.append( ": " );
-    message.append( getDisplayString( ArmMaster.CALLS, convertToString( hits ), ArmMaster.NONE ) );
-
-    if ( ( hits - activeCounter ) > 0 ) {
-      message.append( getDisplayString( ArmMaster.AVG, convertToString( getAverage() ), ArmMaster.MILLISECONDS ) );
-      message.append( getDisplayString( ArmMaster.TOTAL, convertToString( total ), ArmMaster.MILLISECONDS ) );
-      message.append( getDisplayString( ArmMaster.STANDARD_DEVIATION, convertToString( getStandardDeviation() ), ArmMaster.MILLISECONDS ) );
-      message.append( getDisplayString( ArmMaster.MIN, convertToString( min ), ArmMaster.MILLISECONDS ) );
-      message.append( getDisplayString( ArmMaster.MAX, convertToString( max ), ArmMaster.MILLISECONDS ) );
+    message.append( getDisplayString( ArmMaster.CALLS, convertToString( hits.sum() ), ArmMaster.NONE ) );
+
+    if ( histogram.getCount() > 0 ) {
+      final long[] percentiles = histogram.getValuesAtPercentiles( TimingMaster.PERCENTILES );
+      message.append( getDisplayString( ArmMaster.AVG, TimingMaster.convertToMillis( histogram.getMean() ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.TOTAL, TimingMaster.convertToMillis( histogram.getTotal() ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.STANDARD_DEVIATION, TimingMaster.convertToMillis( histogram.getStandardDeviation() ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.MIN, TimingMaster.convertToMillis( histogram.getMin() ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.MAX, TimingMaster.convertToMillis( histogram.getMax() ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.P50, TimingMaster.convertToMillis( percentiles[0] ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.P90, TimingMaster.convertToMillis( percentiles[1] ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.P99, TimingMaster.convertToMillis( percentiles[2] ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.P999, TimingMaster.convertToMillis( percentiles[3] ), ArmMaster.MILLISECONDS ) );
     }
-    message.append( getDisplayString( ArmMaster.ACTIVE, convertToString( activeCounter ), ArmMaster.NONE ) );
-    message.append( getDisplayString( ArmMaster.MAXACTIVE, convertToString( maxActive ), ArmMaster.NONE ) );
+    message.append( getDisplayString( ArmMaster.ACTIVE, convertToString( activeCounter.get() ), ArmMaster.NONE ) );
+    message.append( getDisplayString( ArmMaster.MAXACTIVE, convertToString( maxActive.get() ), ArmMaster.NONE ) );
     message.append( getDisplayString( ArmMaster.AVGACTIVE, ArmMaster.convertToString( getAvgActive() ), ArmMaster.NONE ) );
-    message.append( getDisplayString( ArmMaster.FIRSTACCESS, getDateString( firstAccessTime ), ArmMaster.NONE ) );
+    message.append( getDisplayString( ArmMaster.FIRSTACCESS, getDateString( firstAccessTime.get() ), ArmMaster.NONE ) );
     message.append( getDisplayString( ArmMaster.LASTACCESS, getDateString( lastAccessTime ), ArmMaster.NONE ) );
 
     return message.toString();
@@ -315,19 +288,27 @@ public class ArmMaster {
 
 
 
-  public synchronized DataFrame toFrame() {
+  /**
+   * @return the summary of this ARM with all times in milliseconds
+   */
+  public DataFrame toFrame() {
+    final long[] percentiles = histogram.getValuesAtPercentiles( TimingMaster.PERCENTILES );
     DataFrame retval = new DataFrame();
     retval.put( NAME, _name );
-    retval.put( CALLS, new Integer( hits ) );
-    retval.put( AVG, new Long( getAverage() ) );
-    retval.put( TOTAL, new Long( total ) );
-    retval.put( STANDARD_DEVIATION, new Long( getStandardDeviation() ) );
-    retval.put( MIN, new Long( min ) );
-    retval.put( MAX, new Long( max ) );
-    retval.put( ACTIVE, new Long( activeCounter ) );
-    retval.put( MAXACTIVE, new Long( maxActive ) );
-    retval.put( AVGACTIVE, new Float( getAvgActive() ) );
-    retval.put( FIRSTACCESS, new Date( firstAccessTime ) );
+    retval.put( CALLS, (int)hits.sum() );
+    retval.put( AVG, histogram.getMean() / NANOS_PER_MILLI );
+    retval.put( TOTAL, histogram.getTotal() / NANOS_PER_MILLI );
+    retval.put( STANDARD_DEVIATION, histogram.getStandardDeviation() / NANOS_PER_MILLI );
+    retval.put( MIN, histogram.getMin() / NANOS_PER_MILLI );
+    retval.put( MAX, histogram.getMax() / NANOS_PER_MILLI );
+    retval.put( P50, percentiles[0] / NANOS_PER_MILLI );
+    retval.put( P90, percentiles[1] / NANOS_PER_MILLI );
+    retval.put( P99, percentiles[2] / NANOS_PER_MILLI );
+    retval.put( P999, percentiles[3] / NANOS_PER_MILLI );
+    retval.put( ACTIVE, activeCounter.get() );
+    retval.put( MAXACTIVE, maxActive.get() );
+    retval.put( AVGACTIVE, getAvgActive() );
+    retval.put( FIRSTACCESS, new Date( firstAccessTime.get() ) );
     retval.put( LASTACCESS, new Date( lastAccessTime ) );
     return retval;
   }
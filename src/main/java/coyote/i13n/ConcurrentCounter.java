@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.i13n;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A counter which many threads can update at once without locking.
+ *
+ * <p>The value and update count are held in {@code LongAdder}s which spread
+ * contended updates over separate cells, so threads incrementing the same
+ * counter do not queue on one monitor or one cache line.
+ *
+ * <p>The minimum and maximum are kept with compare-and-set, but only when the
+ * value goes down. An increment never touches them; the highest value is
+ * recorded when the value next drops and the lowest value is recorded as it
+ * drops. The current value is always included when they are read.
+ *
+ * <p>Summing the cells of the value costs more than updating them, so it is
+ * only done when the value is needed. {@link #increase(long)} and
+ * {@link #increment()} do not read the value back and return the amount
+ * added rather than the new value; use {@link #getValue()} for that. A
+ * decrease still returns the new value as it is needed for the maximum.
+ *
+ * <p>While other threads are updating the counter, the values returned from
+ * the decreases and getters are a snapshot which may already be out of
+ * date, and the minimum and maximum may miss a peak which lasted only
+ * between two concurrent updates. They are exact once the updates stop.
+ * {@link #reset()} and {@link #clone()} return plain {@link Counter}s.
+ */
+public class ConcurrentCounter extends Counter {
+  private final LongAdder value = new LongAdder();
+  private final LongAdder updates = new LongAdder();
+  private final AtomicLong minValue = new AtomicLong();
+  private final AtomicLong maxValue = new AtomicLong();
+
+
+
+
+  /**
+   * Create a counter with a name.
+   *
+   * @param name  the name of this counter
+   */
+  public ConcurrentCounter( final String name ) {
+    super( name );
+  }
+
+
+
+
+  /**
+   * Add the given amount to the value, recording the minimum and maximum if
+   * the value is going down.
+   *
+   * @return the amount of an increase, or the new value after a decrease
+   */
+  private long add( final long amt ) {
+    updates.increment();
+    if ( amt >= 0 ) {
+      value.add( amt );
+      return amt;
+    }
+    raise( maxValue, value.sum() );
+    value.add( amt );
+    final long retval = value.sum();
+    lower( minValue, retval );
+    return retval;
+  }
+
+
+
+
+  private static void raise( final AtomicLong cell, final long val ) {
+    for ( long current = cell.get(); val > current; current = cell.get() ) {
+      if ( cell.compareAndSet( current, val ) ) {
+        return;
+      }
+    }
+  }
+
+
+
+
+  private static void lower( final AtomicLong cell, final long val ) {
+    for ( long current = cell.get(); val < current; current = cell.get() ) {
+      if ( cell.compareAndSet( current, val ) ) {
+        return;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @return a plain counter holding the current values of this counter.
+   */
+  @Override
+  public Object clone() {
+    final long current = value.sum();
+    return new Counter( _name, getUnits(), current, Math.min( minValue.get(), current ), Math.max( maxValue.get(), current ), updates.sum() );
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Counter#decrease(long)
+   */
+  @Override
+  public long decrease( final long amt ) {
+    return add( -amt );
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Counter#decrement()
+   */
+  @Override
+  public long decrement() {
+    return add( -1 );
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Counter#getMaxValue()
+   */
+  @Override
+  public long getMaxValue() {
+    return Math.max( maxValue.get(), value.sum() );
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Counter#getMinValue()
+   */
+  @Override
+  public long getMinValue() {
+    return Math.min( minValue.get(), value.sum() );
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Metric#getUpdateCount()
+   */
+  @Override
+  public long getUpdateCount() {
+    return updates.sum();
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Counter#getValue()
+   */
+  @Override
+  public long getValue() {
+    return value.sum();
+  }
+
+
+
+
+  /**
+   * Increase the counter by the given amount.
+   *
+   * @param amt The amount to add to the counter.
+   *
+   * @return The amount added, not the value of the counter.
+   *
+   * @see coyote.i13n.Counter#increase(long)
+   */
+  @Override
+  public long increase( final long amt ) {
+    return add( amt );
+  }
+
+
+
+
+  /**
+   * Increment the counter by one.
+   *
+   * @return One, not the value of the counter.
+   *
+   * @see coyote.i13n.Counter#increment()
+   */
+  @Override
+  public long increment() {
+    return add( 1 );
+  }
+
+
+
+
+  /**
+   * Set the current, update count and Min/Max values to zero.
+   *
+   * <p>Updates made by other threads while the counter is being reset are
+   * counted either in the returned counter or in this one, but the minimum
+   * and maximum of the returned counter may include them even when the value
+   * does not.
+   *
+   * @return a counter representing the state prior to the reset.
+   */
+  @Override
+  public Counter reset() {
+    final long count = updates.sumThenReset();
+    final long current = value.sumThenReset();
+    final long min = minValue.getAndSet( 0 );
+    final long max = maxValue.getAndSet( 0 );
+    return new Counter( _name, getUnits(), current, Math.min( min, current ), Math.max( max, current ), count );
+  }
+
+}
@@ -18,8 +18,9 @@ package coyote.i13n;
  * by a name. These counters allow applications to increment, decrement and
  * reset these values allowing for easy metric collection.
  *
- * <p>This class is thread-safe in that all the methods synchronize on the name
- * of the counter to avoid double synchronization on the class itself.
+ * <p>This class is thread-safe in that all the methods synchronize on the
+ * counter itself. Counters updated by many threads at once should be a
+ * {@link ConcurrentCounter}, which updates without locking.
  *
  * @author Stephan D. Cote' - Enterprise Architecture
  * @version $Revision$
@@ -45,18 +46,29 @@ public class Counter extends Metric implements Cloneable {
 
 
 
+  /**
+   * Create a counter holding the given values.
+   */
+  Counter( final String name, final String units, final long value, final long min, final long max, final long updates ) {
+    super( name );
+    _units = units;
+    _value = value;
+    _minValue = min;
+    _maxValue = max;
+    _updateCount = updates;
+  }
+
+
+
+
   /**
    * Create a deep copy of this counter.
    */
   @Override
   public Object clone() {
-    final Counter retval = new Counter( _name );
-    retval._units = _units;
-    retval._value = _value;
-    retval._minValue = _minValue;
-    retval._maxValue = _maxValue;
-    retval._updateCount = _updateCount;
-    return retval;
+    synchronized( this ) {
+      return new Counter( _name, _units, _value, _minValue, _maxValue, _updateCount );
+    }
   }
 
 
@@ -70,7 +82,7 @@ public class Counter extends Metric implements Cloneable {
    * @return The final value of the counter after the operation.
    */
   public long decrease( final long amt ) {
-    synchronized( _name ) {
+    synchronized( this ) {
       _updateCount++;
       _value -= amt;
       if ( _value < _minValue ) {
@@ -92,7 +104,7 @@ public class Counter extends Metric implements Cloneable {
    * @return The final value of the counter after the operation.
    */
   public long decrement() {
-    synchronized( _name ) {
+    synchronized( this ) {
       _updateCount++;
       _value--;
       if ( _value < _minValue ) {
@@ -109,7 +121,7 @@ public class Counter extends Metric implements Cloneable {
    * @return Returns the maximum value the counter ever represented.
    */
   public long getMaxValue() {
-    synchronized( _name ) {
+    synchronized( this ) {
       return _maxValue;
     }
   }
@@ -121,7 +133,7 @@ public class Counter extends Metric implements Cloneable {
    * @return Returns the minimum value the counter ever represented.
    */
   public long getMinValue() {
-    synchronized( _name ) {
+    synchronized( this ) {
       return _minValue;
     }
   }
@@ -143,7 +155,7 @@ public class Counter extends Metric implements Cloneable {
    * @return Returns the current value of the counter.
    */
   public long getValue() {
-    synchronized( _name ) {
+    synchronized( this ) {
       return _value;
     }
   }
@@ -159,7 +171,7 @@ public class Counter extends Metric implements Cloneable {
    * @return The final value of the counter after the operation.
    */
   public long increase( final long amt ) {
-    synchronized( _name ) {
+    synchronized( this ) {
       _updateCount++;
       _value += amt;
       if ( _value < _minValue ) {
@@ -181,7 +193,7 @@ public class Counter extends Metric implements Cloneable {
    * @return The final value of the counter after the operation.
    */
   public long increment() {
-    synchronized( _name ) {
+    synchronized( this ) {
       _updateCount++;
       _value++;
       if ( _value > _maxValue ) {
@@ -204,7 +216,7 @@ public class Counter extends Metric implements Cloneable {
    * @return a counter representing the state prior to the reset.
    */
   public Counter reset() {
-    synchronized( _name ) {
+    synchronized( this ) {
       final Counter retval = (Counter)clone();
 
       _value = 0;
@@ -225,7 +237,7 @@ public class Counter extends Metric implements Cloneable {
    * @param units The units to set.
    */
   public void setUnits( final String units ) {
-    synchronized( _name ) {
+    synchronized( this ) {
       _units = units;
     }
   }
@@ -238,17 +250,17 @@ public class Counter extends Metric implements Cloneable {
    */
   @Override
   public String toString() {
-    synchronized( _name ) {
+    synchronized( this ) {
       final StringBuffer buff = new StringBuffer( _name );
       buff.append( "=" );
-      buff.append( Long.toString( _value ) );
-      if ( _units != null ) {
-        buff.append( _units );
+      buff.append( Long.toString( getValue() ) );
+      if ( getUnits() != null ) {
+        buff.append( getUnits() );
       }
       buff.append( "[min=" );
-      buff.append( Long.toString( _minValue ) );
+      buff.append( Long.toString( getMinValue() ) );
       buff.append( ":max=" );
-      buff.append( Long.toString( _maxValue ) );
+      buff.append( Long.toString( getMaxValue() ) );
       buff.append( "]" );
 
       return buff.toString();
@@ -12,21 +12,41 @@
 package coyote.i13n;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 /**
- * The EventList class models a synchronized list of application events.
+ * The EventList class models a thread-safe list of the most recent
+ * application events.
+ *
+ * <p>Events are held in a fixed-size ring in which each event has the slot
+ * given by its sequence number modulo the size of the ring, so an event is
+ * found by its sequence in constant time and each new event simply replaces
+ * the one whose sequence is a full ring older. Adding an event never locks
+ * and never waits on readers, so a component which floods the list with
+ * events does not block those reading it, nor do they block it.
+ *
+ * <p>Readers wanting only the events they have not yet seen should poll a
+ * {@link Cursor} rather than copying the whole list each time.
  */
 public class EventList {
   /** The maximum number of events to keep in our Event list. */
-  private  int _maxEvents = 1000;
+  private static final int DEFAULT_MAX_EVENTS = 1000;
+
+  /** Guards changes to the size of the ring */
   private final Object _lock = new Object();
 
-  private volatile long _nextEventSequence = 0;
+  private final AtomicLong _nextEventSequence = new AtomicLong();
 
-   LinkedList<AppEvent> _list = new LinkedList<AppEvent>();
+  /** The highest sequence added to the list */
+  private final AtomicLong _highest = new AtomicLong( -1 );
+
+  /** The events in the list */
+  private volatile Ring _ring = new Ring( DEFAULT_MAX_EVENTS );
 
 
 
@@ -41,10 +61,34 @@ public class EventList {
 
 
 
-  public synchronized void add( final AppEvent event ) {
-    _list.add( event );
-    while ( _list.size() > _maxEvents ) {
-      _list.removeFirst();
+  /**
+   * Add an event to the list.
+   *
+   * <p>The event takes the place of any event a full list older than it. An
+   * event older than every event the list can hold is not added.
+   *
+   * @param event the event to add
+   */
+  public void add( final AppEvent event ) {
+    final long seq = event.getSequence();
+    Ring ring = _ring;
+    if ( seq <= _highest.get() - ring.length() ) {
+      ring.publish( seq ); // already expired
+      return;
+    }
+    while ( true ) {
+      ring.put( event );
+      ring.publish( seq );
+      // the list may have been resized while the event was being placed, in
+      // which case it is placed again in the ring which replaced this one
+      final Ring current = _ring;
+      if ( current == ring ) {
+        break;
+      }
+      ring = current;
+    }
+    for ( long highest = _highest.get(); highest < seq && !_highest.compareAndSet( highest, seq ); highest = _highest.get() ) {
+      // another event raised it first
     }
   }
 
@@ -106,8 +150,8 @@ public class EventList {
    *
    * @return A sequenced event with the appropriate values filled-in.
    */
-  public synchronized AppEvent createEvent( final String appid, final String sysid, final String cmpid, final String msg, final int sv, final int maj, final int min, final String cat ) {
-    final AppEvent retval = new AppEvent( nextSequence(), appid, sysid, cmpid, msg, sv, maj, min, cat, this );
+  public AppEvent createEvent( final String appid, final String sysid, final String cmpid, final String msg, final int sv, final int maj, final int min, final String cat ) {
+    final AppEvent retval = new AppEvent( _nextEventSequence.getAndIncrement(), appid, sysid, cmpid, msg, sv, maj, min, cat, this );
     add( retval );
     return retval;
   }
@@ -122,49 +166,48 @@ public class EventList {
    *
    * @return The event with the given sequence number or null if not found.
    */
-  public synchronized AppEvent get( final long seq ) {
-    // make sure the event exists
-    if ( ( _list.getFirst() ).getSequence() <= seq ) {
-      if ( ( ( _list.getLast() ) ).getSequence() >= seq ) {
-        // perform a binary search on the event list.
-        int indx = 0;
-        int size = _list.size() - 1;
-        while ( indx <= size ) {
-          final int i = ( indx + size ) >> 1;
-          final AppEvent retval = _list.get( i );
-          final long value = retval.getSequence();
-          if ( value < seq ) {
-            indx = i + 1;
-          } else if ( value > seq ) {
-            size = i - 1;
-          } else {
-            return _list.get( i );
-          }
-        }
-        return null;
-
-      } else {
-        // System.out.println( "Not created yet" );
-      }
-    } else {
-      // System.out.println( "Expired" );
-    }
-
-    return null;
+  public AppEvent get( final long seq ) {
+    return _ring.find( seq );
   }
 
 
 
 
-  public synchronized AppEvent getFirst() {
-    return _list.getFirst();
+  /**
+   * @return the event with the lowest sequence in the list
+   *
+   * @throws NoSuchElementException if the list is empty
+   */
+  public AppEvent getFirst() {
+    final Ring ring = _ring;
+    final long highest = _highest.get();
+    for ( long seq = ring.oldest( highest ); seq <= highest; seq++ ) {
+      final AppEvent retval = ring.find( seq );
+      if ( retval != null ) {
+        return retval;
+      }
+    }
+    throw new NoSuchElementException();
   }
 
 
 
 
-  public synchronized AppEvent getLast() {
-    return _list.getLast();
+  /**
+   * @return the event with the highest sequence in the list
+   *
+   * @throws NoSuchElementException if the list is empty
+   */
+  public AppEvent getLast() {
+    final Ring ring = _ring;
+    final long highest = _highest.get();
+    for ( long seq = highest, oldest = ring.oldest( highest ); seq >= oldest; seq-- ) {
+      final AppEvent retval = ring.find( seq );
+      if ( retval != null ) {
+        return retval;
+      }
+    }
+    throw new NoSuchElementException();
   }
 
 
@@ -176,12 +219,18 @@ public class EventList {
    * <p>The list is mutable, but the events are references to the actual event
    * entries. Changing an AppEvent will change the entry in this list.</p>
    *
-   * @return a list of AppEvents representing all the events in this list.
+   * @return a list of AppEvents representing all the events in this list in
+   *         the order of their sequence.
    */
-  public synchronized List<AppEvent> getEvents() {
-    List<AppEvent> retval = new ArrayList<>();
-    for (AppEvent event: _list){
-      retval.add(event);
+  public List<AppEvent> getEvents() {
+    final Ring ring = _ring;
+    final long highest = _highest.get();
+    final List<AppEvent> retval = new ArrayList<>();
+    for ( long seq = ring.oldest( highest ); seq <= highest; seq++ ) {
+      final AppEvent event = ring.find( seq );
+      if ( event != null ) {
+        retval.add( event );
+      }
     }
     return retval;
   }
@@ -190,38 +239,70 @@ public class EventList {
 
 
   /**
-   * @return  Returns the maximum number of events to keep in the list.
+   * Create a cursor which returns the events added to the list from this
+   * point on.
+   *
+   * @return a cursor positioned after the last event in the list
    */
-  public  int getMaxEvents() {
-    return _maxEvents;
+  public Cursor getCursor() {
+    return new Cursor( _highest.get() + 1 );
   }
 
 
 
 
   /**
-   * @return the number of entries currently in the list/
+   * Create a cursor which returns the events with the given sequence and
+   * those after it.
+   *
+   * @param seq the sequence of the first event the cursor is to return
+   *
+   * @return a cursor positioned at the given sequence
    */
-  public int getSize() {
-    return _list.size();
+  public Cursor getCursor( final long seq ) {
+    return new Cursor( seq );
   }
 
 
 
 
-  public long lastSequence() {
-    synchronized( _lock ) {
-      return _nextEventSequence - 1;
-    }
+  /**
+   * @return  Returns the maximum number of events to keep in the list.
+   */
+  public int getMaxEvents() {
+    return _ring.length();
   }
 
 
 
 
-  private long nextSequence() {
-    synchronized( _lock ) {
-      return _nextEventSequence++;
+  /**
+   * Count the entries currently in the list.
+   *
+   * <p>This checks every slot in the list, so readers wanting to know if new
+   * events have arrived should compare {@link #lastSequence()} or use a
+   * {@link Cursor} instead.
+   *
+   * @return the number of entries currently in the list
+   */
+  public int getSize() {
+    final Ring ring = _ring;
+    final long oldest = ring.oldest( _highest.get() );
+    int retval = 0;
+    for ( int x = 0; x < ring.length(); x++ ) {
+      final AppEvent event = ring.events.get( x );
+      if ( event != null && event.getSequence() >= oldest ) {
+        retval++;
+      }
     }
+    return retval;
+  }
+
+
+
+
+  public long lastSequence() {
+    return _nextEventSequence.get() - 1;
   }
 
 
@@ -232,15 +313,27 @@ public class EventList {
    *
    * @param event The event to remove from the list.
    */
-  public synchronized void remove( final AppEvent event ) {
-    _list.remove( event );
+  public void remove( final AppEvent event ) {
+    _ring.remove( event );
   }
 
 
 
 
-  public synchronized AppEvent removeFirst() {
-    return _list.removeFirst();
+  /**
+   * Remove the event with the lowest sequence from the list.
+   *
+   * @return the event removed
+   *
+   * @throws NoSuchElementException if the list is empty
+   */
+  public AppEvent removeFirst() {
+    while ( true ) {
+      final AppEvent retval = getFirst();
+      if ( _ring.remove( retval ) ) {
+        return retval;
+      }
+    }
   }
 
 
@@ -249,13 +342,267 @@ public class EventList {
   /**
    * Set the maximum number of events to keep in the list.
    *
+   * <p>The most recent events are kept.
+   *
    * @param max  The maximum number of events to keep.
+   *
+   * @throws IllegalArgumentException if the maximum is less than one
+   */
+  public void setMaxEvents( final int max ) {
+    if ( max < 1 ) {
+      throw new IllegalArgumentException( "Event list must hold at least one event" );
+    }
+    synchronized( _lock ) {
+      final Ring ring = _ring;
+      final Ring resized = new Ring( max );
+      copy( ring, resized );
+      _ring = resized;
+      // events placed in the old ring before it was replaced are copied
+      // again, those placed after are moved over by add()
+      copy( ring, resized );
+    }
+  }
+
+
+
+
+  /**
+   * Copy the events of one ring to another, keeping the newest of those which
+   * share a slot, along with which of the sequences the new ring can hold
+   * have been published.
    */
-  public synchronized void setMaxEvents( final int max ) {
-    _maxEvents = max;
-    while ( _list.size() > _maxEvents ) {
-      _list.removeFirst();
+  private void copy( final Ring from, final Ring to ) {
+    for ( int x = 0; x < from.length(); x++ ) {
+      final AppEvent event = from.events.get( x );
+      if ( event != null ) {
+        to.put( event );
+      }
     }
+    // an add may complete before it raises the highest sequence, but never
+    // after its sequence was taken
+    final long last = lastSequence();
+    for ( long seq = to.oldest( _highest.get() ); seq <= last; seq++ ) {
+      if ( from.isPublished( seq ) ) {
+        to.publish( seq );
+      }
+    }
+  }
+
+
+
+
+  /**
+   * The fixed-size ring holding the events of the list.
+   *
+   * <p>Alongside each slot the ring records the highest sequence whose add
+   * has completed in that slot. Sequences are taken before their events are
+   * placed, so an empty slot is either an event still being added, which a
+   * cursor must wait for, or an event since removed, which it must skip; the
+   * published sequence of the slot tells the two apart.
+   */
+  private static final class Ring {
+    /** The events, each in the slot of its sequence */
+    final AtomicReferenceArray<AppEvent> events;
+
+    /** The highest sequence published to each slot */
+    final AtomicLongArray published;
+
+
+
+
+    Ring( final int size ) {
+      events = new AtomicReferenceArray<AppEvent>( size );
+      published = new AtomicLongArray( size );
+      for ( int x = 0; x < size; x++ ) {
+        published.set( x, -1 );
+      }
+    }
+
+
+
+
+    int length() {
+      return events.length();
+    }
+
+
+
+
+    /**
+     * @return the slot in the ring for the given sequence
+     */
+    int slot( final long seq ) {
+      return (int)Math.floorMod( seq, (long)events.length() );
+    }
+
+
+
+
+    /**
+     * @return the event with the given sequence if it is in the ring
+     */
+    AppEvent find( final long seq ) {
+      final AppEvent retval = events.get( slot( seq ) );
+      return ( retval != null && retval.getSequence() == seq ) ? retval : null;
+    }
+
+
+
+
+    /**
+     * @return the lowest sequence the ring can still hold
+     */
+    long oldest( final long highest ) {
+      return Math.max( 0, ( highest - events.length() ) + 1 );
+    }
+
+
+
+
+    /**
+     * Place an event in its slot unless the slot already holds the same or a
+     * newer event.
+     */
+    void put( final AppEvent event ) {
+      final long seq = event.getSequence();
+      final int slot = slot( seq );
+      for ( AppEvent current = events.get( slot ); current == null || current.getSequence() < seq; current = events.get( slot ) ) {
+        if ( events.compareAndSet( slot, current, event ) ) {
+          return;
+        }
+      }
+    }
+
+
+
+
+    /**
+     * Record the add of the given sequence as complete.
+     */
+    void publish( final long seq ) {
+      final int slot = slot( seq );
+      for ( long current = published.get( slot ); current < seq && !published.compareAndSet( slot, current, seq ); current = published.get( slot ) ) {
+        // a newer sequence was published to the slot first
+      }
+    }
+
+
+
+
+    /**
+     * @return true if the add of the given sequence, or of a newer one in the
+     *         same slot, has completed
+     */
+    boolean isPublished( final long seq ) {
+      return published.get( slot( seq ) ) >= seq;
+    }
+
+
+
+
+    /**
+     * @return true if the event was in the ring and has been removed
+     */
+    boolean remove( final AppEvent event ) {
+      return events.compareAndSet( slot( event.getSequence() ), event, null );
+    }
+
+  }
+
+
+
+
+  /**
+   * A position in the event list from which new events can be read as they
+   * arrive.
+   *
+   * <p>Each call to {@link #poll()} returns the events added since the last,
+   * in sequence order, and never blocks those adding events. Events which
+   * the list replaced before the cursor reached them are counted as missed.
+   * A cursor may be shared by several readers, each event being returned to
+   * only one of them.
+   */
+  public class Cursor {
+    private long _next;
+    private long _missed = 0;
+
+
+
+
+    Cursor( final long seq ) {
+      _next = seq;
+    }
+
+
+
+
+    /**
+     * Return the events added since the last poll.
+     *
+     * @return the new events in order of their sequence, empty if there are
+     *         none
+     */
+    public synchronized List<AppEvent> poll() {
+      final List<AppEvent> retval = new ArrayList<AppEvent>();
+      final Ring ring = _ring;
+      final long highest = _highest.get();
+
+      final long oldest = ring.oldest( highest );
+      if ( _next < oldest ) {
+        _missed += oldest - _next;
+        _next = oldest;
+      }
+      for ( ; _next <= highest; _next++ ) {
+        AppEvent event = ring.events.get( ring.slot( _next ) );
+        if ( event == null || event.getSequence() < _next ) {
+          // wait for an event still being added unless it has since been
+          // added to a ring which replaced this one
+          Ring added = ring;
+          if ( !added.isPublished( _next ) ) {
+            added = _ring;
+            if ( added == ring || !added.isPublished( _next ) ) {
+              break;
+            }
+          }
+          // the add is complete, so the slot now holds the event unless it
+          // has been removed
+          event = added.events.get( added.slot( _next ) );
+        }
+        if ( event != null && event.getSequence() == _next ) {
+          retval.add( event );
+        } else if ( event != null && event.getSequence() > _next ) {
+          // replaced before the cursor reached it; end the batch here so the
+          // events missed are always those before the events returned
+          if ( !retval.isEmpty() ) {
+            break;
+          }
+          _missed++;
+        }
+      }
+      return retval;
+    }
+
+
+
+
+    /**
+     * @return the sequence of the next event this cursor will return
+     */
+    public synchronized long getSequence() {
+      return _next;
+    }
+
+
+
+
+    /**
+     * @return the number of events the list replaced before this cursor
+     *         could return them
+     */
+    public synchronized long getMissed() {
+      return _missed;
+    }
+
   }
 
 }
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.i13n;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A histogram of non-negative values, such as durations in nanoseconds, from
+ * which percentiles can be read.
+ *
+ * <p>Values are counted in log-linear buckets in the manner of an HDR
+ * histogram: values below 128 each have their own bucket and each power of
+ * two above that is split into 64 buckets, so any value is placed within
+ * 1/64th (about 1.6%) of its true value. Values are tracked up to an hour in
+ * nanoseconds, which needs only 2,345 buckets; longer values are all counted
+ * in the top bucket, and a percentile which falls in it reports the highest
+ * value recorded.
+ *
+ * <p>Recording never locks. All threads count into a single stripe of
+ * buckets until two of them collide on a bucket, then the number of stripes
+ * is doubled, up to a limit set by the number of processors, and each thread
+ * counts into the stripe of its id. A stripe is only allocated once a thread
+ * uses it, so a histogram recorded by one thread at a time holds one stripe
+ * of about 18KB. The stripes are merged when percentiles are read, up to the
+ * bucket of the highest value recorded. The count, total, minimum and maximum
+ * are kept exactly.
+ *
+ * <p>Reads made while values are being recorded see a close but not
+ * necessarily consistent snapshot.
+ */
+public class Histogram {
+
+  /** Bits of precision kept within each power of two */
+  private static final int PRECISION_BITS = 6;
+
+  /** Values below this each have their own bucket */
+  private static final int LINEAR = 2 << PRECISION_BITS;
+
+  /** The highest value given a bucket of its own, an hour in nanoseconds */
+  static final long HIGHEST_TRACKABLE = 3600L * 1000000000L;
+
+  /** The bucket counting the highest trackable value and all those above it */
+  private static final int TOP_BUCKET = bucket( HIGHEST_TRACKABLE );
+
+  /** The number of buckets needed to hold any positive long */
+  static final int BUCKETS = TOP_BUCKET + 1;
+
+  /** The most stripes of buckets, a power of two above the processors */
+  private static final int MAX_STRIPES = Math.min( 16, Integer.highestOneBit( Runtime.getRuntime().availableProcessors() ) << 1 );
+
+  private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<AtomicLongArray>( MAX_STRIPES );
+
+  /** The number of stripes in use, a power of two which grows on contention */
+  private final AtomicInteger width = new AtomicInteger( 1 );
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final DoubleAdder sumOfSquares = new DoubleAdder();
+  private final AtomicLong min = new AtomicLong( Long.MAX_VALUE );
+  private final AtomicLong max = new AtomicLong( Long.MIN_VALUE );
+
+
+
+
+  /**
+   * @return the bucket which would count the given value if there were no
+   *         highest trackable value
+   */
+  private static int bucket( final long value ) {
+    if ( value < LINEAR ) {
+      return (int)value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros( value ) - PRECISION_BITS;
+    return ( shift << PRECISION_BITS ) + (int)( value >>> shift );
+  }
+
+
+
+
+  /**
+   * @return the bucket which counts the given value
+   */
+  static int index( final long value ) {
+    return value >= HIGHEST_TRACKABLE ? TOP_BUCKET : bucket( value );
+  }
+
+
+
+
+  /**
+   * @return the highest value counted in the given bucket
+   */
+  static long highestValue( final int index ) {
+    if ( index < LINEAR ) {
+      return index;
+    }
+    if ( index >= TOP_BUCKET ) {
+      return Long.MAX_VALUE;
+    }
+    final int shift = ( index >>> PRECISION_BITS ) - 1;
+    final long lowest = (long)( index - ( shift << PRECISION_BITS ) ) << shift;
+    return lowest + ( ( 1L << shift ) - 1 );
+  }
+
+
+
+
+  /**
+   * Record a value in the histogram.
+   *
+   * @param value the value to record, negative values are recorded as zero
+   */
+  public void record( final long value ) {
+    final long val = value < 0 ? 0 : value;
+    final int used = width.get();
+    final AtomicLongArray buckets = getStripe( (int)Thread.currentThread().getId() & ( used - 1 ) );
+    final int index = index( val );
+    final long current = buckets.get( index );
+    if ( !buckets.compareAndSet( index, current, current + 1 ) ) {
+      // another thread is counting in this stripe, so spread them out
+      if ( used < MAX_STRIPES ) {
+        width.compareAndSet( used, used << 1 );
+      }
+      buckets.incrementAndGet( index );
+    }
+    count.increment();
+    total.add( val );
+    sumOfSquares.add( (double)val * val );
+    lower( min, val );
+    raise( max, val );
+  }
+
+
+
+
+  /**
+   * @return the stripe of buckets with the given index, allocating it if this
+   *         is its first use
+   */
+  private AtomicLongArray getStripe( final int stripe ) {
+    final AtomicLongArray retval = stripes.get( stripe );
+    if ( retval != null ) {
+      return retval;
+    }
+    stripes.compareAndSet( stripe, null, new AtomicLongArray( BUCKETS ) );
+    return stripes.get( stripe );
+  }
+
+
+
+
+  /**
+   * @return the number of stripes of buckets values are counted in
+   */
+  int getStripeCount() {
+    return width.get();
+  }
+
+
+
+
+  /**
+   * Raise the value in the cell to the given value if it is higher.
+   */
+  static void raise( final AtomicLong cell, final long value ) {
+    for ( long current = cell.get(); value > current; current = cell.get() ) {
+      if ( cell.compareAndSet( current, value ) ) {
+        return;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Lower the value in the cell to the given value if it is lower.
+   */
+  static void lower( final AtomicLong cell, final long value ) {
+    for ( long current = cell.get(); value < current; current = cell.get() ) {
+      if ( cell.compareAndSet( current, value ) ) {
+        return;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of values recorded
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+
+
+
+  /**
+   * @return the sum of all the values recorded
+   */
+  public long getTotal() {
+    return total.sum();
+  }
+
+
+
+
+  /**
+   * @return the lowest value recorded, 0 if none have been
+   */
+  public long getMin() {
+    final long retval = min.get();
+    return retval == Long.MAX_VALUE ? 0 : retval;
+  }
+
+
+
+
+  /**
+   * @return the highest value recorded, 0 if none have been
+   */
+  public long getMax() {
+    final long retval = max.get();
+    return retval == Long.MIN_VALUE ? 0 : retval;
+  }
+
+
+
+
+  /**
+   * @return the mean of the values recorded, 0 if none have been
+   */
+  public double getMean() {
+    final long n = count.sum();
+    return n == 0 ? 0 : (double)total.sum() / n;
+  }
+
+
+
+
+  /**
+   * @return the sample standard deviation of the values recorded, 0 if fewer
+   *         than two have been
+   */
+  public double getStandardDeviation() {
+    final long n = count.sum();
+    if ( n < 2 ) {
+      return 0;
+    }
+    final double sum = total.sum();
+    final double variance = ( sumOfSquares.sum() - ( ( sum * sum ) / n ) ) / ( n - 1 );
+    return variance > 0 ? Math.sqrt( variance ) : 0;
+  }
+
+
+
+
+  /**
+   * @param percentile the percentage of values (0-100) at or below the value
+   *        to return
+   *
+   * @return the value at the given percentile, 0 if no values have been
+   *         recorded
+   */
+  public long getValueAtPercentile( final double percentile ) {
+    return getValuesAtPercentiles( percentile )[0];
+  }
+
+
+
+
+  /**
+   * Read several percentiles from one merge of the buckets.
+   *
+   * <p>Each value is the highest value which would be counted in the same
+   * bucket as the value at the percentile, but never more than the highest
+   * value recorded.
+   *
+   * @param percentiles the percentages of values (0-100) at or below the
+   *        values to return
+   *
+   * @return the values at the given percentiles, 0 if no values have been
+   *         recorded
+   */
+  public long[] getValuesAtPercentiles( final double... percentiles ) {
+    final long[] retval = new long[percentiles.length];
+    final long highest = getMax();
+
+    // no bucket above that of the highest value can hold a value, except one
+    // being recorded now which can be left for the next read
+    final long[] buckets = new long[index( highest ) + 1];
+    long recorded = 0;
+    for ( int s = 0; s < MAX_STRIPES; s++ ) {
+      final AtomicLongArray stripe = stripes.get( s );
+      if ( stripe != null ) {
+        for ( int i = 0; i < buckets.length; i++ ) {
+          final long n = stripe.get( i );
+          buckets[i] += n;
+          recorded += n;
+        }
+      }
+    }
+    if ( recorded == 0 ) {
+      return retval;
+    }
+
+    for ( int p = 0; p < percentiles.length; p++ ) {
+      final double pct = Math.min( 100, Math.max( 0, percentiles[p] ) );
+      final long target = Math.max( 1, (long)Math.ceil( ( pct / 100 ) * recorded ) );
+      long seen = 0;
+      for ( int i = 0; i < buckets.length; i++ ) {
+        seen += buckets[i];
+        if ( seen >= target ) {
+          retval[p] = Math.min( highestValue( i ), highest );
+          break;
+        }
+      }
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Clear all the recorded values.
+   *
+   * <p>Values recorded while the histogram is being reset may be lost.
+   */
+  public void reset() {
+    for ( int s = 0; s < MAX_STRIPES; s++ ) {
+      stripes.set( s, null );
+    }
+    count.reset();
+    total.reset();
+    sumOfSquares.reset();
+    min.set( Long.MAX_VALUE );
+    max.set( Long.MIN_VALUE );
+  }
+
+}
@@ -35,6 +35,14 @@ public class NullMaster implements TimerMaster {
 
 
 
+  @Override
+  public void record(final long nanos) {
+    // no-op implementation
+  }
+
+
+
+
   @Override
   public void start(final Timer mon) {
     // no-op implementation
@@ -106,6 +106,25 @@ public interface StatBoard {
     void enableGauges(boolean flag);
 
 
+    /**
+     * Select the kind of gauge created from this point on.
+     *
+     * <p>Windowed gauges report rates over the last 1, 5 and 15 minutes and
+     * update with a single atomic add; otherwise gauges report rates since
+     * they were first updated. Gauges which already exist are not changed.
+     *
+     * <p>Boards which only create the original gauges ignore this.
+     *
+     * @param flag true to create windowed gauges, false to create the
+     *        original gauges
+     *
+     * @see WindowedGauge
+     */
+    default void enableWindowedGauges(boolean flag) {
+      // only the original gauges are supported
+    }
+
+
     /**
      * Enable the timer with the given name.
      *
@@ -144,6 +163,10 @@ public interface StatBoard {
      * <p>If the counter does not exist, one will be created and added to the
      * static list of counters for later retrieval.
      *
+     * <p>The same counter is returned for a name until it is removed, so code
+     * which updates a counter often can keep the returned counter and update
+     * it directly instead of looking it up by name each time.
+     *
      * @param name The name of the counter to return.
      *
      * @return The counter with the given name.
@@ -236,7 +259,8 @@ public interface StatBoard {
      * Return the state with the given name.
      *
      * <p>If the state does not exist, one will be created and added to the
-     * static list of states for later retrieval.
+     * static list of states for later retrieval. As with counters, the same
+     * state is returned for a name until it is removed.
      *
      * @param name The name of the state to return.
      * @return The state with the given name.
@@ -301,7 +325,8 @@ public interface StatBoard {
      * @param name The name of the counter to increase.
      * @param value the amount to increase
      *
-     * @return The final value of the counter after the operation.
+     * @return The amount added, as counters do not sum their value on an
+     *         increase; see {@link ConcurrentCounter}.
      */
     long increase(String name, long value);
 
@@ -313,7 +338,7 @@ public interface StatBoard {
      * increased by one (1).
      *
      * @param name The name of the counter to increment.
-     * @return The final value of the counter after the operation.
+     * @return One, the amount added to the counter.
      */
     long increment(String name);
 
@@ -11,6 +11,8 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.UnknownHostException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import coyote.commons.DateUtil;
 import coyote.commons.Version;
@@ -21,6 +23,13 @@ import coyote.commons.Version;
  *
  * <p>Some find it useful to make this globally accessible so that many
  * components can use this in a coordinated manner.
+ *
+ * <p>The metrics are held in concurrent maps so looking up a metric by name
+ * never locks; a metric is only created, once, the first time its name is
+ * used. Code which updates a metric often can look it up once and keep the
+ * reference, as {@link #getCounter(String)}, {@link #getState(String)} and
+ * {@link #getGauge(String)} return the same instance for a name until it is
+ * removed.
  */
 public class StatBoardImpl implements StatBoard {
 
@@ -50,23 +59,26 @@ public class StatBoardImpl implements StatBoard {
   /** Gauges are disabled by default */
   private volatile boolean gaugesEnabled = false;
 
+  /** Gauges report rates since they were first updated by default */
+  private volatile boolean windowedGauges = false;
+
   /** Map of master timers by their name */
-  private final HashMap<String, TimingMaster> masterTimers = new HashMap<String, TimingMaster>();
+  private final ConcurrentMap<String, TimingMaster> masterTimers = new ConcurrentHashMap<String, TimingMaster>();
 
   /** Map of counters by their name */
-  private final HashMap<String, Counter> counters = new HashMap<String, Counter>();
+  private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
 
   /** Map of ARM masters by their name */
-  private final HashMap<String, ArmMaster> armMasters = new HashMap<String, ArmMaster>();
+  private final ConcurrentMap<String, ArmMaster> armMasters = new ConcurrentHashMap<String, ArmMaster>();
 
   /** Map of states by their name */
-  private final HashMap<String, State> states = new HashMap<String, State>();
+  private final ConcurrentMap<String, State> states = new ConcurrentHashMap<String, State>();
 
   /** Map of component versions by their name */
-  private final HashMap<String, Version> versions = new HashMap<String, Version>();
+  private final ConcurrentMap<String, Version> versions = new ConcurrentHashMap<String, Version>();
 
   /** Map of gauges by their name */
-  private final HashMap<String, Gauge> gauges = new HashMap<String, Gauge>();
+  private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
 
   /** Events that occurred. */
   private final EventList eventList = new EventList();
@@ -124,15 +136,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void disableArmClass(final String name) {
-    synchronized (armMasters) {
-      // get an existing master ARM or create a new one
-      ArmMaster master = armMasters.get(name);
-      if (master == null) {
-        master = new ArmMaster(name);
-        armMasters.put(name, master);
-      }
-      master.setEnabled(false);
-    }
+    getArmMaster(name).setEnabled(false);
   }
 
 
@@ -153,15 +157,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void disableTimer(final String name) {
-    synchronized (masterTimers) {
-      // get an existing master timer or create a new one
-      TimingMaster master = masterTimers.get(name);
-      if (master == null) {
-        master = new TimingMaster(name);
-        masterTimers.put(name, master);
-      }
-      master.setEnabled(false);
-    }
+    getOrCreateTimerMaster(name).setEnabled(false);
   }
 
 
@@ -172,9 +168,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void enableArm(final boolean flag) {
-    synchronized (armMasters) {
-      armEnabled = flag;
-    }
+    armEnabled = flag;
   }
 
 
@@ -186,15 +180,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void enableArmClass(final String name) {
-    synchronized (armMasters) {
-      // get an existing master ARM or create a new one
-      ArmMaster master = armMasters.get(name);
-      if (master == null) {
-        master = new ArmMaster(name);
-        armMasters.put(name, master);
-      }
-      master.setEnabled(true);
-    }
+    getArmMaster(name).setEnabled(true);
   }
 
 
@@ -205,9 +191,18 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void enableGauges(final boolean flag) {
-    synchronized (gauges) {
-      gaugesEnabled = flag;
-    }
+    gaugesEnabled = flag;
+  }
+
+
+
+
+  /**
+   * Create windowed gauges from this point on.
+   */
+  @Override
+  public void enableWindowedGauges(final boolean flag) {
+    windowedGauges = flag;
   }
 
 
@@ -223,15 +218,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void enableTimer(final String name) {
-    synchronized (masterTimers) {
-      // get an existing master timer or create a new one
-      TimingMaster master = masterTimers.get(name);
-      if (master == null) {
-        master = new TimingMaster(name);
-        masterTimers.put(name, master);
-      }
-      master.setEnabled(true);
-    }
+    getOrCreateTimerMaster(name).setEnabled(true);
   }
 
 
@@ -247,9 +234,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void enableTiming(final boolean flag) {
-    synchronized (masterTimers) {
-      timingEnabled = flag;
-    }
+    timingEnabled = flag;
   }
 
 
@@ -260,13 +245,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Iterator<ArmMaster> getArmIterator() {
-    final ArrayList<ArmMaster> list = new ArrayList<ArmMaster>();
-    synchronized (armMasters) {
-      for (final Iterator<ArmMaster> it = armMasters.values().iterator(); it.hasNext(); list.add(it.next())) {
-        ;
-      }
-    }
-    return list.iterator();
+    return new ArrayList<ArmMaster>(armMasters.values()).iterator();
   }
 
 
@@ -276,23 +255,30 @@ public class StatBoardImpl implements StatBoard {
    * Return the counter with the given name.
    *
    * <p>If the counter does not exist, one will be created and added to the
-   * static list of counters for later retrieval.
+   * static list of counters for later retrieval. Counters are created as
+   * {@link ConcurrentCounter}s as any number of threads may share them.
    *
    * @param name The name of the counter to return.
    *
    * @return The counter with the given name.
+   *
+   * @throws IllegalArgumentException if the name of the counter is null
    */
   @Override
   public Counter getCounter(final String name) {
-    Counter counter = null;
-    synchronized (counters) {
-      counter = counters.get(name);
-      if (counter == null) {
-        counter = new Counter(name);
-        counters.put(name, counter);
+    if (name == null) {
+      throw new IllegalArgumentException("Counter name is null");
+    }
+
+    Counter retval = counters.get(name);
+    if (retval == null) {
+      final Counter counter = new ConcurrentCounter(name);
+      retval = counters.putIfAbsent(name, counter);
+      if (retval == null) {
+        retval = counter;
       }
     }
-    return counter;
+    return retval;
   }
 
 
@@ -322,11 +308,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Iterator<Counter> getCounterIterator() {
-    final ArrayList<Counter> list = new ArrayList<Counter>();
-    for (final Iterator<Counter> it = counters.values().iterator(); it.hasNext(); list.add(it.next())) {
-      ;
-    }
-    return list.iterator();
+    return new ArrayList<Counter>(counters.values()).iterator();
   }
 
 
@@ -338,7 +320,8 @@ public class StatBoardImpl implements StatBoard {
    * <p>This will always return an object; it may be a stub, or a working
    * implementation depending upon the state of the statboard at the time. If
    * gauges are enabled, then a working gauge is returned, otherwise a null
-   * gauge is returned.
+   * gauge is returned. New gauges are {@link WindowedGauge}s if windowed
+   * gauges are enabled.
    *
    * <p>Because the state of gauge operation can change over the operation of
    * the statboard, it is not advisable to hold on to the reference between calls
@@ -358,11 +341,12 @@ public class StatBoardImpl implements StatBoard {
 
     Gauge retval = null;
     if (gaugesEnabled) {
-      synchronized (gauges) {
-        retval = gauges.get(name);
+      retval = gauges.get(name);
+      if (retval == null) {
+        final Gauge gauge = windowedGauges ? new WindowedGauge(name) : new GaugeBase(name);
+        retval = gauges.putIfAbsent(name, gauge);
         if (retval == null) {
-          retval = new GaugeBase(name);
-          gauges.put(name, retval);
+          retval = gauge;
         }
       }
     } else {
@@ -392,13 +376,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Iterator<Gauge> getGaugeIterator() {
-    final ArrayList<Gauge> list = new ArrayList<Gauge>();
-    synchronized (gauges) {
-      for (final Iterator<Gauge> it = gauges.values().iterator(); it.hasNext(); list.add(it.next())) {
-        ;
-      }
-    }
-    return list.iterator();
+    return new ArrayList<Gauge>(gauges.values()).iterator();
   }
 
 
@@ -438,18 +416,24 @@ public class StatBoardImpl implements StatBoard {
    * @param name The name of the state to return.
    *
    * @return The state with the given name.
+   *
+   * @throws IllegalArgumentException if the name of the state is null
    */
   @Override
   public State getState(final String name) {
-    State state = null;
-    synchronized (states) {
-      state = states.get(name);
-      if (state == null) {
-        state = new State(name);
-        states.put(name, state);
+    if (name == null) {
+      throw new IllegalArgumentException("State name is null");
+    }
+
+    State retval = states.get(name);
+    if (retval == null) {
+      final State state = new State(name);
+      retval = states.putIfAbsent(name, state);
+      if (retval == null) {
+        retval = state;
       }
     }
-    return state;
+    return retval;
   }
 
 
@@ -479,11 +463,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Iterator<State> getStateIterator() {
-    final ArrayList<State> list = new ArrayList<State>();
-    for (final Iterator<State> it = states.values().iterator(); it.hasNext(); list.add(it.next())) {
-      ;
-    }
-    return list.iterator();
+    return new ArrayList<State>(states.values()).iterator();
   }
 
 
@@ -494,13 +474,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Iterator<TimingMaster> getTimerIterator() {
-    final ArrayList<TimingMaster> list = new ArrayList<TimingMaster>();
-    synchronized (masterTimers) {
-      for (final Iterator<TimingMaster> it = masterTimers.values().iterator(); it.hasNext(); list.add(it.next())) {
-        ;
-      }
-    }
-    return list.iterator();
+    return new ArrayList<TimingMaster>(masterTimers.values()).iterator();
   }
 
 
@@ -516,9 +490,48 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public TimingMaster getTimerMaster(final String name) {
-    synchronized (masterTimers) {
-      return masterTimers.get(name);
+    if (name == null) {
+      return null;
     }
+
+    return masterTimers.get(name);
+  }
+
+
+
+
+  /**
+   * @return the master timer with the given name, created if it does not
+   *         exist
+   */
+  private TimingMaster getOrCreateTimerMaster(final String name) {
+    TimingMaster retval = masterTimers.get(name);
+    if (retval == null) {
+      final TimingMaster master = new TimingMaster(name);
+      retval = masterTimers.putIfAbsent(name, master);
+      if (retval == null) {
+        retval = master;
+      }
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return the ARM master with the given name, created if it does not exist
+   */
+  private ArmMaster getArmMaster(final String name) {
+    ArmMaster retval = armMasters.get(name);
+    if (retval == null) {
+      final ArmMaster master = new ArmMaster(name);
+      retval = armMasters.putIfAbsent(name, master);
+      if (retval == null) {
+        retval = master;
+      }
+    }
+    return retval;
   }
 
 
@@ -552,7 +565,8 @@ public class StatBoardImpl implements StatBoard {
    *
    * @param name The name of the counter to increase.
    *
-   * @return The final value of the counter after the operation.
+   * @return The amount added, as counters do not sum their value on an
+   *         increase; see {@link ConcurrentCounter}.
    */
   @Override
   public long increase(final String name, final long value) {
@@ -571,7 +585,7 @@ public class StatBoardImpl implements StatBoard {
    *
    * @param name The name of the counter to increment.
    *
-   * @return The final value of the counter after the operation.
+   * @return One, the amount added to the counter.
    */
   @Override
   public long increment(final String name) {
@@ -590,9 +604,11 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Counter removeCounter(final String name) {
-    synchronized (counters) {
-      return counters.remove(name);
+    if (name == null) {
+      return null;
     }
+
+    return counters.remove(name);
   }
 
 
@@ -611,9 +627,7 @@ public class StatBoardImpl implements StatBoard {
       return null;
     }
 
-    synchronized (gauges) {
-      return gauges.remove(name);
-    }
+    return gauges.remove(name);
   }
 
 
@@ -632,9 +646,7 @@ public class StatBoardImpl implements StatBoard {
       return null;
     }
 
-    synchronized (states) {
-      return states.remove(name);
-    }
+    return states.remove(name);
   }
 
 
@@ -657,12 +669,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Counter resetCounter(final String name) {
-    Counter retval = null;
-    synchronized (counters) {
-      retval = getCounter(name).reset();
-    }
-
-    return retval;
+    return getCounter(name).reset();
   }
 
 
@@ -689,9 +696,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void resetTimers() {
-    synchronized (masterTimers) {
-      masterTimers.clear();
-    }
+    masterTimers.clear();
   }
 
 
@@ -784,26 +789,18 @@ public class StatBoardImpl implements StatBoard {
    * @param name Grouping name.
    * @param crid correlation identifier
    *
-   * @return A transaction to collect ARM data.
+   * @return A transaction to collect ARM data, or one which does nothing if
+   *         ARM is disabled or the name is null.
    */
   @Override
   public ArmTransaction startArm(final String name, final String crid) {
     ArmTransaction retval = null;
-    if (armEnabled) {
-      synchronized (armMasters) {
-        // get an existing ARM master or create a new one
-        ArmMaster master = armMasters.get(name);
-        if (master == null) {
-          master = new ArmMaster(name);
-          armMasters.put(name, master);
-        }
-
-        // have the master ARM return a transaction instance
-        retval = master.createArm(name, crid);
+    if (armEnabled && name != null) {
+      // have the master ARM return a transaction instance
+      retval = getArmMaster(name).createArm(name, crid);
 
-        //start the ARM transaction
-        retval.start();
-      }
+      //start the ARM transaction
+      retval.start();
     } else {
       // just return the do-nothing timer
       retval = NULL_ARM;
@@ -823,26 +820,18 @@ public class StatBoardImpl implements StatBoard {
    * @param name The name of the timer instance to start.
    *
    * @return The timer instance that should be stopped when the interval is
-   *         completed.
+   *         completed, or one which does nothing if timing is disabled or
+   *         the name is null.
    */
   @Override
   public Timer startTimer(final String name) {
     Timer retval = null;
-    if (timingEnabled) {
-      synchronized (masterTimers) {
-        // get an existing master timer or create a new one
-        TimingMaster master = masterTimers.get(name);
-        if (master == null) {
-          master = new TimingMaster(name);
-          masterTimers.put(name, master);
-        }
+    if (timingEnabled && name != null) {
+      // have the master timer return a timer instance
+      retval = getOrCreateTimerMaster(name).createTimer();
 
-        // have the master timer return a timer instance
-        retval = master.createTimer();
-
-        //start the timer instance
-        retval.start();
-      }
+      //start the timer instance
+      retval.start();
     } else {
       // just return the do-nothing timer
       retval = NULL_TIMER;
@@ -879,10 +868,8 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void setVersion(String name, Version version) {
-    synchronized (versions) {
-      if (name != null && version != null) {
-        versions.put(name, version);
-      }
+    if (name != null && version != null) {
+      versions.put(name, version);
     }
   }
 
@@ -1089,10 +1076,8 @@ public class StatBoardImpl implements StatBoard {
   @Override
   public Map<String, String> getVersions() {
     final Map<String, String> retval = new HashMap<String, String>();
-    synchronized (versions) {
-      for (String key : versions.keySet()) {
-        retval.put(key, versions.get(key).toString());
-      }
+    for (Map.Entry<String, Version> entry : versions.entrySet()) {
+      retval.put(entry.getKey(), entry.getValue().toString());
     }
     return retval;
   }
@@ -1111,9 +1096,7 @@ public class StatBoardImpl implements StatBoard {
   @Override
   public Version getVersion(String name) {
     if (name != null) {
-      synchronized (versions) {
-        return versions.get(name);
-      }
+      return versions.get(name);
     }
     return null;
   }
@@ -15,8 +15,8 @@ package coyote.i13n;
  * developers to use state machine patterns in their application designs
  * without having to write extra code.
  *
- * <p>This class is thread-safe in that all the methods synchronize on the name
- * of the state to avoid double synchronizations.
+ * <p>This class is thread-safe in that all the methods synchronize on the
+ * state itself.
  */
 public class State extends Metric {
   public static final short UNKNOWN_TYPE = 0;
@@ -26,7 +26,7 @@ public class State extends Metric {
   public static final short LONG_TYPE = 3;
   protected short _type = 0;
 
-  long lastUpdated = 0;
+  volatile long lastUpdated = 0;
 
   long _longValue = 0;
   Object _objectValue = null;
@@ -61,7 +61,7 @@ public class State extends Metric {
    * @return The value of this state metric as a string.
    */
   public String getStringValue() {
-    synchronized (_name) {
+    synchronized (this) {
       switch (_type) {
         case OBJECT_TYPE:
           return _objectValue.toString();
@@ -83,7 +83,7 @@ public class State extends Metric {
    *         returned as their respective wrapper types.
    */
   public Object getValue() {
-    synchronized (_name) {
+    synchronized (this) {
       switch (_type) {
         case LONG_TYPE:
           return new Long(_longValue);
@@ -107,7 +107,7 @@ public class State extends Metric {
    *         OBJECT.
    */
   public void set(final double val) {
-    synchronized (_name) {
+    synchronized (this) {
       lastUpdated = System.currentTimeMillis();
 
       if ((_type == State.UNKNOWN_TYPE) || (_type == State.DOUBLE_TYPE)) {
@@ -132,7 +132,7 @@ public class State extends Metric {
    *         OBJECT.
    */
   public void set(final long val) {
-    synchronized (_name) {
+    synchronized (this) {
       lastUpdated = System.currentTimeMillis();
 
       if ((_type == State.UNKNOWN_TYPE) || (_type == State.LONG_TYPE)) {
@@ -159,7 +159,7 @@ public class State extends Metric {
   public void set(final Object val) {
     if (val != null) {
 
-      synchronized (_name) {
+      synchronized (this) {
         lastUpdated = System.currentTimeMillis();
 
         if ((_type == State.UNKNOWN_TYPE) || (_type == State.OBJECT_TYPE)) {
@@ -181,7 +181,7 @@ public class State extends Metric {
    */
   @Override
   public String toString() {
-    synchronized (_name) {
+    synchronized (this) {
       final StringBuffer buff = new StringBuffer(_name);
       buff.append("=");
       buff.append(getStringValue());
@@ -21,6 +21,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -78,11 +80,11 @@ public class Tabs {
   private static final HashMap componentMap = new HashMap();
 
   private final EventList eventList = new EventList();
-  private static final HashMap masterTimers = new HashMap();
-  private static final HashMap armMasters = new HashMap();
-  private static final HashMap counters = new HashMap();
-  private static final HashMap states = new HashMap();
-  private static final HashMap gauges = new HashMap();
+  private static final ConcurrentMap<String, TimingMaster> masterTimers = new ConcurrentHashMap<String, TimingMaster>();
+  private static final ConcurrentMap<String, ArmMaster> armMasters = new ConcurrentHashMap<String, ArmMaster>();
+  private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+  private static final ConcurrentMap<String, State> states = new ConcurrentHashMap<String, State>();
+  private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
 
   /** For the zipFile method */
   private static final int STREAM_BUFFER_SIZE = 8 * 1024;
@@ -92,13 +94,16 @@ public class Tabs {
   public static final String NOUDP_TAG = "tabs.noudp";
 
   /** Timing is disabled by default */
-  private static boolean timingEnabled = false;
+  private static volatile boolean timingEnabled = false;
 
   /** Application Response Measurement is disabled by default */
-  private static boolean armEnabled = false;
+  private static volatile boolean armEnabled = false;
 
   /** Gauges are disabled by default */
-  private static boolean gaugesEnabled = false;
+  private static volatile boolean gaugesEnabled = false;
+
+  /** Gauges report rates since they were first updated by default */
+  private static volatile boolean windowedGauges = false;
 
   /** Re-usable null gauge to save object creation and GC'n */
   private static final Gauge NULL_GAUGE = new NullGauge(null);
@@ -303,15 +308,7 @@ public class Tabs {
    * @param name the name of the ARM to disable
    */
   public static void disableArmClass(final String name) {
-    synchronized (Tabs.armMasters) {
-      // get an existing master ARM or create a new one
-      ArmMaster master = (ArmMaster)Tabs.armMasters.get(name);
-      if (master == null) {
-        master = new ArmMaster(name);
-        Tabs.armMasters.put(name, master);
-      }
-      master.setEnabled(false);
-    }
+    Tabs.getArmMaster(name).setEnabled(false);
   }
 
 
@@ -331,15 +328,7 @@ public class Tabs {
    * @param tag The name of the timer to disable.
    */
   public static void disableTimer(final String tag) {
-    synchronized (Tabs.masterTimers) {
-      // get an existing master timer or create a new one
-      TimingMaster master = (TimingMaster)Tabs.masterTimers.get(tag);
-      if (master == null) {
-        master = new TimingMaster(tag);
-        Tabs.masterTimers.put(tag, master);
-      }
-      master.setEnabled(false);
-    }
+    Tabs.getOrCreateTimerMaster(tag).setEnabled(false);
   }
 
 
@@ -351,9 +340,7 @@ public class Tabs {
    * @param flag true to enable, false to disable
    */
   public static void enableArm(final boolean flag) {
-    synchronized (Tabs.armMasters) {
-      Tabs.armEnabled = flag;
-    }
+    Tabs.armEnabled = flag;
   }
 
 
@@ -366,15 +353,7 @@ public class Tabs {
    * @param name the name of the ARM to enable
    */
   public static void enableArmClass(final String name) {
-    synchronized (Tabs.armMasters) {
-      // get an existing master ARM or create a new one
-      ArmMaster master = (ArmMaster)Tabs.armMasters.get(name);
-      if (master == null) {
-        master = new ArmMaster(name);
-        Tabs.armMasters.put(name, master);
-      }
-      master.setEnabled(true);
-    }
+    Tabs.getArmMaster(name).setEnabled(true);
   }
 
 
@@ -386,9 +365,21 @@ public class Tabs {
    * @param flag true to activate all gauges, false disables all gauges
    */
   public static void enableGauges(final boolean flag) {
-    synchronized (Tabs.gauges) {
-      Tabs.gaugesEnabled = flag;
-    }
+    Tabs.gaugesEnabled = flag;
+  }
+
+
+
+
+  /**
+   * Create windowed gauges, which report rates over the last 1, 5 and 15
+   * minutes, from this point on.
+   *
+   * @param flag true to create windowed gauges, false to create the original
+   *        gauges
+   */
+  public static void enableWindowedGauges(final boolean flag) {
+    Tabs.windowedGauges = flag;
   }
 
 
@@ -403,15 +394,7 @@ public class Tabs {
    * @param tag The name of the timer to enable.
    */
   public static void enableTimer(final String tag) {
-    synchronized (Tabs.masterTimers) {
-      // get an existing master timer or create a new one
-      TimingMaster master = (TimingMaster)Tabs.masterTimers.get(tag);
-      if (master == null) {
-        master = new TimingMaster(tag);
-        Tabs.masterTimers.put(tag, master);
-      }
-      master.setEnabled(true);
-    }
+    Tabs.getOrCreateTimerMaster(tag).setEnabled(true);
   }
 
 
@@ -428,9 +411,7 @@ public class Tabs {
    * @param flag true to enable timing, false to disable timing
    */
   public static void enableTiming(final boolean flag) {
-    synchronized (Tabs.masterTimers) {
-      Tabs.timingEnabled = flag;
-    }
+    Tabs.timingEnabled = flag;
   }
 
 
@@ -442,13 +423,7 @@ public class Tabs {
    * @return an iterator over all the ARMs
    */
   public static Iterator getArmIterator() {
-    final ArrayList list = new ArrayList();
-    synchronized (Tabs.armMasters) {
-      for (final Iterator it = Tabs.armMasters.values().iterator(); it.hasNext(); list.add((ArmMaster)it.next())) {
-        ;
-      }
-    }
-    return list.iterator();
+    return new ArrayList<ArmMaster>(Tabs.armMasters.values()).iterator();
   }
 
 
@@ -528,17 +503,23 @@ public class Tabs {
    * @param name The name of the counter to return.
    * 
    * @return The counter with the given name.
+   * 
+   * @throws IllegalArgumentException if the name of the counter is null
    */
   public static Counter getCounter(final String name) {
-    Counter counter = null;
-    synchronized (Tabs.counters) {
-      counter = (Counter)Tabs.counters.get(name);
-      if (counter == null) {
-        counter = new Counter(name);
-        Tabs.counters.put(name, counter);
+    if (name == null) {
+      throw new IllegalArgumentException("Counter name is null");
+    }
+
+    Counter retval = Tabs.counters.get(name);
+    if (retval == null) {
+      final Counter counter = new ConcurrentCounter(name);
+      retval = Tabs.counters.putIfAbsent(name, counter);
+      if (retval == null) {
+        retval = counter;
       }
     }
-    return counter;
+    return retval;
   }
 
 
@@ -566,11 +547,7 @@ public class Tabs {
    * @return a detached iterator over the counters.
    */
   public static Iterator getCounterIterator() {
-    final ArrayList list = new ArrayList();
-    for (final Iterator it = Tabs.counters.values().iterator(); it.hasNext(); list.add((Counter)it.next())) {
-      ;
-    }
-    return list.iterator();
+    return new ArrayList<Counter>(Tabs.counters.values()).iterator();
   }
 
 
@@ -583,13 +560,10 @@ public class Tabs {
     final DataFrame retval = new DataFrame();
     //retval.setType( "Counters" );
 
-    synchronized (Tabs.counters) {
-      for (final Iterator it = Tabs.counters.entrySet().iterator(); it.hasNext();) {
-        final Counter cntr = (Counter)((Map.Entry)it.next()).getValue();
-        try {
-          retval.put(cntr.getName(), new Long(cntr.getValue()));
-        } catch (final Exception ignore) {}
-      }
+    for (final Counter cntr : Tabs.counters.values()) {
+      try {
+        retval.put(cntr.getName(), new Long(cntr.getValue()));
+      } catch (final Exception ignore) {}
     }
     return retval;
   }
@@ -719,11 +693,12 @@ public class Tabs {
 
     Gauge retval = null;
     if (Tabs.gaugesEnabled) {
-      synchronized (Tabs.gauges) {
-        retval = (Gauge)Tabs.gauges.get(name);
+      retval = Tabs.gauges.get(name);
+      if (retval == null) {
+        final Gauge gauge = Tabs.windowedGauges ? new WindowedGauge(name) : new GaugeBase(name);
+        retval = Tabs.gauges.putIfAbsent(name, gauge);
         if (retval == null) {
-          retval = new GaugeBase(name);
-          Tabs.gauges.put(name, (Gauge)retval);
+          retval = gauge;
         }
       }
     } else {
@@ -743,13 +718,7 @@ public class Tabs {
    * @return an iterator of all the gauges
    */
   public static Iterator getGaugeIterator() {
-    final ArrayList list = new ArrayList();
-    synchronized (Tabs.gauges) {
-      for (final Iterator it = Tabs.gauges.values().iterator(); it.hasNext(); list.add((Gauge)it.next())) {
-        ;
-      }
-    }
-    return list.iterator();
+    return new ArrayList<Gauge>(Tabs.gauges.values()).iterator();
   }
 
 
@@ -1033,17 +1002,23 @@ public class Tabs {
    * @param name The name of the state to return.
    * 
    * @return The state with the given name.
+   * 
+   * @throws IllegalArgumentException if the name of the state is null
    */
   public static State getState(final String name) {
-    State state = null;
-    synchronized (Tabs.states) {
-      state = (State)Tabs.states.get(name);
-      if (state == null) {
-        state = new State(name);
-        Tabs.states.put(name, state);
+    if (name == null) {
+      throw new IllegalArgumentException("State name is null");
+    }
+
+    State retval = Tabs.states.get(name);
+    if (retval == null) {
+      final State state = new State(name);
+      retval = Tabs.states.putIfAbsent(name, state);
+      if (retval == null) {
+        retval = state;
       }
     }
-    return state;
+    return retval;
   }
 
 
@@ -1071,11 +1046,7 @@ public class Tabs {
    * @return a detached iterator over the states.
    */
   public static Iterator getStateIterator() {
-    final ArrayList list = new ArrayList();
-    for (final Iterator it = Tabs.states.values().iterator(); it.hasNext(); list.add((State)it.next())) {
-      ;
-    }
-    return list.iterator();
+    return new ArrayList<State>(Tabs.states.values()).iterator();
   }
 
 
@@ -1088,13 +1059,10 @@ public class Tabs {
     final DataFrame retval = new DataFrame();
     //retval.setType( "States" );
 
-    synchronized (Tabs.states) {
-      for (final Iterator it = Tabs.states.entrySet().iterator(); it.hasNext();) {
-        final State stayt = (State)((Map.Entry)it.next()).getValue();
-        try {
-          retval.put(stayt.getName(), stayt.getValue());
-        } catch (final Exception ignore) {}
-      }
+    for (final State stayt : Tabs.states.values()) {
+      try {
+        retval.put(stayt.getName(), stayt.getValue());
+      } catch (final Exception ignore) {}
     }
 
     return retval;
@@ -1119,13 +1087,7 @@ public class Tabs {
    * @return an iterator over all the timers
    */
   public static Iterator getTimerIterator() {
-    final ArrayList list = new ArrayList();
-    synchronized (Tabs.masterTimers) {
-      for (final Iterator it = Tabs.masterTimers.values().iterator(); it.hasNext(); list.add((TimingMaster)it.next())) {
-        ;
-      }
-    }
-    return list.iterator();
+    return new ArrayList<TimingMaster>(Tabs.masterTimers.values()).iterator();
   }
 
 
@@ -1140,9 +1102,48 @@ public class Tabs {
    *         does not exist.
    */
   public static TimingMaster getTimerMaster(final String name) {
-    synchronized (Tabs.masterTimers) {
-      return (TimingMaster)Tabs.masterTimers.get(name);
+    if (name == null) {
+      return null;
     }
+
+    return Tabs.masterTimers.get(name);
+  }
+
+
+
+
+  /**
+   * @return the master timer with the given name, created if it does not
+   *         exist
+   */
+  private static TimingMaster getOrCreateTimerMaster(final String name) {
+    TimingMaster retval = Tabs.masterTimers.get(name);
+    if (retval == null) {
+      final TimingMaster master = new TimingMaster(name);
+      retval = Tabs.masterTimers.putIfAbsent(name, master);
+      if (retval == null) {
+        retval = master;
+      }
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return the ARM master with the given name, created if it does not exist
+   */
+  private static ArmMaster getArmMaster(final String name) {
+    ArmMaster retval = Tabs.armMasters.get(name);
+    if (retval == null) {
+      final ArmMaster master = new ArmMaster(name);
+      retval = Tabs.armMasters.putIfAbsent(name, master);
+      if (retval == null) {
+        retval = master;
+      }
+    }
+    return retval;
   }
 
 
@@ -1152,11 +1153,8 @@ public class Tabs {
     final DataFrame retval = new DataFrame();
     //retval.setType( "Timers" );
 
-    synchronized (Tabs.masterTimers) {
-      for (final Iterator it = Tabs.masterTimers.entrySet().iterator(); it.hasNext();) {
-        final TimingMaster timer = (TimingMaster)((Map.Entry)it.next()).getValue();
-        //TODO: retval.add( timer.toMessage() );
-      }
+    for (final TimingMaster timer : Tabs.masterTimers.values()) {
+      //TODO: retval.add( timer.toMessage() );
     }
     return retval;
   }
@@ -1243,7 +1241,8 @@ public class Tabs {
    * @param tag The name of the counter to increase.
    * @param value the amount to increase
    * 
-   * @return The final value of the counter after the operation.
+   * @return The amount added, as counters do not sum their value on an
+   *         increase; see {@link ConcurrentCounter}.
    */
   public static long increase(final String tag, final long value) {
     return Tabs.getCounter(tag).increase(value);
@@ -1261,7 +1260,7 @@ public class Tabs {
    * 
    * @param tag The name of the counter to increment.
    * 
-   * @return The final value of the counter after the operation.
+   * @return One, the amount added to the counter.
    */
   public static long increment(final String tag) {
     return Tabs.getCounter(tag).increment();
@@ -1514,9 +1513,11 @@ public class Tabs {
    * @return The removed counter.
    */
   public static Counter removeCounter(final String name) {
-    synchronized (Tabs.counters) {
-      return (Counter)Tabs.counters.remove(name);
+    if (name == null) {
+      return null;
     }
+
+    return Tabs.counters.remove(name);
   }
 
 
@@ -1534,9 +1535,7 @@ public class Tabs {
       return null;
     }
 
-    synchronized (Tabs.states) {
-      return (State)Tabs.states.remove(name);
-    }
+    return Tabs.states.remove(name);
   }
 
 
@@ -1558,12 +1557,7 @@ public class Tabs {
    * @return a counter containing the values of the counter prior to the reset.
    */
   public static Counter resetCounter(final String name) {
-    Counter retval = null;
-    synchronized (Tabs.counters) {
-      retval = Tabs.getCounter(name).reset();
-    }
-
-    return retval;
+    return Tabs.getCounter(name).reset();
   }
 
 
@@ -1588,9 +1582,7 @@ public class Tabs {
    * collection.
    */
   public static void resetTimers() {
-    synchronized (Tabs.masterTimers) {
-      Tabs.masterTimers.clear();
-    }
+    Tabs.masterTimers.clear();
   }
 
 
@@ -1677,25 +1669,17 @@ public class Tabs {
    * @param tag Grouping tag.
    * @param crid correlation identifier
    * 
-   * @return A transaction to collect ARM data.
+   * @return A transaction to collect ARM data, or one which does nothing if
+   *         ARM is disabled or the tag is null.
    */
   public static ArmTransaction startArm(final String tag, final String crid) {
     ArmTransaction retval = null;
-    if (Tabs.armEnabled) {
-      synchronized (Tabs.armMasters) {
-        // get an existing ARM master or create a new one
-        ArmMaster master = (ArmMaster)Tabs.armMasters.get(tag);
-        if (master == null) {
-          master = new ArmMaster(tag);
-          Tabs.armMasters.put(tag, master);
-        }
+    if (Tabs.armEnabled && tag != null) {
+      // have the master ARM return a transaction instance
+      retval = Tabs.getArmMaster(tag).createArm(tag, crid);
 
-        // have the master ARM return a transaction instance
-        retval = master.createArm(tag, crid);
-
-        //start the ARM transaction
-        retval.start();
-      }
+      //start the ARM transaction
+      retval.start();
     } else {
       // just return the do-nothing timer
       retval = Tabs.NULL_ARM;
@@ -1715,25 +1699,17 @@ public class Tabs {
    * @param tag The name of the timer instance to start.
    * 
    * @return The timer instance that should be stopped when the interval is 
-   *         completed.
+   *         completed, or one which does nothing if timing is disabled or
+   *         the tag is null.
    */
   public static Timer startTimer(final String tag) {
     Timer retval = null;
-    if (Tabs.timingEnabled) {
-      synchronized (Tabs.masterTimers) {
-        // get an existing master timer or create a new one
-        TimingMaster master = (TimingMaster)Tabs.masterTimers.get(tag);
-        if (master == null) {
-          master = new TimingMaster(tag);
-          Tabs.masterTimers.put(tag, master);
-        }
+    if (Tabs.timingEnabled && tag != null) {
+      // have the master timer return a timer instance
+      retval = Tabs.getOrCreateTimerMaster(tag).createTimer();
 
-        // have the master timer return a timer instance
-        retval = master.createTimer();
-
-        //start the timer instance
-        retval.start();
-      }
+      //start the timer instance
+      retval.start();
     } else {
       // just return the do-nothing timer
       retval = Tabs.NULL_TIMER;
@@ -28,6 +28,21 @@ public interface TimerMaster {
 
 
 
+  /**
+   * Record the time one timer ran.
+   *
+   * <p>By default the time is passed to {@link #increase(long)} in
+   * milliseconds.
+   *
+   * @param nanos the time the timer ran in nanoseconds
+   */
+  public default void record( final long nanos ) {
+    increase( nanos / 1000000 );
+  }
+
+
+
+
   public void start( Timer mon );
 
 
@@ -25,7 +25,10 @@ public final class TimingArm extends NullArm {
 
   volatile private long _startTime = 0;
   volatile private long _stopTime = 0;
+  /** The value of System.nanoTime() when last started */
+  volatile private long _startNanos = 0;
   volatile boolean _isRunningFlag = false;
+  /** Nanoseconds accrued by previous starts and stops */
   volatile long _accrued;
   final ArrayList<ArmTransaction> children = new ArrayList<ArmTransaction>();
 
@@ -156,7 +159,7 @@ public final class TimingArm extends NullArm {
 
   @Override
   public long getTotalTime() {
-    return _accrued + timeElapsedSinceLastStart();
+    return ( _accrued + timeElapsedSinceLastStart() ) / 1000000;
   }
 
 
@@ -191,7 +194,7 @@ public final class TimingArm extends NullArm {
    */
   public void increase( final long value ) {
     if ( _isRunningFlag ) {
-      _accrued += value;
+      _accrued += value * 1000000;
     }
   }
 
@@ -227,6 +230,7 @@ public final class TimingArm extends NullArm {
   public void start() {
     if ( !_isRunningFlag ) {
       _startTime = System.currentTimeMillis();
+      _startNanos = System.nanoTime();
       _isRunningFlag = true;
       if ( _master != null ) {
         _master.start( this );
@@ -277,9 +281,9 @@ public final class TimingArm extends NullArm {
   public long stop() {
     if ( _isRunningFlag ) {
       _stopTime = System.currentTimeMillis();
-      increase( timeElapsedSinceLastStart() );
+      _accrued += timeElapsedSinceLastStart();
       if ( _master != null ) {
-        _master.increase( _accrued );
+        _master.record( _accrued );
         _master.stop( this );
       }
       _isRunningFlag = false;
@@ -305,13 +309,13 @@ public final class TimingArm extends NullArm {
 
 
   /**
-   * Get a number of miliseconds since the last start.
+   * Get a number of nanoseconds since the last start.
    *
-   * @return the number of milliseconds since the last start.
+   * @return the number of nanoseconds since the last start.
    */
   private long timeElapsedSinceLastStart() {
     if ( _isRunningFlag ) {
-      return System.currentTimeMillis() - _startTime;
+      return System.nanoTime() - _startNanos;
     } else {
       return 0;
     }
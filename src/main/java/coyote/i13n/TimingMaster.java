@@ -15,6 +15,8 @@ import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import coyote.dataframe.DataFrame;
 
@@ -23,12 +25,18 @@ import coyote.dataframe.DataFrame;
  * The TimingMaster class models the master of all timers with a given name.
  *
  * <p>This class is used to summarize all the timers in its list.
+ *
+ * <p>Timers are measured in nanoseconds and recorded in a {@link Histogram},
+ * so the summary includes the 50th, 90th, 99th and 99.9th percentiles and
+ * handlers which run in under a millisecond are not reported as zero. Times
+ * are reported in milliseconds with fractions. Recording a timer and
+ * tracking the active timers do not lock.
  */
 public class TimingMaster implements TimerMaster {
   public static final String CLASS_TAG = "Timer";
 
   /** The number of global timers currently active. */
-  private static volatile long globalCounter;
+  private static final LongAdder globalCounter = new LongAdder();
 
   static private final String MILLISECONDS = "ms";
 
@@ -45,6 +53,16 @@ public class TimingMaster implements TimerMaster {
   static private final String AVG = "Avg";
   static private final String STANDARD_DEVIATION = "Std Dev";
 
+  static private final String P50 = "P50";
+  static private final String P90 = "P90";
+  static private final String P99 = "P99";
+  static private final String P999 = "P99.9";
+
+  /** The percentiles reported, in the order of the names above */
+  static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+  static private final double NANOS_PER_MILLI = 1000000D;
+
   static private final String ACTIVE = "Active";
   static private final String AVGACTIVE = "Avg Active";
   static private final String MAXACTIVE = "Max Active";
@@ -68,6 +86,22 @@ public class TimingMaster implements TimerMaster {
     return numberFormat.format( value );
   }
 
+
+
+
+  /**
+   * Convert a number of nanoseconds to a String of milliseconds
+   *
+   * @param nanos the nanoseconds to convert
+   *
+   * @return the milliseconds to three decimal places
+   */
+  static String convertToMillis( final double nanos ) {
+    final DecimalFormat numberFormat = (DecimalFormat)NumberFormat.getNumberInstance();
+    numberFormat.applyPattern( "#,##0.###" );
+    return numberFormat.format( nanos / NANOS_PER_MILLI );
+  }
+
   /** The name of this master set of timers. */
   String _name = null;
   /** Flag indicating we are currently running; the start() has been called */
@@ -75,25 +109,20 @@ public class TimingMaster implements TimerMaster {
   /** Flag indicating if this timer is enabled */
   private volatile boolean _enabled = true;
   /** The number of timers currently active. */
-  private volatile long activeCounter;
-  /** Flag indicating whether or not to store the first accessed time */
-  private boolean isFirstAccess = true;
-  /** Epoch time in milliseconds when this timer was first accessed */
-  private long firstAccessTime;
+  private final AtomicLong activeCounter = new AtomicLong();
+  /** Epoch time in milliseconds when this timer was first accessed, 0 until then */
+  private final AtomicLong firstAccessTime = new AtomicLong();
   /** Epoch time in milliseconds when this timer was last accessed */
-  private long lastAccessTime;
-  private long maxActive = 0;
+  private volatile long lastAccessTime;
+  private final AtomicLong maxActive = new AtomicLong();
 
   // -
 
-  private long totalActive = 0;
-  long accrued;
-  private long min = Long.MAX_VALUE;
-  private long max = Long.MIN_VALUE;
-  private int hits;
-  private long total;
+  private final LongAdder totalActive = new LongAdder();
+  private final LongAdder hits = new LongAdder();
 
-  private long sumOfSquares;
+  /** The times of all the stopped timers in nanoseconds */
+  private final Histogram histogram = new Histogram();
 
 
 
@@ -136,7 +165,7 @@ public class TimingMaster implements TimerMaster {
     Timer retval;
     if ( _enabled ) {
       retval = new TimingTimer( this );
-      hits++;
+      hits.increment();
     } else {
       retval = new NullTimer( this );
     }
@@ -151,24 +180,7 @@ public class TimingMaster implements TimerMaster {
    * @return  Returns the accrued datum for all stopped timers.
    */
   public long getAccrued() {
-    return accrued;
-  }
-
-
-
-
-  /**
-   * @return the average time for all stopped timers for this master list.
-   */
-  private long getAverage() {
-    // we can only average the total number of closures not just the hits
-    final long closures = ( hits - activeCounter );
-
-    if ( closures == 0 ) {
-      return 0;
-    } else {
-      return total / closures;
-    }
+    return histogram.getTotal() / 1000000;
   }
 
 
@@ -178,10 +190,11 @@ public class TimingMaster implements TimerMaster {
    * @return the average number of active for the life of this master list.
    */
   private final float getAvgActive() {
-    if ( hits == 0 ) {
+    final long count = hits.sum();
+    if ( count == 0 ) {
       return 0;
     } else {
-      return (float)totalActive / hits;
+      return (float)totalActive.sum() / count;
     }
   }
 
@@ -195,7 +208,7 @@ public class TimingMaster implements TimerMaster {
    *         master timer.
    */
   public long getCurrentActive() {
-    return activeCounter;
+    return activeCounter.get();
   }
 
 
@@ -246,7 +259,7 @@ public class TimingMaster implements TimerMaster {
    *         master timers.
    */
   public long getGloballyActive() {
-    return TimingMaster.globalCounter;
+    return TimingMaster.globalCounter.sum();
   }
 
 
@@ -264,23 +277,10 @@ public class TimingMaster implements TimerMaster {
 
 
   /**
-   * Access the current standard deviation for all stopped timers using the
-   * Sum of Squares algorithm.
-   *
-   * @return The amount of one standard deviation of all the interval times.
+   * @return the histogram of the times of all stopped timers in nanoseconds
    */
-  private long getStandardDeviation() {
-    long stdDeviation = 0;
-    if ( hits > 1 ) {
-      final long sumOfX = total;
-      final int n = hits;
-      final int nMinus1 = ( n <= 1 ) ? 1 : n - 1; // avoid 0 divides;
-
-      final long numerator = sumOfSquares - ( ( sumOfX * sumOfX ) / n );
-      stdDeviation = (long)java.lang.Math.sqrt( numerator / nMinus1 );
-    }
-
-    return stdDeviation;
+  public Histogram getHistogram() {
+    return histogram;
   }
 
 
@@ -295,24 +295,19 @@ public class TimingMaster implements TimerMaster {
    * @param value the amount to increase the accrued value.
    */
   @Override
-  public synchronized void increase( final long value ) {
-    // calculate min
-    if ( value < min ) {
-      min = value;
-    }
+  public void increase( final long value ) {
+    histogram.record( value * 1000000 );
+  }
 
-    // calculate max
-    if ( value > max ) {
-      max = value;
-    }
 
-    // total _accrued value
-    accrued += value;
 
-    // calculate total i.e. sumofX's
-    total += value;
 
-    sumOfSquares += value * value;
+  /**
+   * @see coyote.i13n.TimerMaster#record(long)
+   */
+  @Override
+  public void record( final long nanos ) {
+    histogram.record( nanos );
   }
 
 
@@ -321,7 +316,7 @@ public class TimingMaster implements TimerMaster {
   /**
    * @return True if the timer set is enabled, false otherwise.
    */
-  public synchronized boolean isEnabled() {
+  public boolean isEnabled() {
     return _enabled;
   }
 
@@ -334,11 +329,14 @@ public class TimingMaster implements TimerMaster {
    * <p>The effect of this is to reset this objects variables to the state they
    * were in when the object was first created.
    */
-  synchronized protected void resetThis() {
-    min = Long.MAX_VALUE;
-    max = Long.MIN_VALUE;
-    total = accrued = sumOfSquares = maxActive = totalActive = hits = 0;
-    firstAccessTime = lastAccessTime = System.currentTimeMillis();
+  protected void resetThis() {
+    histogram.reset();
+    maxActive.set( 0 );
+    totalActive.reset();
+    hits.reset();
+    final long now = System.currentTimeMillis();
+    firstAccessTime.set( now );
+    lastAccessTime = now;
   }
 
 
@@ -349,7 +347,7 @@ public class TimingMaster implements TimerMaster {
    *
    * @param flag True to enable the timer, false to keep it from processing.
    */
-  public synchronized void setEnabled( final boolean flag ) {
+  public void setEnabled( final boolean flag ) {
     _enabled = flag;
   }
 
@@ -364,23 +362,18 @@ public class TimingMaster implements TimerMaster {
    * @see coyote.i13n.TimerMaster#start(coyote.i13n.Timer)
    */
   @Override
-  public synchronized void start( final Timer timr ) {
-    activeCounter++;
-    TimingMaster.globalCounter++;
+  public void start( final Timer timr ) {
+    final long active = activeCounter.incrementAndGet();
+    TimingMaster.globalCounter.increment();
 
-    if ( activeCounter > maxActive ) {
-      maxActive = activeCounter;
-    }
+    Histogram.raise( maxActive, active );
 
-    totalActive += activeCounter;
+    totalActive.add( active );
 
     final long now = System.currentTimeMillis();
     lastAccessTime = now;
 
-    if ( isFirstAccess ) {
-      isFirstAccess = false;
-      firstAccessTime = now;
-    }
+    firstAccessTime.compareAndSet( 0, now );
   }
 
 
@@ -394,10 +387,9 @@ public class TimingMaster implements TimerMaster {
    * @see coyote.i13n.TimerMaster#stop(coyote.i13n.Timer)
    */
   @Override
-  public synchronized void stop( final Timer mon ) {
-    activeCounter--;
-    TimingMaster.globalCounter--;
-    accrued += mon.getAccrued();
+  public void stop( final Timer mon ) {
+    activeCounter.decrementAndGet();
+    TimingMaster.globalCounter.decrement();
   }
 
 
@@ -412,19 +404,24 @@ public class TimingMaster implements TimerMaster {
   public String toString() {
     final StringBuffer message = new StringBuffer( _name );
     message.append( ": " );
-    message.append( getDisplayString( TimingMaster.HITS, convertToString( hits ), TimingMaster.NONE ) );
-
-    if ( ( hits - activeCounter ) > 0 ) {
-      message.append( getDisplayString( TimingMaster.AVG, convertToString( getAverage() ), TimingMaster.MILLISECONDS ) );
-      message.append( getDisplayString( TimingMaster.TOTAL, convertToString( total ), TimingMaster.MILLISECONDS ) );
-      message.append( getDisplayString( TimingMaster.STANDARD_DEVIATION, convertToString( getStandardDeviation() ), TimingMaster.MILLISECONDS ) );
-      message.append( getDisplayString( TimingMaster.MIN, convertToString( min ), TimingMaster.MILLISECONDS ) );
-      message.append( getDisplayString( TimingMaster.MAX, convertToString( max ), TimingMaster.MILLISECONDS ) );
+    message.append( getDisplayString( TimingMaster.HITS, convertToString( hits.sum() ), TimingMaster.NONE ) );
+
+    if ( histogram.getCount() > 0 ) {
+      final long[] percentiles = histogram.getValuesAtPercentiles( PERCENTILES );
+      message.append( getDisplayString( TimingMaster.AVG, convertToMillis( histogram.getMean() ), TimingMaster.MILLISECONDS ) );
+      message.append( getDisplayString( TimingMaster.TOTAL, convertToMillis( histogram.getTotal() ), TimingMaster.MILLISECONDS ) );
+      message.append( getDisplayString( TimingMaster.STANDARD_DEVIATION, convertToMillis( histogram.getStandardDeviation() ), TimingMaster.MILLISECONDS ) );
+      message.append( getDisplayString( TimingMaster.MIN, convertToMillis( histogram.getMin() ), TimingMaster.MILLISECONDS ) );
+      message.append( getDisplayString( TimingMaster.MAX, convertToMillis( histogram.getMax() ), TimingMaster.MILLISECONDS ) );
+      message.append( getDisplayString( TimingMaster.P50, convertToMillis( percentiles[0] ), TimingMaster.MILLISECONDS ) );
+      message.append( getDisplayString( TimingMaster.P90, convertToMillis( percentiles[1] ), TimingMaster.MILLISECONDS ) );
+      message.append( getDisplayString( TimingMaster.P99, convertToMillis( percentiles[2] ), TimingMaster.MILLISECONDS ) );
+      message.append( getDisplayString( TimingMaster.P999, convertToMillis( percentiles[3] ), TimingMaster.MILLISECONDS ) );
     }
-    message.append( getDisplayString( TimingMaster.ACTIVE, convertToString( activeCounter ), TimingMaster.NONE ) );
-    message.append( getDisplayString( TimingMaster.MAXACTIVE, convertToString( maxActive ), TimingMaster.NONE ) );
+    message.append( getDisplayString( TimingMaster.ACTIVE, convertToString( activeCounter.get() ), TimingMaster.NONE ) );
+    message.append( getDisplayString( TimingMaster.MAXACTIVE, convertToString( maxActive.get() ), TimingMaster.NONE ) );
     message.append( getDisplayString( TimingMaster.AVGACTIVE, TimingMaster.convertToString( getAvgActive() ), TimingMaster.NONE ) );
-    message.append( getDisplayString( TimingMaster.FIRSTACCESS, getDateString( firstAccessTime ), TimingMaster.NONE ) );
+    message.append( getDisplayString( TimingMaster.FIRSTACCESS, getDateString( firstAccessTime.get() ), TimingMaster.NONE ) );
     message.append( getDisplayString( TimingMaster.LASTACCESS, getDateString( lastAccessTime ), TimingMaster.NONE ) );
 
     return message.toString();
@@ -433,19 +430,27 @@ public class TimingMaster implements TimerMaster {
 
 
 
-  public synchronized DataFrame toFrame() {
+  /**
+   * @return the summary of this timer with all times in milliseconds
+   */
+  public DataFrame toFrame() {
+    final long[] percentiles = histogram.getValuesAtPercentiles( PERCENTILES );
     final DataFrame retval = new DataFrame();
     retval.put( NAME, _name );
-    retval.put( HITS, hits );
-    retval.put( AVG, getAverage() );
-    retval.put( TOTAL, total );
-    retval.put( STANDARD_DEVIATION, getStandardDeviation() );
-    retval.put( MIN, min );
-    retval.put( MAX, max );
-    retval.put( ACTIVE, activeCounter );
-    retval.put( MAXACTIVE, maxActive );
+    retval.put( HITS, (int)hits.sum() );
+    retval.put( AVG, histogram.getMean() / NANOS_PER_MILLI );
+    retval.put( TOTAL, histogram.getTotal() / NANOS_PER_MILLI );
+    retval.put( STANDARD_DEVIATION, histogram.getStandardDeviation() / NANOS_PER_MILLI );
+    retval.put( MIN, histogram.getMin() / NANOS_PER_MILLI );
+    retval.put( MAX, histogram.getMax() / NANOS_PER_MILLI );
+    retval.put( P50, percentiles[0] / NANOS_PER_MILLI );
+    retval.put( P90, percentiles[1] / NANOS_PER_MILLI );
+    retval.put( P99, percentiles[2] / NANOS_PER_MILLI );
+    retval.put( P999, percentiles[3] / NANOS_PER_MILLI );
+    retval.put( ACTIVE, activeCounter.get() );
+    retval.put( MAXACTIVE, maxActive.get() );
     retval.put( AVGACTIVE, getAvgActive() );
-    retval.put( FIRSTACCESS, new Date( firstAccessTime ) );
+    retval.put( FIRSTACCESS, new Date( firstAccessTime.get() ) );
     retval.put( LASTACCESS, new Date( lastAccessTime ) );
     return retval;
   }
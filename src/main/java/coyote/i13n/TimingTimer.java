@@ -14,10 +14,15 @@ package coyote.i13n;
 /**
  * The TimingTimer class models an actual working implementation of an
  * Timer as opposed to the NullTimer.
+ *
+ * <p>The timer measures with {@code System.nanoTime()} and reports the full
+ * resolution to its master when stopped.
  */
 public class TimingTimer extends TimerBase {
+  /** The value of System.nanoTime() when last started */
   volatile private long _startTime = 0;
 
+  /** Nanoseconds accrued by previous starts and stops */
   volatile long _accrued;
 
 
@@ -50,7 +55,7 @@ public class TimingTimer extends TimerBase {
    */
   @Override
   public long getAccrued() {
-    return _accrued + timeElapsedSinceLastStart();
+    return ( _accrued + timeElapsedSinceLastStart() ) / 1000000;
   }
 
 
@@ -66,7 +71,7 @@ public class TimingTimer extends TimerBase {
    */
   public void increase( final long value ) {
     if ( isRunning() ) {
-      _accrued += value;
+      _accrued += value * 1000000;
     }
   }
 
@@ -76,7 +81,7 @@ public class TimingTimer extends TimerBase {
   @Override
   public void start() {
     if ( !_isRunningFlag ) {
-      _startTime = System.currentTimeMillis();
+      _startTime = System.nanoTime();
       _isRunningFlag = true;
       _master.start( this );
     }
@@ -88,8 +93,8 @@ public class TimingTimer extends TimerBase {
   @Override
   public void stop() {
     if ( _isRunningFlag ) {
-      increase( timeElapsedSinceLastStart() );
-      _master.increase( _accrued );
+      _accrued += timeElapsedSinceLastStart();
+      _master.record( _accrued );
       _master.stop( this );
       _isRunningFlag = false;
     }
@@ -99,13 +104,13 @@ public class TimingTimer extends TimerBase {
 
 
   /**
-   * Get a number of milliseconds since the last start.
+   * Get a number of nanoseconds since the last start.
    *
-   * @return the number of milliseconds since the last start.
+   * @return the number of nanoseconds since the last start.
    */
   private long timeElapsedSinceLastStart() {
     if ( isRunning() ) {
-      return System.currentTimeMillis() - _startTime;
+      return System.nanoTime() - _startTime;
     } else {
       return 0;
     }
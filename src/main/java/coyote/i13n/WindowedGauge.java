@@ -0,0 +1,513 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.i13n;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import coyote.dataframe.DataFrame;
+
+
+/**
+ * A gauge which reports rates over sliding windows of recent time rather than
+ * over its entire life.
+ *
+ * <p>Time is divided into one-second buckets held in a ring long enough for
+ * the widest window, by default the last 1, 5 and 15 minutes. For each window
+ * the gauge reports both the average rate over exactly that many of the most
+ * recent complete seconds and an exponentially weighted moving average which
+ * decays with the same time constant, in the manner of system load averages.
+ *
+ * <p>Updating the gauge is a single add to a {@code LongAdder} after checking
+ * the clock. The ring only records the running total at the start of each
+ * second, so the bucket for any second is the difference between two marks
+ * and a window total is one subtraction. The marks and moving averages are
+ * advanced by the first update or read after a second ends, which is the only
+ * time a lock is taken, and an idle gauge costs nothing.
+ *
+ * <p>Because every update advances the ring before adding its value, all the
+ * values found when the ring is advanced over several idle seconds were added
+ * in the first of them, and the rest are correctly empty. The only
+ * approximation is that values added by other threads at the very moment a
+ * second ends may be counted in the second just finished instead of the one
+ * just begun.
+ */
+public class WindowedGauge extends NullGauge {
+  public static final String VPS = "Vps";
+  public static final String LAST_VPS = "LastVps";
+  public static final String AVG_VPS = "AvgVps";
+  public static final String MAX_VPS = "MaxVps";
+  public static final String MIN_VPS = "MinVps";
+  public static final String EWMA = "Ewma";
+  public static final String ELAPSED = "Elapsed";
+  public static final String TOTAL = "Total";
+  public static final String NAME = "Name";
+
+  /** The default windows, in seconds: 1, 5 and 15 minutes */
+  public static final int[] DEFAULT_WINDOWS = { 60, 300, 900 };
+
+  private static final int MINUTE = 60;
+
+  /** The width of each window in seconds, smallest first */
+  private final int[] windows;
+
+  /** The weight given to each new second in the moving average of each window */
+  private final double[] alpha;
+
+  /** The running total at the start of each second, indexed by second modulo its length */
+  private final long[] marks;
+
+  /** The moving average of each window */
+  private final double[] averages;
+
+  private final LongAdder total = new LongAdder();
+
+  /** The time the next second begins, when the ring next has to be advanced */
+  private volatile long nextTick;
+
+  /** The number of complete seconds since the gauge was created or reset */
+  private long seconds;
+
+  /** The time the gauge was created or reset */
+  private long started;
+
+  private long lastvps;
+  private long maxvps;
+  private long minvps;
+
+
+
+
+  /**
+   * Create a gauge over the default 1, 5 and 15 minute windows.
+   *
+   * @param name name of the gauge
+   */
+  public WindowedGauge( final String name ) {
+    this( name, DEFAULT_WINDOWS );
+  }
+
+
+
+
+  /**
+   * Create a gauge over the given windows.
+   *
+   * @param name name of the gauge
+   * @param windows the width of each window in seconds
+   *
+   * @throws IllegalArgumentException if no windows are given or any window is
+   *         less than one second wide
+   */
+  public WindowedGauge( final String name, final int... windows ) {
+    super( name );
+    if ( windows == null || windows.length == 0 ) {
+      throw new IllegalArgumentException( "No windows given for gauge" );
+    }
+    this.windows = windows.clone();
+    Arrays.sort( this.windows );
+    if ( this.windows[0] < 1 ) {
+      throw new IllegalArgumentException( "Gauge window must be at least one second" );
+    }
+
+    alpha = new double[this.windows.length];
+    for ( int x = 0; x < alpha.length; x++ ) {
+      alpha[x] = 1 - Math.exp( -1D / this.windows[x] );
+    }
+    averages = new double[this.windows.length];
+
+    // one extra mark so the widest window has both its ends
+    marks = new long[Math.max( this.windows[this.windows.length - 1], MINUTE ) + 1];
+    clear( currentTime() );
+  }
+
+
+
+
+  /**
+   * @return the current time in milliseconds, which only ever moves forward
+   */
+  long currentTime() {
+    return System.nanoTime() / 1000000;
+  }
+
+
+
+
+  /**
+   * Return the gauge to its initial state. Callers must hold the lock on the
+   * marks.
+   */
+  private void clear( final long now ) {
+    Arrays.fill( marks, 0 );
+    Arrays.fill( averages, 0 );
+    seconds = 0;
+    started = now;
+    lastvps = 0;
+    maxvps = Long.MIN_VALUE;
+    minvps = Long.MAX_VALUE;
+    nextTick = now + 1000;
+  }
+
+
+
+
+  /**
+   * Advance the ring over any seconds which have ended.
+   *
+   * @param now the current time
+   */
+  private void tick( final long now ) {
+    if ( now < nextTick ) {
+      return;
+    }
+    synchronized( marks ) {
+      if ( now < nextTick ) {
+        return;
+      }
+      final long current = total.sum();
+      final long elapsed = ( ( now - nextTick ) / 1000 ) + 1;
+
+      // updates advance the ring before adding, so everything since the
+      // mark was added in the first second to end, not spread over them all
+      final long value = current - marks[(int)( seconds % marks.length )];
+      lastvps = elapsed > 1 ? 0 : value;
+      maxvps = Math.max( maxvps, value );
+      minvps = Math.min( minvps, elapsed > 1 ? 0 : value );
+      for ( int x = 0; x < averages.length; x++ ) {
+        averages[x] += alpha[x] * ( value - averages[x] );
+        if ( elapsed > 1 ) {
+          // the seconds after it were empty, so just decay
+          averages[x] *= Math.pow( 1 - alpha[x], elapsed - 1 );
+        }
+      }
+
+      // every second since then starts with the same running total
+      for ( long x = 1, limit = Math.min( elapsed, marks.length ); x <= limit; x++ ) {
+        marks[(int)( ( seconds + x ) % marks.length )] = current;
+      }
+      seconds += elapsed;
+      nextTick += elapsed * 1000;
+    }
+  }
+
+
+
+
+  /**
+   * @return the sum of the values in the given number of most recent complete
+   *         seconds. Callers must hold the lock on the marks.
+   */
+  private long windowTotal( final int width ) {
+    final long from = Math.max( 0, seconds - width );
+    return marks[(int)( seconds % marks.length )] - marks[(int)( from % marks.length )];
+  }
+
+
+
+
+  /**
+   * @return the average rate over the given number of seconds, or over the
+   *         life of the gauge if it is younger than that. Callers must hold
+   *         the lock on the marks.
+   */
+  private float windowRate( final int width ) {
+    final long span = Math.min( width, seconds );
+    return span > 0 ? (float)windowTotal( width ) / span : 0;
+  }
+
+
+
+
+  /**
+   * @return the width of each window in seconds, smallest first
+   */
+  public int[] getWindows() {
+    return windows.clone();
+  }
+
+
+
+
+  /**
+   * Return the average number of values per second over the given number of
+   * most recent complete seconds.
+   *
+   * <p>Until the gauge has run for that long, the average is taken over the
+   * seconds it has run.
+   *
+   * @param width the width of the window in seconds, no wider than the widest
+   *        window of this gauge
+   *
+   * @return the average values per second over the window
+   *
+   * @throws IllegalArgumentException if the window is wider than the ring
+   */
+  public float getWindowRate( final int width ) {
+    if ( width < 1 || width >= marks.length ) {
+      throw new IllegalArgumentException( "Window of " + width + " seconds is outside the range of gauge " + name );
+    }
+    tick( currentTime() );
+    synchronized( marks ) {
+      return windowRate( width );
+    }
+  }
+
+
+
+
+  /**
+   * Return the exponentially weighted moving average of the values per
+   * second for one of the windows of this gauge.
+   *
+   * <p>Like a load average, each second contributes to the average with a
+   * weight which decays by a factor of <i>e</i> over the width of the window.
+   *
+   * @param width the width of one of the windows of this gauge in seconds
+   *
+   * @return the moving average values per second
+   *
+   * @throws IllegalArgumentException if the gauge has no such window
+   */
+  public float getMovingAverage( final int width ) {
+    final int index = Arrays.binarySearch( windows, width );
+    if ( index < 0 ) {
+      throw new IllegalArgumentException( "Gauge " + name + " has no window of " + width + " seconds" );
+    }
+    tick( currentTime() );
+    synchronized( marks ) {
+      return (float)averages[index];
+    }
+  }
+
+
+
+
+  /**
+   * @return the average values per second over the life of the gauge
+   *
+   * @see coyote.i13n.Gauge#getAvgValuePerSecond()
+   */
+  @Override
+  public float getAvgValuePerSecond() {
+    final long now = currentTime();
+    synchronized( marks ) {
+      final long elapsed = now - started;
+      return elapsed > 0 ? ( (float)total.sum() / elapsed ) * 1000 : 0;
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Gauge#getElapsedSeconds()
+   */
+  @Override
+  public float getElapsedSeconds() {
+    final long now = currentTime();
+    synchronized( marks ) {
+      return (float)( now - started ) / 1000;
+    }
+  }
+
+
+
+
+  /**
+   * @return the sum of the values in the last complete second
+   *
+   * @see coyote.i13n.Gauge#getLastValuePerSecond()
+   */
+  @Override
+  public long getLastValuePerSecond() {
+    tick( currentTime() );
+    synchronized( marks ) {
+      return lastvps;
+    }
+  }
+
+
+
+
+  /**
+   * @return the highest sum of values in any complete second
+   *
+   * @see coyote.i13n.Gauge#getMaxValuePerSecond()
+   */
+  @Override
+  public long getMaxValuePerSecond() {
+    tick( currentTime() );
+    synchronized( marks ) {
+      return maxvps == Long.MIN_VALUE ? 0 : maxvps;
+    }
+  }
+
+
+
+
+  /**
+   * @return the sum of the values in the last 60 complete seconds
+   *
+   * @see coyote.i13n.Gauge#getMinuteTotal()
+   */
+  @Override
+  public long getMinuteTotal() {
+    tick( currentTime() );
+    synchronized( marks ) {
+      return windowTotal( MINUTE );
+    }
+  }
+
+
+
+
+  /**
+   * @return the lowest sum of values in any complete second, including those
+   *         in which nothing was added
+   *
+   * @see coyote.i13n.Gauge#getMinValuePerSecond()
+   */
+  @Override
+  public long getMinValuePerSecond() {
+    tick( currentTime() );
+    synchronized( marks ) {
+      return minvps == Long.MAX_VALUE ? 0 : minvps;
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Gauge#getTotal()
+   */
+  @Override
+  public long getTotal() {
+    return total.sum();
+  }
+
+
+
+
+  /**
+   * @return the values per second over the last minute, scaled to a minute
+   *         if the gauge has not run that long
+   *
+   * @see coyote.i13n.Gauge#getValuePerMinute()
+   */
+  @Override
+  public float getValuePerMinute() {
+    tick( currentTime() );
+    synchronized( marks ) {
+      return windowRate( MINUTE ) * MINUTE;
+    }
+  }
+
+
+
+
+  /**
+   * @return the average values per second over the smallest window
+   *
+   * @see coyote.i13n.Gauge#getValuePerSecond()
+   */
+  @Override
+  public float getValuePerSecond() {
+    tick( currentTime() );
+    synchronized( marks ) {
+      return windowRate( windows[0] );
+    }
+  }
+
+
+
+
+  /**
+   * Reset all the samples and averages, returning this gauge to the state of
+   * a new gauge.
+   *
+   * <p>Values added while the gauge is being reset may be lost.
+   */
+  @Override
+  public void reset() {
+    final long now = currentTime();
+    synchronized( marks ) {
+      total.reset();
+      clear( now );
+    }
+  }
+
+
+
+
+  /**
+   * Add the given value to the current second.
+   *
+   * <p>Unlike {@link GaugeBase#update(long)}, the value is counted in the
+   * second in which this is called, so a gauge updated once for each event
+   * and one updated with a batch of events once a second report the same
+   * rates.
+   *
+   * @see coyote.i13n.Gauge#update(long)
+   */
+  @Override
+  public void update( final long val ) {
+    tick( currentTime() );
+    total.add( val );
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Gauge#toFrame()
+   */
+  @Override
+  public DataFrame toFrame() {
+    final DataFrame retval = new DataFrame();
+    retval.put( NAME, name );
+    retval.put( AVG_VPS, getAvgValuePerSecond() );
+    retval.put( VPS, getValuePerSecond() );
+    retval.put( LAST_VPS, getLastValuePerSecond() );
+    retval.put( MAX_VPS, getMaxValuePerSecond() );
+    retval.put( MIN_VPS, getMinValuePerSecond() );
+    for ( int x = 0; x < windows.length; x++ ) {
+      retval.put( VPS + windows[x], getWindowRate( windows[x] ) );
+      retval.put( EWMA + windows[x], getMovingAverage( windows[x] ) );
+    }
+    retval.put( ELAPSED, getElapsedSeconds() );
+    retval.put( TOTAL, getTotal() );
+    return retval;
+  }
+
+
+
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder( "Gauge '" );
+    b.append( name );
+    b.append( "' - " );
+    b.append( getTotal() );
+    b.append( " total, " );
+    b.append( getLastValuePerSecond() );
+    b.append( " last second" );
+    for ( int x = 0; x < windows.length; x++ ) {
+      b.append( ", " );
+      b.append( getWindowRate( windows[x] ) );
+      b.append( '/' );
+      b.append( getMovingAverage( windows[x] ) );
+      b.append( " per second over " );
+      b.append( windows[x] );
+      b.append( 's' );
+    }
+    return b.toString();
+  }
+
+}
@@ -205,6 +205,40 @@ public class BlockingQueue {
 
 
 
+  /**
+   * Put object in queue only if there is room for it.
+   *
+   * <p>This never blocks which makes it suitable for callers which cannot
+   * afford to wait on consumers, such as network event loops, and would
+   * rather reject the work.</p>
+   *
+   * @param o Object to place in the queue
+   *
+   * @return true if the object was placed in the queue, false if the queue
+   *         was full
+   */
+  public boolean offer(Object o) {
+    synchronized (slots) {
+      if (size == capacity) {
+        return false;
+      }
+
+      slots[tail] = o;
+
+      if (++tail == capacity) {
+        tail = 0;
+      }
+
+      size++;
+
+      slots.notify();
+      return true;
+    }
+  }
+
+
+
+
   /**
    * Get object from queue.
    *
@@ -691,6 +691,44 @@ public class ThreadPool {
 
 
 
+  /**
+   * Place the job in the pool only if there is room for it in the job queue.
+   *
+   * <p>Unlike {@link #handle(ThreadJob)}, this never blocks waiting for the
+   * queue to drain, allowing the caller to immediately reject work when the
+   * pool is saturated.</p>
+   *
+   * <p>If the ThreadPool is not running when this method is called, then this
+   * method starts the pool running.</p>
+   *
+   * @param job A ThreadJob object to run.
+   *
+   * @return true if the job was placed in the queue, false if the queue was
+   *         full or the job was null.
+   */
+  public boolean offer(ThreadJob job) {
+    if (!isRunning()) {
+      start();
+    }
+
+    if (job == null) {
+      Log.warn("ThreadPool.offer() received a null job");
+      return false;
+    }
+
+    boolean retval = jobqueue.offer(job);
+    if (retval) {
+      // make sure we have the threads to handle it.
+      checkLoad();
+    } else {
+      Log.append(THREAD, "ThreadPool.offer(ThreadJob) JobQueue is Full - size:" + jobqueue.size() + " capacity:" + jobqueue.capacity() + " Workers=" + worker_set.size() + " (max=" + maximum_workers + ") idle workers=" + idle_set.size());
+    }
+    return retval;
+  }
+
+
+
+
   /**
    * Place a runnable object inside a ThreadJob and place the ThreadJob in the
    * pool.
@@ -760,6 +798,11 @@ public class ThreadPool {
       }
       current_thread = new Thread(this);
       current_thread.setName(name);
+      // count the worker now so checkLoad() does not create more than the
+      // maximum while this one is still starting
+      synchronized (worker_set) {
+        worker_set.add(this);
+      }
       current_thread.start();
       if (Log.isLogging(THREAD)) {
         Log.append(THREAD, "Thread worker '" + current_thread.getName() + "' has started.");
@@ -807,7 +850,9 @@ public class ThreadPool {
      */
     public void initialize() {
       super.initialize();
-      worker_set.add(this);
+      synchronized (worker_set) {
+        worker_set.add(this);
+      }
 
       if (Log.isLogging(THREAD)) {
         Log.append(THREAD, "[O] " + current_thread.getName() + " is initialized.");
@@ -216,4 +216,21 @@ public class IpAclTest {
     }
   }
 
+
+
+
+  @Test
+  public void testIpv6DeniedByDefault() throws Exception {
+    IpAcl acl = new IpAcl(IpAcl.ALLOW);
+    acl.add("0/0", true);
+    assertFalse(acl.allows(InetAddress.getByName("::1")));
+    assertFalse(acl.allows(InetAddress.getByName("2001:db8::1")));
+    assertTrue(acl.allows(InetAddress.getByName("127.0.0.1")));
+
+    // an explicit rule still admits them
+    acl.add(new IpNetwork(new IpAddress(InetAddress.getByName("2001:db8::")), new IpAddress(InetAddress.getByName("ffff:ffff::"))), true);
+    assertTrue(acl.allows(InetAddress.getByName("2001:db8::1")));
+    assertFalse(acl.allows(InetAddress.getByName("2001:db9::1")));
+  }
+
 }
\ No newline at end of file
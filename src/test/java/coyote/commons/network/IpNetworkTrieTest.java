@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+
+/**
+ * Tests matching addresses to the networks in the trie.
+ */
+public class IpNetworkTrieTest {
+
+  private static byte[] bytes(final String addr) throws Exception {
+    return InetAddress.getByName(addr).getAddress();
+  }
+
+
+
+
+  @Test
+  public void longestAndFirst() throws Exception {
+    final IpNetworkTrie<String> trie = new IpNetworkTrie<String>();
+    trie.put(new IpNetwork("192.168/16"), "wide");
+    trie.put(new IpNetwork("192.168.100/24"), "narrow");
+    trie.put(new IpNetwork("10.1.2.3/32"), "host");
+    assertEquals(3, trie.size());
+
+    assertEquals("narrow", trie.longest(bytes("192.168.100.23")));
+    assertEquals("wide", trie.first(bytes("192.168.100.23")));
+    assertEquals("wide", trie.longest(bytes("192.168.23.100")));
+    assertEquals("host", trie.longest(bytes("10.1.2.3")));
+    assertNull(trie.longest(bytes("10.1.2.4")));
+    assertNull(trie.first(bytes("172.17.0.1")));
+
+    // replacing a value keeps the position of the network
+    assertEquals("wide", trie.put(new IpNetwork("192.168.0.0/16"), "replaced"));
+    assertEquals("replaced", trie.first(bytes("192.168.100.23")));
+    assertEquals("replaced", trie.get(bytes("192.168.0.0"), 16));
+    assertNull(trie.get(bytes("192.168.0.0"), 17));
+    assertEquals(3, trie.size());
+  }
+
+
+
+
+  @Test
+  public void defaultRoute() throws Exception {
+    final IpNetworkTrie<String> trie = new IpNetworkTrie<String>();
+    trie.put(new IpNetwork("0/0"), "any");
+    assertEquals("any", trie.longest(bytes("8.8.8.8")));
+
+    // networks of one family do not match addresses of the other
+    assertNull(trie.longest(bytes("::1")));
+    assertNull(trie.longest(new byte[3]));
+  }
+
+
+
+
+  @Test
+  public void ipv6() throws Exception {
+    final IpNetworkTrie<String> trie = new IpNetworkTrie<String>();
+    trie.put(bytes("2001:db8::"), 32, "doc");
+    trie.put(bytes("2001:db8:1::"), 48, "site");
+    trie.put(bytes("::1"), 128, "loopback");
+
+    assertEquals("site", trie.longest(bytes("2001:db8:1::42")));
+    assertEquals("doc", trie.longest(bytes("2001:db8:2::42")));
+    assertEquals("loopback", trie.longest(bytes("::1")));
+    assertNull(trie.longest(bytes("2001:db9::1")));
+    assertNull(trie.longest(bytes("127.0.0.1")));
+  }
+
+
+
+
+  @Test
+  public void invalidNetworks() throws Exception {
+    final IpNetworkTrie<String> trie = new IpNetworkTrie<String>();
+    try {
+      trie.put(new IpNetwork("10.0.0.0", "255.0.255.0"), "holes");
+      fail("mask is not a prefix");
+    } catch (final IllegalArgumentException e) {}
+    try {
+      trie.put(bytes("10.0.0.0"), 33, "long");
+      fail("prefix is longer than the address");
+    } catch (final IllegalArgumentException e) {}
+    assertEquals(0, trie.size());
+  }
+
+
+
+
+  @Test
+  public void aclOrder() throws Exception {
+    final IpAcl acl = new IpAcl(IpAcl.DENY);
+    acl.add("192.168.100/24", false);
+    acl.add("192.168/16", true);
+    acl.add("192.168.100/24", true); // shadowed by the first rule
+    acl.add(new IpNetwork("10.0.0.0", "255.0.255.0"), true);
+
+    assertFalse(acl.allows(InetAddress.getByName("192.168.100.23")));
+    assertTrue(acl.allows(InetAddress.getByName("192.168.23.100")));
+    assertTrue(acl.allows(InetAddress.getByName("10.9.0.1")));
+    assertFalse(acl.allows(InetAddress.getByName("10.9.1.1")));
+    assertFalse(acl.allows(InetAddress.getByName("::1")));
+    assertEquals(4, acl.size());
+  }
+
+}
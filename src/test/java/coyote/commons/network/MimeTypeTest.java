@@ -12,6 +12,7 @@
 package coyote.commons.network;
 
 //import static org.junit.Assert.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -49,4 +50,21 @@ public class MimeTypeTest {
     assertFalse( MimeType.JSON.equals( MimeType.SOAP ) );
   }
 
+
+
+
+  @Test
+  public void testAddAndRemove() {
+    MimeType.add( "zzq", "application/x-first", true );
+    MimeType.add( "ZZQ", "application/x-second", false );
+    List<MimeType> types = MimeType.get( "file.ZzQ" );
+    assertEquals( 2, types.size() );
+    assertEquals( "application/x-first", types.get( 0 ).getType() );
+    assertEquals( "application/x-second", types.get( 1 ).getType() );
+
+    MimeType.remove( "zzq" );
+    assertEquals( "application/octet-stream", MimeType.get( "file.zzq" ).get( 0 ).getType() );
+    assertEquals( 1, MimeType.get( "file.zzq" ).size() );
+  }
+
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+
+/**
+ * Tests converting addresses to and from their packed form.
+ */
+public class PackedIpAddressTest {
+
+  @Test
+  public void ipv4() throws Exception {
+    final PackedIpAddress addr = PackedIpAddress.valueOf(InetAddress.getByName("192.168.1.200"));
+    assertFalse(addr.isIPv6());
+    assertEquals(0xC0A801C8, addr.getIPv4());
+    assertEquals("192.168.1.200", addr.toString());
+    assertEquals(new IpAddress("192.168.1.200").toString(), addr.toIpAddress().toString());
+    assertEquals(addr, PackedIpAddress.valueOf(new IpAddress("192.168.1.200")));
+    assertEquals(addr.hashCode(), PackedIpAddress.valueOf(0xC0A801C8).hashCode());
+    assertEquals(InetAddress.getByName("192.168.1.200"), addr.toInetAddress());
+  }
+
+
+
+
+  @Test
+  public void ipv6() throws Exception {
+    final InetAddress inet = InetAddress.getByName("2001:db8::ff00:42:8329");
+    final PackedIpAddress addr = PackedIpAddress.valueOf(inet);
+    assertTrue(addr.isIPv6());
+    assertEquals(0x20010DB800000000L, addr.getHigh());
+    assertEquals(0x0000FF0000428329L, addr.getLow());
+    assertArrayEquals(inet.getAddress(), addr.getBytes());
+    assertEquals(new IpAddress(inet).toString(), addr.toString());
+    assertEquals(addr, PackedIpAddress.valueOf(addr.toIpAddress()));
+    assertEquals(inet, addr.toInetAddress());
+
+    // the same bits in the other family are a different address
+    assertFalse(PackedIpAddress.valueOf(0, 1).equals(PackedIpAddress.valueOf(1)));
+  }
+
+
+
+
+  @Test
+  public void invalidLength() {
+    try {
+      PackedIpAddress.valueOf(new byte[6]);
+      fail("6 bytes is not an address");
+    } catch (final IllegalArgumentException e) {}
+  }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the masked comparisons of packed networks.
+ */
+public class PackedIpNetworkTest {
+
+  private static byte[] bytes(final String addr) throws Exception {
+    return InetAddress.getByName(addr).getAddress();
+  }
+
+
+
+
+  @Test
+  public void ipv4() throws Exception {
+    final PackedIpNetwork net = PackedIpNetwork.valueOf(new IpNetwork("192.168.100/24"));
+    assertEquals("192.168.100.0/24", net.toString());
+    assertEquals(24, net.getPrefixLength());
+    assertEquals("192.168.100.255", net.getBroadcastAddress().toString());
+
+    assertTrue(net.contains(bytes("192.168.100.23")));
+    assertFalse(net.contains(bytes("192.168.101.23")));
+    assertTrue(net.contains(new IpAddress("192.168.100.1")));
+    assertFalse(net.contains(bytes("::1")));
+    assertTrue(new PackedIpNetwork(PackedIpAddress.valueOf(bytes("10.1.2.3")), 0).contains(bytes("8.8.8.8")));
+
+    // masks which are not a prefix still work
+    final PackedIpNetwork holes = PackedIpNetwork.valueOf(new IpNetwork("10.0.0.0", "255.0.255.0"));
+    assertEquals(-1, holes.getPrefixLength());
+    assertTrue(holes.contains(bytes("10.9.0.1")));
+    assertFalse(holes.contains(bytes("10.9.1.1")));
+    assertTrue(holes.toIpNetwork().contains(new IpAddress("10.9.0.1")));
+  }
+
+
+
+
+  @Test
+  public void ipv6() throws Exception {
+    for (final int prefix : new int[]{0, 32, 64, 80, 128}) {
+      final PackedIpNetwork net = new PackedIpNetwork(PackedIpAddress.valueOf(bytes("2001:db8:1:2:3:4:5:6")), prefix);
+      assertEquals(prefix, net.getPrefixLength());
+      assertTrue(net.contains(bytes("2001:db8:1:2:3:4:5:6")));
+      assertFalse(net.contains(bytes("192.168.1.1")));
+    }
+    final PackedIpNetwork net = new PackedIpNetwork(PackedIpAddress.valueOf(bytes("2001:db8::")), 32);
+    assertTrue(net.contains(bytes("2001:db8:ffff::1")));
+    assertFalse(net.contains(bytes("2001:db9::1")));
+    assertEquals(net, PackedIpNetwork.valueOf(net.toIpNetwork()));
+  }
+
+}
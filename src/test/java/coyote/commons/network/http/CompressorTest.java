@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import coyote.commons.network.MimeType;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+
+
+/**
+ * Tests the compression of response bodies.
+ */
+public class CompressorTest {
+
+  private static final String TEXT;
+  static {
+    final StringBuilder b = new StringBuilder();
+    for (int x = 0; x < 100; x++) {
+      b.append("{\"id\":").append(x).append(",\"name\":\"item\"}");
+    }
+    TEXT = b.toString();
+  }
+
+
+
+
+  private static byte[] gunzip(final byte[] data) throws IOException {
+    final InputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int c;
+    while ((c = in.read()) != -1) {
+      out.write(c);
+    }
+    return out.toByteArray();
+  }
+
+
+
+
+  /**
+   * @return the raw response, header and body
+   */
+  private static String send(final Response response, final Compressor compressor) {
+    response.setCompressor(compressor);
+    response.setGzipEncoding(true);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    response.send(out);
+    return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+  }
+
+
+
+
+  @Test
+  public void compressAndCache() throws Exception {
+    final StatBoard stats = new StatBoardImpl();
+    final Compressor compressor = new Compressor(9, 100, Compressor.DEFAULT_CACHE_SIZE, stats);
+    final byte[] data = TEXT.getBytes(StandardCharsets.UTF_8);
+
+    final byte[] first = compressor.compress(data);
+    assertArrayEquals(data, gunzip(first));
+    assertEquals(0, stats.getCounter(Compressor.CACHE_HITS).getValue());
+
+    // content seen once is not cached, so a second sight compresses again
+    final byte[] second = compressor.compress(TEXT.getBytes(StandardCharsets.UTF_8));
+    assertArrayEquals(first, second);
+    assertEquals(0, stats.getCounter(Compressor.CACHE_HITS).getValue());
+
+    // the same content, in a different array, now comes from the cache
+    final byte[] third = compressor.compress(TEXT.getBytes(StandardCharsets.UTF_8));
+    assertSame(second, third);
+    assertEquals(1, stats.getCounter(Compressor.CACHE_HITS).getValue());
+    assertEquals(3 * data.length, stats.getCounter(Compressor.BYTES_IN).getValue());
+    assertEquals(3 * (data.length - first.length), stats.getCounter(Compressor.BYTES_SAVED).getValue());
+    assertTrue(stats.getCounter(Compressor.CPU_TIME).getValue() >= 0);
+
+    assertFalse(compressor.shouldCompress(99));
+    assertTrue(compressor.shouldCompress(100));
+    assertTrue(compressor.shouldCompress(-1));
+    assertEquals(1, stats.getCounter(Compressor.SKIPPED).getValue());
+  }
+
+
+
+
+  @Test
+  public void fixedLengthResponse() throws Exception {
+    final Compressor compressor = new Compressor();
+    final String text = send(Response.createFixedLengthResponse(Status.OK, MimeType.JSON.getType(), TEXT), compressor);
+    final int split = text.indexOf("\r\n\r\n") + 4;
+    final String header = text.substring(0, split);
+    final byte[] body = text.substring(split).getBytes(StandardCharsets.ISO_8859_1);
+    assertTrue(header, header.contains("Content-Encoding: gzip\r\n"));
+    assertTrue(header, header.contains("Content-Length: " + body.length + "\r\n"));
+    assertFalse(header, header.contains("Transfer-Encoding"));
+    assertEquals(TEXT, new String(gunzip(body), StandardCharsets.UTF_8));
+  }
+
+
+
+
+  @Test
+  public void smallResponse() throws Exception {
+    final String text = send(Response.createFixedLengthResponse(Status.OK, MimeType.TEXT.getType(), "small"), new Compressor());
+    assertFalse(text, text.contains("Content-Encoding"));
+    assertTrue(text, text.endsWith("\r\n\r\nsmall"));
+  }
+
+
+
+
+  @Test
+  public void chunkedResponse() throws Exception {
+    final StatBoard stats = new StatBoardImpl();
+    final Response response = Response.createChunkedResponse(Status.OK, MimeType.TEXT.getType(), new ByteArrayInputStream(TEXT.getBytes(StandardCharsets.UTF_8)));
+    final String text = send(response, new Compressor(1, 0, 0, stats));
+    assertTrue(text, text.contains("Content-Encoding: gzip\r\n"));
+    assertTrue(text, text.contains("Transfer-Encoding: chunked\r\n"));
+    assertEquals(TEXT.length(), stats.getCounter(Compressor.BYTES_IN).getValue());
+    assertTrue(stats.getCounter(Compressor.BYTES_SAVED).getValue() > 0);
+  }
+
+
+
+
+  @Test
+  public void precompressedFile() throws Exception {
+    final File file = File.createTempFile("CompressorTest", ".json");
+    final File gz = new File(file.getPath() + ".gz");
+    try {
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(TEXT.getBytes(StandardCharsets.UTF_8));
+      out.close();
+      final GZIPOutputStream gzip = new GZIPOutputStream(new FileOutputStream(gz));
+      gzip.write(TEXT.getBytes(StandardCharsets.UTF_8));
+      gzip.close();
+      gz.setLastModified(file.lastModified() + 1000);
+
+      final MockSession session = new MockSession();
+      session.addRequestHeader("accept-encoding", "gzip");
+      Response response = FileResponse.create(session, file, MimeType.JSON.getType());
+      assertEquals(HTTP.GZIP, response.getHeader(HTTP.HDR_CONTENT_ENCODING));
+      assertEquals(MimeType.JSON.getType(), response.getMimeType());
+
+      // not for clients without gzip, nor when the sibling is stale
+      response = FileResponse.create(new MockSession(), file, MimeType.JSON.getType());
+      assertEquals(null, response.getHeader(HTTP.HDR_CONTENT_ENCODING));
+      gz.setLastModified(file.lastModified() - 10000);
+      response = FileResponse.create(session, file, MimeType.JSON.getType());
+      assertEquals(null, response.getHeader(HTTP.HDR_CONTENT_ENCODING));
+    } finally {
+      file.delete();
+      gz.delete();
+    }
+  }
+
+}
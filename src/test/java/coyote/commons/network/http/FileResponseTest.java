@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ * Tests the sending of files, whole and in ranges.
+ */
+public class FileResponseTest {
+
+  private static final byte[] CONTENT = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.US_ASCII);
+
+  private static File file = null;
+
+
+
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    file = File.createTempFile("FileResponseTest", ".bin");
+    final FileOutputStream out = new FileOutputStream(file);
+    out.write(CONTENT);
+    out.close();
+  }
+
+
+
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    file.delete();
+  }
+
+
+
+
+  private static Response create(final String range) throws IOException {
+    final MockSession session = new MockSession();
+    if (range != null) {
+      session.addRequestHeader("range", range);
+    }
+    return FileResponse.create(session, file, "application/octet-stream");
+  }
+
+
+
+
+  /**
+   * @return the body of the response, after the header
+   */
+  private static String send(final Response response) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    response.send(out);
+    final String text = new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    return text.substring(text.indexOf("\r\n\r\n") + 4);
+  }
+
+
+
+
+  @Test
+  public void parseRange() {
+    assertArrayEquals(new long[]{0, 9}, FileResponse.parseRange("bytes=0-9", 36));
+    assertArrayEquals(new long[]{10, 35}, FileResponse.parseRange("bytes=10-", 36));
+    assertArrayEquals(new long[]{30, 35}, FileResponse.parseRange("bytes=-6", 36));
+    assertArrayEquals(new long[]{0, 35}, FileResponse.parseRange("bytes=-100", 36));
+    assertArrayEquals(new long[]{20, 35}, FileResponse.parseRange("Bytes= 20 - 99", 36));
+    assertEquals(0, FileResponse.parseRange("bytes=36-", 36).length);
+    assertEquals(0, FileResponse.parseRange("bytes=-0", 36).length);
+    assertNull(FileResponse.parseRange("bytes=9-0", 36));
+    assertNull(FileResponse.parseRange("bytes=0-1,5-6", 36));
+    assertNull(FileResponse.parseRange("items=0-9", 36));
+    assertNull(FileResponse.parseRange("bytes=a-b", 36));
+    assertNull(FileResponse.parseRange("bytes=5", 36));
+  }
+
+
+
+
+  @Test
+  public void wholeFile() throws Exception {
+    final Response response = create(null);
+    assertEquals(Status.OK, response.getStatus());
+    assertEquals("bytes", response.getHeader(HTTP.HDR_ACCEPT_RANGES));
+    assertEquals(new String(CONTENT, StandardCharsets.US_ASCII), send(response));
+  }
+
+
+
+
+  @Test
+  public void partialContent() throws Exception {
+    final Response response = create("bytes=10-15");
+    assertEquals(Status.PARTIAL_CONTENT, response.getStatus());
+    assertEquals("bytes 10-15/36", response.getHeader(HTTP.HDR_CONTENT_RANGE));
+    response.setGzipEncoding(true);
+    assertEquals("abcdef", send(response));
+  }
+
+
+
+
+  @Test
+  public void notSatisfiable() throws Exception {
+    final Response response = create("bytes=100-");
+    assertEquals(Status.RANGE_NOT_SATISFIABLE, response.getStatus());
+    assertEquals("bytes */36", response.getHeader(HTTP.HDR_CONTENT_RANGE));
+    assertEquals("", send(response));
+  }
+
+
+
+
+  @Test
+  public void ignoredRange() throws Exception {
+    final MockSession session = new MockSession();
+    session.addRequestHeader("range", "bytes=10-15");
+    session.addRequestHeader("if-range", "\"some-etag\"");
+    final Response response = FileResponse.create(session, file, "application/octet-stream");
+    assertEquals(Status.OK, response.getStatus());
+    assertEquals(new String(CONTENT, StandardCharsets.US_ASCII), send(response));
+  }
+
+
+
+
+  @Test
+  public void transferToChannel() throws Exception {
+    final File target = File.createTempFile("FileResponseTest", ".out");
+    try {
+      final RandomAccessFile raf = new RandomAccessFile(target, "rw");
+      final FileChannel channel = raf.getChannel();
+      create("bytes=-10").send(new ChannelOutputStream(channel));
+      raf.close();
+
+      final byte[] data = java.nio.file.Files.readAllBytes(target.toPath());
+      final String text = new String(data, StandardCharsets.US_ASCII);
+      assertTrue(text, text.startsWith("HTTP/1.1 206 "));
+      assertTrue(text, text.contains("Content-Length: 10\r\n"));
+      assertTrue(text, text.endsWith("\r\n\r\nqrstuvwxyz"));
+    } finally {
+      target.delete();
+    }
+  }
+
+}
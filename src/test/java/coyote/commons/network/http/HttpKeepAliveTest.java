@@ -1,12 +1,19 @@
 package coyote.commons.network.http;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Test;
 
 
@@ -40,6 +47,64 @@ public class HttpKeepAliveTest extends HttpServerTest {
 
 
 
+  /**
+   * @return a session over the given requests whose responder never reads
+   *         the request body
+   */
+  private HTTPSessionImpl createPipelinedSession(final String requests, final ByteArrayOutputStream outputStream, final List<String> uris) {
+    final TestServer server = new TestServer() {
+      @Override
+      public Response serve(final HTTPSession session) {
+        uris.add(session.getMethod() + " " + session.getUri());
+        return Response.createFixedLengthResponse("ok");
+      }
+    };
+    return server.createSession(new DefaultCacheManager(), new ByteArrayInputStream(requests.getBytes()), outputStream);
+  }
+
+
+
+
+  @Test
+  public void testPipelinedRequestsWithUnreadBody() throws Exception {
+    final String requests = "PUT /first HTTP/1.1\r\nContent-Length: 12\r\n\r\nGET /ignored" + "GET /second HTTP/1.1\r\n\r\n";
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final List<String> uris = new ArrayList<String>();
+    final HTTPSessionImpl session = createPipelinedSession(requests, outputStream, uris);
+    session.execute();
+    session.execute();
+    assertEquals("[PUT /first, GET /second]", uris.toString());
+
+    final String output = outputStream.toString();
+    assertEquals(0, output.indexOf("HTTP/1.1 200 OK"));
+    assertTrue(output.indexOf("HTTP/1.1 200 OK", 1) > 0);
+    assertTrue(output.endsWith("\r\n\r\nok"));
+  }
+
+
+
+
+  @Test
+  public void testLargeUnreadBodyClosesConnection() throws Exception {
+    final StringBuilder body = new StringBuilder();
+    for (int i = 0; i < 70000; i++) {
+      body.append('x');
+    }
+    final String requests = "PUT /first HTTP/1.1\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    final HTTPSessionImpl session = createPipelinedSession(requests, outputStream, new ArrayList<String>());
+    try {
+      session.execute();
+      fail("connection should be closed");
+    } catch (final SocketException se) {
+      assertEquals("HTTPD Shutdown", se.getMessage());
+    }
+    assertTrue(outputStream.toString().contains("Connection: close"));
+  }
+
+
+
+
   /**
    * Issue the given request many times to check whether an error occurs. For
    * this test, a small stack size is used, since a stack overflow is among 
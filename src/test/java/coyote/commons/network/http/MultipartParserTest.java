@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+
+/**
+ * Tests the streaming multipart/form-data parser.
+ */
+public class MultipartParserTest {
+
+  private static final String BOUNDARY = "----XyZ123";
+
+  private static final ContentType TYPE = new ContentType("multipart/form-data; boundary=" + BOUNDARY);
+
+  private final CacheManager cacheManager = new DefaultCacheManager();
+
+  private final Map<String, String> parms = new HashMap<String, String>();
+
+  private final Body body = new Body();
+
+
+
+
+  @After
+  public void tearDown() throws Exception {
+    cacheManager.clear();
+  }
+
+
+
+
+  private static String field(final String name, final String value) {
+    return "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n";
+  }
+
+
+
+
+  private static String file(final String name, final String fileName, final String content) {
+    return "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName + "\"\r\nContent-Type: text/plain\r\n\r\n" + content + "\r\n";
+  }
+
+
+
+
+  private static String close() {
+    return "--" + BOUNDARY + "--\r\n";
+  }
+
+
+
+
+  /**
+   * @return a stream which returns at most a few bytes from each read, so
+   *         delimiters straddle the reads
+   */
+  private static InputStream trickle(final byte[] data) {
+    return new FilterInputStream(new ByteArrayInputStream(data)) {
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+  }
+
+
+
+
+  private void parse(final String text, final PartSink sink, final int maxParts, final long maxPartSize) throws Exception {
+    final byte[] data = text.getBytes(StandardCharsets.ISO_8859_1);
+    final MultipartParser parser = new MultipartParser(trickle(data), data.length, TYPE, cacheManager);
+    parser.setMaxParts(maxParts);
+    parser.setMaxPartSize(maxPartSize);
+    parser.parse(sink, parms, body);
+  }
+
+
+
+
+  private void parse(final String text) throws Exception {
+    parse(text, null, MultipartParser.DEFAULT_MAX_PARTS, MultipartParser.DEFAULT_MAX_PART_SIZE);
+  }
+
+
+
+
+  @Test
+  public void fieldsAndFiles() throws Exception {
+    final StringBuilder big = new StringBuilder();
+    for (int x = 0; x < 5000; x++) {
+      // near misses of the delimiter
+      big.append("\r\n--").append(BOUNDARY.substring(0, x % BOUNDARY.length())).append("|").append(x);
+    }
+    parse("preamble\r\n" + field("caption", "Summer vacation") + file("photo", "a.txt", big.toString()) + file("photo", "b.txt", "") + field("location", "Grand\r\nCanyon") + close() + "epilogue");
+
+    assertEquals("Summer vacation", parms.get("caption"));
+    assertEquals("Grand\r\nCanyon", parms.get("location"));
+    assertEquals("a.txt", parms.get("photo"));
+    assertEquals("b.txt", parms.get("photo1"));
+    assertEquals(big.toString(), body.getAsString("photo"));
+    assertEquals("text/plain", body.getEntityType("photo").getContentType());
+    assertEquals(0, ((File)body.get("photo1")).length());
+  }
+
+
+
+
+  @Test
+  public void sink() throws Exception {
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    final PartSink sink = new PartSink() {
+      @Override
+      public OutputStream open(final String name, final String fileName, final ContentType type) throws IOException {
+        return "photo".equals(name) ? received : null;
+      }
+    };
+    parse(file("photo", "a.txt", "sunset") + file("other", "b.txt", "sunrise") + close(), sink, 10, 100);
+
+    assertEquals("sunset", new String(received.toByteArray(), StandardCharsets.ISO_8859_1));
+    assertFalse(body.containsKey("photo"));
+    // later files are numbered, as they always have been
+    assertEquals("sunrise", body.getAsString("other1"));
+    assertEquals("a.txt", parms.get("photo"));
+  }
+
+
+
+
+  @Test
+  public void limits() throws Exception {
+    try {
+      parse(field("a", "1") + field("b", "2") + field("c", "3") + close(), null, 2, 100);
+      fail("too many parts");
+    } catch (final ResponseException e) {
+      assertEquals(Status.PAYLOAD_TOO_LARGE, e.getStatus());
+    }
+
+    try {
+      parse(file("photo", "a.txt", "0123456789") + close(), null, 10, 9);
+      fail("part too large");
+    } catch (final ResponseException e) {
+      assertEquals(Status.PAYLOAD_TOO_LARGE, e.getStatus());
+    }
+
+    parms.clear();
+    parse(file("photo", "a.txt", "0123456789") + close(), null, 1, 10);
+    assertTrue(body.containsKey("photo"));
+  }
+
+
+
+
+  @Test
+  public void malformed() throws Exception {
+    try {
+      parse("no boundary here");
+      fail("no boundary");
+    } catch (final ResponseException e) {
+      assertEquals(Status.BAD_REQUEST, e.getStatus());
+    }
+
+    try {
+      parse(field("a", "1") + "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"b\"\r\n\r\ntruncated");
+      fail("no closing boundary");
+    } catch (final ResponseException e) {
+      assertEquals(Status.BAD_REQUEST, e.getStatus());
+    }
+  }
+
+
+
+
+  @Test
+  public void readsOnlyTheBody() throws Exception {
+    final String content = field("a", "1") + close();
+    final byte[] data = (content + "GET / HTTP/1.1\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    final InputStream in = new ByteArrayInputStream(data);
+    new MultipartParser(in, content.length(), TYPE, cacheManager).parse(null, parms, body);
+    assertEquals("1", parms.get("a"));
+    assertEquals('G', in.read());
+  }
+
+}
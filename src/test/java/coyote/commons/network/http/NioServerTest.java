@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import coyote.commons.NetUtil;
+import coyote.commons.network.MimeType;
+
+
+/**
+ * Tests the NIO connection engine.
+ */
+public class NioServerTest {
+
+  private static HTTPD server = null;
+  private static int port = 54330;
+
+
+
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    port = NetUtil.getNextAvailablePort(port);
+    server = new HTTPD(port) {
+      @Override
+      public Response serve(final HTTPSession session) {
+        String body = "";
+        try {
+          final Body entities = session.parseBody();
+          if (entities.get("postData") != null) {
+            body = ":" + entities.get("postData");
+          }
+        } catch (final Exception e) {
+          body = ":" + e.getMessage();
+        }
+        return Response.createFixedLengthResponse(Status.OK, MimeType.TEXT.getType(), session.getMethod() + " " + session.getUri() + body);
+      }
+    };
+    server.setNioEnabled(true);
+    server.setSelectorThreads(1);
+    server.setWorkerThreads(2);
+    server.start(HTTPD.SOCKET_READ_TIMEOUT, true);
+  }
+
+
+
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    server.stop();
+  }
+
+
+
+
+  /**
+   * Read one response from the reader returning the body.
+   */
+  private static String readResponse(final BufferedReader reader) throws IOException {
+    final String status = reader.readLine();
+    assertNotNull(status);
+    assertTrue(status, status.startsWith("HTTP/1.1 200"));
+    int length = 0;
+    String line = reader.readLine();
+    while ((line != null) && !line.isEmpty()) {
+      if (line.toLowerCase().startsWith("content-length:")) {
+        length = Integer.parseInt(line.substring(15).trim());
+      }
+      line = reader.readLine();
+    }
+    final char[] body = new char[length];
+    int read = 0;
+    while (read < length) {
+      read += reader.read(body, read, length - read);
+    }
+    return new String(body);
+  }
+
+
+
+
+  @Test
+  public void keepAlive() throws Exception {
+    final Socket socket = new Socket("localhost", port);
+    try {
+      final OutputStream out = socket.getOutputStream();
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      for (int x = 0; x < 5; x++) {
+        out.write(("GET /keep/" + x + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+        out.flush();
+        assertEquals("GET /keep/" + x, readResponse(reader));
+      }
+    } finally {
+      socket.close();
+    }
+  }
+
+
+
+
+  @Test
+  public void postBody() throws Exception {
+    final Socket socket = new Socket("localhost", port);
+    try {
+      final OutputStream out = socket.getOutputStream();
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      final String data = "some raw data";
+      out.write(("POST /post HTTP/1.1\r\nContent-Type: text/plain\r\nContent-Length: " + data.length() + "\r\n\r\n").getBytes());
+      out.flush();
+      // send the body separately so the worker must read it from the socket
+      Thread.sleep(50);
+      out.write(data.getBytes());
+      out.flush();
+      assertEquals("POST /post:" + data, readResponse(reader));
+    } finally {
+      socket.close();
+    }
+  }
+
+
+
+
+  @Test
+  public void manyIdleConnections() throws Exception {
+    final List<Socket> sockets = new ArrayList<Socket>();
+    try {
+      // more connections than workers; idle connections must not hold workers
+      for (int x = 0; x < 20; x++) {
+        sockets.add(new Socket("localhost", port));
+      }
+      for (int x = 0; x < sockets.size(); x++) {
+        final Socket socket = sockets.get(x);
+        socket.getOutputStream().write(("GET /idle/" + x + " HTTP/1.1\r\n\r\n").getBytes());
+        socket.getOutputStream().flush();
+        assertEquals("GET /idle/" + x, readResponse(new BufferedReader(new InputStreamReader(socket.getInputStream()))));
+      }
+    } finally {
+      for (final Socket socket : sockets) {
+        socket.close();
+      }
+    }
+  }
+
+
+
+
+  @Test
+  public void overloadRejected() throws Exception {
+    final CountDownLatch serving = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final int busyPort = NetUtil.getNextAvailablePort(port + 1);
+    final HTTPD busy = new HTTPD(busyPort) {
+      @Override
+      public Response serve(final HTTPSession session) {
+        serving.countDown();
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+          // just answer
+        }
+        return Response.createFixedLengthResponse(Status.OK, MimeType.TEXT.getType(), session.getUri());
+      }
+    };
+    busy.setNioEnabled(true);
+    busy.setSelectorThreads(1);
+    busy.setWorkerThreads(1);
+    busy.setWorkerBacklog(1);
+    busy.start(HTTPD.SOCKET_READ_TIMEOUT, true);
+
+    final List<Socket> sockets = new ArrayList<Socket>();
+    try {
+      // one request occupies the worker and one waits for it
+      for (int x = 0; x < 2; x++) {
+        final Socket socket = new Socket("localhost", busyPort);
+        sockets.add(socket);
+        socket.getOutputStream().write(("GET /busy/" + x + " HTTP/1.1\r\n\r\n").getBytes());
+        socket.getOutputStream().flush();
+        assertTrue(serving.await(5, TimeUnit.SECONDS));
+      }
+      Thread.sleep(100);
+
+      // the next is turned away by the selector thread
+      final Socket rejected = new Socket("localhost", busyPort);
+      sockets.add(rejected);
+      rejected.getOutputStream().write("GET /busy/2 HTTP/1.1\r\n\r\n".getBytes());
+      rejected.getOutputStream().flush();
+      final String status = new BufferedReader(new InputStreamReader(rejected.getInputStream())).readLine();
+      assertNotNull(status);
+      assertTrue(status, status.startsWith("HTTP/1.1 503"));
+
+      release.countDown();
+      assertEquals("/busy/0", readResponse(new BufferedReader(new InputStreamReader(sockets.get(0).getInputStream()))));
+      assertEquals("/busy/1", readResponse(new BufferedReader(new InputStreamReader(sockets.get(1).getInputStream()))));
+    } finally {
+      release.countDown();
+      for (final Socket socket : sockets) {
+        socket.close();
+      }
+      busy.stop();
+    }
+  }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+
+
+/**
+ * Tests the pooled cache manager and its spill file.
+ */
+public class PooledCacheManagerFactoryTest {
+
+  private final StatBoard stats = new StatBoardImpl();
+
+  // 16 bytes in memory, 2 spill regions of 64 bytes
+  private final PooledCacheManagerFactory factory = new PooledCacheManagerFactory(16, 2, 64, 2, stats);
+
+
+
+
+  @After
+  public void tearDown() throws Exception {
+    factory.close();
+  }
+
+
+
+
+  private static byte[] data(final int length) {
+    final byte[] retval = new byte[length];
+    for (int x = 0; x < length; x++) {
+      retval[x] = (byte)x;
+    }
+    return retval;
+  }
+
+
+
+
+  private static CacheFile write(final CacheManager manager, final int length) throws Exception {
+    final CacheFile retval = manager.createCacheFile(null);
+    final OutputStream out = retval.open();
+    final byte[] data = data(length);
+    // in pieces, to cross from memory to disk part way through
+    out.write(data, 0, length / 2);
+    out.write(data, length / 2, length - length / 2);
+    return retval;
+  }
+
+
+
+
+  private static void assertContent(final int length, final ByteBuffer buffer) {
+    assertEquals(length, buffer.remaining());
+    final byte[] content = new byte[length];
+    buffer.get(content);
+    for (int x = 0; x < length; x++) {
+      assertEquals((byte)x, content[x]);
+    }
+  }
+
+
+
+
+  @Test
+  public void memory() throws Exception {
+    final CacheManager manager = factory.create();
+    final CacheFile file = write(manager, 16);
+    assertNull(file.getName());
+    assertTrue(file.getBuffer().isDirect());
+    assertContent(16, file.getBuffer());
+    assertEquals(0, stats.getCounter(PooledCacheManagerFactory.SPILLS).getValue());
+
+    // the buffer goes back to the pool
+    manager.clear();
+    assertEquals(1, factory.getPooledCount());
+    write(factory.create(), 8);
+    assertEquals(0, factory.getPooledCount());
+  }
+
+
+
+
+  @Test
+  public void spill() throws Exception {
+    final CacheManager manager = factory.create();
+    final CacheFile file = write(manager, 40);
+    assertNull(file.getName());
+    assertContent(40, file.getBuffer());
+    assertEquals(1, factory.getRegionsInUse());
+    assertEquals(1, factory.getPooledCount());
+    assertEquals(1, stats.getCounter(PooledCacheManagerFactory.SPILLS).getValue());
+    assertEquals(40, stats.getCounter(PooledCacheManagerFactory.SPILL_BYTES).getValue());
+
+    // a second and third large body, but only two regions
+    write(manager, 40);
+    final CacheFile third = write(manager, 40);
+    assertEquals(2, factory.getRegionsInUse());
+    final String name = third.getName();
+    assertNotNull(name);
+    assertContent(40, third.getBuffer());
+    assertEquals(1, stats.getCounter(PooledCacheManagerFactory.OVERFLOWS).getValue());
+
+    manager.clear();
+    assertEquals(0, factory.getRegionsInUse());
+    assertFalse(new File(name).exists());
+  }
+
+
+
+
+  @Test
+  public void overflow() throws Exception {
+    final CacheManager manager = factory.create();
+    final CacheFile file = write(manager, 100);
+    final String name = file.getName();
+    assertNotNull(name);
+    assertContent(100, file.getBuffer());
+    assertEquals(0, factory.getRegionsInUse());
+    assertEquals(100, stats.getCounter(PooledCacheManagerFactory.SPILL_BYTES).getValue());
+
+    manager.clear();
+    assertFalse(new File(name).exists());
+  }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import coyote.commons.NetUtil;
+import coyote.commons.network.MimeType;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+
+
+/**
+ * Tests the bounded worker pool executor.
+ */
+public class PooledExecutorTest {
+
+  private static HTTPD server = null;
+  private static int port = 54340;
+  private static final StatBoard stats = new StatBoardImpl();
+  private static PooledExecutor executor = null;
+
+
+
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    port = NetUtil.getNextAvailablePort(port);
+    server = new HTTPD(port) {
+      @Override
+      public Response serve(final HTTPSession session) {
+        return Response.createFixedLengthResponse(Status.OK, MimeType.TEXT.getType(), session.getUri());
+      }
+    };
+    // one worker and room for one more connection to wait for it
+    executor = new PooledExecutor("Test", 1, 1, stats);
+    server.setAsyncRunner(executor);
+    server.start(HTTPD.SOCKET_READ_TIMEOUT, true);
+  }
+
+
+
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    server.stop();
+  }
+
+
+
+
+  @Test
+  public void saturation() throws Exception {
+    final Socket first = new Socket("localhost", port);
+    Socket second = null;
+    Socket third = null;
+    try {
+      // the first (keep-alive) connection occupies the only worker
+      final OutputStream out = first.getOutputStream();
+      out.write("GET /first HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+      out.flush();
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(first.getInputStream()));
+      final String status = reader.readLine();
+      assertNotNull(status);
+      assertTrue(status, status.startsWith("HTTP/1.1 200"));
+
+      // the second connection waits in the backlog, the third is turned away
+      second = new Socket("localhost", port);
+      for (int x = 0; x < 100 && executor.getQueuedCount() < 1; x++) {
+        Thread.sleep(20);
+      }
+      assertEquals(1, executor.getQueuedCount());
+      third = new Socket("localhost", port);
+      final BufferedReader rejected = new BufferedReader(new InputStreamReader(third.getInputStream()));
+      final String busy = rejected.readLine();
+      assertNotNull(busy);
+      assertTrue(busy, busy.startsWith("HTTP/1.1 503"));
+
+      assertEquals(1, stats.getCounter("Test" + PooledExecutor.REJECTED).getValue());
+      assertEquals(2, stats.getCounter("Test" + PooledExecutor.HANDLED).getValue());
+    } finally {
+      first.close();
+      if (second != null) {
+        second.close();
+      }
+      if (third != null) {
+        third.close();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the byte-level request parser and the case-insensitive header map.
+ */
+public class RequestParserTest {
+
+  private final RequestParser parser = new RequestParser();
+  private final Map<String, String> headers = new HeaderMap();
+  private final Map<String, String> parms = new HashMap<String, String>();
+
+
+
+
+  private void parse(final String request) throws ResponseException {
+    final byte[] buf = request.getBytes(StandardCharsets.UTF_8);
+    final int end = RequestParser.findHeaderEnd(buf, 0, buf.length);
+    parser.parse(buf, end > 0 ? end : buf.length, headers, parms);
+  }
+
+
+
+
+  @Test
+  public void requestLine() throws Exception {
+    parse("GET /some%20path/file.html?name=Tin%20Tin&flag&x=a+b HTTP/1.0\r\nHost: localhost\r\n\r\nbody");
+    assertEquals(Method.GET, parser.method);
+    assertEquals("/some path/file.html", parser.uri);
+    assertEquals("HTTP/1.0", parser.protocolVersion);
+    assertEquals("name=Tin%20Tin&flag&x=a+b", parser.queryParameterString);
+    assertEquals("Tin Tin", parms.get("name"));
+    assertEquals("", parms.get("flag"));
+    assertEquals("a b", parms.get("x"));
+  }
+
+
+
+
+  @Test
+  public void headers() throws Exception {
+    parse("POST / HTTP/1.1\r\nContent-Type:  text/plain \r\nX-Custom-Header: Value\r\nNoColon\r\n\r\n");
+    assertEquals(Method.POST, parser.method);
+    assertEquals(2, headers.size());
+    assertTrue(headers.containsKey("content-type"));
+    assertEquals("text/plain", headers.get("Content-Type"));
+    assertEquals("Value", headers.get("x-custom-header"));
+    assertEquals("Value", headers.get("X-CUSTOM-HEADER"));
+
+    // well-known header names are interned
+    for (final String name : headers.keySet()) {
+      if (name.equals("content-type")) {
+        assertSame("content-type", name);
+      }
+    }
+  }
+
+
+
+
+  @Test
+  public void tolerantLineEndings() throws Exception {
+    parse("GET /lf HTTP/1.1\nHost: localhost\nAccept: */*\n\n");
+    assertEquals("/lf", parser.uri);
+    assertEquals("localhost", headers.get("host"));
+    assertEquals("*/*", headers.get("accept"));
+  }
+
+
+
+
+  @Test
+  public void unknownMethod() throws Exception {
+    parse("BREW /pot HTTP/1.1\r\n\r\n");
+    assertNull(parser.method);
+    assertEquals("BREW", parser.methodName);
+  }
+
+
+
+
+  @Test
+  public void missingUri() {
+    try {
+      parse("GET\r\n\r\n");
+      fail("should not parse");
+    } catch (final ResponseException e) {
+      assertEquals(Status.BAD_REQUEST, e.getStatus());
+    }
+  }
+
+
+
+
+  @Test
+  public void incrementalHeaderEnd() {
+    final byte[] buf = "GET / HTTP/1.1\r\nHost: x\r\n\r\n".getBytes();
+    // the terminator is split across two reads
+    assertEquals(0, RequestParser.findHeaderEnd(buf, 0, buf.length - 2));
+    assertEquals(buf.length, RequestParser.findHeaderEnd(buf, buf.length - 2, buf.length));
+  }
+
+
+
+
+  @Test
+  public void decodePercent() {
+    assertEquals("Chinese \u738b Letters", RequestParser.decodePercent("Chinese+%e7%8e%8b+Letters"));
+    assertEquals("100%", RequestParser.decodePercent("100%"));
+    assertEquals("%zz", RequestParser.decodePercent("%zz"));
+    final String plain = "nothing/to/decode";
+    assertSame(plain, RequestParser.decodePercent(plain));
+  }
+
+}
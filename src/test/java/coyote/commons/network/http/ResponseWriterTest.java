@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the buffering of responses on their way to the client.
+ */
+public class ResponseWriterTest {
+
+  /**
+   * Records each write made to it.
+   */
+  private static class CountingOutputStream extends ByteArrayOutputStream {
+    int writes = 0;
+
+
+
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) {
+      writes++;
+      super.write(b, off, len);
+    }
+  }
+
+
+
+
+  private static Response response(final int length) {
+    final byte[] body = new byte[length];
+    Arrays.fill(body, (byte)'x');
+    return Response.createFixedLengthResponse(Status.OK, "text/plain", new ByteArrayInputStream(body), length);
+  }
+
+
+
+
+  @Test
+  public void singleWrite() throws Exception {
+    final CountingOutputStream out = new CountingOutputStream();
+    final ResponseWriter writer = new ResponseWriter(out);
+    response(100).send(writer);
+    assertEquals(1, out.writes);
+
+    final String text = out.toString("US-ASCII");
+    assertTrue(text.startsWith("HTTP/1.1 200 OK \r\nContent-Type: text/plain\r\nDate: "));
+    assertTrue(text.contains("\r\nContent-Length: 100\r\n\r\nxxx"));
+    assertEquals(0, writer.size());
+
+    // the buffer is reused by the next response
+    out.reset();
+    out.writes = 0;
+    response(ResponseWriter.INLINE_BODY_LIMIT).send(writer);
+    assertEquals(1, out.writes);
+  }
+
+
+
+
+  @Test
+  public void largeBody() throws Exception {
+    final CountingOutputStream out = new CountingOutputStream();
+    response(ResponseWriter.INLINE_BODY_LIMIT + 1).send(new ResponseWriter(out));
+    assertTrue(out.writes > 1);
+    final String text = out.toString("US-ASCII");
+    assertEquals(ResponseWriter.INLINE_BODY_LIMIT + 1, text.length() - text.indexOf("\r\n\r\n") - 4);
+  }
+
+
+
+
+  @Test
+  public void encoding() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ResponseWriter writer = new ResponseWriter(out);
+    writer.writeStatusLine(Status.OK, "text/plain; charset=UTF-8");
+    writer.writeHeader("X-Name", "café");
+    writer.endHeader();
+    writer.flush();
+    assertEquals("HTTP/1.1 200 OK \r\nX-Name: café\r\n\r\n", out.toString("UTF-8"));
+  }
+
+
+
+
+  @Test
+  public void date() {
+    assertTrue(ResponseWriter.getDate().matches("\\w{3}, \\d{1,2} \\w{3} \\d{4} \\d\\d:\\d\\d:\\d\\d GMT"));
+  }
+
+}
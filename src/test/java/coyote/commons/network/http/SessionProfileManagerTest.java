@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the session profile manager.
+ */
+public class SessionProfileManagerTest {
+
+  private File file = null;
+
+  private File original = null;
+
+
+
+
+  @Before
+  public void setUp() throws Exception {
+    original = SessionProfileManager.getSessionFile();
+    file = File.createTempFile("SessionProfileManagerTest", ".sessions");
+    file.delete();
+    SessionProfileManager.setSessionFile(file);
+  }
+
+
+
+
+  @After
+  public void tearDown() throws Exception {
+    SessionProfileManager.setSessionFile(original);
+    SessionProfileManager.setMaxProfiles(SessionProfileManager.DEFAULT_MAX_PROFILES);
+    file.delete();
+  }
+
+
+
+
+  /**
+   * @return a session with the given session cookie, or none if null
+   */
+  private static HTTPSession session(final String token) {
+    final HashMap<String, String> headers = new HashMap<String, String>();
+    if (token != null) {
+      headers.put("cookie", "CL-Session-Id=" + token);
+    }
+    final CookieHandler cookies = new CookieHandler(headers);
+    return new MockSession() {
+      @Override
+      public CookieHandler getCookies() {
+        return cookies;
+      }
+    };
+  }
+
+
+
+
+  @Test
+  public void retrieve() throws Exception {
+    final SessionProfile created = SessionProfileManager.retrieveOrCreateProfile(session(null));
+    assertNotNull(created);
+    assertSame(created, SessionProfileManager.retrieveOrCreateProfile(session(created.getIdentifier())));
+    assertNull(SessionProfileManager.retrieveOrCreateProfile(null));
+  }
+
+
+
+
+  @Test
+  public void expiry() throws Exception {
+    final SessionProfile profile = SessionProfileManager.retrieveOrCreateProfile(session("EXPIRY"));
+    profile.setExpiry(System.currentTimeMillis() - 1);
+    final int count = SessionProfileManager.getProfileCount();
+    SessionProfileManager.purgeExpiredProfiles();
+    assertEquals(count - 1, SessionProfileManager.getProfileCount());
+
+    // an extended expiry keeps the profile
+    final SessionProfile extended = SessionProfileManager.retrieveOrCreateProfile(session("EXPIRY"));
+    assertNotSame(profile, extended);
+    extended.setExpiry(System.currentTimeMillis() + 50);
+    extended.setExpiry(System.currentTimeMillis() + 60000);
+    Thread.sleep(100);
+    SessionProfileManager.purgeExpiredProfiles();
+    assertSame(extended, SessionProfileManager.retrieveOrCreateProfile(session("EXPIRY")));
+  }
+
+
+
+
+  @Test
+  public void maxProfiles() throws Exception {
+    final int count = SessionProfileManager.getProfileCount();
+    SessionProfileManager.setMaxProfiles(count + 2);
+    final SessionProfile first = SessionProfileManager.retrieveOrCreateProfile(session("MAX1"));
+    first.setExpiry(System.currentTimeMillis() + 5000);
+    SessionProfileManager.retrieveOrCreateProfile(session("MAX2"));
+    SessionProfileManager.retrieveOrCreateProfile(session("MAX3"));
+    assertEquals(count + 2, SessionProfileManager.getProfileCount());
+
+    // the profile closest to expiring was evicted
+    assertNotSame(first, SessionProfileManager.retrieveOrCreateProfile(session("MAX1")));
+  }
+
+
+
+
+  @Test
+  public void saveAndLoad() throws Exception {
+    final SessionProfile kept = SessionProfileManager.retrieveOrCreateProfile(session("SAVE1"));
+    kept.set("user", "alice");
+    SessionProfileManager.retrieveOrCreateProfile(session("SAVE2")).set("user", "bob");
+    SessionProfileManager.save();
+    final long size = file.length();
+
+    // only the changes are appended
+    kept.set("user", "carol");
+    SessionProfileManager.destroyProfile(session("SAVE2"));
+    SessionProfileManager.save();
+    assertTrue(file.length() > size);
+    assertTrue(file.length() < 2 * size);
+
+    SessionProfileManager.load();
+    assertEquals("carol", SessionProfileManager.retrieveOrCreateProfile(session("SAVE1")).get("user"));
+    assertNull(SessionProfileManager.retrieveOrCreateProfile(session("SAVE2")).get("user"));
+  }
+
+
+
+
+  @Test
+  public void loadSerializedMap() throws Exception {
+    final HashMap<String, SessionProfile> map = new HashMap<String, SessionProfile>();
+    final SessionProfile profile = new SessionProfile("LEGACY");
+    profile.set("user", "dave");
+    map.put(profile.getIdentifier(), profile);
+    final ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+    out.writeObject(map);
+    out.close();
+
+    SessionProfileManager.load();
+    assertEquals(1, SessionProfileManager.getProfileCount());
+    assertEquals("dave", SessionProfileManager.retrieveOrCreateProfile(session("LEGACY")).get("user"));
+
+    // rewritten in the journal format
+    SessionProfileManager.save();
+    SessionProfileManager.load();
+    assertEquals("dave", SessionProfileManager.retrieveOrCreateProfile(session("LEGACY")).get("user"));
+  }
+
+}
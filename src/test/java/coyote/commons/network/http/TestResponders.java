@@ -26,6 +26,23 @@ public class TestResponders {
   private static Thread serverStartThread;
 
 
+  /**
+   * A responder written against the stream hook which preceded fileToResponse().
+   */
+  private static class LegacyResponder extends StaticPageResponder {
+    @Override
+    @SuppressWarnings("deprecation")
+    protected BufferedInputStream fileToInputStream(final File fileOrdirectory) throws IOException {
+      return new BufferedInputStream(new ByteArrayInputStream("legacy".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+
+    Response serve(final File file) throws IOException {
+      return fileToResponse(new MockSession(), file);
+    }
+  }
+
+
   public static void main(final String[] args) {
     {
       final String uri = "def";
@@ -391,6 +408,16 @@ public class TestResponders {
   }
 
 
+  @Test
+  public void testLegacyFileStream() throws Exception {
+    final File file = File.createTempFile("legacy", ".txt");
+    file.deleteOnExit();
+    final Response response = new LegacyResponder().serve(file);
+    assertFalse(response instanceof FileResponse);
+    assertEquals("legacy", new BufferedReader(new InputStreamReader(response.getData(), StandardCharsets.US_ASCII)).readLine());
+  }
+
+
   @Test
   public void testResourceMatch() {
     final Resource resource = new Resource("browse", 100, null, null, "init");
@@ -1,6 +1,5 @@
 package coyote.commons.network.http;
 
-import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
@@ -22,11 +21,11 @@ public class TestRouter extends HTTPDRouter {
   public static class StaticPageTestResponder extends StaticPageResponder {
 
     @Override
-    protected BufferedInputStream fileToInputStream( final File fileOrdirectory ) throws IOException {
-      if ( "exception.html".equals( fileOrdirectory.getName() ) ) {
+    protected Response fileToResponse( final HTTPSession session, final File file ) throws IOException {
+      if ( "exception.html".equals( file.getName() ) ) {
         throw new IOException( "trigger something wrong" );
       }
-      return super.fileToInputStream( fileOrdirectory );
+      return super.fileToResponse( session, file );
     }
   }
 
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import coyote.commons.NetUtil;
+import coyote.commons.network.MimeType;
+
+
+/**
+ * Tests the virtual thread executor, or its pooled fallback on runtimes
+ * without virtual threads.
+ */
+public class VirtualThreadExecutorTest {
+
+  private static HTTPD server = null;
+  private static VirtualThreadExecutor executor = null;
+  private static int port = 54350;
+
+
+
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    port = NetUtil.getNextAvailablePort(port);
+    server = new HTTPD(port) {
+      @Override
+      public Response serve(final HTTPSession session) {
+        return Response.createFixedLengthResponse(Status.OK, MimeType.TEXT.getType(), session.getUri());
+      }
+    };
+    executor = new VirtualThreadExecutor("Test", 8, 32, null);
+    server.setAsyncRunner(executor);
+    server.start(HTTPD.SOCKET_READ_TIMEOUT, true);
+  }
+
+
+
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    server.stop();
+  }
+
+
+
+
+  @Test
+  public void mode() {
+    assertEquals(VirtualThreadExecutor.isSupported(), executor.isVirtual());
+  }
+
+
+
+
+  @Test
+  public void concurrentConnections() throws Exception {
+    final List<Socket> sockets = new ArrayList<Socket>();
+    try {
+      for (int x = 0; x < 5; x++) {
+        final Socket socket = new Socket("localhost", port);
+        sockets.add(socket);
+        socket.getOutputStream().write(("GET /conn/" + x + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+        socket.getOutputStream().flush();
+        final String status = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+        assertNotNull(status);
+        assertTrue(status, status.startsWith("HTTP/1.1 200"));
+      }
+      // all the keep-alive connections are still being handled
+      assertEquals(5, executor.getActiveCount());
+    } finally {
+      for (final Socket socket : sockets) {
+        socket.close();
+      }
+    }
+  }
+
+}
@@ -30,6 +30,8 @@ import coyote.commons.ByteUtil;
 import coyote.commons.network.http.HTTP;
 import coyote.commons.network.http.MockSession;
 import coyote.commons.network.http.TestHttpClient;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
 import coyote.loader.cfg.Config;
 import coyote.loader.cfg.ConfigurationException;
 
@@ -298,4 +300,102 @@ public class GenericAuthProviderTest {
     
   }
 
+
+
+
+  @Test
+  public void testCredentialCache() throws Exception {
+    GenericAuthProvider provider = new GenericAuthProvider();
+    StatBoard stats = new StatBoardImpl();
+    provider.setStatBoard( stats );
+
+    // users added after construction are indexed on the next lookup
+    GenericAuthProvider.User admin = provider.new User();
+    admin.setName( "admin" );
+    admin.setPassword( provider.digest( "secret".getBytes( UTF8 ) ) );
+    admin.addGroup( "sysop" );
+    admin.addGroup( "devop" );
+    provider.userList.add( admin );
+
+    String basicAuth = TestHttpClient.calculateHeaderData( "admin", "secret" );
+    for ( int x = 0; x < 3; x++ ) {
+      MockSession session = new MockSession();
+      session.addRequestHeader( HTTP.HDR_AUTHORIZATION.toLowerCase(), basicAuth );
+      assertTrue( provider.isAuthenticated( session ) );
+      assertEquals( "admin", session.getUserName() );
+      assertTrue( provider.isAuthorized( session, "nobody, devop" ) );
+    }
+    assertEquals( 1, stats.getCounter( GenericAuthProvider.CACHE_MISSES ).getValue() );
+    assertEquals( 2, stats.getCounter( GenericAuthProvider.CACHE_HITS ).getValue() );
+    assertEquals( 1, provider.getCacheSize() );
+
+    // failures are not remembered
+    MockSession session = new MockSession();
+    session.addRequestHeader( HTTP.HDR_AUTHORIZATION.toLowerCase(), TestHttpClient.calculateHeaderData( "admin", "wrong" ) );
+    assertFalse( provider.isAuthenticated( session ) );
+    assertEquals( 1, provider.getCacheSize() );
+
+    provider.clearCache();
+    assertEquals( 0, provider.getCacheSize() );
+  }
+
+
+
+
+  @Test
+  public void testCacheForgetsChangedUsers() throws Exception {
+    GenericAuthProvider provider = new GenericAuthProvider();
+    GenericAuthProvider.User admin = provider.new User();
+    admin.setName( "admin" );
+    admin.setPassword( provider.digest( "secret".getBytes( UTF8 ) ) );
+    provider.userList.add( admin );
+
+    String basicAuth = TestHttpClient.calculateHeaderData( "admin", "secret" );
+    MockSession session = new MockSession();
+    session.addRequestHeader( HTTP.HDR_AUTHORIZATION.toLowerCase(), basicAuth );
+    assertTrue( provider.isAuthenticated( session ) );
+    assertEquals( 1, provider.getCacheSize() );
+
+    // replacing the user keeps the list the same size
+    GenericAuthProvider.User replacement = provider.new User();
+    replacement.setName( "admin" );
+    replacement.setPassword( provider.digest( "changed".getBytes( UTF8 ) ) );
+    provider.userList.set( 0, replacement );
+
+    session = new MockSession();
+    session.addRequestHeader( HTTP.HDR_AUTHORIZATION.toLowerCase(), basicAuth );
+    assertFalse( provider.isAuthenticated( session ) );
+    assertEquals( 0, provider.getCacheSize() );
+
+    basicAuth = TestHttpClient.calculateHeaderData( "admin", "changed" );
+    session = new MockSession();
+    session.addRequestHeader( HTTP.HDR_AUTHORIZATION.toLowerCase(), basicAuth );
+    assertTrue( provider.isAuthenticated( session ) );
+    assertEquals( 1, provider.getCacheSize() );
+
+    // changing the password of a cached user
+    replacement.setPassword( provider.digest( "again".getBytes( UTF8 ) ) );
+    session = new MockSession();
+    session.addRequestHeader( HTTP.HDR_AUTHORIZATION.toLowerCase(), basicAuth );
+    assertFalse( provider.isAuthenticated( session ) );
+
+    // removing the user
+    basicAuth = TestHttpClient.calculateHeaderData( "admin", "again" );
+    session = new MockSession();
+    session.addRequestHeader( HTTP.HDR_AUTHORIZATION.toLowerCase(), basicAuth );
+    assertTrue( provider.isAuthenticated( session ) );
+    provider.userList.remove( replacement );
+    session = new MockSession();
+    session.addRequestHeader( HTTP.HDR_AUTHORIZATION.toLowerCase(), basicAuth );
+    assertFalse( provider.isAuthenticated( session ) );
+  }
+
+
+
+
+  @Test
+  public void testFixedDigestRounds() {
+    assertEquals( new GenericAuthProvider().getDigestRounds(), new GenericAuthProvider().getDigestRounds() );
+  }
+
 }
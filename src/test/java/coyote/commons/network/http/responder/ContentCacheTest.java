@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.responder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import coyote.commons.network.http.HTTP;
+import coyote.commons.network.http.MockSession;
+import coyote.commons.network.http.Response;
+import coyote.commons.network.http.Status;
+
+
+/**
+ * Tests the static content cache.
+ */
+public class ContentCacheTest {
+
+  private static final String TEXT = "<html><body>Hello Hello Hello Hello Hello Hello Hello Hello</body></html>";
+
+  private final ContentCache cache = new ContentCache(ContentCache.DEFAULT_MAX_BYTES);
+
+  private File file = null;
+
+
+
+
+  @Before
+  public void setUp() throws Exception {
+    file = File.createTempFile("ContentCacheTest", ".html");
+    write(file, TEXT);
+  }
+
+
+
+
+  @After
+  public void tearDown() throws Exception {
+    file.delete();
+  }
+
+
+
+
+  private static void write(final File target, final String text) throws IOException {
+    final FileOutputStream out = new FileOutputStream(target);
+    out.write(text.getBytes(StandardCharsets.UTF_8));
+    out.close();
+  }
+
+
+
+
+  private static String read(InputStream in, final boolean gzip) throws IOException {
+    if (gzip) {
+      in = new GZIPInputStream(in);
+    }
+    final StringBuilder b = new StringBuilder();
+    int c;
+    while ((c = in.read()) != -1) {
+      b.append((char)c);
+    }
+    return b.toString();
+  }
+
+
+
+
+  @Test
+  public void fileEntry() throws Exception {
+    final Response response = cache.getFile(new MockSession(), file);
+    assertEquals(Status.OK, response.getStatus());
+    assertEquals("text/html", response.getMimeType());
+    assertNotNull(response.getHeader(HTTP.HDR_ETAG));
+    assertNotNull(response.getHeader(HTTP.HDR_LAST_MODIFIED));
+    assertNull(response.getHeader(HTTP.HDR_CONTENT_ENCODING));
+    assertEquals(TEXT, read(response.getData(), false));
+    assertEquals(1, cache.getEntryCount());
+
+    // compressed variant
+    final MockSession session = new MockSession();
+    session.addRequestHeader("accept-encoding", "gzip, deflate");
+    final Response gzipped = cache.getFile(session, file);
+    assertEquals(HTTP.GZIP, gzipped.getHeader(HTTP.HDR_CONTENT_ENCODING));
+    assertEquals(TEXT, read(gzipped.getData(), true));
+    assertEquals(1, cache.getEntryCount());
+
+    // each variant has its own tag and both vary by encoding
+    final String etag = response.getHeader(HTTP.HDR_ETAG);
+    assertEquals(etag.substring(0, etag.length() - 1) + "-gz\"", gzipped.getHeader(HTTP.HDR_ETAG));
+    assertEquals(HTTP.HDR_ACCEPT_ENCODING, response.getHeader(HTTP.HDR_VARY));
+    assertEquals(HTTP.HDR_ACCEPT_ENCODING, gzipped.getHeader(HTTP.HDR_VARY));
+  }
+
+
+
+
+  @Test
+  public void notModifiedVariants() throws Exception {
+    final String etag = cache.getFile(new MockSession(), file).getHeader(HTTP.HDR_ETAG);
+    MockSession session = new MockSession();
+    session.addRequestHeader("accept-encoding", "gzip");
+    final String gzipEtag = cache.getFile(session, file).getHeader(HTTP.HDR_ETAG);
+
+    // the 304 names the variant the client holds
+    session = new MockSession();
+    session.addRequestHeader("accept-encoding", "gzip");
+    session.addRequestHeader("if-none-match", gzipEtag);
+    Response response = cache.getFile(session, file);
+    assertEquals(Status.NOT_MODIFIED, response.getStatus());
+    assertEquals(gzipEtag, response.getHeader(HTTP.HDR_ETAG));
+
+    session = new MockSession();
+    session.addRequestHeader("accept-encoding", "gzip");
+    session.addRequestHeader("if-none-match", etag);
+    response = cache.getFile(session, file);
+    assertEquals(Status.NOT_MODIFIED, response.getStatus());
+    assertEquals(etag, response.getHeader(HTTP.HDR_ETAG));
+
+    session = new MockSession();
+    session.addRequestHeader("if-none-match", "W/" + gzipEtag);
+    assertEquals(Status.NOT_MODIFIED, cache.getFile(session, file).getStatus());
+  }
+
+
+
+
+  @Test
+  public void notModified() throws Exception {
+    final Response response = cache.getFile(new MockSession(), file);
+    final String etag = response.getHeader(HTTP.HDR_ETAG);
+
+    MockSession session = new MockSession();
+    session.addRequestHeader("if-none-match", "\"other\", " + etag);
+    assertEquals(Status.NOT_MODIFIED, cache.getFile(session, file).getStatus());
+
+    session = new MockSession();
+    session.addRequestHeader("if-none-match", "\"other\"");
+    assertEquals(Status.OK, cache.getFile(session, file).getStatus());
+
+    session = new MockSession();
+    session.addRequestHeader("if-modified-since", response.getHeader(HTTP.HDR_LAST_MODIFIED));
+    assertEquals(Status.NOT_MODIFIED, cache.getFile(session, file).getStatus());
+
+    session = new MockSession();
+    session.addRequestHeader("if-modified-since", "Thu, 1 Jan 1970 00:00:00 GMT");
+    assertEquals(Status.OK, cache.getFile(session, file).getStatus());
+  }
+
+
+
+
+  @Test
+  public void invalidation() throws Exception {
+    final String etag = cache.getFile(new MockSession(), file).getHeader(HTTP.HDR_ETAG);
+    write(file, "changed");
+    file.setLastModified(file.lastModified() + 2000);
+    final Response response = cache.getFile(new MockSession(), file);
+    assertTrue(!etag.equals(response.getHeader(HTTP.HDR_ETAG)));
+    assertEquals("changed", read(response.getData(), false));
+    assertEquals(1, cache.getEntryCount());
+  }
+
+
+
+
+  @Test
+  public void limits() throws Exception {
+    // ranges are not served from the cache
+    final MockSession session = new MockSession();
+    session.addRequestHeader("range", "bytes=0-1");
+    assertNull(cache.getFile(session, file));
+
+    cache.setMaxEntrySize(10);
+    assertNull(cache.getFile(new MockSession(), file));
+    assertEquals(0, cache.getEntryCount());
+
+    cache.setMaxEntrySize(ContentCache.DEFAULT_MAX_ENTRY_SIZE);
+    assertNotNull(cache.getFile(new MockSession(), file));
+    final File other = File.createTempFile("ContentCacheTest", ".txt");
+    try {
+      write(other, "other");
+      assertNotNull(cache.getFile(new MockSession(), other));
+      assertEquals(2, cache.getEntryCount());
+
+      // only room for the most recently used entry
+      cache.setMaxBytes(cache.getSize() - 1);
+      assertEquals(1, cache.getEntryCount());
+      assertEquals(5, cache.getSize());
+    } finally {
+      other.delete();
+    }
+  }
+
+
+
+
+  @Test
+  public void classpathEntry() throws Exception {
+    final ClassLoader loader = getClass().getClassLoader();
+    final Response response = cache.getResource(new MockSession(), loader, "content.html");
+    assertEquals(Status.OK, response.getStatus());
+    assertEquals("text/html", response.getMimeType());
+    assertEquals(1, cache.getEntryCount());
+    cache.getResource(new MockSession(), loader, "content.html");
+    assertEquals(1, cache.getEntryCount());
+    assertNull(cache.getResource(new MockSession(), loader, "no/such/resource.html"));
+
+    // each loader has its own entries
+    final URLClassLoader other = new URLClassLoader(new URL[0], loader);
+    try {
+      assertNotNull(cache.getResource(new MockSession(), other, "content.html"));
+      assertEquals(2, cache.getEntryCount());
+    } finally {
+      other.close();
+    }
+  }
+
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.responder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import coyote.commons.network.MimeType;
+import coyote.commons.network.http.HTTPSession;
+import coyote.commons.network.http.Method;
+import coyote.commons.network.http.MockSession;
+import coyote.commons.network.http.Response;
+import coyote.commons.network.http.Status;
+
+
+/**
+ * Tests the dispatching of requests to responders.
+ */
+public class ResourceTest {
+
+  private static int instances = 0;
+
+  private static final HTTPSession GET = new MockSession() {
+    @Override
+    public Method getMethod() {
+      return Method.GET;
+    }
+  };
+
+  private static final HTTPSession PATCH = new MockSession() {
+    @Override
+    public Method getMethod() {
+      return Method.PATCH;
+    }
+  };
+
+  public static class CountingResponder extends DefaultStreamResponder {
+    public CountingResponder() {
+      instances++;
+    }
+
+
+
+
+    @Override
+    public Response get(final Resource resource, final Map<String, String> urlParams, final HTTPSession session) {
+      return Response.createFixedLengthResponse(Status.OK, MimeType.TEXT.getType(), "get");
+    }
+
+
+
+
+    @Override
+    public Response other(final String method, final Resource resource, final Map<String, String> urlParams, final HTTPSession session) {
+      return Response.createFixedLengthResponse(Status.OK, MimeType.TEXT.getType(), method);
+    }
+
+
+
+
+    @Override
+    public java.io.InputStream getData() {
+      return null;
+    }
+
+
+
+
+    @Override
+    public String getMimeType() {
+      return MimeType.TEXT.getType();
+    }
+
+
+
+
+    @Override
+    public Status getStatus() {
+      return Status.OK;
+    }
+  }
+
+  @Singleton
+  public static class SharedResponder extends CountingResponder {}
+
+
+
+
+  @Test
+  public void perRequestInstances() throws Exception {
+    final Resource resource = new Resource("/count", 100, CountingResponder.class, null);
+    assertFalse(resource.isSingleton());
+    final int start = instances;
+    assertEquals(Status.OK, resource.process(new HashMap<String, String>(), GET).getStatus());
+    assertEquals(Status.OK, resource.process(new HashMap<String, String>(), PATCH).getStatus());
+    assertEquals(start + 2, instances);
+  }
+
+
+
+
+  @Test
+  public void singletonInstance() throws Exception {
+    final int start = instances;
+    final Resource resource = new Resource("/shared", 100, SharedResponder.class, null);
+    assertTrue(resource.isSingleton());
+    assertEquals(start + 1, instances);
+    resource.process(new HashMap<String, String>(), GET);
+    resource.process(new HashMap<String, String>(), PATCH);
+    assertEquals(start + 1, instances);
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.responder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the route index against the linear, regular expression search it
+ * replaces.
+ */
+public class RouteIndexTest {
+
+  private static final String[] ROUTES = {"/", "/index.html", "user/help", "user/:id", "user/:id/:action", "user/:id/profile", "files/.*", "static/(.)+", "api/v[0-9]+/status", "api/:version/items/:item", "(.)+", "docs/:page/.*", "a/b/c/d/e"};
+
+  private static final String[] REQUESTS = {"", "index.html", "user/help", "user/42", "user/42/edit", "user/42/profile", "user/4/2/profile", "user", "files", "files/", "files/a/b.txt", "static", "static/x", "api/v2/status", "api/vX/status", "api/v2/items/9", "docs/intro", "docs/intro/section/1", "a/b/c/d/e", "a/b/c/d", "nothing/here", "user/%zz", "user/a b"};
+
+
+
+
+  private static List<Resource> mappings(final String... routes) {
+    final List<Resource> retval = new ArrayList<Resource>();
+    for (final String route : routes) {
+      retval.add(new Resource(route, 100 + retval.size(), DefaultResponder.class, null));
+    }
+    Collections.sort(retval, new Comparator<Resource>() {
+      @Override
+      public int compare(final Resource o1, final Resource o2) {
+        return o1.priority - o2.priority;
+      }
+    });
+    return retval;
+  }
+
+
+
+
+  @Test
+  public void sameAsLinearSearch() {
+    assertSameAsLinearSearch(ROUTES);
+    // and without the catch-all route hiding the later ones
+    final List<String> routes = new ArrayList<String>();
+    for (final String route : ROUTES) {
+      if (!"(.)+".equals(route)) {
+        routes.add(route);
+      }
+    }
+    assertSameAsLinearSearch(routes.toArray(new String[routes.size()]));
+  }
+
+
+
+
+  private static void assertSameAsLinearSearch(final String[] routes) {
+    final List<Resource> mappings = mappings(routes);
+    final RouteIndex index = new RouteIndex(mappings);
+    for (final String request : REQUESTS) {
+      Resource expected = null;
+      Map<String, String> expectedParams = null;
+      for (final Resource resource : mappings) {
+        expectedParams = resource.match(request);
+        if (expectedParams != null) {
+          expected = resource;
+          break;
+        }
+      }
+
+      final RouteIndex.Match match = index.lookup(request);
+      if (expected == null) {
+        assertNull(request, match);
+      } else {
+        assertSame(request, expected, match.resource);
+        assertEquals(request, expectedParams, match.params);
+      }
+    }
+  }
+
+
+
+
+  @Test
+  public void priority() {
+    final List<Resource> mappings = mappings("user/:id", "user/help");
+    final RouteIndex.Match match = new RouteIndex(mappings).lookup("user/help");
+    // fewer parameters wins regardless of the order routes were added
+    assertEquals("user/help", match.resource.getUri());
+    assertEquals(0, match.params.size());
+  }
+
+
+
+
+  @Test
+  public void spanningParameter() {
+    final RouteIndex.Match match = new RouteIndex(mappings("dir/:path/:file")).lookup("dir/a/b/c.txt");
+    // parameters are greedy, as with the regular expressions
+    assertEquals("a/b", match.params.get("path"));
+    assertEquals("c.txt", match.params.get("file"));
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.wsd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import coyote.commons.network.http.wsd.WebSocketFrame.CloseCode;
+import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
+
+
+/**
+ * Tests reading frames into the reusable buffer of a connection.
+ */
+public class WebSocketFrameReaderTest {
+
+  private static final byte[] KEY = {0x12, 0x34, 0x56, 0x78};
+
+
+
+
+  private static byte[] data(final int length) {
+    final byte[] retval = new byte[length];
+    for (int x = 0; x < length; x++) {
+      retval[x] = (byte)(x * 7);
+    }
+    return retval;
+  }
+
+
+
+
+  private static WebSocketFrameReader reader(final WebSocketFrame... frames) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (final WebSocketFrame frame : frames) {
+      out.write(frame.encode());
+    }
+    return new WebSocketFrameReader(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+
+
+
+  private static byte[] bytes(final ByteBuffer buffer) {
+    final byte[] retval = new byte[buffer.remaining()];
+    buffer.get(retval);
+    return retval;
+  }
+
+
+
+
+  @Test
+  public void mask() {
+    for (int length = 0; length < 20; length++) {
+      final byte[] data = data(length + 3);
+      WebSocketFrame.mask(data, 3, length, KEY);
+      final byte[] expected = data(length + 3);
+      for (int x = 0; x < length; x++) {
+        expected[x + 3] ^= KEY[x % 4];
+      }
+      assertArrayEquals(expected, data);
+    }
+  }
+
+
+
+
+  @Test
+  public void maskedFrames() throws Exception {
+    // one of each length encoding
+    for (final int length : new int[]{5, 300, 70000}) {
+      final WebSocketFrameReader reader = reader(new WebSocketFrame(OpCode.Binary, true, data(length), KEY));
+      reader.read();
+      assertEquals(OpCode.Binary, reader.getOpCode());
+      assertTrue(reader.isFin());
+      assertArrayEquals(data(length), bytes(reader.getMessage()));
+    }
+  }
+
+
+
+
+  @Test
+  public void fragments() throws Exception {
+    final WebSocketFrameReader reader = reader(new WebSocketFrame(OpCode.Text, false, "Hello, ", KEY), new WebSocketFrame(OpCode.Ping, true, new byte[]{1, 2}, KEY), new WebSocketFrame(OpCode.Continuation, true, "World", KEY), new WebSocketFrame(OpCode.Text, true, "again"));
+    reader.read();
+    assertFalse(reader.isFin());
+
+    // the ping does not disturb the fragments
+    reader.read();
+    assertEquals(OpCode.Ping, reader.getOpCode());
+    assertArrayEquals(new byte[]{1, 2}, reader.getFrame().getBinaryPayload());
+
+    reader.read();
+    assertEquals(OpCode.Continuation, reader.getOpCode());
+    assertTrue(reader.isFin());
+    assertEquals("Hello, World", new String(bytes(reader.getMessage()), WebSocketFrame.TEXT_CHARSET));
+
+    // a new message replaces the last
+    reader.read();
+    assertEquals("again", new String(bytes(reader.getMessage()), WebSocketFrame.TEXT_CHARSET));
+  }
+
+
+
+
+  @Test
+  public void closeFrame() throws Exception {
+    final WebSocketFrameReader reader = reader(new WebSocketFrame.CloseFrame(CloseCode.GoingAway, "bye"));
+    reader.read();
+    final WebSocketFrame frame = reader.getFrame();
+    assertTrue(frame instanceof WebSocketFrame.CloseFrame);
+    assertEquals(CloseCode.GoingAway, ((WebSocketFrame.CloseFrame)frame).getCloseCode());
+    assertEquals("bye", ((WebSocketFrame.CloseFrame)frame).getCloseReason());
+  }
+
+
+
+
+  @Test
+  public void protocolErrors() throws Exception {
+    final byte[][] frames = {
+        {(byte)0xC1, 0}, // reserved bit
+        {(byte)0x83, 0}, // unknown op code
+        {(byte)0x09, 0}, // fragmented ping
+        {(byte)0x82, 126, 0, 5}, // length not minimal
+    };
+    for (final byte[] frame : frames) {
+      try {
+        new WebSocketFrameReader(new ByteArrayInputStream(frame)).read();
+        fail("frame should be rejected");
+      } catch (final WebSocketException e) {
+        assertEquals(CloseCode.ProtocolError, e.getCode());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.wsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.OutputStream;
+import java.io.PipedOutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import coyote.commons.network.http.HTTPSession;
+import coyote.commons.network.http.MockSession;
+import coyote.commons.network.http.Response;
+import coyote.commons.network.http.wsd.WebSocketFrame.CloseCode;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+
+
+/**
+ * Tests broadcasting to web sockets through their outbound queues.
+ */
+public class WebSocketHubTest {
+
+  private final StatBoard stats = new StatBoardImpl();
+
+  private WebSocketHub hub = null;
+
+  private PipedOutputStream client = null;
+
+
+
+
+  @After
+  public void tearDown() throws Exception {
+    if (hub != null) {
+      hub.shutdown();
+    }
+    if (client != null) {
+      client.close();
+    }
+  }
+
+
+
+
+  /**
+   * Collects what the server sends, blocking writers while the gate is
+   * closed like a client which does not read.
+   */
+  private static class ClientStream extends ByteArrayOutputStream {
+    volatile CountDownLatch gate = new CountDownLatch(0);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    volatile RuntimeException failure = null;
+
+
+
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {
+      if (failure != null) {
+        throw failure;
+      }
+      if (gate.getCount() > 0) {
+        blocked.countDown();
+        try {
+          gate.await();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      synchronized (this) {
+        super.write(b, off, len);
+      }
+    }
+
+
+
+
+    synchronized String text() {
+      return new String(toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+  }
+
+
+
+
+  private static class TestSocket extends WebSocket {
+    final CountDownLatch opened = new CountDownLatch(1);
+
+
+
+
+    TestSocket(final HTTPSession handshake) {
+      super(handshake);
+    }
+
+
+
+
+    @Override
+    protected void onOpen() {
+      opened.countDown();
+    }
+
+
+
+
+    @Override
+    protected void onClose(final CloseCode code, final String reason, final boolean initiatedByRemote) {}
+
+
+
+
+    @Override
+    protected void onException(final IOException exception) {}
+
+
+
+
+    @Override
+    protected void onMessage(final WebSocketFrame message) {}
+
+
+
+
+    @Override
+    protected void onPong(final WebSocketFrame pong) {}
+  }
+
+
+
+
+  /**
+   * Send the handshake response of the socket as the server would, which
+   * opens the socket and reads its frames until the input is closed.
+   *
+   * <p>Responses are only sent by the HTTP package, so this is done
+   * reflectively.</p>
+   */
+  private static void handshake(final WebSocket socket, final OutputStream out) {
+    try {
+      final Method send = Response.class.getDeclaredMethod("send", OutputStream.class);
+      send.setAccessible(true);
+      send.invoke(socket.getHandshakeResponse(), out);
+    } catch (final Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+
+
+
+  /**
+   * @return an open socket writing to the given stream
+   */
+  private TestSocket open(final ClientStream out) throws Exception {
+    client = new PipedOutputStream();
+    final InputStream in = new PipedInputStream(client);
+    final TestSocket retval = new TestSocket(new MockSession() {
+      @Override
+      public InputStream getInputStream() {
+        return in;
+      }
+    });
+    final Thread reader = new Thread() {
+      @Override
+      public void run() {
+        handshake(retval, out);
+      }
+    };
+    reader.setDaemon(true);
+    reader.start();
+    assertTrue(retval.opened.await(5, TimeUnit.SECONDS));
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return the bytes of an unmasked text frame with a short payload
+   */
+  private static String frame(final String text) {
+    return "\u0081" + (char)text.length() + text;
+  }
+
+
+
+
+  /**
+   * Wait for the writers to send the given frames last.
+   */
+  private void awaitOutput(final ClientStream out, final String expected) throws InterruptedException {
+    for (int x = 0; (x < 500) && !out.text().endsWith(expected); x++) {
+      Thread.sleep(10);
+    }
+    assertTrue(out.text().endsWith(expected));
+    assertEquals(0, hub.getQueueDepth());
+  }
+
+
+
+
+  @Test
+  public void broadcast() throws Exception {
+    hub = new WebSocketHub("Hub", stats);
+    final ClientStream out = new ClientStream();
+    final TestSocket socket = open(out);
+    hub.subscribe("news", socket);
+    assertEquals(1, hub.getSubscriberCount("news"));
+
+    assertEquals(1, hub.broadcast("news", "m1"));
+    assertEquals(0, hub.broadcast("other", "m2"));
+    assertTrue(hub.send(socket, new WebSocketFrame(WebSocketFrame.OpCode.Text, true, "m3")));
+    awaitOutput(out, frame("m1") + frame("m3"));
+    assertEquals(2, stats.getCounter("Hub" + WebSocketHub.BROADCASTS).getValue());
+
+    hub.unsubscribe("news", socket);
+    assertEquals(0, hub.broadcast("news", "m4"));
+  }
+
+
+
+
+  @Test
+  public void dropOldest() throws Exception {
+    hub = new WebSocketHub("Hub", 2, WebSocketHub.Overflow.DROP_OLDEST, null, stats);
+    final ClientStream out = new ClientStream();
+    final TestSocket socket = open(out);
+    hub.subscribe("news", socket);
+    out.gate = new CountDownLatch(1);
+
+    // the writer takes the first and blocks, the second is pushed out
+    hub.broadcast("news", "m1");
+    assertTrue(out.blocked.await(5, TimeUnit.SECONDS));
+    hub.broadcast("news", "m2");
+    hub.broadcast("news", "m3");
+    hub.broadcast("news", "m4");
+    assertEquals(2, hub.getQueueDepth(socket));
+    assertEquals(1, stats.getCounter("Hub" + WebSocketHub.DROPPED).getValue());
+
+    out.gate.countDown();
+    awaitOutput(out, frame("m1") + frame("m3") + frame("m4"));
+  }
+
+
+
+
+  @Test
+  public void closeSlowClient() throws Exception {
+    hub = new WebSocketHub("Hub", 1, WebSocketHub.Overflow.CLOSE, null, stats);
+    final ClientStream out = new ClientStream();
+    final TestSocket socket = open(out);
+    hub.subscribe("news", socket);
+    out.gate = new CountDownLatch(1);
+
+    hub.broadcast("news", "m1");
+    assertTrue(out.blocked.await(5, TimeUnit.SECONDS));
+    hub.broadcast("news", "m2");
+    assertEquals(0, hub.broadcast("news", "m3"));
+    assertEquals(1, stats.getCounter("Hub" + WebSocketHub.DISCONNECTED).getValue());
+    assertEquals(0, hub.getSubscriberCount("news"));
+
+    out.gate.countDown();
+    for (int x = 0; (x < 500) && socket.isOpen(); x++) {
+      Thread.sleep(10);
+    }
+    assertFalse(socket.isOpen());
+  }
+
+
+
+
+  @Test
+  public void writerFailure() throws Exception {
+    hub = new WebSocketHub("Hub", stats);
+    final ClientStream out = new ClientStream();
+    final TestSocket socket = open(out);
+    hub.subscribe("news", socket);
+    out.failure = new IllegalStateException("write failed");
+
+    // the writer gives up on the socket instead of leaving it stuck
+    assertEquals(1, hub.broadcast("news", "m1"));
+    for (int x = 0; (x < 500) && (hub.getSubscriberCount("news") > 0); x++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, hub.getSubscriberCount("news"));
+    assertEquals(0, hub.getQueueDepth());
+  }
+
+}
@@ -12,15 +12,20 @@
 package coyote.commons.security;
 
 //import static org.junit.Assert.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.net.InetAddress;
+
 import org.junit.Test;
 
 import coyote.commons.network.IpAddress;
 import coyote.commons.network.IpAddressException;
 import coyote.commons.network.IpNetwork;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
 
 
 /**
@@ -124,4 +129,73 @@ public class OperationFrequencyTest {
 
   }
 
+
+
+
+  @Test
+  public void testBlockList() throws Exception {
+    StatBoard stats = new StatBoardImpl();
+    OperationFrequency dosTable = new OperationFrequency( "DoS", stats );
+    dosTable.setLimit( (short)1 );
+    dosTable.setDuration( 10000 );
+    dosTable.setBreachThreshold( 2 );
+    InetAddress addr = InetAddress.getByName( "192.168.1.1" );
+
+    assertTrue( dosTable.check( addr ) );
+    assertFalse( dosTable.check( addr ) ); // first breach
+    assertFalse( dosTable.isBlocked( addr ) );
+    assertFalse( dosTable.check( addr ) ); // second breach block lists
+    assertTrue( dosTable.isBlocked( addr ) );
+    assertFalse( dosTable.check( addr ) );
+
+    assertEquals( 2, stats.getCounter( "DoS" + OperationFrequency.REFUSED ).getValue() );
+    assertEquals( 1, stats.getCounter( "DoS" + OperationFrequency.BLOCK_LISTED ).getValue() );
+    assertEquals( 1, stats.getCounter( "DoS" + OperationFrequency.BLOCKED ).getValue() );
+
+    // other addresses are not affected
+    assertTrue( dosTable.check( InetAddress.getByName( "192.168.1.2" ) ) );
+  }
+
+
+
+
+  @Test
+  public void testNetworkCheck() throws Exception {
+    OperationFrequency dosTable = new OperationFrequency();
+    dosTable.addNetwork( new IpNetwork( "10/8" ), (short)2, 10000 );
+    dosTable.addNetwork( new IpNetwork( "10.1/16" ), (short)1, 10000 );
+
+    // the most specific network applies
+    assertTrue( dosTable.check( new IpAddress( "10.1.0.1" ) ) );
+    assertFalse( dosTable.check( new IpAddress( "10.1.0.2" ) ) );
+    assertTrue( dosTable.check( new IpAddress( "10.2.0.1" ) ) );
+    assertTrue( dosTable.check( new IpAddress( "10.2.0.2" ) ) );
+    assertFalse( dosTable.check( new IpAddress( "10.3.0.1" ) ) );
+    assertTrue( dosTable.getAddressCount() == 0 );
+  }
+
+
+
+
+  @Test
+  public void testLimits() throws Exception {
+    StatBoard stats = new StatBoardImpl();
+    OperationFrequency dosTable = new OperationFrequency( "DoS", stats );
+    dosTable.setMaxAddresses( 2 );
+    dosTable.setIdleTimeout( 10 );
+    dosTable.addAddress( new IpAddress( "192.168.1.1" ), (short)3, 1000 );
+
+    // only one more address fits, the rest pass without being tracked
+    assertTrue( dosTable.check( InetAddress.getByName( "192.168.1.2" ) ) );
+    assertTrue( dosTable.check( InetAddress.getByName( "192.168.1.3" ) ) );
+    assertTrue( dosTable.getAddressCount() == 2 );
+    assertEquals( 1, stats.getCounter( "DoS" + OperationFrequency.UNTRACKED ).getValue() );
+
+    // idle addresses are evicted as new ones arrive, added ones are kept
+    Thread.sleep( 1100 );
+    assertTrue( dosTable.check( InetAddress.getByName( "192.168.1.4" ) ) );
+    assertTrue( dosTable.getAddressCount() == 2 );
+    assertEquals( 1, stats.getCounter( "DoS" + OperationFrequency.EVICTED ).getValue() );
+  }
+
 }
@@ -11,8 +11,12 @@
  */
 package coyote.i13n;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -112,4 +116,74 @@ public class CounterTest {
 
   }
 
+
+
+
+  @Test
+  public void testConcurrentMinMax() {
+    final Counter counter = new ConcurrentCounter( "testConcurrentMinMax" );
+    counter.setUnits( "ms" );
+
+    assertEquals( 5, counter.increase( 5 ) );
+    assertEquals( 5, counter.getMaxValue() );
+    assertEquals( 2, counter.decrease( 3 ) );
+    assertEquals( -1, counter.increase( -3 ) );
+    // increases return the amount added rather than summing the value
+    assertEquals( 1, counter.increment() );
+    assertEquals( 0, counter.getValue() );
+    assertEquals( -1, counter.decrement() );
+
+    assertEquals( -1, counter.getValue() );
+    assertEquals( 5, counter.getMaxValue() );
+    assertEquals( -1, counter.getMinValue() );
+    assertEquals( 5, counter.getUpdateCount() );
+    assertEquals( "testConcurrentMinMax=-1ms[min=-1:max=5]", counter.toString() );
+
+    final Counter delta = counter.reset();
+    assertEquals( "testConcurrentMinMax", delta.getName() );
+    assertEquals( -1, delta.getValue() );
+    assertEquals( -1, delta.getMinValue() );
+    assertEquals( 5, delta.getMaxValue() );
+    assertEquals( "ms", delta.getUnits() );
+    assertEquals( 5, delta.getUpdateCount() );
+
+    assertEquals( 0, counter.getValue() );
+    assertEquals( 0, counter.getMinValue() );
+    assertEquals( 0, counter.getMaxValue() );
+    assertEquals( 0, counter.getUpdateCount() );
+  }
+
+
+
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    final int THREADS = 8;
+    final int LIMIT = 10000;
+    final Counter counter = new ConcurrentCounter( "testConcurrentUpdates" );
+
+    final List<Thread> threads = new ArrayList<Thread>();
+    for ( int x = 0; x < THREADS; x++ ) {
+      threads.add( new Thread() {
+        @Override
+        public void run() {
+          for ( int y = 0; y < LIMIT; y++ ) {
+            counter.increment();
+          }
+        }
+      } );
+    }
+    for ( final Thread thread : threads ) {
+      thread.start();
+    }
+    for ( final Thread thread : threads ) {
+      thread.join();
+    }
+
+    assertEquals( THREADS * LIMIT, counter.getValue() );
+    assertEquals( THREADS * LIMIT, counter.getMaxValue() );
+    assertEquals( THREADS * LIMIT, counter.getUpdateCount() );
+    assertEquals( 0, counter.getMinValue() );
+  }
+
 }
@@ -11,9 +11,16 @@
  */
 package coyote.i13n;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -96,4 +103,86 @@ public class DefaultStatBoardTests {
 
   }
 
+
+
+
+  @Test
+  public void testHandles() {
+    final StatBoard scorecard = new StatBoardImpl();
+
+    // the same counter is returned for a name until it is removed
+    final Counter counter = scorecard.getCounter( "Handle" );
+    assertSame( counter, scorecard.getCounter( "Handle" ) );
+    counter.increment();
+    scorecard.increment( "Handle" );
+    assertEquals( 2, counter.getValue() );
+
+    // resetting keeps the counter, removing detaches it
+    assertEquals( 2, scorecard.resetCounter( "Handle" ).getValue() );
+    assertSame( counter, scorecard.getCounter( "Handle" ) );
+    assertSame( counter, scorecard.removeCounter( "Handle" ) );
+    assertEquals( 0, scorecard.getCounter( "Handle" ).getValue() );
+
+    final State state = scorecard.getState( "Handle" );
+    scorecard.setState( "Handle", 42L );
+    assertEquals( Long.valueOf( 42 ), state.getValue() );
+  }
+
+
+
+
+  @Test
+  public void testNullNames() {
+    final StatBoard scorecard = new StatBoardImpl();
+    scorecard.enableTiming( true );
+    scorecard.enableArm( true );
+
+    // nothing is measured without a name
+    assertTrue( scorecard.startTimer( null ) instanceof NullTimer );
+    assertTrue( scorecard.startArm( null ) instanceof NullArm );
+    assertFalse( scorecard.getTimerIterator().hasNext() );
+    assertFalse( scorecard.getArmIterator().hasNext() );
+  }
+
+
+
+
+  @Test
+  public void testConcurrentCreation() throws Exception {
+    final int THREADS = 8;
+    final int NAMES = 100;
+    final StatBoard scorecard = new StatBoardImpl();
+    scorecard.enableTiming( true );
+
+    final List<Thread> threads = new ArrayList<Thread>();
+    for ( int x = 0; x < THREADS; x++ ) {
+      threads.add( new Thread() {
+        @Override
+        public void run() {
+          for ( int y = 0; y < NAMES; y++ ) {
+            scorecard.increment( "Counter" + y );
+            scorecard.setState( "State" + y, y );
+            scorecard.startTimer( "Timer" + y ).stop();
+            // iterating while others create metrics must not fail
+            for ( final Iterator<Counter> it = scorecard.getCounterIterator(); it.hasNext(); it.next() ) {
+              ;
+            }
+          }
+        }
+      } );
+    }
+    for ( final Thread thread : threads ) {
+      thread.start();
+    }
+    for ( final Thread thread : threads ) {
+      thread.join();
+    }
+
+    assertEquals( NAMES, scorecard.getCounterCount() );
+    assertEquals( NAMES, scorecard.getStateCount() );
+    for ( int y = 0; y < NAMES; y++ ) {
+      assertEquals( THREADS, scorecard.getCounter( "Counter" + y ).getValue() );
+    }
+  }
+
 }
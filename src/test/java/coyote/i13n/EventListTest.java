@@ -13,9 +13,14 @@ package coyote.i13n;
 
 //import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.AfterClass;
 import org.junit.Test;
 
@@ -72,11 +77,11 @@ public class EventListTest {
     AppEvent alert5 = list.createEvent( "Five" );
     AppEvent alert6 = list.createEvent( "Six" );
     //System.out.println( "Max="+list.getMaxEvents()+" Size=" + list.getSize() );
-    assertTrue( list._list.size() == 5 );
+    assertTrue( list.getSize() == 5 );
 
     // should result in the list being trimmed immediately
     list.setMaxEvents( 2 );
-    assertTrue( list._list.size() == 2 );
+    assertTrue( list.getSize() == 2 );
 
     list.add( alert0 );
     list.add( alert1 );
@@ -87,7 +92,7 @@ public class EventListTest {
     list.add( alert6 );
 
     // should still only contain 2 events
-    assertTrue( list._list.size() == 2 );
+    assertTrue( list.getSize() == 2 );
 
     // Check the first and last event in the list
     assertEquals( alert5, list.getFirst() );
@@ -133,9 +138,169 @@ public class EventListTest {
   /**
    * Test method for {@link coyote.i13n.EventList#get(long)}.
    */
-  //@Test
+  @Test
   public void testGet() {
-    fail( "Not yet implemented" );
+    EventList list = new EventList();
+    list.setMaxEvents( 3 );
+    AppEvent alert0 = list.createEvent( "Zero" );
+    AppEvent alert1 = list.createEvent( "One" );
+    assertSame( alert0, list.get( 0 ) );
+    assertSame( alert1, list.get( 1 ) );
+    assertNull( list.get( 2 ) );
+
+    // replaced by the event a full list newer
+    list.createEvent( "Two" );
+    AppEvent alert3 = list.createEvent( "Three" );
+    assertNull( list.get( 0 ) );
+    assertSame( alert3, list.get( 3 ) );
+
+    alert1.clear();
+    assertNull( list.get( 1 ) );
+    assertEquals( 2, list.getSize() );
+    assertEquals( 2, list.getEvents().get( 0 ).getSequence() );
+  }
+
+
+
+
+  /**
+   * Test method for {@link coyote.i13n.EventList.Cursor#poll()}.
+   */
+  @Test
+  public void testCursor() {
+    EventList list = new EventList();
+    list.setMaxEvents( 4 );
+    list.createEvent( "Before" );
+    EventList.Cursor cursor = list.getCursor();
+    assertEquals( 0, cursor.poll().size() );
+
+    AppEvent alert1 = list.createEvent( "One" );
+    AppEvent alert2 = list.createEvent( "Two" );
+    List<AppEvent> events = cursor.poll();
+    assertEquals( 2, events.size() );
+    assertSame( alert1, events.get( 0 ) );
+    assertSame( alert2, events.get( 1 ) );
+    assertEquals( 0, cursor.poll().size() );
+
+    // events replaced before the cursor reaches them are missed
+    for ( int x = 0; x < 6; x++ ) {
+      list.createEvent( "Flood" );
+    }
+    events = cursor.poll();
+    assertEquals( 4, events.size() );
+    assertEquals( 5, events.get( 0 ).getSequence() );
+    assertEquals( 2, cursor.getMissed() );
+    assertEquals( 9, cursor.getSequence() );
+
+    // a cursor can start from any sequence
+    assertEquals( 2, list.getCursor( 7 ).poll().size() );
+  }
+
+
+
+
+  /**
+   * Check a cursor sees every event exactly once while several threads add
+   * them.
+   */
+  @Test
+  public void testConcurrentCursor() throws Exception {
+    final EventList list = new EventList();
+    final int threads = 4;
+    final int perThread = 20000;
+    final EventList.Cursor cursor = list.getCursor();
+    final List<Thread> workers = new ArrayList<Thread>();
+    for ( int x = 0; x < threads; x++ ) {
+      final Thread worker = new Thread() {
+        @Override
+        public void run() {
+          for ( int y = 0; y < perThread; y++ ) {
+            list.createEvent( "Event" );
+          }
+        }
+      };
+      workers.add( worker );
+      worker.start();
+    }
+
+    long expected = 0;
+    boolean running = true;
+    while ( running ) {
+      running = false;
+      for ( Thread worker : workers ) {
+        running |= worker.isAlive();
+      }
+      for ( AppEvent event : cursor.poll() ) {
+        assertEquals( expected + cursor.getMissed(), event.getSequence() );
+        expected++;
+      }
+    }
+    for ( AppEvent event : cursor.poll() ) {
+      assertEquals( expected + cursor.getMissed(), event.getSequence() );
+      expected++;
+    }
+    assertEquals( threads * perThread, expected + cursor.getMissed() );
+    assertEquals( list.getMaxEvents(), list.getSize() );
+  }
+
+
+
+
+  /**
+   * Check a cursor passes over removed events rather than waiting for them.
+   */
+  @Test
+  public void testCursorSkipsRemoved() {
+    EventList list = new EventList();
+    EventList.Cursor cursor = list.getCursor();
+    AppEvent alert1 = list.createEvent( "One" );
+    list.remove( list.createEvent( "Two" ) );
+    AppEvent alert3 = list.createEvent( "Three" );
+    List<AppEvent> events = cursor.poll();
+    assertEquals( 2, events.size() );
+    assertSame( alert1, events.get( 0 ) );
+    assertSame( alert3, events.get( 1 ) );
+    assertEquals( 3, cursor.getSequence() );
+    assertEquals( 0, cursor.getMissed() );
+  }
+
+
+
+
+  /**
+   * Check no event is lost when the list is resized while threads add them.
+   */
+  @Test
+  public void testConcurrentResize() throws Exception {
+    final EventList list = new EventList();
+    final int threads = 4;
+    final int perThread = 5000;
+    list.setMaxEvents( threads * perThread * 2 );
+    final List<Thread> workers = new ArrayList<Thread>();
+    for ( int x = 0; x < threads; x++ ) {
+      final Thread worker = new Thread() {
+        @Override
+        public void run() {
+          for ( int y = 0; y < perThread; y++ ) {
+            list.createEvent( "Event" );
+          }
+        }
+      };
+      workers.add( worker );
+      worker.start();
+    }
+
+    // every size holds all the events, so none should be replaced
+    boolean running = true;
+    for ( int size = 0; running; size++ ) {
+      list.setMaxEvents( threads * perThread * ( 2 + ( size % 2 ) ) );
+      running = false;
+      for ( Thread worker : workers ) {
+        running |= worker.isAlive();
+      }
+    }
+    assertEquals( threads * perThread, list.getSize() );
+    assertEquals( threads * perThread, list.getCursor( 0 ).poll().size() );
   }
 
 
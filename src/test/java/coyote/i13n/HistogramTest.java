@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.i13n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+/**
+ * Tests recording values in the histogram and reading their percentiles.
+ */
+public class HistogramTest {
+
+  @Test
+  public void testBuckets() {
+    assertEquals( 2345, Histogram.BUCKETS );
+    long last = -1;
+    for ( int i = 0; i < Histogram.BUCKETS; i++ ) {
+      final long highest = Histogram.highestValue( i );
+      assertTrue( "bucket " + i + " does not follow the last", highest > last );
+      assertEquals( i, Histogram.index( highest ) );
+      assertEquals( i, Histogram.index( last + 1 ) );
+      last = highest;
+    }
+    assertEquals( Long.MAX_VALUE, last );
+
+    // everything from the highest trackable value up shares the top bucket
+    assertEquals( Histogram.BUCKETS - 1, Histogram.index( Histogram.HIGHEST_TRACKABLE ) );
+    assertEquals( Histogram.BUCKETS - 1, Histogram.index( Histogram.HIGHEST_TRACKABLE * 10 ) );
+    assertEquals( Histogram.BUCKETS - 1, Histogram.index( Long.MAX_VALUE ) );
+    assertTrue( Histogram.index( Histogram.HIGHEST_TRACKABLE - ( Histogram.HIGHEST_TRACKABLE / 32 ) ) < Histogram.BUCKETS - 1 );
+  }
+
+
+
+
+  @Test
+  public void testHighestTrackable() {
+    final Histogram histogram = new Histogram();
+    for ( int x = 0; x < 98; x++ ) {
+      histogram.record( 1000 );
+    }
+    histogram.record( Histogram.HIGHEST_TRACKABLE );
+    histogram.record( Histogram.HIGHEST_TRACKABLE * 24 );
+
+    // values above the cap are counted and reported by the highest recorded
+    assertEquals( 100, histogram.getCount() );
+    assertEquals( Histogram.HIGHEST_TRACKABLE * 24, histogram.getMax() );
+    assertEquals( Histogram.HIGHEST_TRACKABLE * 24, histogram.getValueAtPercentile( 99 ) );
+    assertEquals( Histogram.HIGHEST_TRACKABLE * 24, histogram.getValueAtPercentile( 100 ) );
+    assertNear( 1000, histogram.getValueAtPercentile( 98 ) );
+  }
+
+
+
+
+  @Test
+  public void testPercentiles() {
+    final Histogram histogram = new Histogram();
+    assertEquals( 0, histogram.getValueAtPercentile( 50 ) );
+    assertEquals( 0, histogram.getMin() );
+    assertEquals( 0, histogram.getMax() );
+
+    // one to a thousand microseconds
+    for ( long x = 1; x <= 1000; x++ ) {
+      histogram.record( x * 1000 );
+    }
+    assertEquals( 1000, histogram.getCount() );
+    assertEquals( 500500000, histogram.getTotal() );
+    assertEquals( 1000, histogram.getMin() );
+    assertEquals( 1000000, histogram.getMax() );
+    assertEquals( 500500, histogram.getMean(), 0.001 );
+    assertEquals( 288819, histogram.getStandardDeviation(), 1 );
+
+    final long[] percentiles = histogram.getValuesAtPercentiles( 50, 90, 99, 99.9, 100 );
+    assertNear( 500000, percentiles[0] );
+    assertNear( 900000, percentiles[1] );
+    assertNear( 990000, percentiles[2] );
+    assertNear( 999000, percentiles[3] );
+    assertEquals( 1000000, percentiles[4] );
+
+    histogram.reset();
+    assertEquals( 0, histogram.getCount() );
+    assertEquals( 0, histogram.getValueAtPercentile( 99 ) );
+  }
+
+
+
+
+  private static void assertNear( final long expected, final long actual ) {
+    assertTrue( actual + " is not within 1/64th of " + expected, ( actual >= expected ) && ( actual <= expected + ( expected / 64 ) ) );
+  }
+
+
+
+
+  @Test
+  public void testSingleStripe() {
+    final Histogram histogram = new Histogram();
+    for ( int x = 0; x < 100000; x++ ) {
+      histogram.record( x );
+    }
+    // one thread never contends, so never needs another stripe
+    assertEquals( 1, histogram.getStripeCount() );
+    assertEquals( 99999, histogram.getValueAtPercentile( 100 ) );
+    assertNear( 50000, histogram.getValueAtPercentile( 50 ) );
+  }
+
+
+
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final int THREADS = 8;
+    final int LIMIT = 10000;
+    final Histogram histogram = new Histogram();
+
+    final List<Thread> threads = new ArrayList<Thread>();
+    for ( int x = 0; x < THREADS; x++ ) {
+      threads.add( new Thread() {
+        @Override
+        public void run() {
+          for ( int y = 0; y < LIMIT; y++ ) {
+            histogram.record( y );
+          }
+        }
+      } );
+    }
+    for ( final Thread thread : threads ) {
+      thread.start();
+    }
+    for ( final Thread thread : threads ) {
+      thread.join();
+    }
+
+    assertEquals( THREADS * LIMIT, histogram.getCount() );
+    assertEquals( LIMIT - 1, histogram.getValueAtPercentile( 100 ) );
+    assertNear( LIMIT / 2, histogram.getValueAtPercentile( 50 ) );
+  }
+
+}
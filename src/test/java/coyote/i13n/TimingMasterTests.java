@@ -11,6 +11,7 @@
  */
 package coyote.i13n;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
@@ -22,6 +23,8 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import coyote.dataframe.DataFrame;
+
 
 /**
  * 
@@ -145,7 +148,7 @@ public class TimingMasterTests {
     TimingMaster subject = new TimingMaster( "testResetThis" );
     subject.increase( 5 );
     subject.resetThis();
-    assertTrue( "Accrued value was not reset", subject.accrued == 0 );
+    assertTrue( "Accrued value was not reset", subject.getAccrued() == 0 );
   }
 
 
@@ -155,7 +158,30 @@ public class TimingMasterTests {
   public void testIncrease() {
     TimingMaster subject = new TimingMaster( "testIncrease" );
     subject.increase( 5 );
-    assertTrue( "Accrued value was not incremented", subject.accrued == 5 );
+    assertTrue( "Accrued value was not incremented", subject.getAccrued() == 5 );
+  }
+
+
+
+
+  @Test
+  public void testSubMillisecond() throws Exception {
+    TimingMaster subject = new TimingMaster( "testSubMillisecond" );
+    for ( int x = 0; x < 100; x++ ) {
+      Timer timer = subject.createTimer();
+      timer.start();
+      timer.stop();
+    }
+    assertEquals( 100, subject.getHistogram().getCount() );
+    assertTrue( "No time was recorded", subject.getHistogram().getMax() > 0 );
+
+    DataFrame frame = subject.toFrame();
+    assertEquals( 100, frame.getAsLong( "Hits" ) );
+    double p50 = frame.getAsDouble( "P50" );
+    double p999 = frame.getAsDouble( "P99.9" );
+    assertTrue( "P50 of " + p50 + "ms was not recorded", p50 > 0 );
+    assertTrue( "P99.9 of " + p999 + "ms is below P50", p999 >= p50 );
+    assertTrue( "Max below P99.9", frame.getAsDouble( "Max Value" ) >= p999 );
   }
 
 
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.i13n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import coyote.dataframe.DataFrame;
+
+
+/**
+ * Tests the rates reported by the windowed gauge against a clock the test
+ * controls.
+ */
+public class WindowedGaugeTest {
+
+  /**
+   * A gauge whose clock only moves when the test moves it.
+   */
+  private static class ClockedGauge extends WindowedGauge {
+    long time = 0;
+
+
+
+
+    ClockedGauge( final int... windows ) {
+      super( "Test", windows );
+    }
+
+
+
+
+    @Override
+    long currentTime() {
+      return time;
+    }
+
+  }
+
+
+
+
+  @Test
+  public void testSeconds() {
+    final ClockedGauge gauge = new ClockedGauge( 5, 10 );
+    gauge.update( 3 );
+    gauge.update( 4 );
+    assertEquals( 7, gauge.getTotal() );
+
+    // nothing is reported until the second ends
+    assertEquals( 0, gauge.getLastValuePerSecond() );
+    assertEquals( 0, gauge.getMinuteTotal() );
+
+    gauge.time = 1000;
+    assertEquals( 7, gauge.getLastValuePerSecond() );
+    assertEquals( 7, gauge.getMaxValuePerSecond() );
+    assertEquals( 7, gauge.getMinValuePerSecond() );
+    assertEquals( 7, gauge.getMinuteTotal() );
+
+    gauge.update( 2 );
+    gauge.time = 2500;
+    assertEquals( 2, gauge.getLastValuePerSecond() );
+    assertEquals( 7, gauge.getMaxValuePerSecond() );
+    assertEquals( 2, gauge.getMinValuePerSecond() );
+    assertEquals( 4.5F, gauge.getWindowRate( 5 ), 0.001F );
+
+    // idle seconds count as empty
+    gauge.time = 5000;
+    assertEquals( 0, gauge.getLastValuePerSecond() );
+    assertEquals( 0, gauge.getMinValuePerSecond() );
+    assertEquals( 9, gauge.getMinuteTotal() );
+    assertEquals( 1.8F, gauge.getWindowRate( 5 ), 0.001F );
+  }
+
+
+
+
+  @Test
+  public void testSlidingWindow() {
+    final ClockedGauge gauge = new ClockedGauge( 5, 10 );
+    for ( int x = 0; x < 10; x++ ) {
+      gauge.update( x );
+      gauge.time += 1000;
+    }
+    // the last five seconds held 5 through 9
+    assertEquals( 7F, gauge.getWindowRate( 5 ), 0.001F );
+    assertEquals( 4.5F, gauge.getWindowRate( 10 ), 0.001F );
+    assertEquals( 45, gauge.getMinuteTotal() );
+    assertEquals( 45, gauge.getTotal() );
+
+    // the oldest seconds drop out of the windows
+    gauge.time += 3000;
+    assertEquals( 3.4F, gauge.getWindowRate( 5 ), 0.001F );
+    assertEquals( 4.2F, gauge.getWindowRate( 10 ), 0.001F );
+
+    // a long idle period empties every window
+    gauge.time += 3600000;
+    gauge.update( 1 );
+    assertEquals( 0F, gauge.getWindowRate( 10 ), 0.001F );
+    assertEquals( 0, gauge.getMinuteTotal() );
+    gauge.time += 1000;
+    assertEquals( 1, gauge.getMinuteTotal() );
+    assertEquals( 0.1F, gauge.getWindowRate( 10 ), 0.001F );
+  }
+
+
+
+
+  @Test
+  public void testCatchUp() {
+    final ClockedGauge gauge = new ClockedGauge( 5 );
+    gauge.time = 500;
+    gauge.update( 6 );
+
+    // the values belong to the second they were added in, not spread over
+    // the idle seconds which followed it
+    gauge.time = 3500;
+    assertEquals( 6, gauge.getMaxValuePerSecond() );
+    assertEquals( 0, gauge.getMinValuePerSecond() );
+    assertEquals( 0, gauge.getLastValuePerSecond() );
+    assertEquals( 2F, gauge.getWindowRate( 5 ), 0.001F );
+
+    // the first second leaves the window once five more have ended
+    gauge.time = 5500;
+    assertEquals( 1.2F, gauge.getWindowRate( 5 ), 0.001F );
+    gauge.time = 6500;
+    assertEquals( 0F, gauge.getWindowRate( 5 ), 0.001F );
+  }
+
+
+
+
+  @Test
+  public void testMovingAverage() {
+    final ClockedGauge gauge = new ClockedGauge( 60, 300 );
+    for ( int x = 0; x < 3600; x++ ) {
+      gauge.update( 100 );
+      gauge.time += 1000;
+    }
+    // a steady rate is approached by every average
+    assertEquals( 100F, gauge.getMovingAverage( 60 ), 0.1F );
+    assertEquals( 100F, gauge.getMovingAverage( 300 ), 0.1F );
+
+    // after one window of silence an average falls by a factor of e
+    gauge.time += 60000;
+    assertEquals( 100 / Math.E, gauge.getMovingAverage( 60 ), 0.1F );
+    assertTrue( gauge.getMovingAverage( 300 ) > gauge.getMovingAverage( 60 ) );
+  }
+
+
+
+
+  @Test
+  public void testReset() {
+    final ClockedGauge gauge = new ClockedGauge( 5 );
+    gauge.update( 10 );
+    gauge.time = 2000;
+    gauge.reset();
+    assertEquals( 0, gauge.getTotal() );
+    assertEquals( 0, gauge.getMaxValuePerSecond() );
+    assertEquals( 0F, gauge.getWindowRate( 5 ), 0.001F );
+    assertEquals( 0F, gauge.getMovingAverage( 5 ), 0.001F );
+
+    gauge.update( 4 );
+    gauge.time = 3000;
+    assertEquals( 4, gauge.getLastValuePerSecond() );
+    assertEquals( 4F, gauge.getValuePerSecond(), 0.001F );
+    assertEquals( 240F, gauge.getValuePerMinute(), 0.001F );
+  }
+
+
+
+
+  @Test
+  public void testFrame() throws Exception {
+    final ClockedGauge gauge = new ClockedGauge( 5, 10 );
+    gauge.update( 5 );
+    gauge.time = 1000;
+    final DataFrame frame = gauge.toFrame();
+    assertEquals( 5, frame.getAsLong( WindowedGauge.TOTAL ) );
+    assertEquals( 5, frame.getAsLong( WindowedGauge.LAST_VPS ) );
+    assertEquals( 5D, frame.getAsDouble( WindowedGauge.VPS + 5 ), 0.001 );
+    assertTrue( frame.getAsDouble( WindowedGauge.EWMA + 10 ) > 0 );
+  }
+
+
+
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownWindow() {
+    new ClockedGauge( 5, 10 ).getMovingAverage( 7 );
+  }
+
+
+
+
+  @Test
+  public void testSelection() {
+    final StatBoard board = new StatBoardImpl();
+    board.enableGauges( true );
+    assertTrue( board.getGauge( "original" ) instanceof GaugeBase );
+    board.enableWindowedGauges( true );
+    assertTrue( board.getGauge( "windowed" ) instanceof WindowedGauge );
+    assertTrue( board.getGauge( "original" ) instanceof GaugeBase );
+  }
+
+}
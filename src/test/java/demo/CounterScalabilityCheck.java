@@ -0,0 +1,92 @@
+package demo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import coyote.i13n.ConcurrentCounter;
+import coyote.i13n.Counter;
+
+
+/**
+ * Compares how the throughput of a locking and a concurrent counter changes
+ * as more threads increment the same counter.
+ *
+ * <p>Each run starts the threads together and lets them increment one shared
+ * counter for a fixed period. Pass the highest number of threads as the first
+ * argument (default twice the available processors) and the seconds per run
+ * as the second (default 2).</p>
+ */
+public class CounterScalabilityCheck {
+
+  /**
+   * Increment the counter from the given number of threads.
+   *
+   * @return increments per second across all the threads
+   */
+  private static long runTest(final Counter counter, final int threads, final long millis) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> workers = new ArrayList<Thread>();
+    final long[] counts = new long[threads];
+    for (int x = 0; x < threads; x++) {
+      final int index = x;
+      final Thread worker = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (final InterruptedException e) {
+            return;
+          }
+          final long end = System.currentTimeMillis() + millis;
+          long count = 0;
+          while (System.currentTimeMillis() < end) {
+            // batch so the clock is not what is measured
+            for (int y = 0; y < 1000; y++) {
+              counter.increment();
+            }
+            count += 1000;
+          }
+          counts[index] = count;
+        }
+      };
+      workers.add(worker);
+      worker.start();
+    }
+
+    final long started = System.nanoTime();
+    start.countDown();
+    long total = 0;
+    for (int x = 0; x < threads; x++) {
+      workers.get(x).join();
+      total += counts[x];
+    }
+    final long elapsed = System.nanoTime() - started;
+
+    if (counter.getValue() != total) {
+      System.out.println("  " + counter.getName() + " lost updates: " + counter.getValue() + " of " + total);
+    }
+    counter.reset();
+    return (total * 1000000000L) / elapsed;
+  }
+
+
+
+
+  public static void main(final String[] args) throws Exception {
+    final int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+    final long millis = args.length > 1 ? Long.parseLong(args[1]) * 1000 : 2000;
+
+    // warm up both implementations before measuring
+    runTest(new Counter("Locking"), 2, 500);
+    runTest(new ConcurrentCounter("Concurrent"), 2, 500);
+
+    System.out.println("Threads\tLocking/s\tConcurrent/s");
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      final long locking = runTest(new Counter("Locking"), threads, millis);
+      final long concurrent = runTest(new ConcurrentCounter("Concurrent"), threads, millis);
+      System.out.println(threads + "\t" + locking + "\t" + concurrent);
+    }
+  }
+
+}
@@ -0,0 +1,115 @@
+package demo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import coyote.commons.NetUtil;
+import coyote.commons.network.MimeType;
+import coyote.commons.network.http.DefaultExecutor;
+import coyote.commons.network.http.Executor;
+import coyote.commons.network.http.HTTPD;
+import coyote.commons.network.http.HTTPSession;
+import coyote.commons.network.http.PooledExecutor;
+import coyote.commons.network.http.Response;
+import coyote.commons.network.http.Status;
+import coyote.commons.network.http.VirtualThreadExecutor;
+
+
+/**
+ * Compares how many concurrent (keep-alive) connections each executor can
+ * hold open and how many platform threads it uses to do so.
+ *
+ * <p>Each connection sends one request and then stays open, tying up its
+ * handler. Pass the number of connections as the first argument (default
+ * 2000); the operating system limit on open files may need raising for large
+ * values.</p>
+ */
+public class ExecutorScalabilityCheck {
+
+  private static int port = 54380;
+
+
+
+
+  /**
+   * Open the connections against a server using the given executor.
+   */
+  private static void runTest(final String label, final Executor executor, final int connections) throws IOException {
+    port = NetUtil.getNextAvailablePort(port + 1);
+    final HTTPD server = new HTTPD(port) {
+      {
+        // all our connections come from one address in a burst
+        dosTable.setLimit(Short.MAX_VALUE);
+      }
+
+
+
+      @Override
+      public Response serve(final HTTPSession session) {
+        return Response.createFixedLengthResponse(Status.OK, MimeType.TEXT.getType(), "OK");
+      }
+    };
+    server.setAsyncRunner(executor);
+    server.start(60000, true);
+
+    final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    threads.resetPeakThreadCount();
+    final List<Socket> sockets = new ArrayList<Socket>();
+    int served = 0;
+    int rejected = 0;
+    int waiting = 0;
+    int failed = 0;
+    final long started = System.nanoTime();
+    try {
+      for (int x = 0; x < connections; x++) {
+        try {
+          final Socket socket = new Socket("localhost", port);
+          sockets.add(socket);
+          // connections waiting in a backlog get no response
+          socket.setSoTimeout(250);
+          socket.getOutputStream().write(("GET /" + x + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes());
+          socket.getOutputStream().flush();
+          final String status = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+          if (status != null && status.startsWith("HTTP/1.1 200")) {
+            served++;
+          } else if (status != null && status.startsWith("HTTP/1.1 503")) {
+            rejected++;
+          } else {
+            failed++;
+          }
+        } catch (final SocketTimeoutException e) {
+          waiting++;
+        } catch (final IOException e) {
+          failed++;
+        }
+      }
+      final long elapsed = (System.nanoTime() - started) / 1000000;
+      System.out.println(label + ": " + served + " held open, " + waiting + " waiting, " + rejected + " rejected, " + failed + " failed in " + elapsed + "ms; peak threads " + threads.getPeakThreadCount());
+    } finally {
+      for (final Socket socket : sockets) {
+        socket.close();
+      }
+      server.stop();
+    }
+  }
+
+
+
+
+  public static void main(final String[] args) throws Exception {
+    final int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    System.out.println("Opening " + connections + " connections per executor - virtual threads supported: " + VirtualThreadExecutor.isSupported());
+
+    runTest("Default", new DefaultExecutor(), connections);
+    runTest("Pooled", new PooledExecutor("Pooled", null), connections);
+    runTest("Virtual", new VirtualThreadExecutor("Virtual", null), connections);
+  }
+
+}
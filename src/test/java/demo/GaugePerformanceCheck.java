@@ -45,6 +45,23 @@ public class GaugePerformanceCheck {
   }
 
 
+  private static long runWindowedGaugeTest() {
+    Tabs.enableGauges(true);
+    Tabs.enableWindowedGauges(true);
+
+    long started = System.currentTimeMillis();
+
+    for (int x = 0; x < LIMIT; x++) {
+      Tabs.getGauge("WindowedGaugeTest").update(1);
+    }
+    long elapsed = System.currentTimeMillis() - started;
+
+    Tabs.enableWindowedGauges(false);
+
+    return elapsed;
+  }
+
+
   /**
    * @param args
    */
@@ -58,6 +75,10 @@ public class GaugePerformanceCheck {
     System.out.print("Timing gauge test: " + ((float) elapsed / LIMIT) + " ms/c Avg");
     System.out.println(" (" + NumberFormat.getInstance().format((1000 / ((float) elapsed / LIMIT))) + " cps)");
 
+    elapsed = runWindowedGaugeTest();
+    System.out.print("Windowed gauge test: " + ((float) elapsed / LIMIT) + " ms/c Avg");
+    System.out.println(" (" + NumberFormat.getInstance().format((1000 / ((float) elapsed / LIMIT))) + " cps)");
+
   }
 
 }
@@ -0,0 +1,96 @@
+package demo;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import coyote.commons.network.MimeType;
+
+
+/**
+ * Measures the cost of looking up the MIME types of a file name.
+ *
+ * <p>The "linear scan" test repeats what MimeType.get() used to do for every
+ * call: lock the list of types, lower case the file name and collect the
+ * matching types from the whole list into a new list. The other test goes
+ * through MimeType.get() which uses its extension index.</p>
+ */
+public class MimeTypeLookupCheck {
+  private static final long LIMIT = 1000000;
+
+  private static final String[] NAMES = {"index.html", "style.css", "app.js", "logo.png", "photo.JPG", "data.json", "archive.zip", "README"};
+
+  private static final List<MimeType> MIMES = MimeType.getAll();
+
+
+
+
+  private static List<MimeType> linearScan(final String fileName) {
+    synchronized (MIMES) {
+      final List<MimeType> retval = new ArrayList<MimeType>();
+      final String key = fileName.toLowerCase();
+      final int sep = key.lastIndexOf('.');
+      final String ext = sep > 0 ? key.substring(sep + 1) : key;
+      for (final MimeType mime : MIMES) {
+        if (mime.getExtension().equals(ext)) {
+          retval.add(mime);
+        }
+      }
+      if (retval.size() == 0) {
+        retval.add(MimeType.ANY);
+      }
+      return retval;
+    }
+  }
+
+
+
+
+  private static long runLinearTest() {
+    final long started = System.currentTimeMillis();
+    int found = 0;
+    for (int x = 0; x < LIMIT; x++) {
+      found += linearScan(NAMES[x % NAMES.length]).size();
+    }
+    if (found == 0) {
+      throw new IllegalStateException();
+    }
+    return System.currentTimeMillis() - started;
+  }
+
+
+
+
+  private static long runIndexTest() {
+    final long started = System.currentTimeMillis();
+    int found = 0;
+    for (int x = 0; x < LIMIT; x++) {
+      found += MimeType.get(NAMES[x % NAMES.length]).size();
+    }
+    if (found == 0) {
+      throw new IllegalStateException();
+    }
+    return System.currentTimeMillis() - started;
+  }
+
+
+
+
+  private static void report(final String label, final long elapsed) {
+    System.out.println(label + ": " + NumberFormat.getInstance().format((LIMIT * 1000) / Math.max(1, elapsed)) + " lookups per second (" + elapsed + "ms)");
+  }
+
+
+
+
+  public static void main(final String[] args) throws Exception {
+    System.out.println(MIMES.size() + " MIME types registered");
+
+    // warm up
+    runLinearTest();
+    runIndexTest();
+
+    report("Linear scan (before)", runLinearTest());
+    report("Extension index", runIndexTest());
+  }
+}
@@ -0,0 +1,135 @@
+package demo;
+
+import java.text.NumberFormat;
+import java.util.Collections;
+import java.util.Map;
+
+import coyote.commons.network.MimeType;
+import coyote.commons.network.http.HTTPSession;
+import coyote.commons.network.http.Method;
+import coyote.commons.network.http.MockSession;
+import coyote.commons.network.http.Response;
+import coyote.commons.network.http.Status;
+import coyote.commons.network.http.auth.Auth;
+import coyote.commons.network.http.responder.DefaultResponder;
+import coyote.commons.network.http.responder.Resource;
+import coyote.commons.network.http.responder.Singleton;
+
+
+/**
+ * Measures the overhead of dispatching a request to a responder.
+ *
+ * <p>The "reflective" test repeats what Resource.process() used to do for
+ * every request: create the responder, look up the method and its Auth
+ * annotations and invoke the method reflectively. The other tests go through
+ * Resource.process() which resolves all that when the route is added, with
+ * and without a singleton responder.</p>
+ */
+public class ResponderDispatchCheck {
+  private static final long LIMIT = 5000000;
+
+  private static final Response RESPONSE = Response.createFixedLengthResponse(Status.OK, MimeType.TEXT.getType(), "OK");
+
+  private static final Map<String, String> PARAMS = Collections.emptyMap();
+
+  private static final HTTPSession SESSION = new MockSession() {
+    @Override
+    public Method getMethod() {
+      return Method.GET;
+    }
+  };
+
+  public static class PerRequestResponder extends DefaultResponder {
+    @Override
+    public Response get(final Resource resource, final Map<String, String> urlParams, final HTTPSession session) {
+      return RESPONSE;
+    }
+
+
+
+
+    @Override
+    public String getText() {
+      return "OK";
+    }
+
+
+
+
+    @Override
+    public Status getStatus() {
+      return Status.OK;
+    }
+
+
+
+
+    @Override
+    public String getMimeType() {
+      return MimeType.TEXT.getType();
+    }
+  }
+
+  @Singleton
+  public static class SingletonResponder extends PerRequestResponder {}
+
+
+
+
+  private static long runReflectiveTest(final Resource resource) throws Exception {
+    final Class<?> responderClass = PerRequestResponder.class;
+    final long started = System.currentTimeMillis();
+    for (int x = 0; x < LIMIT; x++) {
+      final Object object = responderClass.newInstance();
+      Auth auth = null;
+      if (responderClass.isAnnotationPresent(Auth.class)) {
+        auth = responderClass.getAnnotation(Auth.class);
+      }
+      final java.lang.reflect.Method method = responderClass.getMethod("get", Resource.class, Map.class, HTTPSession.class);
+      if (method.isAnnotationPresent(Auth.class)) {
+        auth = method.getAnnotation(Auth.class);
+      }
+      if (auth != null || method.invoke(object, resource, PARAMS, SESSION) != RESPONSE) {
+        throw new IllegalStateException();
+      }
+    }
+    return System.currentTimeMillis() - started;
+  }
+
+
+
+
+  private static long runResourceTest(final Resource resource) throws Exception {
+    final long started = System.currentTimeMillis();
+    for (int x = 0; x < LIMIT; x++) {
+      if (resource.process(PARAMS, SESSION) != RESPONSE) {
+        throw new IllegalStateException();
+      }
+    }
+    return System.currentTimeMillis() - started;
+  }
+
+
+
+
+  private static void report(final String label, final long elapsed) {
+    System.out.println(label + ": " + NumberFormat.getInstance().format((LIMIT * 1000) / Math.max(1, elapsed)) + " dispatches per second (" + elapsed + "ms)");
+  }
+
+
+
+
+  public static void main(final String[] args) throws Exception {
+    final Resource perRequest = new Resource("/test", 100, PerRequestResponder.class, null);
+    final Resource singleton = new Resource("/test", 100, SingletonResponder.class, null);
+
+    // warm up
+    runReflectiveTest(perRequest);
+    runResourceTest(perRequest);
+    runResourceTest(singleton);
+
+    report("Reflective (before)", runReflectiveTest(perRequest));
+    report("Resolved at route creation", runResourceTest(perRequest));
+    report("Resolved with singleton responder", runResourceTest(singleton));
+  }
+}